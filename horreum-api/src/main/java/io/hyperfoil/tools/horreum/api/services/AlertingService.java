@@ -163,6 +163,10 @@ public interface AlertingService {
       public Integer errors;
       @NotNull
       public Collection<DataSet.Info> datasetsWithoutValue;
+      // datasets processed per second
+      public Double throughput;
+      // estimated remaining time in milliseconds
+      public Long eta;
    }
 
 
@@ -1,5 +1,6 @@
 package io.hyperfoil.tools.horreum.api.services;
 
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +27,7 @@ import io.hyperfoil.tools.horreum.api.data.ValidationError;
 import io.hyperfoil.tools.horreum.api.data.Access;
 import io.hyperfoil.tools.horreum.api.data.Run;
 
+import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.enums.SchemaType;
@@ -40,6 +42,8 @@ import org.jboss.resteasy.reactive.multipart.FileUpload;
 @Consumes({ MediaType.APPLICATION_JSON})
 @Produces(MediaType.APPLICATION_JSON)
 public interface RunService {
+   String APPLICATION_NDJSON = "application/x-ndjson";
+
    @APIResponse(content = @Content(schema = @Schema(implementation = RunExtended.class)), description = "Returns an instance of RunExtended")
    @GET
    @Path("{id}")
@@ -121,6 +125,24 @@ public interface RunService {
                            @QueryParam("description") String description,
                            @RestForm("data") FileUpload data,
                            @RestForm("metadata") FileUpload metadata);
+
+   @POST
+   @Path("bulk")
+   @Consumes(APPLICATION_NDJSON)
+   @Operation(description = "Upload many runs at once; each line of the request body is the data of a single run. " +
+         "Parameters apply to all runs; JSONPath parameters (starting with '$.') are evaluated for each run separately. " +
+         "Blank lines are skipped. A line that is not valid JSON is reported in the results and the upload continues with the next line. " +
+         "Results are indexed by the position of the record among non-blank lines.")
+   List<BulkResult> addRunsFromData(@Parameter(required = true) @QueryParam("start") String start,
+                                    @Parameter(required = true) @QueryParam("stop") String stop,
+                                    @Parameter(required = true) @QueryParam("test") String test,
+                                    @QueryParam("owner") String owner,
+                                    @QueryParam("access") Access access,
+                                    @Parameter(description = "Horreum internal token. Incompatible with Keycloak") @QueryParam("token") String token,
+                                    @QueryParam("schema") String schemaUri,
+                                    @QueryParam("description") String description,
+                                    @RequestBody(required = true) InputStream data);
+
    @GET
    @Path("{id}/waitforDatasets")
    void waitForDatasets(@PathParam("id") int id);
@@ -228,6 +250,25 @@ public interface RunService {
       public List<RunSummary> runs;
    }
 
+   class BulkResult {
+      // zero-based index among non-blank lines (records) in the uploaded data
+      @JsonProperty(required = true)
+      public int index;
+      // set when the run was created
+      public Integer runId;
+      // set when the run could not be created
+      public String error;
+
+      public BulkResult() {
+      }
+
+      public BulkResult(int index, Integer runId, String error) {
+         this.index = index;
+         this.runId = runId;
+         this.error = error;
+      }
+   }
+
    class RunCount {
       @JsonProperty(required = true)
       public long total;
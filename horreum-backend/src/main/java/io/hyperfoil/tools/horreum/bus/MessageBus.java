@@ -1,12 +1,34 @@
 package io.hyperfoil.tools.horreum.bus;
 
+import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -16,17 +38,14 @@ import javax.persistence.EntityManager;
 import javax.persistence.Query;
 import javax.transaction.RollbackException;
 import javax.transaction.Status;
+import javax.transaction.Synchronization;
 import javax.transaction.SystemException;
 import javax.transaction.TransactionManager;
+import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.Transactional;
 
-import io.hyperfoil.tools.horreum.api.data.Run;
-import io.hyperfoil.tools.horreum.entity.data.RunDAO;
-import io.hyperfoil.tools.horreum.entity.data.TestDAO;
-import io.hyperfoil.tools.horreum.mapper.RunMapper;
-import io.hyperfoil.tools.horreum.mapper.TestMapper;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
-import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.type.IntegerType;
 import org.hibernate.type.LongType;
@@ -35,18 +54,26 @@ import org.jboss.logging.Logger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.vladmihalcea.hibernate.type.array.IntArrayType;
+import com.vladmihalcea.hibernate.type.array.LongArrayType;
+import com.vladmihalcea.hibernate.type.array.StringArrayType;
 import com.vladmihalcea.hibernate.type.json.JsonNodeBinaryType;
 
 import io.hyperfoil.tools.horreum.server.CloseMe;
 import io.hyperfoil.tools.horreum.server.ErrorReporter;
 import io.hyperfoil.tools.horreum.server.RoleManager;
 import io.hyperfoil.tools.horreum.server.WithRoles;
+import io.hyperfoil.tools.horreum.svc.BlockingExecutor;
 import io.hyperfoil.tools.horreum.svc.Roles;
+import io.hyperfoil.tools.horreum.svc.SqlServiceImpl;
 import io.hyperfoil.tools.horreum.svc.Util;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.runtime.Startup;
-import io.quarkus.scheduler.Scheduled;
 import io.vertx.core.Handler;
-import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.eventbus.EventBus;
 import io.vertx.core.eventbus.MessageCodec;
@@ -58,13 +85,76 @@ import io.vertx.core.eventbus.MessageConsumer;
 public class MessageBus {
    private static final Logger log = Logger.getLogger(MessageBus.class);
    private static final String ERROR_SUBJECT = " Error in MessageBus handler";
+   private static final String NOTIFY_CHANNEL = "messagebus";
+   // NOTIFY payload must be shorter than 8000 bytes
+   private static final int NOTIFY_MAX_IDS = 400;
+   private static final int[] NO_COMPONENTS = new int[0];
 
+   // Delay before the first redelivery; each further attempt doubles it (up to max-backoff)
    @ConfigProperty(name = "horreum.messagebox.retry.after", defaultValue = "5m")
    Duration retryAfter;
 
+   @ConfigProperty(name = "horreum.messagebus.retry.max-backoff", defaultValue = "6h")
+   Duration retryMaxBackoff;
+
+   // Messages that were not consumed after this many redeliveries are moved to messagebus_dead_letter
+   @ConfigProperty(name = "horreum.messagebus.retry.max-attempts", defaultValue = "10")
+   int retryMaxAttempts;
+
+   // Maximum number of messages redelivered at once
+   @ConfigProperty(name = "horreum.messagebus.retry.batch-size", defaultValue = "1000")
+   int retryBatchSize;
+
+   // Upper bound for the period between checks, in case of messages inserted by other nodes
+   @ConfigProperty(name = "horreum.messagebus.retry.check", defaultValue = "5m")
+   Duration retryCheck;
+
+   // Delay of the first check after start, and of redelivery for messages that could not be queued due to back-pressure
+   @ConfigProperty(name = "horreum.messagebus.retry.delay", defaultValue = "30s")
+   Duration retryDelay;
+
+   // When enabled, tests are split into partitions and each node processes messages only for partitions it has claimed
+   @ConfigProperty(name = "horreum.messagebus.cluster.enabled", defaultValue = "false")
+   boolean clusterEnabled;
+
+   // Must be the same on all nodes
+   @ConfigProperty(name = "horreum.messagebus.cluster.partitions", defaultValue = "64")
+   int clusterPartitions;
+
+   @ConfigProperty(name = "horreum.messagebus.cluster.lease", defaultValue = "30s")
+   Duration clusterLease;
+
+   // Acknowledgements are buffered and written in one update per subscriber index
+   @ConfigProperty(name = "horreum.messagebus.ack.interval", defaultValue = "10ms")
+   Duration ackInterval;
+
+   // Maximum number of tests processed at once; applies to all blocking modes
+   @ConfigProperty(name = "horreum.messagebus.executor.threads", defaultValue = "16")
+   int executorThreads;
+
+   // Maximum number of tasks waiting for execution in single test
+   @ConfigProperty(name = "horreum.messagebus.executor.max-queue", defaultValue = "10000")
+   int executorMaxQueue;
+
+   @ConfigProperty(name = "horreum.messagebus.executor.time-slice", defaultValue = "200ms")
+   Duration executorTimeSlice;
+
+   @ConfigProperty(name = "horreum.messagebus.executor.idle-timeout", defaultValue = "5m")
+   Duration executorIdleTimeout;
+
+   @ConfigProperty(name = "horreum.messagebus.executor.submit-timeout", defaultValue = "30s")
+   Duration executorSubmitTimeout;
+
+   // Period of counting undelivered interactive messages in the database
+   @ConfigProperty(name = "horreum.messagebus.backlog.refresh", defaultValue = "5s")
+   Duration backlogRefresh;
+
    @Inject
    TransactionManager tm;
 
+   @Inject
+   TransactionSynchronizationRegistry txRegistry;
+
    @Inject
    EventBus eventBus;
 
@@ -75,24 +165,83 @@ public class MessageBus {
    RoleManager roleManager;
 
    @Inject
-   Vertx vertx;
+   MeterRegistry meterRegistry;
+
+   // make sure this is initialized before lane executor
+   @Inject
+   BlockingExecutor blockingExecutor;
 
    @Inject
    ErrorReporter errorReporter;
 
-   private final ConcurrentMap<String, Integer> flags = new ConcurrentHashMap<>();
+   @Inject
+   SqlServiceImpl sqlService;
+
+   // subscriber indices for each channel, sorted
+   private final ConcurrentMap<String, int[]> subscribers = new ConcurrentHashMap<>();
    private final ConcurrentMap<String, Class<?>> payloadClasses = new ConcurrentHashMap<>();
-   private final ConcurrentMap<Integer, TaskQueue> taskQueues = new ConcurrentHashMap<>();
 
    private final List<Runnable> unregisters = new ArrayList<>();
+   private final Map<Integer, List<Long>> pendingAcks = new HashMap<>();
+   private final Set<Long> pendingDeferrals = new HashSet<>();
+   private ScheduledExecutorService ackExecutor;
+   private ScheduledExecutorService retryExecutor;
+   private final Object retryLock = new Object();
+   private ScheduledFuture<?> retryFuture;
+   private long retryAt;
+   private TestLaneExecutor laneExecutor;
+   private PartitionManager partitionManager;
+   private final List<Consumer<IntPredicate>> claimListeners = new CopyOnWriteArrayList<>();
+   // priorities of local subscribers, telling whether the message is processed as interactive
+   private final ConcurrentMap<String, List<Function<Object, TaskPriority>>> priorities = new ConcurrentHashMap<>();
+   // undelivered interactive messages per test, on all nodes
+   private volatile Map<Integer, Integer> persistedBacklog = Collections.emptyMap();
+   private volatile int persistedBacklogTotal;
 
    @PostConstruct
    void init() {
-      eventBus.registerDefaultCodec(Message.class, new MessageBusCodec());
+      eventBus.registerDefaultCodec(Message.class, new MessageBusCodec(payloadClasses::get));
+      // Lanes are not admitted through BlockingExecutor: a lane waiting for another lane's capacity must not
+      // take a slot from the blocking work that lane is waiting for. They only follow its virtual mode.
+      ExecutorService laneThreads = blockingExecutor.mode() == BlockingExecutor.Mode.VIRTUAL ? BlockingExecutor.newVirtualThreadExecutor() : null;
+      laneExecutor = new TestLaneExecutor(laneThreads, executorThreads, executorMaxQueue, executorTimeSlice, executorIdleTimeout, executorSubmitTimeout, meterRegistry);
+      ackExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "horreum-messagebus-ack");
+         thread.setDaemon(true);
+         return thread;
+      });
+      long interval = Math.max(1, ackInterval.toMillis());
+      ackExecutor.scheduleWithFixedDelay(this::flushAcknowledgements, interval, interval, TimeUnit.MILLISECONDS);
+      ackExecutor.scheduleWithFixedDelay(this::flushDeferrals, interval, interval, TimeUnit.MILLISECONDS);
+      retryExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "horreum-messagebus-retry");
+         thread.setDaemon(true);
+         return thread;
+      });
+      scheduleRetry(retryDelay.toMillis());
+      long refresh = Math.max(1, backlogRefresh.toMillis());
+      retryExecutor.scheduleWithFixedDelay(this::refreshBacklog, refresh, refresh, TimeUnit.MILLISECONDS);
+      Gauge.builder("horreum.messagebus.backlog", this, MessageBus::backlog)
+            .description("Number of undelivered interactive messages or queued interactive tasks in all tests").register(meterRegistry);
+      if (clusterEnabled) {
+         partitionManager = new PartitionManager(clusterPartitions, clusterLease, tm, em,
+               partition -> laneExecutor.isIdle(testId -> partitionManager.partition(testId) == partition),
+               () -> scheduleRetry(0), this::onPartitionsClaimed);
+         partitionManager.start();
+      }
+      // messages for tests owned by other nodes, or inserted by database triggers, are announced through NOTIFY after commit
+      sqlService.registerListener(NOTIFY_CHANNEL, this::onRemoteMessages);
    }
 
    @PreDestroy
    void destroy() {
+      if (partitionManager != null) {
+         partitionManager.stop();
+      }
+      retryExecutor.shutdownNow();
+      ackExecutor.shutdown();
+      flushAcknowledgements();
+      laneExecutor.shutdown();
       // required for dev-mode to work correctly
       eventBus.unregisterDefaultCodec(Message.class);
       unregisters.forEach(Runnable::run);
@@ -100,38 +249,35 @@ public class MessageBus {
 
    @Transactional(Transactional.TxType.MANDATORY)
    public void publish(String channel, int testId, Object payload) {
-      JsonNode json = Util.OBJECT_MAPPER.valueToTree(payload);
-      Integer componentFlag = flags.get(channel);
-      BigInteger id;
-      if (componentFlag != null && componentFlag != 0) {
-         try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_MESSAGEBUS))) {
-            id = (BigInteger) em.createNativeQuery("INSERT INTO messagebus (id, \"timestamp\", channel, testid, message, flags) VALUES (nextval('messagebus_seq'), NOW(), ?1, ?2, ?3, ?4) RETURNING id")
-                  .unwrap(NativeQuery.class)
-                  .setParameter(1, channel)
-                  .setParameter(2, testId)
-                  .setParameter(3, json, JsonNodeBinaryType.INSTANCE)
-                  .setParameter(4, componentFlag)
-                  .getSingleResult();
+      int[] components = subscribers.getOrDefault(channel, NO_COMPONENTS);
+      // Only messages with subscribers are persisted; local delivery passes the payload by reference
+      JsonNode json = components.length > 0 ? Util.OBJECT_MAPPER.valueToTree(payload) : null;
+      PendingPublishes pending = (PendingPublishes) txRegistry.getResource(PendingPublishes.class);
+      if (pending == null) {
+         pending = new PendingPublishes();
+         try {
+            tm.getTransaction().registerSynchronization(pending);
+         } catch (RollbackException e) {
+            log.debug("Not publishing the event as the transaction has been marked rollback-only");
+            return;
+         } catch (SystemException e) {
+            log.errorf(e, "Failed to publish event %s: %s after transaction completion", channel, payload);
+            return;
          }
-      } else {
-         id = BigInteger.ZERO;
-         componentFlag = 0;
-      }
-      try {
-         int flag = componentFlag;
-         log.debugf("Publishing %d on test %d with flag %X on %s: %s", id.longValue(), testId, flag, channel, payload);
-         Util.doAfterCommitThrowing(tm, () -> {
-            log.debugf("Sending %d on test %d with flag %X to eventbus %s ", id.longValue(), testId, flag, channel);
-            eventBus.publish(channel, new Message(id.longValue(), testId, flag, payload));
-         });
-      } catch (RollbackException e) {
-         log.debug("Not publishing the event as the transaction has been marked rollback-only");
-      } catch (SystemException e) {
-         log.errorf(e, "Failed to publish event %s: %s after transaction completion", channel, payload);
+         txRegistry.putResource(PendingPublishes.class, pending);
       }
+      log.debugf("Publishing on test %d to components %s on %s: %s", testId, Arrays.toString(components), channel, payload);
+      pending.messages.add(new PendingMessage(channel, testId, components, payload, json, json != null && isInteractive(channel, payload)));
    }
 
    public <T> AutoCloseable subscribe(String channel, String component, Class<T> payloadClass, Handler<T> handler) {
+      return subscribe(channel, component, payloadClass, payload -> TaskPriority.INTERACTIVE, handler);
+   }
+
+   /**
+    * @param priority Selects priority of the handler task based on the payload.
+    */
+   public <T> AutoCloseable subscribe(String channel, String component, Class<T> payloadClass, Function<T, TaskPriority> priority, Handler<T> handler) {
       payloadClasses.compute(channel, (c, current) -> {
          if (current == null || current.isAssignableFrom(payloadClass)) {
             return payloadClass;
@@ -141,64 +287,138 @@ public class MessageBus {
             throw new IllegalArgumentException("Incompatible expectations for the message payload: One subscriber expects " + payloadClass.getName() + ", another expects " + current.getName());
          }
       });
+      Function<Object, TaskPriority> payloadPriority = payload -> payloadClass.isInstance(payload) ? priority.apply(payloadClass.cast(payload)) : TaskPriority.INTERACTIVE;
+      priorities.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(payloadPriority);
       int index = registerIndex(channel, component);
       log.debugf("Channel %s, component %s has index %d", channel, component, index);
-      MessageConsumer<Object> consumer = eventBus.consumer(channel, event -> {
+      // each subscriber has its own address and receives only messages it has not consumed yet
+      MessageConsumer<Object> consumer = eventBus.consumer(address(channel, index), event -> {
          if (!(event.body() instanceof Message)) {
             log.errorf("Not a message on %s: %s", channel, event.body());
             return;
          }
          Message msg = (Message) event.body();
-         if ((msg.componentFlags & (1 << index)) == 0) {
-            log.debugf("%s ignoring message %d on %s with flags %X: doesn't match index %d", component, msg.id, channel, msg.componentFlags, index);
+         T payload;
+         try {
+            payload = payloadClass.cast(msg.payload);
+         } catch (ClassCastException e) {
+            errorReporter.reportException(e, ERROR_SUBJECT, "Unexpected payload for message bus channel %s, message %s%n%n", channel, msg.payload);
             return;
          }
-         executeForTest(msg.testId, () -> {
-            try {
-               //handler.handle(payloadClass.cast(msg.payload));
-               handler.handle(payloadClass.cast(msg.payload));
-               Util.withTx(tm, () -> {
-                  try {
-                     if (tm.getStatus() == Status.STATUS_ACTIVE) {
-                        // It's not possible to do the DELETE in the same query (e.g. CTE support only one update per row)
-                        // so we'll remove the record with a trigger
-                        int updateCount = em.createNativeQuery("UPDATE messagebus SET flags = flags & ~(1 << ?1) WHERE id = ?2")
-                              .setParameter(1, index).setParameter(2, msg.id).executeUpdate();
-                        log.debugf("%s consumed %d on %s - %d records updated", component, msg.id, channel, updateCount);
-                     } else {
-                        log.debugf("Rolling back, %s cannot consume %d on %s", component, msg.id, channel);
-                     }
-                  } catch (SystemException e) {
-                     log.error("Exception querying transaction status", e);
-                     try {
-                        tm.setRollbackOnly();
-                     } catch (SystemException se2) {
-                        log.error("Cannot mark TM as rollback-only", se2);
-                     }
-                  }
-                  return null;
-               });
-            } catch (Throwable t) {
-               errorReporter.reportException(t, ERROR_SUBJECT, "Exception in handler for message bus channel %s, message %s%n%n", channel, msg.payload);
-            }
-         });
+         try {
+            executeForTest(msg.testId, priority.apply(payload), () -> {
+               try {
+                  handler.handle(payload);
+                  log.debugf("%s consumed %d on %s", component, msg.id, channel);
+                  acknowledge(index, msg.id);
+               } catch (Throwable t) {
+                  errorReporter.reportException(t, ERROR_SUBJECT, "Exception in handler for message bus channel %s, message %s%n%n", channel, msg.payload);
+               }
+            });
+         } catch (RejectedExecutionException e) {
+            // back-pressure is not a delivery failure; the message is redelivered later without using up an attempt
+            log.debugf("%s cannot process message %d on %s now, deferring: %s", component, msg.id, channel, e.getMessage());
+            defer(msg.id);
+         }
       });
       unregisters.add(consumer::unregister);
       return () -> {
          removeIndex(channel, index);
-         int newFlags = flags.compute(channel, (c, current) -> current != null ? current & ~(1 << index) : 0);
+         priorities.getOrDefault(channel, Collections.emptyList()).remove(payloadPriority);
+         int[] remaining = subscribers.compute(channel, (c, current) -> current == null ? NO_COMPONENTS : IntStream.of(current).filter(i -> i != index).toArray());
          consumer.unregister();
-         log.debugf("Unregistered index %d on channel %s, new flags: %d", index, channel, Integer.valueOf(newFlags));
+         log.debugf("Unregistered index %d on channel %s, remaining: %s", index, channel, Arrays.toString(remaining));
       };
    }
 
-   private Object mapToDTO(Object entity) {
-      if (entity instanceof RunDAO)
-         return RunMapper.from((RunDAO) entity, () -> new Run());
-      else if (entity instanceof TestDAO)
-         return TestMapper.from((TestDAO) entity);
-      // lets just return for now
-      return entity;
+   private boolean isInteractive(String channel, Object payload) {
+      for (Function<Object, TaskPriority> priority : priorities.getOrDefault(channel, Collections.emptyList())) {
+         if (priority.apply(payload) == TaskPriority.INTERACTIVE) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   private void acknowledge(int index, long id) {
+      if (id == 0) {
+         // message was not persisted
+         return;
+      }
+      synchronized (pendingAcks) {
+         pendingAcks.computeIfAbsent(index, i -> new ArrayList<>()).add(id);
+      }
+   }
+
+   private void defer(long id) {
+      if (id == 0) {
+         // message was not persisted
+         return;
+      }
+      synchronized (pendingDeferrals) {
+         pendingDeferrals.add(id);
+      }
+   }
+
+   // Messages loaded for retry have the attempt counted already; deferred messages get it back.
+   void flushDeferrals() {
+      long[] ids;
+      synchronized (pendingDeferrals) {
+         if (pendingDeferrals.isEmpty()) {
+            return;
+         }
+         ids = pendingDeferrals.stream().mapToLong(Long::longValue).toArray();
+         pendingDeferrals.clear();
+      }
+      try {
+         Util.withTx(tm, () -> {
+            try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_SYSTEM))) {
+               return em.createNativeQuery("UPDATE messagebus SET attempts = greatest(attempts - 1, 0), next_attempt = now() + make_interval(secs => ?2) WHERE id = ANY(?1)")
+                     .unwrap(NativeQuery.class)
+                     .setParameter(1, ids, LongArrayType.INSTANCE)
+                     .setParameter(2, retryDelay.toMillis() / 1000.0)
+                     .executeUpdate();
+            }
+         });
+         log.debugf("Deferred %d messages", ids.length);
+         scheduleRetry(retryDelay.toMillis());
+      } catch (Throwable t) {
+         log.error("Failed to defer messages, will try again", t);
+         synchronized (pendingDeferrals) {
+            LongStream.of(ids).forEach(pendingDeferrals::add);
+         }
+      }
+   }
+
+   void flushAcknowledgements() {
+      Map<Integer, List<Long>> acks;
+      synchronized (pendingAcks) {
+         if (pendingAcks.isEmpty()) {
+            return;
+         }
+         acks = new HashMap<>(pendingAcks);
+         pendingAcks.clear();
+      }
+      try {
+         Util.withTx(tm, () -> {
+            for (Map.Entry<Integer, List<Long>> entry : acks.entrySet()) {
+               // It's not possible to do the DELETE in the same query (e.g. CTE support only one update per row)
+               // so we'll remove the record with a trigger
+               int updateCount = em.createNativeQuery("UPDATE messagebus SET pending = array_remove(pending, ?1) WHERE id = ANY(?2)")
+                     .unwrap(NativeQuery.class)
+                     .setParameter(1, entry.getKey())
+                     .setParameter(2, entry.getValue().stream().mapToLong(Long::longValue).toArray(), LongArrayType.INSTANCE)
+                     .executeUpdate();
+               log.debugf("Acknowledged %d messages for index %d - %d records updated", entry.getValue().size(), entry.getKey().intValue(), updateCount);
+            }
+            return null;
+         });
+      } catch (Throwable t) {
+         log.error("Failed to acknowledge messages, will try again", t);
+         synchronized (pendingAcks) {
+            acks.forEach((index, ids) -> pendingAcks.computeIfAbsent(index, i -> new ArrayList<>()).addAll(ids));
+         }
+      }
    }
 
    private int registerIndex(String channel, String component) {
@@ -208,7 +428,8 @@ public class MessageBus {
          Thread.yield();
       } while (index == null);
       int finalIndex = index;
-      flags.compute(channel, (c, current) -> (current == null ? 0 : current) | (1 << finalIndex));
+      subscribers.compute(channel, (c, current) -> IntStream.concat(current == null ? IntStream.empty() : IntStream.of(current), IntStream.of(finalIndex))
+            .distinct().sorted().toArray());
       return index;
    }
 
@@ -243,86 +464,540 @@ public class MessageBus {
       }
    }
 
-   @Scheduled(
-         every = "{horreum.messagebus.retry.check:5m}",
-         delayed = "{horreum.messagebus.retry.delay:30s}",
-         concurrentExecution = Scheduled.ConcurrentExecution.SKIP)
+   /**
+    * Redelivers messages that are due for another attempt, moving those that failed too many times to the
+    * dead-letter table, and schedules the next check to the earliest pending attempt.
+    */
    public void retryFailedMessages() {
-      Query query = em.createNativeQuery("SELECT channel, id, testid, flags, message FROM messagebus WHERE \"timestamp\" + make_interval(secs => ?1) <= now()")
-            .setParameter(1, retryAfter.toSeconds())
+      List<Message> retried = new ArrayList<>();
+      long nextCheck = retryCheck.toMillis();
+      try {
+         nextCheck = Util.withTx(tm, () -> {
+            // withTx may retry the transaction
+            retried.clear();
+            try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_SYSTEM))) {
+               moveToDeadLetter();
+               int due = loadDueMessages(retried);
+               if (due >= retryBatchSize) {
+                  // there might be more messages waiting
+                  return 0L;
+               }
+               BigInteger untilNext = (BigInteger) withPartitionFilter(em.createNativeQuery("SELECT CAST(EXTRACT(EPOCH FROM MIN(next_attempt) - now()) * 1000 AS bigint) FROM messagebus WHERE " + partitionCondition(1)), 1)
+                     .getSingleResult();
+               return untilNext == null ? retryCheck.toMillis() : untilNext.longValue();
+            }
+         });
+      } catch (Throwable t) {
+         log.error("Failed to retry publishing some messages", t);
+         retried.clear();
+      }
+      // publish after commit, the attempts are already recorded
+      for (Message msg : retried) {
+         dispatch(msg);
+      }
+      scheduleRetry(Math.max(0, Math.min(nextCheck, retryCheck.toMillis())));
+   }
+
+   private void moveToDeadLetter() {
+      @SuppressWarnings("unchecked") List<Object[]> dead = em.createNativeQuery("WITH dead AS (" +
+            "DELETE FROM messagebus WHERE id IN (SELECT id FROM messagebus WHERE next_attempt <= now() AND attempts >= ?1 FOR UPDATE SKIP LOCKED) RETURNING *" +
+            ") INSERT INTO messagebus_dead_letter (id, \"timestamp\", channel, testid, message, pending, attempts, failed) " +
+            "SELECT id, \"timestamp\", channel, testid, message, pending, attempts, now() FROM dead RETURNING id, channel")
+            .setParameter(1, retryMaxAttempts).getResultList();
+      for (Object[] row : dead) {
+         log.warnf("Message %d in channel %s was not consumed after %d attempts, moved to dead letter table", ((Number) row[0]).longValue(), row[1], retryMaxAttempts);
+      }
+   }
+
+   private int loadDueMessages(List<Message> retried) {
+      // Messages are locked and have their next attempt postponed in the same statement, so they won't be
+      // picked up by a concurrent check. The jitter spreads redeliveries of messages published together.
+      Query query = withPartitionFilter(em.createNativeQuery("WITH due AS (" +
+            "SELECT id FROM messagebus WHERE next_attempt <= now() AND attempts < ?1 AND " + partitionCondition(5) + " ORDER BY next_attempt LIMIT ?2 FOR UPDATE SKIP LOCKED" +
+            ") UPDATE messagebus SET attempts = attempts + 1, " +
+            "next_attempt = now() + make_interval(secs => least(?3 * power(2, attempts + 1), ?4) * (0.75 + random() / 2)) " +
+            "FROM due WHERE messagebus.id = due.id RETURNING channel, messagebus.id, testid, pending, message, attempts"), 5)
+            .setParameter(1, retryMaxAttempts)
+            .setParameter(2, retryBatchSize)
+            .setParameter(3, retryAfter.toMillis() / 1000.0)
+            .setParameter(4, retryMaxBackoff.toMillis() / 1000.0)
             .unwrap(NativeQuery.class)
             .addScalar("channel", TextType.INSTANCE)
             .addScalar("id", LongType.INSTANCE)
             .addScalar("testid", IntegerType.INSTANCE)
-            .addScalar("flags", IntegerType.INSTANCE)
-            .addScalar("message", JsonNodeBinaryType.INSTANCE);
-      try (ScrollableResults results = Util.scroll(query)) {
-         while (results.next()) {
-            Object[] row = results.get();
-            String channel = (String) row[0];
-            long id = (long) row[1];
-            int testId = (int) row[2];
-            int flags = (int) row[3];
-            Class<?> type = payloadClasses.get(channel);
-            // theoretically the type might not be set if the initial delay is too short
-            // and components are not registered yet
-            if (type != null) {
-               JsonNode json = (JsonNode) row[4];
-               log.debugf("Retrying message %d (#%d) in channel %s (%s)", id, results.getRowNumber(), channel, type.getName());
-               try {
-                  Object payload = Util.OBJECT_MAPPER.treeToValue(json, type);
-                  eventBus.publish(channel, new Message(id, testId, flags, payload));
-               } catch (JsonProcessingException e) {
-                  String jsonStr = String.valueOf(json);
-                  if (jsonStr.length() > 200) {
-                     jsonStr = jsonStr.substring(0, 200) + "...";
+            .addScalar("pending", IntArrayType.INSTANCE)
+            .addScalar("message", JsonNodeBinaryType.INSTANCE)
+            .addScalar("attempts", IntegerType.INSTANCE);
+      @SuppressWarnings("unchecked") List<Object[]> rows = query.getResultList();
+      for (Object[] row : rows) {
+         Message msg = toMessage(row);
+         if (msg != null) {
+            log.debugf("Retrying message %d (attempt %d) in channel %s", msg.id, row[5], msg.channel);
+            retried.add(msg);
+         }
+      }
+      return rows.size();
+   }
+
+   private Message toMessage(Object[] row) {
+      String channel = (String) row[0];
+      long id = (long) row[1];
+      int testId = (int) row[2];
+      int[] components = (int[]) row[3];
+      Class<?> type = payloadClasses.get(channel);
+      // theoretically the type might not be set if the initial delay is too short
+      // and components are not registered yet
+      if (type == null) {
+         return null;
+      }
+      JsonNode json = (JsonNode) row[4];
+      try {
+         Object payload = Util.OBJECT_MAPPER.treeToValue(json, type);
+         return new Message(channel, id, testId, components, payload);
+      } catch (JsonProcessingException e) {
+         String jsonStr = String.valueOf(json);
+         if (jsonStr.length() > 200) {
+            jsonStr = jsonStr.substring(0, 200) + "...";
+         }
+         errorReporter.reportException(e, ERROR_SUBJECT, "Exception loading message to retry in bus channel %s, message %s%n%n", channel, jsonStr);
+         return null;
+      }
+   }
+
+   private String partitionCondition(int firstParam) {
+      if (partitionManager == null) {
+         return "TRUE";
+      }
+      return String.format("mod(mod(testid, ?%1$d) + ?%1$d, ?%1$d) = ANY(?%2$d)", firstParam, firstParam + 1);
+   }
+
+   private Query withPartitionFilter(Query query, int firstParam) {
+      if (partitionManager == null) {
+         return query;
+      }
+      return query.unwrap(NativeQuery.class)
+            .setParameter(firstParam, partitionManager.partitions())
+            .setParameter(firstParam + 1, partitionManager.activePartitions(), IntArrayType.INSTANCE);
+   }
+
+   private void onRemoteMessages(String payload) {
+      long[] ids;
+      try {
+         ids = Arrays.stream(payload.split(",")).mapToLong(Long::parseLong).toArray();
+      } catch (NumberFormatException e) {
+         log.errorf("Invalid message bus notification: %s", payload);
+         return;
+      }
+      // we're on the event loop
+      retryExecutor.execute(() -> dispatchStored(ids));
+   }
+
+   private void dispatchStored(long[] ids) {
+      List<Message> messages = new ArrayList<>();
+      try {
+         Util.withTx(tm, () -> {
+            messages.clear();
+            try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_SYSTEM))) {
+               @SuppressWarnings("unchecked") List<Object[]> rows = em.createNativeQuery("SELECT channel, id, testid, pending, message FROM messagebus WHERE id = ANY(?1)")
+                     .unwrap(NativeQuery.class)
+                     .setParameter(1, ids, LongArrayType.INSTANCE)
+                     .addScalar("channel", TextType.INSTANCE)
+                     .addScalar("id", LongType.INSTANCE)
+                     .addScalar("testid", IntegerType.INSTANCE)
+                     .addScalar("pending", IntArrayType.INSTANCE)
+                     .addScalar("message", JsonNodeBinaryType.INSTANCE)
+                     .getResultList();
+               for (Object[] row : rows) {
+                  // all nodes receive the notification
+                  if (isLocal((int) row[2])) {
+                     Message msg = toMessage(row);
+                     if (msg != null) {
+                        messages.add(msg);
+                     }
                   }
-                  errorReporter.reportException(e, ERROR_SUBJECT, "Exception loading message to retry in bus channel %s, message %s%n%n", channel, jsonStr);
                }
             }
-         }
+            return null;
+         });
       } catch (Throwable t) {
-         log.error("Failed to retry publishing some messages", t);
+         // these will be retried
+         log.error("Failed to load messages published on other node", t);
+         return;
+      }
+      for (Message msg : messages) {
+         log.debugf("Sending %d on test %d published by other node to eventbus %s", msg.id, msg.testId, msg.channel);
+         dispatch(msg);
+      }
+   }
+
+   private static String address(String channel, int index) {
+      return channel + "/" + index;
+   }
+
+   private void dispatch(Message msg) {
+      for (int index : msg.components) {
+         eventBus.send(address(msg.channel, index), msg);
+      }
+   }
+
+   private void notifyRemote(List<PendingMessage> remote) {
+      em.unwrap(Session.class).doWork(connection -> {
+         try (PreparedStatement statement = connection.prepareStatement("SELECT pg_notify(?, ?)")) {
+            for (int i = 0; i < remote.size(); i += NOTIFY_MAX_IDS) {
+               String ids = remote.subList(i, Math.min(remote.size(), i + NOTIFY_MAX_IDS)).stream()
+                     .map(m -> String.valueOf(m.id)).collect(Collectors.joining(","));
+               statement.setString(1, NOTIFY_CHANNEL);
+               statement.setString(2, ids);
+               statement.execute();
+            }
+         }
+      });
+   }
+
+   /**
+    * @return False if this test is processed by other node.
+    */
+   public boolean isLocal(int testId) {
+      return partitionManager == null || partitionManager.isLocal(testId);
+   }
+
+   /**
+    * Notifications received by all nodes should be acted upon only by the node responsible for the test.
+    * When the test is not {@link #isLocal(int) local} on that node (the partition is being drained or not held
+    * by anyone) the work should be published as a message, to be processed by the node that claims the partition.
+    */
+   public boolean isResponsible(int testId) {
+      return partitionManager == null || partitionManager.isResponsible(testId);
+   }
+
+   /**
+    * Registers a listener invoked when this node starts processing tests that were processed by other nodes
+    * (or none); state cached in memory for these tests might be stale. The listener receives a filter on test IDs.
+    */
+   public void onTestsClaimed(Consumer<IntPredicate> listener) {
+      claimListeners.add(listener);
+   }
+
+   private void onPartitionsClaimed(Set<Integer> partitions) {
+      IntPredicate filter = testId -> partitions.contains(partitionManager.partition(testId));
+      for (Consumer<IntPredicate> listener : claimListeners) {
+         try {
+            listener.accept(filter);
+         } catch (Throwable t) {
+            log.errorf(t, "Failed to invalidate state for claimed partitions %s", partitions);
+         }
       }
    }
 
+   private void scheduleRetry(long delayMillis) {
+      long at = System.currentTimeMillis() + delayMillis;
+      synchronized (retryLock) {
+         if (retryFuture != null && !retryFuture.isDone() && retryAt <= at) {
+            // the check will happen earlier anyway
+            return;
+         }
+         if (retryFuture != null) {
+            retryFuture.cancel(false);
+         }
+         retryAt = at;
+         try {
+            retryFuture = retryExecutor.schedule(this::retryFailedMessages, delayMillis, TimeUnit.MILLISECONDS);
+         } catch (RejectedExecutionException e) {
+            log.debug("Not scheduling retry, shutting down");
+         }
+      }
+   }
+
+   /**
+    * Executes the task asynchronously; tasks for the same test are executed serially.
+    *
+    * @throws RejectedExecutionException when there are too many tasks queued for this test.
+    */
    public void executeForTest(int testId, Runnable runnable) {
-      Runnable task = Util.wrapForBlockingExecution(runnable);
-      vertx.executeBlocking(promise -> {
+      executeForTest(testId, TaskPriority.INTERACTIVE, runnable);
+   }
+
+   /**
+    * Executes the task asynchronously; tasks for the same test are executed serially, tasks with higher
+    * priority ahead of those with lower priority.
+    *
+    * @throws RejectedExecutionException when there are too many tasks with this priority queued for this test.
+    */
+   public void executeForTest(int testId, TaskPriority priority, Runnable runnable) {
+      laneExecutor.execute(testId, priority, Util.wrapForBlockingExecution(runnable));
+   }
+
+   /**
+    * Executes the task for each of the IDs, one at a time: the task for next ID is queued only after
+    * the previous one completes. Therefore a fan-out of any size never blocks the caller nor is rejected,
+    * and it does not hold back tasks with higher priority. When called in a transaction the tasks are
+    * queued after commit.
+    */
+   public void executeForEach(int testId, TaskPriority priority, int[] ids, IntConsumer task) {
+      if (ids.length == 0) {
+         return;
+      }
+      Runnable start = () -> executeNext(testId, priority, ids, 0, task);
+      try {
+         if (tm.getStatus() == Status.STATUS_ACTIVE) {
+            Util.doAfterCommit(tm, start);
+            return;
+         }
+      } catch (SystemException e) {
+         log.errorf(e, "Cannot check transaction status, queueing %d tasks for test %d right away", ids.length, testId);
+      }
+      start.run();
+   }
+
+   private void executeNext(int testId, TaskPriority priority, int[] ids, int index, IntConsumer task) {
+      laneExecutor.enqueue(testId, priority, Util.wrapForBlockingExecution(() -> {
          try {
-            TaskQueue queue = taskQueues.computeIfAbsent(testId, TaskQueue::new);
-            queue.executeOrAdd(task);
-         } catch (Exception e) {
-            log.error("Failed to execute blocking task", e);
+            task.accept(ids[index]);
          } finally {
-            promise.complete();
+            if (index + 1 < ids.length) {
+               executeNext(testId, priority, ids, index + 1, task);
+            }
          }
-      });
+      }));
+   }
+
+   public int queueSize(int testId) {
+      return laneExecutor.queueSize(testId);
+   }
+
+   /**
+    * @return Number of {@link TaskPriority#INTERACTIVE interactive} messages for this test that were not delivered
+    * to all subscribers yet, or the number of interactive tasks queued locally if that is higher.
+    * Recalculations do not count, so that these do not block uploads.
+    */
+   public int backlog(int testId) {
+      return Math.max(persistedBacklog.getOrDefault(testId, 0), laneExecutor.queueSize(testId, TaskPriority.INTERACTIVE));
+   }
+
+   public int backlog() {
+      return Math.max(persistedBacklogTotal, laneExecutor.queueSize(TaskPriority.INTERACTIVE));
+   }
+
+   void refreshBacklog() {
+      try {
+         @SuppressWarnings("unchecked") List<Object[]> rows = Util.withTx(tm, () -> {
+            try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_SYSTEM))) {
+               // Uses the partial index; interactive messages are bounded by upload admission, recalculations are not scanned
+               return em.createNativeQuery("SELECT testid, count(*) FROM messagebus WHERE interactive GROUP BY testid").getResultList();
+            }
+         });
+         Map<Integer, Integer> backlog = new HashMap<>();
+         int total = 0;
+         for (Object[] row : rows) {
+            int count = ((Number) row[1]).intValue();
+            backlog.put(((Number) row[0]).intValue(), count);
+            total += count;
+         }
+         persistedBacklog = backlog;
+         persistedBacklogTotal = total;
+      } catch (Throwable t) {
+         log.error("Failed to count undelivered messages", t);
+      }
+   }
+
+   private static class PendingMessage {
+      final String channel;
+      final int testId;
+      final int[] components;
+      final Object payload;
+      final JsonNode json;
+      final boolean interactive;
+      long id;
+      // processed by this node
+      boolean local = true;
+
+      PendingMessage(String channel, int testId, int[] components, Object payload, JsonNode json, boolean interactive) {
+         this.channel = channel;
+         this.testId = testId;
+         this.components = components;
+         this.payload = payload;
+         this.json = json;
+         this.interactive = interactive;
+      }
+   }
+
+   // Messages published in one transaction are inserted together right before commit
+   private class PendingPublishes implements Synchronization {
+      final List<PendingMessage> messages = new ArrayList<>();
+
+      @Override
+      public void beforeCompletion() {
+         List<PendingMessage> persistent = messages.stream().filter(m -> m.components.length > 0).collect(Collectors.toList());
+         if (persistent.isEmpty()) {
+            return;
+         }
+         try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_MESSAGEBUS))) {
+            if (persistent.size() == 1) {
+               PendingMessage msg = persistent.get(0);
+               msg.id = ((BigInteger) em.createNativeQuery("INSERT INTO messagebus (id, \"timestamp\", channel, testid, message, pending, next_attempt, interactive) VALUES (nextval('messagebus_seq'), NOW(), ?1, ?2, ?3, ?4, NOW() + make_interval(secs => ?5), ?6) RETURNING id")
+                     .unwrap(NativeQuery.class)
+                     .setParameter(1, msg.channel)
+                     .setParameter(2, msg.testId)
+                     .setParameter(3, msg.json, JsonNodeBinaryType.INSTANCE)
+                     .setParameter(4, msg.components, IntArrayType.INSTANCE)
+                     .setParameter(5, retryAfter.toMillis() / 1000.0)
+                     .setParameter(6, msg.interactive)
+                     .getSingleResult()).longValue();
+            } else {
+               @SuppressWarnings("unchecked") List<Number> ids = em.createNativeQuery("WITH m AS (" +
+                     "SELECT nextval('messagebus_seq') AS id, * FROM unnest(?1, ?2, ?3, ?4, ?6) WITH ORDINALITY AS m(channel, testid, message, pending, interactive, ordinal)" +
+                     "), inserted AS (" +
+                     "INSERT INTO messagebus (id, \"timestamp\", channel, testid, message, pending, next_attempt, interactive) SELECT id, NOW(), channel, testid, message::::jsonb, pending::::integer[], NOW() + make_interval(secs => ?5), interactive::::boolean FROM m" +
+                     ") SELECT id FROM m ORDER BY ordinal")
+                     .unwrap(NativeQuery.class)
+                     .setParameter(1, persistent.stream().map(m -> m.channel).toArray(String[]::new), StringArrayType.INSTANCE)
+                     .setParameter(2, persistent.stream().mapToInt(m -> m.testId).toArray(), IntArrayType.INSTANCE)
+                     .setParameter(3, persistent.stream().map(m -> m.json.toString()).toArray(String[]::new), StringArrayType.INSTANCE)
+                     // unnest would flatten two-dimensional array, pass array literals instead
+                     .setParameter(4, persistent.stream().map(m -> IntStream.of(m.components).mapToObj(String::valueOf).collect(Collectors.joining(",", "{", "}"))).toArray(String[]::new), StringArrayType.INSTANCE)
+                     .setParameter(5, retryAfter.toMillis() / 1000.0)
+                     .setParameter(6, persistent.stream().map(m -> String.valueOf(m.interactive)).toArray(String[]::new), StringArrayType.INSTANCE)
+                     .getResultList();
+               for (int i = 0; i < persistent.size(); ++i) {
+                  persistent.get(i).id = ids.get(i).longValue();
+               }
+            }
+         }
+         if (partitionManager != null) {
+            List<PendingMessage> remote = new ArrayList<>();
+            for (PendingMessage msg : persistent) {
+               msg.local = isLocal(msg.testId);
+               if (!msg.local) {
+                  remote.add(msg);
+               }
+            }
+            if (!remote.isEmpty()) {
+               // delivered after commit
+               notifyRemote(remote);
+            }
+         }
+         log.debugf("Persisted %d of %d published messages", persistent.size(), messages.size());
+      }
+
+      @Override
+      public void afterCompletion(int status) {
+         if (status != Status.STATUS_COMMITTED && status != Status.STATUS_COMMITTING) {
+            return;
+         }
+         if (messages.stream().anyMatch(m -> m.id != 0)) {
+            scheduleRetry(retryAfter.toMillis());
+         }
+         for (PendingMessage msg : messages) {
+            if (!msg.local) {
+               continue;
+            }
+            log.debugf("Sending %d on test %d to components %s on eventbus %s ", msg.id, msg.testId, Arrays.toString(msg.components), msg.channel);
+            try {
+               dispatch(new Message(msg.channel, msg.id, msg.testId, msg.components, msg.payload));
+            } catch (Throwable t) {
+               log.errorf(t, "Failed to publish event %s: %s after transaction completion", msg.channel, msg.payload);
+            }
+         }
+      }
    }
 
    static class Message {
+      final String channel;
       final long id;
       final int testId;
-      final int componentFlags;
+      // indices of subscribers that should receive the message
+      final int[] components;
       final Object payload;
 
-      public Message(long id, int testId, int componentFlags, Object payload) {
+      public Message(String channel, long id, int testId, int[] components, Object payload) {
+         this.channel = channel;
          this.id = id;
          this.testId = testId;
-         this.componentFlags = componentFlags;
+         this.components = components;
          this.payload = payload;
       }
    }
 
+   /**
+    * Messages sent locally are passed by reference. When the event bus is clustered the message is encoded as
+    * channel, ID, test ID, subscriber indices, payload class name and the payload serialized to Smile.
+    * The payload class name is only checked against the type registered for the channel; the codec never
+    * loads classes named by the peer.
+    */
    static class MessageBusCodec implements MessageCodec<Message, Message> {
+      private static final ObjectMapper SMILE_MAPPER = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule());
+      private final Function<String, Class<?>> payloadClasses;
+
+      MessageBusCodec(Function<String, Class<?>> payloadClasses) {
+         this.payloadClasses = payloadClasses;
+      }
+
       @Override
       public void encodeToWire(Buffer buffer, Message message) {
-         throw new IllegalStateException("Local only!");
+         appendString(buffer, message.channel);
+         buffer.appendLong(message.id);
+         buffer.appendInt(message.testId);
+         buffer.appendInt(message.components.length);
+         for (int component : message.components) {
+            buffer.appendInt(component);
+         }
+         if (message.payload == null) {
+            appendString(buffer, "");
+            buffer.appendInt(0);
+            return;
+         }
+         appendString(buffer, message.payload.getClass().getName());
+         try {
+            byte[] payload = SMILE_MAPPER.writeValueAsBytes(message.payload);
+            buffer.appendInt(payload.length);
+            buffer.appendBytes(payload);
+         } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot encode payload of message " + message.id + " on " + message.channel, e);
+         }
       }
 
       @Override
       public Message decodeFromWire(int pos, Buffer buffer) {
-         throw new IllegalStateException("Local only!");
+         int channelLength = buffer.getInt(pos);
+         pos += 4;
+         String channel = buffer.getString(pos, pos + channelLength, StandardCharsets.UTF_8.name());
+         pos += channelLength;
+         long id = buffer.getLong(pos);
+         pos += 8;
+         int testId = buffer.getInt(pos);
+         pos += 4;
+         int[] components = new int[buffer.getInt(pos)];
+         pos += 4;
+         for (int i = 0; i < components.length; ++i) {
+            components[i] = buffer.getInt(pos);
+            pos += 4;
+         }
+         int classLength = buffer.getInt(pos);
+         pos += 4;
+         String className = buffer.getString(pos, pos + classLength, StandardCharsets.UTF_8.name());
+         pos += classLength;
+         int payloadLength = buffer.getInt(pos);
+         pos += 4;
+         Object payload = null;
+         if (classLength > 0) {
+            Class<?> type = payloadClasses.apply(channel);
+            if (type == null || !type.getName().equals(className)) {
+               throw new IllegalStateException("Rejecting message " + id + " on " + channel + ": unexpected payload type " + className);
+            }
+            try {
+               payload = SMILE_MAPPER.readValue(buffer.getBytes(pos, pos + payloadLength), type);
+            } catch (IOException e) {
+               throw new IllegalStateException("Cannot decode payload of message " + id + " on " + channel, e);
+            }
+         }
+         return new Message(channel, id, testId, components, payload);
+      }
+
+      private static void appendString(Buffer buffer, String str) {
+         byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+         buffer.appendInt(bytes.length);
+         buffer.appendBytes(bytes);
       }
 
       @Override
@@ -0,0 +1,220 @@
+package io.hyperfoil.tools.horreum.bus;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionManager;
+
+import org.hibernate.query.NativeQuery;
+import org.jboss.logging.Logger;
+
+import com.vladmihalcea.hibernate.type.array.IntArrayType;
+
+import io.hyperfoil.tools.horreum.svc.Util;
+
+/**
+ * Splits tests into a fixed number of partitions (by test ID) and keeps leases on a fair share of them
+ * in table <code>messagebus_partition</code>. Only the node holding the lease processes messages for tests
+ * in the partition; this keeps per-test ordering while spreading the work over all nodes.
+ * When there are more nodes the partitions over fair share are first drained (no new messages are accepted
+ * and running tasks are completed) and then released for other nodes to claim.
+ * Notifications received by all nodes are handled by the node {@link #isResponsible(int) responsible} for the test;
+ * it either runs the work or persists it as a message when the partition is not active anywhere.
+ */
+public class PartitionManager {
+   private static final Logger log = Logger.getLogger(PartitionManager.class);
+
+   private final String nodeId = UUID.randomUUID().toString();
+   private final int partitions;
+   private final Duration lease;
+   private final TransactionManager tm;
+   private final EntityManager em;
+   private final IntPredicate isIdle;
+   private final Runnable onHandoff;
+   private final Consumer<Set<Integer>> onClaim;
+   private final ScheduledExecutorService executor;
+   // accessed only from the executor thread
+   private final Set<Integer> held = new HashSet<>();
+   private final Set<Integer> draining = new HashSet<>();
+   private volatile Set<Integer> active = Collections.emptySet();
+   // held (including draining) partitions and, on the first live node, partitions without a valid lease
+   private volatile Set<Integer> responsible = Collections.emptySet();
+
+   /**
+    * @param isIdle Returns true when there are no local tasks for the partition.
+    * @param onHandoff Called after claiming partitions released by other node; its messages are due.
+    * @param onClaim Called with all newly claimed partitions; state cached for their tests might be stale.
+    */
+   public PartitionManager(int partitions, Duration lease, TransactionManager tm, EntityManager em, IntPredicate isIdle, Runnable onHandoff, Consumer<Set<Integer>> onClaim) {
+      this.partitions = Math.max(1, partitions);
+      this.lease = lease;
+      this.tm = tm;
+      this.em = em;
+      this.isIdle = isIdle;
+      this.onHandoff = onHandoff;
+      this.onClaim = onClaim;
+      this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "horreum-messagebus-partitions");
+         thread.setDaemon(true);
+         return thread;
+      });
+   }
+
+   public void start() {
+      createPartitions();
+      long period = Math.max(1, lease.toMillis() / 3);
+      executor.scheduleWithFixedDelay(this::renew, 0, period, TimeUnit.MILLISECONDS);
+      log.infof("Node %s participates on %d message bus partitions", nodeId, partitions);
+   }
+
+   void createPartitions() {
+      Util.withTx(tm, () -> em.createNativeQuery("INSERT INTO messagebus_partition (partition) SELECT generate_series(0, ?1 - 1) ON CONFLICT DO NOTHING")
+            .setParameter(1, partitions).executeUpdate());
+   }
+
+   public void stop() {
+      executor.shutdownNow();
+      active = Collections.emptySet();
+      responsible = Collections.emptySet();
+      try {
+         // the work in progress is abandoned; other nodes will retry the messages with backoff
+         Util.withTx(tm, () -> {
+            em.createNativeQuery("DELETE FROM messagebus_node WHERE node = ?1").setParameter(1, nodeId).executeUpdate();
+            return em.createNativeQuery("UPDATE messagebus_partition SET owner = NULL, expires = NULL WHERE owner = ?1")
+                  .setParameter(1, nodeId).executeUpdate();
+         });
+      } catch (Throwable t) {
+         log.warn("Failed to release message bus partitions", t);
+      }
+   }
+
+   public int partition(int testId) {
+      return Math.floorMod(testId, partitions);
+   }
+
+   public int partitions() {
+      return partitions;
+   }
+
+   public boolean isLocal(int testId) {
+      return active.contains(partition(testId));
+   }
+
+   /**
+    * Exactly one live node is responsible for each test (as long as the leases are renewed): the lease holder,
+    * or the first node in the cluster when the partition is not held by anyone. Unlike {@link #isLocal(int)}
+    * this includes partitions being drained.
+    */
+   public boolean isResponsible(int testId) {
+      return responsible.contains(partition(testId));
+   }
+
+   String nodeId() {
+      return nodeId;
+   }
+
+   public int[] activePartitions() {
+      return active.stream().mapToInt(Integer::intValue).toArray();
+   }
+
+   void renew() {
+      try {
+         Util.withTx(tm, () -> {
+            doRenew();
+            return null;
+         });
+      } catch (Throwable t) {
+         // we might lose the leases after timeout; stop accepting messages for them
+         // but keep being responsible: the leases might still be ours so work is persisted rather than dropped
+         log.error("Failed to renew message bus partition leases", t);
+         held.clear();
+         draining.clear();
+         active = Collections.emptySet();
+      }
+   }
+
+   private void doRenew() {
+      // nodes without any partition must be counted, too
+      em.createNativeQuery("INSERT INTO messagebus_node (node, expires) VALUES (?1, now() + make_interval(secs => ?2)) ON CONFLICT (node) DO UPDATE SET expires = EXCLUDED.expires")
+            .setParameter(1, nodeId).setParameter(2, lease.toMillis() / 1000.0).executeUpdate();
+      em.createNativeQuery("DELETE FROM messagebus_node WHERE expires <= now()").executeUpdate();
+      held.clear();
+      held.addAll(ints(em.createNativeQuery("UPDATE messagebus_partition SET expires = now() + make_interval(secs => ?2) WHERE owner = ?1 RETURNING partition")
+            .setParameter(1, nodeId).setParameter(2, lease.toMillis() / 1000.0).getResultList()));
+      draining.retainAll(held);
+      int nodes = ((Number) em.createNativeQuery("SELECT count(*) FROM messagebus_node").getSingleResult()).intValue();
+      int share = (partitions + nodes - 1) / Math.max(1, nodes);
+
+      List<Integer> drained = draining.stream().filter(isIdle::test).collect(Collectors.toList());
+      if (!drained.isEmpty()) {
+         em.createNativeQuery("UPDATE messagebus_partition SET owner = NULL, expires = NULL, handoff = true WHERE owner = ?1 AND partition = ANY(?2)")
+               .unwrap(NativeQuery.class)
+               .setParameter(1, nodeId)
+               .setParameter(2, drained.stream().mapToInt(Integer::intValue).toArray(), IntArrayType.INSTANCE)
+               .executeUpdate();
+         held.removeAll(drained);
+         draining.removeAll(drained);
+         log.infof("Released message bus partitions %s", drained);
+      }
+      if (held.size() > share) {
+         held.stream().filter(p -> !draining.contains(p)).sorted(Collections.reverseOrder())
+               .limit(Math.max(0, held.size() - share - draining.size())).forEach(draining::add);
+      } else if (held.size() < share) {
+         claim(share - held.size());
+      }
+      Set<Integer> newActive = new HashSet<>(held);
+      newActive.removeAll(draining);
+      if (!newActive.equals(active)) {
+         log.debugf("Active message bus partitions: %s, draining: %s", newActive, draining);
+      }
+      active = Collections.unmodifiableSet(newActive);
+
+      Set<Integer> newResponsible = new HashSet<>(held);
+      String firstNode = (String) em.createNativeQuery("SELECT min(node) FROM messagebus_node").getSingleResult();
+      if (nodeId.equals(firstNode)) {
+         newResponsible.addAll(ints(em.createNativeQuery("SELECT partition FROM messagebus_partition WHERE owner IS NULL OR expires <= now()").getResultList()));
+      }
+      responsible = Collections.unmodifiableSet(newResponsible);
+   }
+
+   private void claim(int count) {
+      @SuppressWarnings("unchecked") List<Object[]> claimed = em.createNativeQuery("UPDATE messagebus_partition SET owner = ?1, expires = now() + make_interval(secs => ?2), handoff = false " +
+            "FROM (SELECT partition, handoff FROM messagebus_partition WHERE owner IS NULL OR expires <= now() ORDER BY partition LIMIT ?3 FOR UPDATE SKIP LOCKED) AS c " +
+            "WHERE messagebus_partition.partition = c.partition RETURNING c.partition, c.handoff")
+            .setParameter(1, nodeId).setParameter(2, lease.toMillis() / 1000.0).setParameter(3, count)
+            .getResultList();
+      if (claimed.isEmpty()) {
+         return;
+      }
+      int[] handedOff = claimed.stream().filter(row -> (Boolean) row[1]).mapToInt(row -> ((Number) row[0]).intValue()).toArray();
+      Set<Integer> claimedPartitions = claimed.stream().map(row -> ((Number) row[0]).intValue()).collect(Collectors.toSet());
+      held.addAll(claimedPartitions);
+      log.infof("Claimed message bus partitions %s", claimedPartitions);
+      Util.doAfterCommit(tm, () -> onClaim.accept(claimedPartitions));
+      if (handedOff.length > 0) {
+         // Messages for partitions released cleanly were not processed by anyone; messages from expired leases
+         // could be in progress when the node failed, these are retried as usual.
+         em.createNativeQuery("UPDATE messagebus SET next_attempt = now() WHERE next_attempt > now() AND mod(mod(testid, ?1) + ?1, ?1) = ANY(?2)")
+               .unwrap(NativeQuery.class)
+               .setParameter(1, partitions)
+               .setParameter(2, handedOff, IntArrayType.INSTANCE)
+               .executeUpdate();
+         Util.doAfterCommit(tm, onHandoff);
+      }
+   }
+
+   private static Set<Integer> ints(List<?> list) {
+      return list.stream().map(n -> ((Number) n).intValue()).collect(Collectors.toSet());
+   }
+}
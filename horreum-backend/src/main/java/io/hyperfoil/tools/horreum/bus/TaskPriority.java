@@ -0,0 +1,26 @@
+package io.hyperfoil.tools.horreum.bus;
+
+/**
+ * Priority of tasks executed for a test. Within a test the tasks with higher priority are executed first,
+ * tasks with the same priority are executed in the order of submission.
+ */
+public enum TaskPriority {
+   /**
+    * Processing of freshly uploaded data.
+    */
+   INTERACTIVE,
+   /**
+    * Recalculation triggered by a change of label definition.
+    */
+   LABEL_CHANGE,
+   /**
+    * Recalculation of whole tests, e.g. after a schema change or triggered by user.
+    */
+   BULK;
+
+   static final TaskPriority[] VALUES = values();
+
+   public static TaskPriority of(boolean isRecalculation) {
+      return isRecalculation ? BULK : INTERACTIVE;
+   }
+}
@@ -0,0 +1,359 @@
+package io.hyperfoil.tools.horreum.bus;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.vertx.core.Context;
+
+/**
+ * Runs tasks on a fixed pool of threads; tasks for the same test (lane) are executed serially,
+ * higher {@link TaskPriority priority} first and in the order of submission within the same priority.
+ * A lane that has been running longer than the time slice puts itself at the end of the pool queue
+ * so that other tests get their turn.
+ */
+public class TestLaneExecutor {
+   private static final Logger log = Logger.getLogger(TestLaneExecutor.class);
+
+   private final ExecutorService executor;
+   // limits concurrency when the executor starts a thread for each lane run
+   private final Semaphore admission;
+   private final ScheduledExecutorService sweeper;
+   private final ConcurrentMap<Integer, Lane> lanes = new ConcurrentHashMap<>();
+   private final ThreadLocal<Lane> currentLane = new ThreadLocal<>();
+   private final AtomicInteger queued = new AtomicInteger();
+   // indexed by priority ordinal
+   private final AtomicInteger[] queuedByPriority = new AtomicInteger[TaskPriority.VALUES.length];
+   private final int maxQueueSize;
+   private final long timeSliceNanos;
+   private final long idleTimeoutNanos;
+   private final long submitTimeoutMillis;
+   private final MeterRegistry registry;
+
+   public TestLaneExecutor(int threads, int maxQueueSize, Duration timeSlice, Duration idleTimeout, Duration submitTimeout, MeterRegistry registry) {
+      this(null, threads, maxQueueSize, timeSlice, idleTimeout, submitTimeout, registry);
+   }
+
+   /**
+    * @param executor Executor starting a thread for each lane run (e.g. virtual threads); at most <code>threads</code>
+    *                 lanes run at once. It is shut down with this executor. When <code>null</code> a pool of
+    *                 <code>threads</code> is created.
+    */
+   public TestLaneExecutor(ExecutorService executor, int threads, int maxQueueSize, Duration timeSlice, Duration idleTimeout, Duration submitTimeout, MeterRegistry registry) {
+      this.maxQueueSize = Math.max(1, maxQueueSize);
+      this.timeSliceNanos = timeSlice.toNanos();
+      this.idleTimeoutNanos = idleTimeout.toNanos();
+      this.submitTimeoutMillis = submitTimeout.toMillis();
+      this.registry = registry;
+      for (TaskPriority priority : TaskPriority.VALUES) {
+         queuedByPriority[priority.ordinal()] = new AtomicInteger();
+      }
+      if (executor != null) {
+         this.executor = executor;
+         this.admission = new Semaphore(Math.max(1, threads), true);
+      } else {
+         AtomicInteger threadCounter = new AtomicInteger();
+         this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "horreum-test-lane-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+         });
+         this.admission = null;
+      }
+      sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+         Thread thread = new Thread(runnable, "horreum-test-lane-sweeper");
+         thread.setDaemon(true);
+         return thread;
+      });
+      long sweepPeriod = Math.max(1, idleTimeout.toMillis() / 2);
+      sweeper.scheduleWithFixedDelay(this::evictIdle, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+      Gauge.builder("horreum.messagebus.queue.size", queued, AtomicInteger::get)
+            .description("Number of tasks waiting for execution in all tests").register(registry);
+      Gauge.builder("horreum.messagebus.lanes", lanes, ConcurrentMap::size)
+            .description("Number of tests with an active task lane").register(registry);
+   }
+
+   public void shutdown() {
+      sweeper.shutdownNow();
+      executor.shutdown();
+   }
+
+   public void execute(int testId, Runnable runnable) {
+      execute(testId, TaskPriority.INTERACTIVE, runnable);
+   }
+
+   /**
+    * Adds the task to the lane of given test. Each priority has its own capacity; when it is exhausted
+    * the caller is blocked. Event-loop threads are rejected right away. Tasks running in any lane are never
+    * blocked, as lanes waiting for each other could exhaust the threads and never make progress.
+    *
+    * @throws RejectedExecutionException if the task could not be queued in time.
+    */
+   public void execute(int testId, TaskPriority priority, Runnable runnable) {
+      add(testId, priority, runnable, true);
+   }
+
+   /**
+    * Adds the task to the lane of given test without waiting for capacity; never blocks nor rejects the task.
+    * The caller must keep the number of such tasks bounded, e.g. by queueing the next task from the running one.
+    */
+   public void enqueue(int testId, TaskPriority priority, Runnable runnable) {
+      add(testId, priority, runnable, false);
+   }
+
+   private void add(int testId, TaskPriority priority, Runnable runnable, boolean bounded) {
+      Task task = new Task(priority, runnable);
+      for (;;) {
+         Lane lane = lanes.computeIfAbsent(testId, Lane::new);
+         boolean schedule;
+         synchronized (lane) {
+            if (lane.evicted) {
+               continue;
+            }
+            ArrayDeque<Task> queue = lane.tasks[priority.ordinal()];
+            if (bounded && queue.size() >= maxQueueSize && currentLane.get() == null) {
+               awaitCapacity(lane, queue);
+               if (lane.evicted) {
+                  continue;
+               }
+            }
+            queue.add(task);
+            schedule = !lane.scheduled;
+            lane.scheduled = true;
+         }
+         queued.incrementAndGet();
+         queuedByPriority[priority.ordinal()].incrementAndGet();
+         if (schedule) {
+            schedule(lane);
+         }
+         return;
+      }
+   }
+
+   private void schedule(Lane lane) {
+      if (admission == null) {
+         executor.execute(lane);
+         return;
+      }
+      executor.execute(() -> {
+         admission.acquireUninterruptibly();
+         try {
+            lane.run();
+         } finally {
+            admission.release();
+         }
+      });
+   }
+
+   // must be called holding the lane lock
+   private void awaitCapacity(Lane lane, ArrayDeque<Task> queue) {
+      if (Context.isOnEventLoopThread()) {
+         throw new RejectedExecutionException("Too many tasks queued for test " + lane.testId);
+      }
+      long deadline = System.currentTimeMillis() + submitTimeoutMillis;
+      while (queue.size() >= maxQueueSize) {
+         long remaining = deadline - System.currentTimeMillis();
+         if (remaining <= 0) {
+            throw new RejectedExecutionException("Too many tasks queued for test " + lane.testId);
+         }
+         try {
+            lane.wait(remaining);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting to queue task for test " + lane.testId);
+         }
+      }
+   }
+
+   public int queueSize(int testId) {
+      Lane lane = lanes.get(testId);
+      return lane == null ? 0 : lane.size();
+   }
+
+   public int queueSize() {
+      return queued.get();
+   }
+
+   public int queueSize(int testId, TaskPriority priority) {
+      Lane lane = lanes.get(testId);
+      return lane == null ? 0 : lane.size(priority);
+   }
+
+   public int queueSize(TaskPriority priority) {
+      return queuedByPriority[priority.ordinal()].get();
+   }
+
+   /**
+    * @return True if there are no tasks queued or running for tests matching the filter.
+    */
+   public boolean isIdle(IntPredicate testFilter) {
+      for (Lane lane : lanes.values()) {
+         if (testFilter.test(lane.testId)) {
+            synchronized (lane) {
+               if (lane.scheduled || !lane.isEmpty()) {
+                  return false;
+               }
+            }
+         }
+      }
+      return true;
+   }
+
+   private void evictIdle() {
+      long now = System.nanoTime();
+      for (Integer testId : lanes.keySet()) {
+         lanes.computeIfPresent(testId, (id, lane) -> {
+            synchronized (lane) {
+               if (lane.scheduled || !lane.isEmpty() || now - lane.lastActivity < idleTimeoutNanos) {
+                  return lane;
+               }
+               lane.evicted = true;
+            }
+            log.debugf("Evicting idle lane for test %d", id);
+            registry.remove(lane.sizeGauge);
+            for (Timer waitTimer : lane.waitTimers) {
+               registry.remove(waitTimer);
+            }
+            registry.remove(lane.executionTimer);
+            return null;
+         });
+      }
+   }
+
+   private static class Task {
+      final TaskPriority priority;
+      final Runnable runnable;
+      final long submitted = System.nanoTime();
+
+      Task(TaskPriority priority, Runnable runnable) {
+         this.priority = priority;
+         this.runnable = runnable;
+      }
+   }
+
+   private class Lane implements Runnable {
+      final int testId;
+      // indexed by priority ordinal
+      final ArrayDeque<Task>[] tasks;
+      final Gauge sizeGauge;
+      final Timer[] waitTimers;
+      final Timer executionTimer;
+      // submitted to the executor or running
+      boolean scheduled;
+      boolean evicted;
+      long lastActivity = System.nanoTime();
+
+      @SuppressWarnings("unchecked")
+      Lane(int testId) {
+         this.testId = testId;
+         Tags tags = Tags.of("test", String.valueOf(testId));
+         sizeGauge = Gauge.builder("horreum.messagebus.lane.size", this, Lane::size).tags(tags)
+               .description("Number of tasks waiting for execution in the test").register(registry);
+         tasks = new ArrayDeque[TaskPriority.VALUES.length];
+         waitTimers = new Timer[TaskPriority.VALUES.length];
+         for (TaskPriority priority : TaskPriority.VALUES) {
+            tasks[priority.ordinal()] = new ArrayDeque<>();
+            waitTimers[priority.ordinal()] = Timer.builder("horreum.messagebus.task.wait").tags(tags.and("priority", priority.name().toLowerCase()))
+                  .description("Time the task spent in the queue").register(registry);
+         }
+         executionTimer = Timer.builder("horreum.messagebus.task.execution").tags(tags)
+               .description("Time spent executing the task").register(registry);
+      }
+
+      synchronized int size() {
+         int size = 0;
+         for (ArrayDeque<Task> queue : tasks) {
+            size += queue.size();
+         }
+         return size;
+      }
+
+      synchronized int size(TaskPriority priority) {
+         return tasks[priority.ordinal()].size();
+      }
+
+      // must be called holding the lane lock
+      boolean isEmpty() {
+         for (ArrayDeque<Task> queue : tasks) {
+            if (!queue.isEmpty()) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      // must be called holding the lane lock
+      Task poll() {
+         for (ArrayDeque<Task> queue : tasks) {
+            Task task = queue.poll();
+            if (task != null) {
+               return task;
+            }
+         }
+         return null;
+      }
+
+      @Override
+      public void run() {
+         currentLane.set(this);
+         long sliceEnd = System.nanoTime() + timeSliceNanos;
+         try {
+            for (;;) {
+               Task task;
+               synchronized (this) {
+                  task = poll();
+                  lastActivity = System.nanoTime();
+                  if (task == null) {
+                     scheduled = false;
+                     return;
+                  }
+                  // wake up submitters waiting for capacity
+                  notifyAll();
+               }
+               queued.decrementAndGet();
+               queuedByPriority[task.priority.ordinal()].decrementAndGet();
+               long start = System.nanoTime();
+               waitTimers[task.priority.ordinal()].record(start - task.submitted, TimeUnit.NANOSECONDS);
+               try {
+                  task.runnable.run();
+               } catch (Throwable t) {
+                  log.errorf(t, "Error executing task in the queue for test %d", testId);
+               }
+               long end = System.nanoTime();
+               executionTimer.record(end - start, TimeUnit.NANOSECONDS);
+               if (end - sliceEnd >= 0) {
+                  synchronized (this) {
+                     lastActivity = end;
+                     if (isEmpty()) {
+                        scheduled = false;
+                        return;
+                     }
+                  }
+                  log.debugf("Test %d used its time slice, yielding with %d tasks queued", testId, size());
+                  schedule(this);
+                  return;
+               }
+            }
+         } finally {
+            currentLane.remove();
+         }
+      }
+   }
+}
@@ -2,9 +2,7 @@ package io.hyperfoil.tools.horreum.changedetection;
 
 import io.hyperfoil.tools.horreum.api.ConditionConfig;
 import io.hyperfoil.tools.horreum.entity.alerting.ChangeDAO;
-import io.hyperfoil.tools.horreum.entity.alerting.DataPointDAO;
 
-import java.util.List;
 import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -12,6 +10,14 @@ import com.fasterxml.jackson.databind.JsonNode;
 public interface ChangeDetectionModel {
     ConditionConfig config();
 
-    void analyze(List<DataPointDAO> dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer);
+    /**
+     * @return Number of most recent datapoints the model needs to access individually;
+     *         older datapoints are available only through the running sums in {@link DataPointSeries}.
+     */
+    default int window(JsonNode configuration) {
+        return 1;
+    }
+
+    void analyze(DataPointSeries dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer);
 
 }
@@ -0,0 +1,178 @@
+package io.hyperfoil.tools.horreum.changedetection;
+
+import java.time.Instant;
+
+import io.hyperfoil.tools.horreum.entity.alerting.DataPointDAO;
+
+/**
+ * Compact rolling state of datapoints for one variable and fingerprint since the last change.
+ * Only the most recent <code>capacity</code> datapoints are retained (in primitive arrays); older
+ * datapoints contribute to the running mean and variance only (Welford's algorithm, which unlike running
+ * sums of squares does not lose precision for large values with small spread). Index 0 is the most recent datapoint.
+ */
+public final class DataPointSeries {
+   private final int[] ids;
+   private final int[] datasetIds;
+   private final long[] timestamps;
+   private final double[] values;
+   // position where the next datapoint will be written
+   private int head;
+   private int retained;
+   private int count;
+   private double mean;
+   // sum of squared differences from the mean
+   private double m2;
+
+   public DataPointSeries(int capacity) {
+      capacity = Math.max(1, capacity);
+      ids = new int[capacity];
+      datasetIds = new int[capacity];
+      timestamps = new long[capacity];
+      values = new double[capacity];
+   }
+
+   public void add(DataPointDAO dp) {
+      add(dp.id, dp.getDatasetId(), dp.timestamp.toEpochMilli(), dp.value);
+   }
+
+   public void add(int id, int datasetId, long timestamp, double value) {
+      ids[head] = id;
+      datasetIds[head] = datasetId;
+      timestamps[head] = timestamp;
+      values[head] = value;
+      head = (head + 1) % ids.length;
+      retained = Math.min(retained + 1, ids.length);
+      ++count;
+      double delta = value - mean;
+      mean += delta / count;
+      m2 += delta * (value - mean);
+   }
+
+   /**
+    * @return Number of datapoints since the last change, including those not retained.
+    */
+   public int size() {
+      return count;
+   }
+
+   /**
+    * @return Number of most recent datapoints that can be accessed by index.
+    */
+   public int retained() {
+      return retained;
+   }
+
+   public int capacity() {
+      return ids.length;
+   }
+
+   private int slot(int index) {
+      if (index < 0 || index >= retained) {
+         throw new IndexOutOfBoundsException("Index " + index + ", retained " + retained);
+      }
+      int slot = head - 1 - index;
+      return slot < 0 ? slot + ids.length : slot;
+   }
+
+   public int id(int index) {
+      return ids[slot(index)];
+   }
+
+   public int datasetId(int index) {
+      return datasetIds[slot(index)];
+   }
+
+   public Instant timestamp(int index) {
+      return Instant.ofEpochMilli(timestamps[slot(index)]);
+   }
+
+   public double value(int index) {
+      return values[slot(index)];
+   }
+
+   /**
+    * @param skip Number of most recent datapoints excluded from the statistics; these must be retained.
+    * @return Mean of datapoints since the last change.
+    */
+   public double mean(int skip) {
+      return statistics(skip)[0];
+   }
+
+   /**
+    * @param skip Number of most recent datapoints excluded from the statistics; these must be retained.
+    * @return Sample variance of datapoints since the last change, or 0 if there are less than two datapoints.
+    */
+   public double variance(int skip) {
+      int n = count - skip;
+      return n > 1 ? statistics(skip)[1] / (n - 1) : 0;
+   }
+
+   private double[] statistics(int skip) {
+      double mean = this.mean, m2 = this.m2;
+      int n = count;
+      // inverse of the update in add()
+      for (int i = 0; i < skip; ++i) {
+         double value = value(i);
+         if (--n == 0) {
+            mean = 0;
+            m2 = 0;
+         } else {
+            double delta = value - mean;
+            mean -= delta / n;
+            m2 -= delta * (value - mean);
+         }
+      }
+      return new double[] { n == 0 ? Double.NaN : mean, Math.max(0, m2) };
+   }
+
+   /**
+    * Loads the entity for given datapoint; this should be used only when a change is emitted.
+    */
+   public DataPointDAO dataPoint(int index) {
+      return DataPointDAO.findById(id(index));
+   }
+
+   /**
+    * Forgets all datapoints older than given timestamp, as if the series started there.
+    *
+    * @return False if some of the remaining datapoints are not retained and the series must be rebuilt.
+    */
+   public boolean truncateBefore(Instant timestamp) {
+      long millis = timestamp.toEpochMilli();
+      int keep = 0;
+      while (keep < retained && timestamps[slot(keep)] >= millis) {
+         ++keep;
+      }
+      if (keep == retained && retained < count) {
+         return false;
+      }
+      double newMean = 0, newM2 = 0;
+      for (int i = keep - 1; i >= 0; --i) {
+         double value = values[slot(i)];
+         double delta = value - newMean;
+         newMean += delta / (keep - i);
+         newM2 += delta * (value - newMean);
+      }
+      retained = keep;
+      count = keep;
+      mean = newMean;
+      m2 = newM2;
+      return true;
+   }
+
+   @Override
+   public String toString() {
+      int limit = Math.min(retained, 20);
+      StringBuilder sb = new StringBuilder("[");
+      if (limit < count) {
+         sb.append("... (").append(count - limit).append(" more), ");
+      }
+      for (int i = limit - 1; i >= 0; --i) {
+         int slot = slot(i);
+         sb.append(ids[slot]).append('|').append(datasetIds[slot]).append('@')
+               .append(Instant.ofEpochMilli(timestamps[slot])).append(": ").append(values[slot]);
+         if (i != 0) sb.append(", ");
+      }
+      return sb.append("]").toString();
+   }
+}
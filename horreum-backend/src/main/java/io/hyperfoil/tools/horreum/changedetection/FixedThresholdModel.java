@@ -1,6 +1,5 @@
 package io.hyperfoil.tools.horreum.changedetection;
 
-import java.util.List;
 import java.util.function.Consumer;
 
 import org.jboss.logging.Logger;
@@ -9,7 +8,6 @@ import com.fasterxml.jackson.databind.JsonNode;
 
 import io.hyperfoil.tools.horreum.api.ConditionConfig;
 import io.hyperfoil.tools.horreum.entity.alerting.ChangeDAO;
-import io.hyperfoil.tools.horreum.entity.alerting.DataPointDAO;
 
 public class FixedThresholdModel implements ChangeDetectionModel {
    private static final Logger log = Logger.getLogger(FixedThresholdModel.class);
@@ -23,8 +21,8 @@ public class FixedThresholdModel implements ChangeDetectionModel {
    }
 
    @Override
-   public void analyze(List<DataPointDAO> dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer) {
-      DataPointDAO dp = dataPoints.get(0);
+   public void analyze(DataPointSeries dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer) {
+      double value = dataPoints.value(0);
 
       JsonNode min = configuration.path("min");
       boolean minEnabled = min.path("enabled").asBoolean();
@@ -36,18 +34,18 @@ public class FixedThresholdModel implements ChangeDetectionModel {
       double maxValue = max.path("value").asDouble();
 
       if (minEnabled) {
-         if ((!minInclusive && dp.value <= minValue) || dp.value < minValue) {
-            ChangeDAO c = ChangeDAO.fromDatapoint(dp);
-            c.description = String.format("%f is below lower bound %f (%s)", dp.value, minValue, minInclusive ? "inclusive" : "exclusive");
+         if ((!minInclusive && value <= minValue) || value < minValue) {
+            ChangeDAO c = ChangeDAO.fromDatapoint(dataPoints.dataPoint(0));
+            c.description = String.format("%f is below lower bound %f (%s)", value, minValue, minInclusive ? "inclusive" : "exclusive");
             log.debug(c.description);
             changeConsumer.accept(c);
             return;
          }
       }
       if (maxEnabled) {
-         if ((!maxInclusive && dp.value >= maxValue) || dp.value > maxValue) {
-            ChangeDAO c = ChangeDAO.fromDatapoint(dp);
-            c.description = String.format("%f is above upper bound %f (%s)", dp.value, maxValue, maxInclusive ? "inclusive" : "exclusive");
+         if ((!maxInclusive && value >= maxValue) || value > maxValue) {
+            ChangeDAO c = ChangeDAO.fromDatapoint(dataPoints.dataPoint(0));
+            c.description = String.format("%f is above upper bound %f (%s)", value, maxValue, maxInclusive ? "inclusive" : "exclusive");
             log.debug(c.description);
             changeConsumer.accept(c);
          }
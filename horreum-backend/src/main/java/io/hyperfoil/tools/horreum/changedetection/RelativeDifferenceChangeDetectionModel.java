@@ -4,10 +4,8 @@ import io.hyperfoil.tools.horreum.api.ConditionConfig;
 import io.hyperfoil.tools.horreum.entity.alerting.ChangeDAO;
 import io.hyperfoil.tools.horreum.entity.alerting.DataPointDAO;
 
-import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
 import org.jboss.logging.Logger;
 
-import java.util.List;
 import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -42,64 +40,72 @@ public class RelativeDifferenceChangeDetectionModel implements ChangeDetectionMo
     }
 
     @Override
-    public void analyze(List<DataPointDAO> dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer) {
-        DataPointDAO dataPoint = dataPoints.get(0);
+    public int window(JsonNode configuration) {
+        return Math.max(1, configuration.path("window").asInt());
+    }
 
+    @Override
+    public void analyze(DataPointSeries dataPoints, JsonNode configuration, Consumer<ChangeDAO> changeConsumer) {
         double threshold = Math.max(0, configuration.get("threshold").asDouble());
         int window = Math.max(1, configuration.get("window").asInt());
         int minPrevious = Math.max(window, configuration.get("minPrevious").asInt());
         String filter = configuration.get("filter").asText();
 
         if (dataPoints.size() < minPrevious + window) {
-            log.debugf("Too few (%d) previous datapoints for variable %d, skipping analysis", dataPoints.size() - window, dataPoint.variable.id);
+            log.debugf("Too few (%d) previous datapoints for dataset %d, skipping analysis", dataPoints.size() - window, dataPoints.datasetId(0));
             return;
         }
-        SummaryStatistics previousStats = new SummaryStatistics();
-        dataPoints.stream().skip(window).mapToDouble(dp -> dp.value).forEach(previousStats::addValue);
+        // The series must retain the whole window, older datapoints are accessible through running statistics
+        double windowSum = 0;
+        double windowMin = Double.POSITIVE_INFINITY, windowMax = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < window; ++i) {
+            double value = dataPoints.value(i);
+            windowSum += value;
+            windowMin = Math.min(windowMin, value);
+            windowMax = Math.max(windowMax, value);
+        }
+        double previousMean = dataPoints.mean(window);
+        double previousStdDev = Math.sqrt(dataPoints.variance(window));
 
         double filteredValue;
         switch (filter) {
             case "min":
-                //noinspection OptionalGetWithoutIsPresent
-                filteredValue = dataPoints.stream().limit(window).mapToDouble(dp -> dp.value).min().getAsDouble();
+                filteredValue = windowMin;
                 break;
             case "max":
-                //noinspection OptionalGetWithoutIsPresent
-                filteredValue = dataPoints.stream().limit(window).mapToDouble(dp -> dp.value).max().getAsDouble();
+                filteredValue = windowMax;
                 break;
             case "mean":
-                SummaryStatistics windowStats = new SummaryStatistics();
-                dataPoints.stream().limit(window).mapToDouble(dp -> dp.value).forEach(windowStats::addValue);
-                filteredValue = windowStats.getMean();
+                filteredValue = windowSum / window;
                 break;
             default:
-                log.errorf("Unsupported option 'filter'='%s' for variable %d, skipping analysis.", filter, dataPoint.variable.id);
+                log.errorf("Unsupported option 'filter'='%s' for dataset %d, skipping analysis.", filter, dataPoints.datasetId(0));
                 return;
         }
 
-        double ratio = filteredValue / previousStats.getMean();
-        log.tracef("Previous mean %f, filtered value %f, ratio %f", previousStats.getMean(), filteredValue, ratio);
+        double ratio = filteredValue / previousMean;
+        log.tracef("Previous mean %f, filtered value %f, ratio %f", previousMean, filteredValue, ratio);
         if (ratio < 1 - threshold || ratio > 1 + threshold) {
-            DataPointDAO dp = null;
+            int changeIndex = 0;
             // We cannot know which datapoint is first with the regression; as a heuristic approach
             // we'll select first datapoint with value lower than mean (if this is a drop, e.g. throughput)
             // or above the mean (if this is an increase, e.g. memory usage).
             for (int i = window - 1; i >= 0; --i) {
-                dp = dataPoints.get(i);
-                if (ratio < 1 && dp.value < previousStats.getMean()) {
+                changeIndex = i;
+                if (ratio < 1 && dataPoints.value(i) < previousMean) {
                     break;
-                } else if (ratio > 1 && dp.value > previousStats.getMean()) {
+                } else if (ratio > 1 && dataPoints.value(i) > previousMean) {
                     break;
                 }
             }
-            assert dp != null;
-            ChangeDAO change = ChangeDAO.fromDatapoint(dp);
-            DataPointDAO prevDataPoint = dataPoints.get(window - 1);
-            DataPointDAO lastDataPoint = dataPoints.get(0);
+            // Entities are loaded only when the change is emitted
+            ChangeDAO change = ChangeDAO.fromDatapoint(dataPoints.dataPoint(changeIndex));
+            DataPointDAO prevDataPoint = dataPoints.dataPoint(window - 1);
+            DataPointDAO lastDataPoint = dataPoints.dataPoint(0);
             change.description = String.format("Datasets %d/%d (%s) - %d/%d (%s): %s %f, previous mean %f (stddev %f), relative change %.2f%%",
                     prevDataPoint.dataset.run.id, prevDataPoint.dataset.ordinal, prevDataPoint.timestamp,
                     lastDataPoint.dataset.run.id, lastDataPoint.dataset.ordinal, lastDataPoint.timestamp,
-                    filter, filteredValue, previousStats.getMean(), previousStats.getStandardDeviation(), 100 * (ratio - 1));
+                    filter, filteredValue, previousMean, previousStdDev, 100 * (ratio - 1));
 
             log.debug(change.description);
             changeConsumer.accept(change);
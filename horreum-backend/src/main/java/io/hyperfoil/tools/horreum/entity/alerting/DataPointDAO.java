@@ -25,7 +25,7 @@ import io.quarkus.hibernate.orm.panache.PanacheEntityBase;
 @Entity(name = "DataPoint")
 @Table(name = "DataPoint")
 public class DataPointDAO extends PanacheEntityBase {
-   public static final String EVENT_NEW = "datapoint/new";
+   public static final String EVENT_NEW_BATCH = "datapoint/new_batch";
    public static final String EVENT_DELETED = "datapoint/deleted";
    public static final String EVENT_DATASET_PROCESSED = "datapoint/dataset_processed";
 
@@ -93,6 +93,44 @@ public class DataPointDAO extends PanacheEntityBase {
       }
    }
 
+   /**
+    * Published once for all datapoints created for a dataset; these share the timestamp.
+    * The arrays are indexed by datapoint. When the datapoints were created by a recalculation
+    * the change detection runs after the whole recalculation completes rather than for this event.
+    */
+   public static class BatchEvent {
+      public DataSetDAO.Info dataset;
+      public Instant timestamp;
+      public int[] dataPointIds;
+      public int[] variableIds;
+      public double[] values;
+      public boolean notify;
+      public boolean recalculation;
+
+      public BatchEvent() {}
+
+      public BatchEvent(DataSetDAO.Info dataset, Instant timestamp, int[] dataPointIds, int[] variableIds, double[] values, boolean notify, boolean recalculation) {
+         this.dataset = dataset;
+         this.timestamp = timestamp;
+         this.dataPointIds = dataPointIds;
+         this.variableIds = variableIds;
+         this.values = values;
+         this.notify = notify;
+         this.recalculation = recalculation;
+      }
+
+      @Override
+      public String toString() {
+         return "DataPoint.BatchEvent{" +
+                 "dataset=" + dataset +
+                 ", timestamp=" + timestamp +
+                 ", variables=" + variableIds.length +
+                 ", notify=" + notify +
+                 ", recalculation=" + recalculation +
+                 '}';
+      }
+   }
+
    public static class DatasetProcessedEvent {
       public DataSetDAO.Info dataset;
       public boolean notify;
@@ -45,6 +45,10 @@ public class DataSetDAO extends OwnedEntityBase {
    public static final String EVENT_MISSING_VALUES = "dataset/missing_values";
    public static final String EVENT_DELETED = "dataset/deleted";
    public static final String EVENT_VALIDATED = "dataset/validated";
+   // published by database trigger (recalc_label_values), the channel name must match
+   public static final String EVENT_LABEL_CHANGED = "dataset/label_changed";
+   // work from notifications received by all nodes, persisted when the test is not processed by any node
+   public static final String EVENT_REVALIDATE = "dataset/revalidate";
 
    @Id
    @SequenceGenerator(
@@ -151,6 +155,21 @@ public class DataSetDAO extends OwnedEntityBase {
       }
    }
 
+   public static class LabelChangedEvent {
+      public int testId;
+      public int datasetId;
+      public int labelId;
+
+      public LabelChangedEvent() {
+      }
+
+      public LabelChangedEvent(int testId, int datasetId, int labelId) {
+         this.testId = testId;
+         this.datasetId = datasetId;
+         this.labelId = labelId;
+      }
+   }
+
    public DataSetDAO() {}
 
    public DataSetDAO(RunDAO run, int ordinal, String description, JsonNode data) {
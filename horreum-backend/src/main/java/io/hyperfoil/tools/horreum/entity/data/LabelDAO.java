@@ -3,6 +3,7 @@ package io.hyperfoil.tools.horreum.entity.data;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Objects;
+import java.util.UUID;
 
 import javax.persistence.CollectionTable;
 import javax.persistence.Column;
@@ -92,6 +93,10 @@ public class LabelDAO extends OwnedEntityBase {
       @Type(type = "io.hyperfoil.tools.horreum.entity.converter.JsonUserType")
       public JsonNode value;
 
+      // Hash of label name, function and extracted value; the label is not recalculated if these did not change
+      @Column(name = "input_hash")
+      public UUID inputHash;
+
       @Override
       public boolean equals(Object o) {
          if (this == o) return true;
@@ -33,6 +33,9 @@ public class RunDAO extends ProtectedBaseEntity {
    public static final String EVENT_NEW = "run/new";
    public static final String EVENT_TRASHED = "run/trashed";
    public static final String EVENT_VALIDATED = "run/validated";
+   // work from notifications received by all nodes, persisted when the test is not processed by any node
+   public static final String EVENT_SCHEMAS_CHANGED = "run/schemas_changed";
+   public static final String EVENT_REVALIDATE = "run/revalidate";
 
    @JsonProperty(required = true)
    @Id
@@ -76,4 +79,27 @@ public class RunDAO extends ProtectedBaseEntity {
    @CollectionTable
    @ElementCollection
    public Collection<ValidationErrorDAO> validationErrors;
+
+   /**
+    * Payload of {@link #EVENT_NEW}; subscribers load the run when they need more than the identifiers.
+    */
+   public static class Event {
+      public int runId;
+      public int testId;
+
+      public Event() {}
+
+      public Event(int runId, int testId) {
+         this.runId = runId;
+         this.testId = testId;
+      }
+
+      @Override
+      public String toString() {
+         return "Run.Event{" +
+               "runId=" + runId +
+               ", testId=" + testId +
+               '}';
+      }
+   }
 }
@@ -25,30 +25,37 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 
 @NamedNativeQueries({
+   // The CTE holds each schema instance (whole run data or its part) only once: jsonb_extract_path with an empty path
+   // returns the detoasted document, so that it is not read again for each extractor.
+   // Note: 1st level schemas in metadata are not supported, these always follow the 2nd level format.
    @NamedNativeQuery(
-      name = SchemaDAO.QUERY_1ST_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID,
-      query = "SELECT te.name, (" +
-            "CASE WHEN te.isarray THEN jsonb_path_query_array(r.data, te.jsonpath::::jsonpath) " +
-            "ELSE jsonb_path_query_first(r.data,te.jsonpath::::jsonpath) END) AS value " +
-            "FROM run r, transformer t " +
-            "JOIN transformer_extractors te ON te.transformer_id = t.id " +
-            "WHERE r.id = ?1 AND t.id = ?2"
+      name = SchemaDAO.QUERY_TRANSFORMER_EXTRACTORS,
+      query = "WITH targets AS MATERIALIZED (" +
+            "SELECT rs.type, rs.key, rs.uri, rs.source, rs.schemaid, rs.testid, (CASE " +
+            "WHEN rs.type = 0 THEN jsonb_extract_path(r.data, VARIADIC ARRAY[]::::text[]) " +
+            "WHEN rs.type = 1 THEN (CASE WHEN rs.source = 0 THEN r.data ELSE r.metadata END)->rs.key " +
+            "ELSE (CASE WHEN rs.source = 0 THEN r.data ELSE r.metadata END)->(rs.key::::integer) END) AS data " +
+            "FROM run_schemas rs JOIN run r ON r.id = rs.runid WHERE rs.runid = ?1" +
+            ") SELECT targets.type, targets.key, targets.uri, targets.source, t.id AS transformer_id, t.name AS transformer_name, " +
+            "t.targetschemauri, t.function, te.name, (CASE " +
+            "WHEN te.isarray THEN jsonb_path_query_array(targets.data, te.jsonpath::::jsonpath) " +
+            "ELSE jsonb_path_query_first(targets.data, te.jsonpath::::jsonpath) END) AS value " +
+            "FROM targets " +
+            "LEFT JOIN transformer t ON t.schema_id = targets.schemaid AND t.id IN (SELECT transformer_id FROM test_transformers WHERE test_id = targets.testid) " +
+            "LEFT JOIN transformer_extractors te ON te.transformer_id = t.id " +
+            "ORDER BY transformer_id NULLS LAST, type, key, source"
    ),
+   // Same rows as above with the JSONPath expressions instead of extracted values, for evaluation in Horreum
    @NamedNativeQuery(
-      name = SchemaDAO.QUERY_2ND_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID,
-      query = "SELECT te.name, (" +
-            "CASE WHEN te.isarray THEN jsonb_path_query_array((CASE WHEN ?4 = 0 THEN r.data ELSE r.metadata END)->?3, te.jsonpath::::jsonpath) " +
-            "ELSE jsonb_path_query_first((CASE WHEN ?4 = 0 THEN r.data ELSE r.metadata END)->?3, te.jsonpath::::jsonpath) END) AS value " +
-            "FROM run r, transformer t " +
-            "JOIN transformer_extractors te ON te.transformer_id = t.id " +
-            "WHERE r.id = ?1 AND t.id = ?2"
-   ),
-   @NamedNativeQuery(
-         name = SchemaDAO.QUERY_TRANSFORMER_TARGETS,
-         query = "SELECT rs.type, rs.key, t.id as transformer_id, rs.uri, rs.source FROM run_schemas rs " +
-               "LEFT JOIN transformer t ON t.schema_id = rs.schemaid AND t.id IN (SELECT transformer_id FROM test_transformers WHERE test_id = rs.testid) " +
-               "WHERE rs.runid = ?1 ORDER BY transformer_id NULLS LAST, type, key"
-         )
+      name = SchemaDAO.QUERY_TRANSFORMER_DEFINITIONS,
+      query = "SELECT rs.type, rs.key, rs.uri, rs.source, t.id AS transformer_id, t.name AS transformer_name, " +
+            "t.targetschemauri, t.function, te.name, te.jsonpath, te.isarray " +
+            "FROM run_schemas rs " +
+            "LEFT JOIN transformer t ON t.schema_id = rs.schemaid AND t.id IN (SELECT transformer_id FROM test_transformers WHERE test_id = rs.testid) " +
+            "LEFT JOIN transformer_extractors te ON te.transformer_id = t.id " +
+            "WHERE rs.runid = ?1 " +
+            "ORDER BY transformer_id NULLS LAST, type, key, source"
+   )
 })
 
 @Entity(name = "Schema")
@@ -59,9 +66,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 )
 public class SchemaDAO extends ProtectedBaseEntity {
 
-   public static final String QUERY_1ST_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID = "Schema.getFirstLevelExtractorsByRunIDTransIDSchemaID";
-   public static final String QUERY_2ND_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID = "Schema.getSecondLevelExtractorsByRunIDTransIDSchemaID";
-   public static final String QUERY_TRANSFORMER_TARGETS = "Schema.queryTransformerTargets";
+   public static final String QUERY_TRANSFORMER_EXTRACTORS = "Schema.queryTransformerExtractors";
+   public static final String QUERY_TRANSFORMER_DEFINITIONS = "Schema.queryTransformerDefinitions";
    public static final int TYPE_1ST_LEVEL = 0;
    public static final int TYPE_2ND_LEVEL = 1;
    public static final int TYPE_ARRAY_ELEMENT = 2;
@@ -100,4 +106,17 @@ public class SchemaDAO extends ProtectedBaseEntity {
          this.errors = errors;
       }
    }
+
+   public static class RevalidateEvent {
+      public int id; // context = run/dataset depends on event name
+      public String schemaUri;
+
+      public RevalidateEvent() {
+      }
+
+      public RevalidateEvent(int id, String schemaUri) {
+         this.id = id;
+         this.schemaUri = schemaUri;
+      }
+   }
 }
@@ -0,0 +1,34 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * State of a single evaluation of an expression.
+ */
+final class Context {
+   final JsonNode root;
+   final boolean lax;
+   // Value of @, the item tested by the innermost filter
+   JsonNode current;
+   // Set in lax mode and for the remainder of the path after .**
+   boolean ignoreStructuralErrors;
+   // Size of the array in the innermost subscript, for evaluation of 'last'
+   int innermostArraySize = -1;
+
+   Context(JsonNode root, boolean lax) {
+      this.root = root;
+      this.lax = lax;
+      this.current = root;
+      this.ignoreStructuralErrors = lax;
+   }
+
+   /**
+    * Reports an error caused by the shape of the document (missing key, accessor applied to a wrong type...);
+    * in lax mode these are silently ignored and the item produces no result.
+    */
+   void structuralError(String message) {
+      if (!ignoreStructuralErrors) {
+         throw new JsonPathException(message);
+      }
+   }
+}
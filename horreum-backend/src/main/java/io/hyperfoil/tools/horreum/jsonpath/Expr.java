@@ -0,0 +1,450 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+/**
+ * Expression producing a sequence of JSON values. The evaluation follows <code>executeItem()</code>
+ * in PostgreSQL's <code>jsonpath_exec.c</code>, including automatic wrapping and unwrapping of arrays in lax mode.
+ */
+abstract class Expr extends Item {
+   abstract void evaluate(Context ctx, List<JsonNode> out);
+
+   /**
+    * In lax mode, arrays in the result are replaced by their elements when <code>unwrap</code> is set.
+    */
+   final List<JsonNode> evaluate(Context ctx, boolean unwrap) {
+      List<JsonNode> result = new ArrayList<>();
+      evaluate(ctx, result);
+      if (!unwrap || !ctx.lax) {
+         return result;
+      }
+      List<JsonNode> unwrapped = new ArrayList<>(result.size());
+      for (JsonNode node : result) {
+         if (node.isArray()) {
+            node.elements().forEachRemaining(unwrapped::add);
+         } else {
+            unwrapped.add(node);
+         }
+      }
+      return unwrapped;
+   }
+
+   static final class Root extends Expr {
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         out.add(ctx.root);
+      }
+   }
+
+   static final class Current extends Expr {
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         out.add(ctx.current);
+      }
+   }
+
+   static final class Last extends Expr {
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         if (ctx.innermostArraySize < 0) {
+            throw new JsonPathException("evaluating jsonpath LAST outside of array subscript");
+         }
+         out.add(JsonNodeFactory.instance.numberNode(ctx.innermostArraySize - 1));
+      }
+   }
+
+   static final class Literal extends Expr {
+      final JsonNode value;
+
+      Literal(JsonNode value) {
+         this.value = value;
+      }
+
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         out.add(value);
+      }
+   }
+
+   static final class Variable extends Expr {
+      private final String name;
+
+      Variable(String name) {
+         this.name = name;
+      }
+
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         // Horreum does not pass any variables to the expressions
+         throw new JsonPathException("could not find jsonpath variable \"" + name + "\"");
+      }
+   }
+
+   static final class Unary extends Expr {
+      private final boolean minus;
+      private final Expr operand;
+
+      Unary(boolean minus, Expr operand) {
+         this.minus = minus;
+         this.operand = operand;
+      }
+
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         for (JsonNode value : operand.evaluate(ctx, true)) {
+            if (!value.isNumber()) {
+               throw new JsonPathException("operand of unary jsonpath operator " + (minus ? "-" : "+") + " is not a numeric value");
+            }
+            out.add(minus ? JsonValues.numeric(JsonValues.toDecimal(value).negate()) : value);
+         }
+      }
+   }
+
+   static final class Binary extends Expr {
+      private final char operator;
+      private final Expr left;
+      private final Expr right;
+
+      Binary(char operator, Expr left, Expr right) {
+         this.operator = operator;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         BigDecimal l = singleNumeric(left.evaluate(ctx, true), "left");
+         BigDecimal r = singleNumeric(right.evaluate(ctx, true), "right");
+         BigDecimal result;
+         switch (operator) {
+            case '+':
+               result = l.add(r);
+               break;
+            case '-':
+               result = l.subtract(r);
+               break;
+            case '*':
+               result = l.multiply(r);
+               break;
+            case '/':
+               result = JsonValues.divide(l, r);
+               break;
+            case '%':
+               result = JsonValues.modulo(l, r);
+               break;
+            default:
+               throw new IllegalStateException("Unknown operator " + operator);
+         }
+         out.add(JsonValues.numeric(result));
+      }
+
+      private BigDecimal singleNumeric(List<JsonNode> values, String side) {
+         if (values.size() != 1 || !values.get(0).isNumber()) {
+            throw new JsonPathException(side + " operand of jsonpath operator " + operator + " is not a single numeric value");
+         }
+         return JsonValues.toDecimal(values.get(0));
+      }
+   }
+
+   /**
+    * Primary expression followed by a chain of accessors; each accessor is applied to every value
+    * produced by the previous one.
+    */
+   static final class Path extends Expr {
+      private final Expr base;
+      private final Step[] steps;
+
+      Path(Expr base, List<Step> steps) {
+         this.base = base;
+         this.steps = steps.toArray(new Step[0]);
+      }
+
+      @Override
+      void evaluate(Context ctx, List<JsonNode> out) {
+         List<JsonNode> values = new ArrayList<>();
+         base.evaluate(ctx, values);
+         for (JsonNode value : values) {
+            next(ctx, 0, value, out);
+         }
+      }
+
+      void next(Context ctx, int index, JsonNode item, List<JsonNode> out) {
+         if (index == steps.length) {
+            out.add(item);
+         } else {
+            steps[index].execute(ctx, this, index, item, ctx.lax, out);
+         }
+      }
+   }
+
+   abstract static class Step {
+      abstract void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out);
+
+      final void executeOnElements(Context ctx, Path path, int index, JsonNode array, List<JsonNode> out) {
+         for (JsonNode element : array) {
+            execute(ctx, path, index, element, false, out);
+         }
+      }
+   }
+
+   static final class Member extends Step {
+      private final String key;
+
+      Member(String key) {
+         this.key = key;
+      }
+
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         if (item.isObject()) {
+            JsonNode value = item.get(key);
+            if (value != null) {
+               path.next(ctx, index + 1, value, out);
+            } else {
+               ctx.structuralError("JSON object does not contain key \"" + key + "\"");
+            }
+         } else if (unwrap && item.isArray()) {
+            executeOnElements(ctx, path, index, item, out);
+         } else {
+            ctx.structuralError("jsonpath member accessor can only be applied to an object");
+         }
+      }
+   }
+
+   static final class AnyMember extends Step {
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         if (item.isObject()) {
+            for (JsonNode value : JsonValues.children(item)) {
+               path.next(ctx, index + 1, value, out);
+            }
+         } else if (unwrap && item.isArray()) {
+            executeOnElements(ctx, path, index, item, out);
+         } else {
+            ctx.structuralError("jsonpath wildcard member accessor can only be applied to an object");
+         }
+      }
+   }
+
+   static final class AnyElement extends Step {
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         if (item.isArray()) {
+            for (JsonNode element : item) {
+               path.next(ctx, index + 1, element, out);
+            }
+         } else if (ctx.lax) {
+            path.next(ctx, index + 1, item, out);
+         } else {
+            ctx.structuralError("jsonpath wildcard array accessor can only be applied to an array");
+         }
+      }
+   }
+
+   static final class Subscript extends Step {
+      // ranges are inclusive; 'to' is null for a single index
+      private final Expr[] from;
+      private final Expr[] to;
+
+      Subscript(List<Expr> from, List<Expr> to) {
+         this.from = from.toArray(new Expr[0]);
+         this.to = to.toArray(new Expr[0]);
+      }
+
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         boolean singleton = !item.isArray();
+         if (singleton && !ctx.lax) {
+            ctx.structuralError("jsonpath array accessor can only be applied to an array");
+            return;
+         }
+         int size = singleton ? 1 : item.size();
+         int innermostArraySize = ctx.innermostArraySize;
+         ctx.innermostArraySize = size;
+         try {
+            for (int i = 0; i < from.length; ++i) {
+               int indexFrom = arrayIndex(ctx, from[i]);
+               int indexTo = to[i] == null ? indexFrom : arrayIndex(ctx, to[i]);
+               if (!ctx.ignoreStructuralErrors && (indexFrom < 0 || indexFrom > indexTo || indexTo >= size)) {
+                  throw new JsonPathException("jsonpath array subscript is out of bounds");
+               }
+               indexFrom = Math.max(indexFrom, 0);
+               indexTo = Math.min(indexTo, size - 1);
+               for (int j = indexFrom; j <= indexTo; ++j) {
+                  path.next(ctx, index + 1, singleton ? item : item.get(j), out);
+               }
+            }
+         } finally {
+            ctx.innermostArraySize = innermostArraySize;
+         }
+      }
+
+      private static int arrayIndex(Context ctx, Expr expr) {
+         List<JsonNode> values = new ArrayList<>();
+         expr.evaluate(ctx, values);
+         if (values.size() != 1 || !values.get(0).isNumber()) {
+            throw new JsonPathException("jsonpath array subscript is not a single numeric value");
+         }
+         BigDecimal index = JsonValues.toDecimal(values.get(0)).setScale(0, RoundingMode.DOWN);
+         try {
+            return index.intValueExact();
+         } catch (ArithmeticException e) {
+            throw new JsonPathException("jsonpath array subscript is out of integer range");
+         }
+      }
+   }
+
+   /**
+    * The <code>.**</code> accessor with optional level bounds; <code>last</code> is represented as {@link Integer#MAX_VALUE}.
+    */
+   static final class AnyPath extends Step {
+      private final int first;
+      private final int last;
+
+      AnyPath(int first, int last) {
+         this.first = first;
+         this.last = last;
+      }
+
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         if (first == 0) {
+            nextIgnoringStructuralErrors(ctx, path, index, item, out);
+         }
+         if (item.isContainerNode()) {
+            descend(ctx, path, index, item, 1, out);
+         }
+      }
+
+      private void descend(Context ctx, Path path, int index, JsonNode node, int level, List<JsonNode> out) {
+         if (level > last) {
+            return;
+         }
+         for (JsonNode child : JsonValues.children(node)) {
+            // {last} alone selects the leaves
+            if (level >= first || (first == Integer.MAX_VALUE && last == Integer.MAX_VALUE && !child.isContainerNode())) {
+               nextIgnoringStructuralErrors(ctx, path, index, child, out);
+            }
+            if (level < last && child.isContainerNode()) {
+               descend(ctx, path, index, child, level + 1, out);
+            }
+         }
+      }
+
+      private static void nextIgnoringStructuralErrors(Context ctx, Path path, int index, JsonNode item, List<JsonNode> out) {
+         boolean ignoreStructuralErrors = ctx.ignoreStructuralErrors;
+         ctx.ignoreStructuralErrors = true;
+         try {
+            path.next(ctx, index + 1, item, out);
+         } finally {
+            ctx.ignoreStructuralErrors = ignoreStructuralErrors;
+         }
+      }
+   }
+
+   static final class Filter extends Step {
+      private final Predicate predicate;
+
+      Filter(Predicate predicate) {
+         this.predicate = predicate;
+      }
+
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         if (unwrap && item.isArray()) {
+            executeOnElements(ctx, path, index, item, out);
+            return;
+         }
+         JsonNode current = ctx.current;
+         Predicate.Result result;
+         ctx.current = item;
+         try {
+            result = predicate.test(ctx);
+         } finally {
+            ctx.current = current;
+         }
+         if (result == Predicate.Result.TRUE) {
+            path.next(ctx, index + 1, item, out);
+         }
+      }
+   }
+
+   static final class Method extends Step {
+      enum Type {
+         TYPE,
+         SIZE,
+         DOUBLE,
+         CEILING,
+         FLOOR,
+         ABS
+      }
+
+      private final Type type;
+
+      Method(Type type) {
+         this.type = type;
+      }
+
+      @Override
+      void execute(Context ctx, Path path, int index, JsonNode item, boolean unwrap, List<JsonNode> out) {
+         switch (type) {
+            case TYPE:
+               path.next(ctx, index + 1, JsonNodeFactory.instance.textNode(JsonValues.typeName(item)), out);
+               return;
+            case SIZE:
+               if (item.isArray()) {
+                  path.next(ctx, index + 1, JsonNodeFactory.instance.numberNode(item.size()), out);
+               } else if (ctx.lax) {
+                  path.next(ctx, index + 1, JsonNodeFactory.instance.numberNode(1), out);
+               } else {
+                  ctx.structuralError("jsonpath item method .size() can only be applied to an array");
+               }
+               return;
+            default:
+         }
+         if (unwrap && item.isArray()) {
+            executeOnElements(ctx, path, index, item, out);
+            return;
+         }
+         String name = type.name().toLowerCase();
+         if (type == Type.DOUBLE) {
+            if (item.isNumber()) {
+               path.next(ctx, index + 1, item, out);
+            } else if (item.isTextual()) {
+               BigDecimal value = JsonValues.parseDouble(item.textValue());
+               if (value == null) {
+                  throw new JsonPathException("string argument of jsonpath item method .double() is not a valid representation of a double precision number");
+               }
+               path.next(ctx, index + 1, JsonValues.numeric(value), out);
+            } else {
+               throw new JsonPathException("jsonpath item method .double() can only be applied to a string or numeric value");
+            }
+            return;
+         }
+         if (!item.isNumber()) {
+            throw new JsonPathException("jsonpath item method ." + name + "() can only be applied to a numeric value");
+         }
+         BigDecimal value = JsonValues.toDecimal(item);
+         switch (type) {
+            case CEILING:
+               value = value.setScale(0, RoundingMode.CEILING);
+               break;
+            case FLOOR:
+               value = value.setScale(0, RoundingMode.FLOOR);
+               break;
+            case ABS:
+               value = value.abs();
+               break;
+            default:
+               throw new IllegalStateException("Unknown method " + type);
+         }
+         path.next(ctx, index + 1, JsonValues.numeric(value), out);
+      }
+   }
+}
@@ -0,0 +1,8 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+/**
+ * Node of a parsed expression: either an {@link Expr} producing a sequence of JSON values
+ * or a {@link Predicate} with three-valued logic result.
+ */
+abstract class Item {
+}
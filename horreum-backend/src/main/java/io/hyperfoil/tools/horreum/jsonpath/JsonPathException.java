@@ -0,0 +1,25 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+/**
+ * Syntax or evaluation error of a JSONPath expression; the messages follow those reported by PostgreSQL.
+ */
+public class JsonPathException extends RuntimeException {
+   private final boolean unsupported;
+
+   JsonPathException(String message) {
+      this(message, false);
+   }
+
+   JsonPathException(String message, boolean unsupported) {
+      super(message);
+      this.unsupported = unsupported;
+   }
+
+   /**
+    * @return True if the expression is valid but uses a feature the in-JVM engine does not implement;
+    * such expressions must be evaluated by the database.
+    */
+   public boolean isUnsupported() {
+      return unsupported;
+   }
+}
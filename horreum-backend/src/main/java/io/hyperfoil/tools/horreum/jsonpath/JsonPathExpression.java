@@ -0,0 +1,84 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+/**
+ * Compiled SQL/JSON path expression evaluated with the semantics of PostgreSQL <code>jsonpath</code>,
+ * so that the results match <code>jsonb_path_query_first</code> and <code>jsonb_path_query_array</code>
+ * executed in the database. Instances are immutable and can be shared between threads.
+ * <p>
+ * Not supported are variables (Horreum does not pass any) and the <code>.keyvalue()</code>
+ * and <code>.datetime()</code> methods; compilation of expressions using these methods fails
+ * with {@link JsonPathException#isUnsupported()}.
+ */
+public final class JsonPathExpression {
+   private final String source;
+   private final boolean lax;
+   private final Item item;
+
+   JsonPathExpression(String source, boolean lax, Item item) {
+      this.source = source;
+      this.lax = lax;
+      this.item = item;
+   }
+
+   /**
+    * @throws JsonPathException if the expression is invalid or not supported.
+    */
+   public static JsonPathExpression compile(String source) {
+      return JsonPathParser.parse(source);
+   }
+
+   /**
+    * Equivalent of <code>jsonb_path_query</code>.
+    *
+    * @throws JsonPathException on errors that would fail the query in the database.
+    */
+   public List<JsonNode> query(JsonNode document) {
+      Context ctx = new Context(document, lax);
+      List<JsonNode> result = new ArrayList<>();
+      if (item instanceof Predicate) {
+         switch (((Predicate) item).test(ctx)) {
+            case TRUE:
+               result.add(JsonNodeFactory.instance.booleanNode(true));
+               break;
+            case FALSE:
+               result.add(JsonNodeFactory.instance.booleanNode(false));
+               break;
+            default:
+               result.add(JsonNodeFactory.instance.nullNode());
+         }
+      } else {
+         ((Expr) item).evaluate(ctx, result);
+         result.replaceAll(JsonValues::normalize);
+      }
+      return result;
+   }
+
+   /**
+    * Equivalent of <code>jsonb_path_query_first</code>.
+    *
+    * @return First value or <code>null</code> if the expression does not match anything.
+    */
+   public JsonNode queryFirst(JsonNode document) {
+      List<JsonNode> result = query(document);
+      return result.isEmpty() ? null : result.get(0);
+   }
+
+   /**
+    * Equivalent of <code>jsonb_path_query_array</code>.
+    */
+   public ArrayNode queryArray(JsonNode document) {
+      return JsonNodeFactory.instance.arrayNode().addAll(query(document));
+   }
+
+   @Override
+   public String toString() {
+      return source;
+   }
+}
@@ -0,0 +1,748 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+/**
+ * Recursive descent parser of the SQL/JSON path language as implemented in PostgreSQL (<code>jsonpath_gram.y</code>).
+ * Keywords other than <code>true</code>, <code>false</code> and <code>null</code> are case-insensitive
+ * and all keywords may be used as member names.
+ */
+final class JsonPathParser {
+   // characters that cannot be a part of an unquoted identifier
+   private static final String SPECIAL = "?%$.[]{}()|&!=<>@#,*:-+/\\\"";
+
+   private enum TokenType {
+      DOLLAR,
+      AT,
+      DOT,
+      ANY,
+      STAR,
+      LBRACKET,
+      RBRACKET,
+      LPAREN,
+      RPAREN,
+      LBRACE,
+      RBRACE,
+      COMMA,
+      QUESTION,
+      EQ,
+      NE,
+      LT,
+      LE,
+      GT,
+      GE,
+      AND,
+      OR,
+      NOT,
+      PLUS,
+      MINUS,
+      SLASH,
+      PERCENT,
+      STRING,
+      NUMBER,
+      IDENT,
+      VARIABLE,
+      END
+   }
+
+   private static final class Token {
+      final TokenType type;
+      final String text;
+      final int position;
+
+      Token(TokenType type, String text, int position) {
+         this.type = type;
+         this.text = text;
+         this.position = position;
+      }
+
+      boolean isKeyword(String keyword) {
+         return type == TokenType.IDENT && text.equalsIgnoreCase(keyword);
+      }
+   }
+
+   private final String source;
+   private final List<Token> tokens = new ArrayList<>();
+   private int next;
+   private int filterDepth;
+   private int subscriptDepth;
+
+   private JsonPathParser(String source) {
+      this.source = source;
+   }
+
+   static JsonPathExpression parse(String source) {
+      JsonPathParser parser = new JsonPathParser(source);
+      parser.tokenize();
+      return parser.parseExpression();
+   }
+
+   private JsonPathExpression parseExpression() {
+      boolean lax = true;
+      if (peek().isKeyword("strict") && tokens.size() > 2) {
+         lax = false;
+         next++;
+      } else if (peek().isKeyword("lax") && tokens.size() > 2) {
+         next++;
+      }
+      Item item = parseOr();
+      if (peek().type != TokenType.END) {
+         throw syntaxError(peek());
+      }
+      return new JsonPathExpression(source, lax, item);
+   }
+
+   private Item parseOr() {
+      Item left = parseAnd();
+      while (accept(TokenType.OR)) {
+         left = new Predicate.Or(predicate(left), predicate(parseAnd()));
+      }
+      return left;
+   }
+
+   private Item parseAnd() {
+      Item left = parseNot();
+      while (accept(TokenType.AND)) {
+         left = new Predicate.And(predicate(left), predicate(parseNot()));
+      }
+      return left;
+   }
+
+   private Item parseNot() {
+      if (accept(TokenType.NOT)) {
+         // only delimited predicates (in parentheses or exists) can be negated
+         Token token = peek();
+         if (token.type != TokenType.LPAREN && !token.isKeyword("exists")) {
+            throw syntaxError(token);
+         }
+         return new Predicate.Not(predicate(parsePrimary()));
+      }
+      return parseComparison();
+   }
+
+   private Item parseComparison() {
+      Item left = parseAdditive();
+      Token token = peek();
+      Predicate.Comparison.Operator operator = null;
+      switch (token.type) {
+         case EQ:
+            operator = Predicate.Comparison.Operator.EQ;
+            break;
+         case NE:
+            operator = Predicate.Comparison.Operator.NE;
+            break;
+         case LT:
+            operator = Predicate.Comparison.Operator.LT;
+            break;
+         case LE:
+            operator = Predicate.Comparison.Operator.LE;
+            break;
+         case GT:
+            operator = Predicate.Comparison.Operator.GT;
+            break;
+         case GE:
+            operator = Predicate.Comparison.Operator.GE;
+            break;
+         default:
+      }
+      if (operator != null) {
+         next++;
+         return new Predicate.Comparison(operator, expr(left), expr(parseAdditive()));
+      } else if (token.isKeyword("starts")) {
+         next++;
+         expectKeyword("with");
+         Token initial = consume();
+         if (initial.type == TokenType.STRING) {
+            return new Predicate.StartsWith(expr(left), new Expr.Literal(JsonNodeFactory.instance.textNode(initial.text)));
+         } else if (initial.type == TokenType.VARIABLE) {
+            return new Predicate.StartsWith(expr(left), new Expr.Variable(initial.text));
+         }
+         throw syntaxError(initial);
+      } else if (token.isKeyword("like_regex")) {
+         next++;
+         String regex = expect(TokenType.STRING).text;
+         String flags = "";
+         if (peek().isKeyword("flag")) {
+            next++;
+            flags = expect(TokenType.STRING).text;
+         }
+         return new Predicate.LikeRegex(expr(left), compileRegex(regex, flags));
+      }
+      return left;
+   }
+
+   private Item parseAdditive() {
+      Item left = parseMultiplicative();
+      for (;;) {
+         if (accept(TokenType.PLUS)) {
+            left = new Expr.Binary('+', expr(left), expr(parseMultiplicative()));
+         } else if (accept(TokenType.MINUS)) {
+            left = new Expr.Binary('-', expr(left), expr(parseMultiplicative()));
+         } else {
+            return left;
+         }
+      }
+   }
+
+   private Item parseMultiplicative() {
+      Item left = parseUnary();
+      for (;;) {
+         if (accept(TokenType.STAR)) {
+            left = new Expr.Binary('*', expr(left), expr(parseUnary()));
+         } else if (accept(TokenType.SLASH)) {
+            left = new Expr.Binary('/', expr(left), expr(parseUnary()));
+         } else if (accept(TokenType.PERCENT)) {
+            left = new Expr.Binary('%', expr(left), expr(parseUnary()));
+         } else {
+            return left;
+         }
+      }
+   }
+
+   private Item parseUnary() {
+      if (accept(TokenType.PLUS)) {
+         return new Expr.Unary(false, expr(parseUnary()));
+      } else if (accept(TokenType.MINUS)) {
+         return new Expr.Unary(true, expr(parseUnary()));
+      }
+      return parseAccessors();
+   }
+
+   private Item parseAccessors() {
+      Item primary = parsePrimary();
+      if (primary instanceof Predicate) {
+         return primary;
+      }
+      List<Expr.Step> steps = new ArrayList<>();
+      for (;;) {
+         Token token = peek();
+         if (token.type == TokenType.DOT) {
+            next++;
+            steps.add(parseDotAccessor());
+         } else if (token.type == TokenType.LBRACKET) {
+            next++;
+            steps.add(parseArrayAccessor());
+         } else if (token.type == TokenType.QUESTION) {
+            next++;
+            expect(TokenType.LPAREN);
+            filterDepth++;
+            Predicate predicate = predicate(parseOr());
+            filterDepth--;
+            expect(TokenType.RPAREN);
+            steps.add(new Expr.Filter(predicate));
+         } else {
+            break;
+         }
+      }
+      return steps.isEmpty() ? primary : new Expr.Path((Expr) primary, steps);
+   }
+
+   private Expr.Step parseDotAccessor() {
+      Token token = consume();
+      switch (token.type) {
+         case STAR:
+            return new Expr.AnyMember();
+         case ANY:
+            return parseAnyPath();
+         case STRING:
+            return new Expr.Member(token.text);
+         case IDENT:
+            if (peek().type == TokenType.LPAREN) {
+               return parseMethod(token);
+            }
+            return new Expr.Member(token.text);
+         default:
+            throw syntaxError(token);
+      }
+   }
+
+   private Expr.Step parseMethod(Token name) {
+      expect(TokenType.LPAREN);
+      String method = name.text.toLowerCase();
+      switch (method) {
+         case "keyvalue":
+         case "datetime":
+            throw new JsonPathException("jsonpath item method ." + method + "() is not supported by the in-JVM engine", true);
+         default:
+      }
+      expect(TokenType.RPAREN);
+      switch (method) {
+         case "type":
+            return new Expr.Method(Expr.Method.Type.TYPE);
+         case "size":
+            return new Expr.Method(Expr.Method.Type.SIZE);
+         case "double":
+            return new Expr.Method(Expr.Method.Type.DOUBLE);
+         case "ceiling":
+            return new Expr.Method(Expr.Method.Type.CEILING);
+         case "floor":
+            return new Expr.Method(Expr.Method.Type.FLOOR);
+         case "abs":
+            return new Expr.Method(Expr.Method.Type.ABS);
+         default:
+            throw syntaxError(name);
+      }
+   }
+
+   private Expr.Step parseAnyPath() {
+      if (!accept(TokenType.LBRACE)) {
+         return new Expr.AnyPath(0, Integer.MAX_VALUE);
+      }
+      int first = parseLevel();
+      int last = first;
+      if (peek().isKeyword("to")) {
+         next++;
+         last = parseLevel();
+      }
+      expect(TokenType.RBRACE);
+      return new Expr.AnyPath(first, last);
+   }
+
+   private int parseLevel() {
+      Token token = consume();
+      if (token.isKeyword("last")) {
+         return Integer.MAX_VALUE;
+      } else if (token.type == TokenType.NUMBER) {
+         try {
+            int level = Integer.parseInt(token.text);
+            if (level >= 0) {
+               return level;
+            }
+         } catch (NumberFormatException e) {
+            // fall through to the error
+         }
+      }
+      throw syntaxError(token);
+   }
+
+   private Expr.Step parseArrayAccessor() {
+      if (peek().type == TokenType.STAR && tokens.get(next + 1).type == TokenType.RBRACKET) {
+         next += 2;
+         return new Expr.AnyElement();
+      }
+      List<Expr> from = new ArrayList<>();
+      List<Expr> to = new ArrayList<>();
+      subscriptDepth++;
+      do {
+         from.add(expr(parseAdditive()));
+         if (peek().isKeyword("to")) {
+            next++;
+            to.add(expr(parseAdditive()));
+         } else {
+            to.add(null);
+         }
+      } while (accept(TokenType.COMMA));
+      subscriptDepth--;
+      expect(TokenType.RBRACKET);
+      return new Expr.Subscript(from, to);
+   }
+
+   private Item parsePrimary() {
+      Token token = consume();
+      switch (token.type) {
+         case DOLLAR:
+            return new Expr.Root();
+         case AT:
+            if (filterDepth == 0) {
+               throw new JsonPathException("@ is not allowed in root expressions");
+            }
+            return new Expr.Current();
+         case VARIABLE:
+            return new Expr.Variable(token.text);
+         case STRING:
+            return new Expr.Literal(JsonNodeFactory.instance.textNode(token.text));
+         case NUMBER:
+            return new Expr.Literal(JsonValues.numeric(parseNumber(token)));
+         case LPAREN:
+            Item inner = parseOr();
+            expect(TokenType.RPAREN);
+            if (inner instanceof Predicate && peek().isKeyword("is")) {
+               next++;
+               expectKeyword("unknown");
+               return new Predicate.IsUnknown((Predicate) inner);
+            }
+            return inner;
+         case IDENT:
+            // unlike other keywords, literals are case-sensitive
+            switch (token.text) {
+               case "true":
+                  return new Expr.Literal(JsonNodeFactory.instance.booleanNode(true));
+               case "false":
+                  return new Expr.Literal(JsonNodeFactory.instance.booleanNode(false));
+               case "null":
+                  return new Expr.Literal(JsonNodeFactory.instance.nullNode());
+               default:
+            }
+            switch (token.text.toLowerCase()) {
+               case "last":
+                  if (subscriptDepth == 0) {
+                     throw new JsonPathException("LAST is allowed only in array subscripts");
+                  }
+                  return new Expr.Last();
+               case "exists":
+                  expect(TokenType.LPAREN);
+                  Expr expr = expr(parseAdditive());
+                  expect(TokenType.RPAREN);
+                  return new Predicate.Exists(expr);
+               default:
+            }
+            // fall through
+         default:
+            throw syntaxError(token);
+      }
+   }
+
+   private BigDecimal parseNumber(Token token) {
+      // numeric never has a negative display scale
+      BigDecimal value = new BigDecimal(token.text);
+      return value.scale() < 0 ? value.setScale(0) : value;
+   }
+
+   private Pattern compileRegex(String regex, String flags) {
+      int patternFlags = 0;
+      boolean dotAll = false, multiline = false, quote = false, expanded = false;
+      for (char flag : flags.toCharArray()) {
+         switch (flag) {
+            case 'i':
+               patternFlags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+               break;
+            case 's':
+               dotAll = true;
+               break;
+            case 'm':
+               multiline = true;
+               break;
+            case 'x':
+               expanded = true;
+               break;
+            case 'q':
+               quote = true;
+               break;
+            default:
+               throw new JsonPathException("invalid input syntax for type jsonpath: unrecognized flag character \"" + flag + "\" in LIKE_REGEX predicate");
+         }
+      }
+      if (quote) {
+         patternFlags |= Pattern.LITERAL;
+      } else {
+         if (expanded) {
+            throw new JsonPathException("XQuery \"x\" flag (expanded regular expressions) is not implemented");
+         }
+         if (dotAll) {
+            patternFlags |= Pattern.DOTALL;
+         }
+         if (multiline) {
+            patternFlags |= Pattern.MULTILINE;
+         }
+      }
+      try {
+         return Pattern.compile(regex, patternFlags);
+      } catch (PatternSyntaxException e) {
+         throw new JsonPathException("invalid regular expression: " + e.getDescription());
+      }
+   }
+
+   private static Expr expr(Item item) {
+      if (item instanceof Expr) {
+         return (Expr) item;
+      }
+      throw new JsonPathException("syntax error: predicate used where an expression is expected");
+   }
+
+   private static Predicate predicate(Item item) {
+      if (item instanceof Predicate) {
+         return (Predicate) item;
+      }
+      throw new JsonPathException("syntax error: expression used where a predicate is expected");
+   }
+
+   private Token peek() {
+      return tokens.get(next);
+   }
+
+   private Token consume() {
+      Token token = tokens.get(next);
+      if (token.type != TokenType.END) {
+         next++;
+      }
+      return token;
+   }
+
+   private boolean accept(TokenType type) {
+      if (peek().type == type) {
+         next++;
+         return true;
+      }
+      return false;
+   }
+
+   private Token expect(TokenType type) {
+      Token token = consume();
+      if (token.type != type) {
+         throw syntaxError(token);
+      }
+      return token;
+   }
+
+   private void expectKeyword(String keyword) {
+      Token token = consume();
+      if (!token.isKeyword(keyword)) {
+         throw syntaxError(token);
+      }
+   }
+
+   private JsonPathException syntaxError(Token token) {
+      if (token.type == TokenType.END) {
+         return new JsonPathException("syntax error, unexpected end of jsonpath input");
+      }
+      return new JsonPathException("syntax error at or near \"" + source.substring(token.position, Math.min(source.length(), token.position + Math.max(1, token.text.length()))) + "\" of jsonpath input");
+   }
+
+   private void tokenize() {
+      int i = 0;
+      while (i < source.length()) {
+         char c = source.charAt(i);
+         if (Character.isWhitespace(c)) {
+            i++;
+            continue;
+         }
+         if (c == '/' && source.startsWith("/*", i)) {
+            int end = source.indexOf("*/", i + 2);
+            if (end < 0) {
+               throw new JsonPathException("unexpected end of comment");
+            }
+            i = end + 2;
+            continue;
+         }
+         switch (c) {
+            case '$':
+               if (i + 1 < source.length() && source.charAt(i + 1) == '"') {
+                  i = readString(i + 1, TokenType.VARIABLE);
+               } else if (i + 1 < source.length() && isIdentifierChar(source.charAt(i + 1))) {
+                  i = readIdentifier(i + 1, TokenType.VARIABLE);
+               } else {
+                  add(TokenType.DOLLAR, "$", i++);
+               }
+               continue;
+            case '"':
+               i = readString(i, TokenType.STRING);
+               continue;
+            case '@':
+               add(TokenType.AT, "@", i++);
+               continue;
+            case '.':
+               add(TokenType.DOT, ".", i++);
+               continue;
+            case '*':
+               if (source.startsWith("**", i)) {
+                  add(TokenType.ANY, "**", i);
+                  i += 2;
+               } else {
+                  add(TokenType.STAR, "*", i++);
+               }
+               continue;
+            case '[':
+               add(TokenType.LBRACKET, "[", i++);
+               continue;
+            case ']':
+               add(TokenType.RBRACKET, "]", i++);
+               continue;
+            case '(':
+               add(TokenType.LPAREN, "(", i++);
+               continue;
+            case ')':
+               add(TokenType.RPAREN, ")", i++);
+               continue;
+            case '{':
+               add(TokenType.LBRACE, "{", i++);
+               continue;
+            case '}':
+               add(TokenType.RBRACE, "}", i++);
+               continue;
+            case ',':
+               add(TokenType.COMMA, ",", i++);
+               continue;
+            case '?':
+               add(TokenType.QUESTION, "?", i++);
+               continue;
+            case '+':
+               add(TokenType.PLUS, "+", i++);
+               continue;
+            case '-':
+               add(TokenType.MINUS, "-", i++);
+               continue;
+            case '/':
+               add(TokenType.SLASH, "/", i++);
+               continue;
+            case '%':
+               add(TokenType.PERCENT, "%", i++);
+               continue;
+            default:
+         }
+         if (source.startsWith("==", i)) {
+            add(TokenType.EQ, "==", i);
+            i += 2;
+         } else if (source.startsWith("!=", i) || source.startsWith("<>", i)) {
+            add(TokenType.NE, source.substring(i, i + 2), i);
+            i += 2;
+         } else if (source.startsWith("<=", i)) {
+            add(TokenType.LE, "<=", i);
+            i += 2;
+         } else if (source.startsWith(">=", i)) {
+            add(TokenType.GE, ">=", i);
+            i += 2;
+         } else if (source.startsWith("&&", i)) {
+            add(TokenType.AND, "&&", i);
+            i += 2;
+         } else if (source.startsWith("||", i)) {
+            add(TokenType.OR, "||", i);
+            i += 2;
+         } else if (c == '<') {
+            add(TokenType.LT, "<", i++);
+         } else if (c == '>') {
+            add(TokenType.GT, ">", i++);
+         } else if (c == '!') {
+            add(TokenType.NOT, "!", i++);
+         } else if (c >= '0' && c <= '9') {
+            i = readNumber(i);
+         } else if (isIdentifierChar(c)) {
+            i = readIdentifier(i, TokenType.IDENT);
+         } else {
+            throw new JsonPathException("syntax error at or near \"" + c + "\" of jsonpath input");
+         }
+      }
+      tokens.add(new Token(TokenType.END, "", source.length()));
+   }
+
+   private void add(TokenType type, String text, int position) {
+      tokens.add(new Token(type, text, position));
+   }
+
+   private static boolean isIdentifierChar(char c) {
+      return !Character.isWhitespace(c) && SPECIAL.indexOf(c) < 0;
+   }
+
+   private int readIdentifier(int i, TokenType type) {
+      int start = i;
+      while (i < source.length() && isIdentifierChar(source.charAt(i))) {
+         i++;
+      }
+      add(type, source.substring(start, i), type == TokenType.VARIABLE ? start - 1 : start);
+      return i;
+   }
+
+   private int readNumber(int i) {
+      int start = i;
+      i = skipDigits(i);
+      if (source.charAt(start) == '0' && i - start > 1) {
+         throw new JsonPathException("trailing junk after numeric literal at or near \"" + source.substring(start, i) + "\" of jsonpath input");
+      }
+      if (i + 1 < source.length() && source.charAt(i) == '.' && Character.isDigit(source.charAt(i + 1))) {
+         i = skipDigits(i + 1);
+      }
+      if (i < source.length() && (source.charAt(i) == 'e' || source.charAt(i) == 'E')) {
+         int exponent = i + 1;
+         if (exponent < source.length() && (source.charAt(exponent) == '+' || source.charAt(exponent) == '-')) {
+            exponent++;
+         }
+         if (exponent >= source.length() || !Character.isDigit(source.charAt(exponent))) {
+            throw new JsonPathException("invalid numeric literal at or near \"" + source.substring(start, exponent) + "\" of jsonpath input");
+         }
+         i = skipDigits(exponent);
+      }
+      if (i < source.length() && isIdentifierChar(source.charAt(i)) && !Character.isDigit(source.charAt(i))) {
+         throw new JsonPathException("trailing junk after numeric literal at or near \"" + source.substring(start, i + 1) + "\" of jsonpath input");
+      }
+      add(TokenType.NUMBER, source.substring(start, i), start);
+      return i;
+   }
+
+   private int skipDigits(int i) {
+      while (i < source.length() && Character.isDigit(source.charAt(i))) {
+         i++;
+      }
+      return i;
+   }
+
+   private int readString(int quote, TokenType type) {
+      StringBuilder sb = new StringBuilder();
+      int i = quote + 1;
+      while (i < source.length()) {
+         char c = source.charAt(i++);
+         if (c == '"') {
+            add(type, sb.toString(), type == TokenType.VARIABLE ? quote - 1 : quote);
+            return i;
+         } else if (c != '\\') {
+            sb.append(c);
+            continue;
+         }
+         if (i >= source.length()) {
+            break;
+         }
+         char escaped = source.charAt(i++);
+         switch (escaped) {
+            case 'b':
+               sb.append('\b');
+               break;
+            case 'f':
+               sb.append('\f');
+               break;
+            case 'n':
+               sb.append('\n');
+               break;
+            case 'r':
+               sb.append('\r');
+               break;
+            case 't':
+               sb.append('\t');
+               break;
+            case 'v':
+               sb.append('\u000B');
+               break;
+            case 'x':
+               i = readHex(i, 2, 2, sb);
+               break;
+            case 'u':
+               if (i < source.length() && source.charAt(i) == '{') {
+                  int end = source.indexOf('}', i);
+                  if (end < 0) {
+                     throw new JsonPathException("invalid Unicode escape sequence at or near \"" + source.substring(i - 2) + "\" of jsonpath input");
+                  }
+                  if (readHex(i + 1, 1, 6, sb) != end) {
+                     throw new JsonPathException("invalid Unicode escape sequence at or near \"" + source.substring(i - 2, end + 1) + "\" of jsonpath input");
+                  }
+                  i = end + 1;
+               } else {
+                  i = readHex(i, 4, 4, sb);
+               }
+               break;
+            default:
+               // any other escaped character stands for itself
+               sb.append(escaped);
+         }
+      }
+      throw new JsonPathException("unexpected end of quoted string");
+   }
+
+   private int readHex(int i, int minDigits, int maxDigits, StringBuilder sb) {
+      int start = i;
+      while (i < source.length() && i - start < maxDigits && Character.digit(source.charAt(i), 16) >= 0) {
+         i++;
+      }
+      if (i - start < minDigits) {
+         throw new JsonPathException("invalid hexadecimal character sequence at or near \"" + source.substring(Math.max(0, start - 2), i) + "\" of jsonpath input");
+      }
+      int codePoint = Integer.parseInt(source.substring(start, i), 16);
+      if (codePoint == 0) {
+         throw new JsonPathException("unsupported Unicode escape sequence: \\u0000 cannot be converted to text");
+      }
+      sb.appendCodePoint(codePoint);
+      return i;
+   }
+}
@@ -0,0 +1,187 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.DecimalNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+/**
+ * Conversions and comparisons of JSON values following the <code>jsonb</code> and <code>numeric</code> types in PostgreSQL.
+ */
+final class JsonValues {
+   // Minimal number of significant digits in the result of division (NUMERIC_MIN_SIG_DIGITS)
+   private static final int MIN_SIG_DIGITS = 16;
+   private static final int MAX_DISPLAY_SCALE = 1000;
+   // jsonb stores object keys ordered by length first, then bytewise
+   private static final Comparator<String> JSONB_KEY_ORDER = Comparator.<String>comparingInt(key -> key.getBytes(StandardCharsets.UTF_8).length)
+         .thenComparing(JsonValues::compareStrings);
+
+   private JsonValues() {
+   }
+
+   static BigDecimal toDecimal(JsonNode node) {
+      BigDecimal value;
+      if (node.isIntegralNumber()) {
+         value = new BigDecimal(node.bigIntegerValue());
+      } else if (node.isDouble() || node.isFloat()) {
+         double d = node.doubleValue();
+         if (Double.isNaN(d) || Double.isInfinite(d)) {
+            throw new JsonPathException("cannot convert infinity or NaN to numeric");
+         }
+         value = BigDecimal.valueOf(d);
+      } else {
+         value = node.decimalValue();
+      }
+      // numeric never has a negative display scale
+      return value.scale() < 0 ? value.setScale(0) : value;
+   }
+
+   static JsonNode numeric(BigDecimal value) {
+      return DecimalNode.valueOf(value);
+   }
+
+   /**
+    * Integral numbers become integer nodes and the others double nodes, as if the result of the query
+    * in the database was read back through Jackson. Intermediate results are kept as decimals
+    * to preserve the precision and scale of <code>numeric</code>.
+    */
+   static JsonNode normalize(JsonNode node) {
+      if (!node.isBigDecimal()) {
+         return node;
+      }
+      BigDecimal value = node.decimalValue();
+      if (value.scale() <= 0) {
+         BigInteger integer = value.toBigIntegerExact();
+         if (integer.bitLength() < 32) {
+            return JsonNodeFactory.instance.numberNode(integer.intValue());
+         } else if (integer.bitLength() < 64) {
+            return JsonNodeFactory.instance.numberNode(integer.longValue());
+         }
+         return JsonNodeFactory.instance.numberNode(integer);
+      }
+      return JsonNodeFactory.instance.numberNode(value.doubleValue());
+   }
+
+   static BigDecimal divide(BigDecimal dividend, BigDecimal divisor) {
+      if (divisor.signum() == 0) {
+         throw new JsonPathException("division by zero");
+      }
+      return dividend.divide(divisor, divisionScale(dividend, divisor), RoundingMode.HALF_UP);
+   }
+
+   static BigDecimal modulo(BigDecimal dividend, BigDecimal divisor) {
+      if (divisor.signum() == 0) {
+         throw new JsonPathException("division by zero");
+      }
+      return dividend.remainder(divisor).setScale(Math.max(dividend.scale(), divisor.scale()), RoundingMode.UNNECESSARY);
+   }
+
+   // Equivalent of select_div_scale() in numeric.c; weights are computed in base 10000 digits.
+   private static int divisionScale(BigDecimal dividend, BigDecimal divisor) {
+      int weight1 = weight(dividend), weight2 = weight(divisor);
+      int qweight = weight1 - weight2;
+      if (firstDigit(dividend, weight1) <= firstDigit(divisor, weight2)) {
+         qweight--;
+      }
+      int scale = MIN_SIG_DIGITS - qweight * 4;
+      scale = Math.max(scale, Math.max(dividend.scale(), divisor.scale()));
+      return Math.min(Math.max(scale, 0), MAX_DISPLAY_SCALE);
+   }
+
+   private static int weight(BigDecimal value) {
+      if (value.signum() == 0) {
+         return 0;
+      }
+      return Math.floorDiv(value.precision() - value.scale() - 1, 4);
+   }
+
+   private static int firstDigit(BigDecimal value, int weight) {
+      if (value.signum() == 0) {
+         return 0;
+      }
+      return value.abs().movePointLeft(4 * weight).intValue();
+   }
+
+   /**
+    * Conversion of string to double precision and back to numeric, as in <code>.double()</code>.
+    */
+   static BigDecimal parseDouble(String text) {
+      double value;
+      try {
+         value = Double.parseDouble(text.trim());
+      } catch (NumberFormatException e) {
+         return null;
+      }
+      if (Double.isNaN(value) || Double.isInfinite(value)) {
+         return null;
+      }
+      // float8 to numeric conversion keeps 15 significant digits
+      BigDecimal decimal = new BigDecimal(value).round(new MathContext(15, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+      return decimal.scale() < 0 ? decimal.setScale(0) : decimal;
+   }
+
+   /**
+    * Compares strings by code points; this is equivalent to bytewise comparison of UTF-8.
+    */
+   static int compareStrings(String s1, String s2) {
+      int i1 = 0, i2 = 0;
+      while (i1 < s1.length() && i2 < s2.length()) {
+         int c1 = s1.codePointAt(i1), c2 = s2.codePointAt(i2);
+         if (c1 != c2) {
+            return Integer.compare(c1, c2);
+         }
+         i1 += Character.charCount(c1);
+         i2 += Character.charCount(c2);
+      }
+      return Boolean.compare(i1 < s1.length(), i2 < s2.length());
+   }
+
+   /**
+    * @return Values of object members or array elements in the order they would be iterated in <code>jsonb</code>.
+    */
+   static List<JsonNode> children(JsonNode node) {
+      List<JsonNode> children = new ArrayList<>(node.size());
+      if (node.isObject()) {
+         List<Map.Entry<String, JsonNode>> fields = new ArrayList<>(node.size());
+         for (Iterator<Map.Entry<String, JsonNode>> it = node.fields(); it.hasNext(); ) {
+            fields.add(it.next());
+         }
+         fields.sort(Map.Entry.comparingByKey(JSONB_KEY_ORDER));
+         for (Map.Entry<String, JsonNode> field : fields) {
+            children.add(field.getValue());
+         }
+      } else {
+         node.elements().forEachRemaining(children::add);
+      }
+      return children;
+   }
+
+   static String typeName(JsonNode node) {
+      switch (node.getNodeType()) {
+         case NULL:
+            return "null";
+         case BOOLEAN:
+            return "boolean";
+         case NUMBER:
+            return "number";
+         case STRING:
+            return "string";
+         case ARRAY:
+            return "array";
+         case OBJECT:
+            return "object";
+         default:
+            throw new JsonPathException("unsupported JSON value " + node.getNodeType());
+      }
+   }
+}
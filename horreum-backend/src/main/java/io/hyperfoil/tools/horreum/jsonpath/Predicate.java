@@ -0,0 +1,267 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.regex.Pattern;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Predicate in a filter or at the top level of an expression. Errors while evaluating the operands
+ * do not fail the whole expression but make the result unknown.
+ */
+abstract class Predicate extends Item {
+   enum Result {
+      TRUE,
+      FALSE,
+      UNKNOWN
+   }
+
+   abstract Result test(Context ctx);
+
+   /**
+    * Applies <code>test</code> to all combinations of values from the operands. In lax mode the result
+    * is true as soon as any combination is true; in strict mode any unknown combination makes the result unknown.
+    */
+   static Result testOperands(Context ctx, Expr left, Expr right, boolean unwrapRight, BiFunction<JsonNode, JsonNode, Result> test) {
+      List<JsonNode> leftValues, rightValues;
+      try {
+         leftValues = left.evaluate(ctx, true);
+         rightValues = right == null ? Collections.singletonList(null) : right.evaluate(ctx, unwrapRight);
+      } catch (JsonPathException e) {
+         return Result.UNKNOWN;
+      }
+      boolean found = false, error = false;
+      for (JsonNode l : leftValues) {
+         for (JsonNode r : rightValues) {
+            Result result = test.apply(l, r);
+            if (result == Result.UNKNOWN) {
+               if (!ctx.lax) {
+                  return Result.UNKNOWN;
+               }
+               error = true;
+            } else if (result == Result.TRUE) {
+               if (ctx.lax) {
+                  return Result.TRUE;
+               }
+               found = true;
+            }
+         }
+      }
+      if (found) {
+         return Result.TRUE;
+      } else if (error) {
+         return Result.UNKNOWN;
+      }
+      return Result.FALSE;
+   }
+
+   static final class Comparison extends Predicate {
+      enum Operator {
+         EQ,
+         NE,
+         LT,
+         LE,
+         GT,
+         GE
+      }
+
+      private final Operator operator;
+      private final Expr left;
+      private final Expr right;
+
+      Comparison(Operator operator, Expr left, Expr right) {
+         this.operator = operator;
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         return testOperands(ctx, left, right, true, this::compare);
+      }
+
+      // Equivalent of compareItems() in jsonpath_exec.c
+      private Result compare(JsonNode l, JsonNode r) {
+         if (l.getNodeType() != r.getNodeType()) {
+            if (l.isNull() || r.isNull()) {
+               // nulls are equal only to nulls, non-null values are always not equal
+               return operator == Operator.NE ? Result.TRUE : Result.FALSE;
+            }
+            return Result.UNKNOWN;
+         }
+         int cmp;
+         if (l.isNull()) {
+            cmp = 0;
+         } else if (l.isBoolean()) {
+            cmp = Boolean.compare(l.booleanValue(), r.booleanValue());
+         } else if (l.isNumber()) {
+            cmp = JsonValues.toDecimal(l).compareTo(JsonValues.toDecimal(r));
+         } else if (l.isTextual()) {
+            cmp = JsonValues.compareStrings(l.textValue(), r.textValue());
+         } else {
+            // arrays and objects are not comparable
+            return Result.UNKNOWN;
+         }
+         boolean result;
+         switch (operator) {
+            case EQ:
+               result = cmp == 0;
+               break;
+            case NE:
+               result = cmp != 0;
+               break;
+            case LT:
+               result = cmp < 0;
+               break;
+            case LE:
+               result = cmp <= 0;
+               break;
+            case GT:
+               result = cmp > 0;
+               break;
+            case GE:
+               result = cmp >= 0;
+               break;
+            default:
+               throw new IllegalStateException("Unknown operator " + operator);
+         }
+         return result ? Result.TRUE : Result.FALSE;
+      }
+   }
+
+   static final class StartsWith extends Predicate {
+      private final Expr whole;
+      private final Expr initial;
+
+      StartsWith(Expr whole, Expr initial) {
+         this.whole = whole;
+         this.initial = initial;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         return testOperands(ctx, whole, initial, false, (w, i) -> {
+            if (!w.isTextual() || !i.isTextual()) {
+               return Result.UNKNOWN;
+            }
+            return w.textValue().startsWith(i.textValue()) ? Result.TRUE : Result.FALSE;
+         });
+      }
+   }
+
+   static final class LikeRegex extends Predicate {
+      private final Expr expr;
+      private final Pattern pattern;
+
+      LikeRegex(Expr expr, Pattern pattern) {
+         this.expr = expr;
+         this.pattern = pattern;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         return testOperands(ctx, expr, null, false, (value, unused) -> {
+            if (!value.isTextual()) {
+               return Result.UNKNOWN;
+            }
+            return pattern.matcher(value.textValue()).find() ? Result.TRUE : Result.FALSE;
+         });
+      }
+   }
+
+   static final class Exists extends Predicate {
+      private final Expr expr;
+
+      Exists(Expr expr) {
+         this.expr = expr;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         List<JsonNode> values = new ArrayList<>();
+         try {
+            expr.evaluate(ctx, values);
+         } catch (JsonPathException e) {
+            // lax mode stops on the first value and would not reach the error
+            return ctx.lax && !values.isEmpty() ? Result.TRUE : Result.UNKNOWN;
+         }
+         return values.isEmpty() ? Result.FALSE : Result.TRUE;
+      }
+   }
+
+   static final class And extends Predicate {
+      private final Predicate left;
+      private final Predicate right;
+
+      And(Predicate left, Predicate right) {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         Result l = left.test(ctx);
+         if (l == Result.FALSE) {
+            return Result.FALSE;
+         }
+         Result r = right.test(ctx);
+         return r == Result.TRUE ? l : r;
+      }
+   }
+
+   static final class Or extends Predicate {
+      private final Predicate left;
+      private final Predicate right;
+
+      Or(Predicate left, Predicate right) {
+         this.left = left;
+         this.right = right;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         Result l = left.test(ctx);
+         if (l == Result.TRUE) {
+            return Result.TRUE;
+         }
+         Result r = right.test(ctx);
+         return r == Result.FALSE ? l : r;
+      }
+   }
+
+   static final class Not extends Predicate {
+      private final Predicate predicate;
+
+      Not(Predicate predicate) {
+         this.predicate = predicate;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         switch (predicate.test(ctx)) {
+            case TRUE:
+               return Result.FALSE;
+            case FALSE:
+               return Result.TRUE;
+            default:
+               return Result.UNKNOWN;
+         }
+      }
+   }
+
+   static final class IsUnknown extends Predicate {
+      private final Predicate predicate;
+
+      IsUnknown(Predicate predicate) {
+         this.predicate = predicate;
+      }
+
+      @Override
+      Result test(Context ctx) {
+         return predicate.test(ctx) == Result.UNKNOWN ? Result.TRUE : Result.FALSE;
+      }
+   }
+}
@@ -12,6 +12,7 @@ import javax.ws.rs.core.Cookie;
 
 import org.jboss.logging.Logger;
 
+import io.hyperfoil.tools.horreum.svc.BlockingExecutor;
 import io.hyperfoil.tools.horreum.svc.CachedSecurityIdentity;
 import io.hyperfoil.tools.horreum.svc.UserServiceImpl;
 import io.quarkus.security.identity.CurrentIdentityAssociation;
@@ -75,7 +76,7 @@ public class UserTeamsFilter {
       }
 
       CachedSecurityIdentity copy = new CachedSecurityIdentity(identity);
-      vertxInstance.get().executeBlocking(Uni.createFrom().item(() -> {
+      Uni<Object> cacheTeams = Uni.createFrom().item(() -> {
          RolesInterceptor.setCurrentIdentity(copy);
          try {
             userService.cacheUserTeams(username, teams);
@@ -83,7 +84,10 @@ public class UserTeamsFilter {
             RolesInterceptor.setCurrentIdentity(null);
          }
          return null;
-      })).subscribe().with(nil -> {}, t -> {
+      });
+      BlockingExecutor executor = BlockingExecutor.get();
+      (executor != null ? cacheTeams.runSubscriptionOn(executor) : vertxInstance.get().executeBlocking(cacheTeams))
+            .subscribe().with(nil -> {}, t -> {
          log.warn("Failed to cache teams for user " + username, t);
       });
       // Cookie API does not allow to set SameSite attribute
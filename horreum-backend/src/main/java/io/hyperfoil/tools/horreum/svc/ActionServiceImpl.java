@@ -40,6 +40,7 @@ import java.security.GeneralSecurityException;
 import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
@@ -66,6 +67,9 @@ public class ActionServiceImpl implements ActionService {
    @Inject
    MessageBus messageBus;
 
+   @Inject
+   PipelineMetrics pipelineMetrics;
+
    @Inject
    EncryptionManager encryptionManager;
 
@@ -74,17 +78,30 @@ public class ActionServiceImpl implements ActionService {
       plugins = actionPlugins.stream().collect(Collectors.toMap(ActionPlugin::type, Function.identity()));
       messageBus.subscribe(TestDAO.EVENT_NEW, "ActionService", TestDAO.class, this::onNewTest);
       messageBus.subscribe(TestDAO.EVENT_DELETED, "ActionService", TestDAO.class, this::onTestDelete);
-      messageBus.subscribe(RunDAO.EVENT_NEW, "ActionService", RunDAO.class, this::onNewRun);
+      messageBus.subscribe(RunDAO.EVENT_NEW, "ActionService", RunDAO.Event.class, this::onNewRun);
       messageBus.subscribe(Change.EVENT_NEW, "ActionService", ChangeDAO.Event.class, this::onNewChange);
       messageBus.subscribe(ExperimentService.ExperimentResult.NEW_RESULT, "ActionService", ExperimentService.ExperimentResult.class, this::onNewExperimentResult);
    }
 
    private void executeActions(String event, int testId, Object payload, boolean notify){
+      executeActions(event, testId, () -> payload, notify);
+   }
+
+   private void executeActions(String event, int testId, Supplier<Object> payloadSupplier, boolean notify){
+      pipelineMetrics.time(PipelineMetrics.STAGE_ACTIONS, testId, () -> doExecuteActions(event, testId, payloadSupplier, notify));
+   }
+
+   private void doExecuteActions(String event, int testId, Supplier<Object> payloadSupplier, boolean notify){
       List<ActionDAO> actions = getActions(event, testId);
       if (actions.isEmpty()) {
          new ActionLogDAO(PersistentLog.DEBUG, testId, event, null, "No actions found.").persist();
          return;
       }
+      Object payload = payloadSupplier.get();
+      if (payload == null) {
+         log.debugf("Payload for event %s in test %d no longer exists, ignoring", event, testId);
+         return;
+      }
       for (ActionDAO action : actions) {
          if (!notify && !action.runAlways) {
             log.debugf("Ignoring action for event %s in test %d, type %s as this event should not notfiy", event, testId, action.type);
@@ -142,9 +159,9 @@ public class ActionServiceImpl implements ActionService {
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
-   public void onNewRun(RunDAO run) {
-      Integer testId = run.testid;
-      executeActions(RunDAO.EVENT_NEW, testId, run, true);
+   public void onNewRun(RunDAO.Event event) {
+      // the event carries only identifiers, the run (with data) is loaded only if there's an action to execute
+      executeActions(RunDAO.EVENT_NEW, event.testId, () -> RunDAO.findById(event.runId), true);
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
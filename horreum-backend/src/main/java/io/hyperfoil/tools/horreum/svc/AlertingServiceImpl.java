@@ -3,6 +3,7 @@ package io.hyperfoil.tools.horreum.svc;
 import java.math.BigInteger;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -23,6 +24,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
@@ -46,11 +48,13 @@ import io.hyperfoil.tools.horreum.api.changes.Dashboard;
 import io.hyperfoil.tools.horreum.api.changes.Target;
 import io.hyperfoil.tools.horreum.api.services.AlertingService;
 import io.hyperfoil.tools.horreum.bus.MessageBus;
+import io.hyperfoil.tools.horreum.bus.TaskPriority;
 import io.hyperfoil.tools.horreum.changedetection.FixedThresholdModel;
 import io.hyperfoil.tools.horreum.entity.FingerprintDAO;
 import io.hyperfoil.tools.horreum.entity.PersistentLog;
 import io.hyperfoil.tools.horreum.entity.alerting.*;
 import io.hyperfoil.tools.horreum.changedetection.ChangeDetectionModel;
+import io.hyperfoil.tools.horreum.changedetection.DataPointSeries;
 import io.hyperfoil.tools.horreum.changedetection.RelativeDifferenceChangeDetectionModel;
 
 import io.hyperfoil.tools.horreum.entity.data.DataSetDAO;
@@ -62,6 +66,7 @@ import org.hibernate.Hibernate;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.transform.AliasToBeanResultTransformer;
 import org.hibernate.transform.Transformers;
+import org.hibernate.type.DoubleType;
 import org.hibernate.type.InstantType;
 import org.hibernate.type.IntegerType;
 import org.hibernate.type.TextType;
@@ -72,7 +77,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.vladmihalcea.hibernate.type.array.DoubleArrayType;
 import com.vladmihalcea.hibernate.type.array.IntArrayType;
+import com.vladmihalcea.hibernate.type.array.LongArrayType;
 import com.vladmihalcea.hibernate.type.json.JsonNodeBinaryType;
 
 import io.hyperfoil.tools.horreum.server.WithRoles;
@@ -141,12 +148,14 @@ public class AlertingServiceImpl implements AlertingService {
 
    private static final String FIND_LAST_DATAPOINTS =
          "SELECT DISTINCT ON(variable_id) variable_id AS variable, EXTRACT(EPOCH FROM timestamp) * 1000 AS timestamp " +
-         "FROM datapoint dp LEFT JOIN fingerprint fp ON fp.dataset_id = dp.dataset_id " +
-         "WHERE ((fp.fingerprint IS NULL AND (?1)::::jsonb IS NULL) OR json_equals(fp.fingerprint, (?1)::::jsonb)) AND variable_id = ANY(?2) " +
+         "FROM datapoint dp " +
+         "WHERE dp.fingerprint_hash = fingerprint_hash((?1)::::jsonb) AND variable_id = ANY(?2) " +
          "ORDER BY variable_id, timestamp DESC;";
    //@formatter:on
    private static final Instant LONG_TIME_AGO = Instant.ofEpochSecond(0);
    private static final Instant VERY_DISTANT_FUTURE = Instant.parse("2666-06-06T06:06:06.00Z");
+   // Datapoints kept in the series for logging even if the models need a shorter window
+   private static final int MIN_SERIES_CAPACITY = 20;
 
    private static final Map<String, ChangeDetectionModel> MODELS = Map.of(
          RelativeDifferenceChangeDetectionModel.NAME, new RelativeDifferenceChangeDetectionModel(),
@@ -158,6 +167,9 @@ public class AlertingServiceImpl implements AlertingService {
    @Inject
    EntityManager em;
 
+   @Inject
+   PipelineMetrics pipelineMetrics;
+
    @Inject
    MessageBus messageBus;
 
@@ -173,12 +185,21 @@ public class AlertingServiceImpl implements AlertingService {
    @ConfigProperty(name = "horreum.alerting.updateLabel.retries", defaultValue = "5")
    Integer labelCalcRetries;
 
+   @ConfigProperty(name = "horreum.alerting.recalculation.parallelism", defaultValue = "4")
+   int recalculationParallelism;
+
+   @ConfigProperty(name = "horreum.alerting.recalculation.chunk-size", defaultValue = "20")
+   int recalculationChunkSize;
+
    @Inject
    TransactionManager tm;
 
    @Inject
    Vertx vertx;
 
+   @Inject
+   RecalculationExecutor recalculationExecutor;
+
    @Inject
    NotificationServiceImpl notificationService;
 
@@ -194,6 +215,12 @@ public class AlertingServiceImpl implements AlertingService {
    // at the timestamp.
    private final ConcurrentMap<VarAndFingerprint, UpTo> validUpTo = new ConcurrentHashMap<>();
 
+   // Rolling change detection state; an entry is removed while the change detection step is running
+   // and put back only after the transaction commits. The state is rebuilt from the database when
+   // it does not match validUpTo or the last change, or when the version for the test changes.
+   private final ConcurrentMap<VarAndFingerprint, DetectionState> detectionStates = new ConcurrentHashMap<>();
+   private final ConcurrentMap<Integer, AtomicInteger> detectionVersions = new ConcurrentHashMap<>();
+
    static {
       System.setProperty("polyglot.engine.WarnInterpreterOnly", "false");
    }
@@ -202,7 +229,9 @@ public class AlertingServiceImpl implements AlertingService {
    @Transactional
    public void onLabelsUpdated(DataSetDAO.LabelsUpdatedEvent event) {
       boolean sendNotifications;
-      DataPointDAO.delete("dataset_id", event.datasetId);
+      if (DataPointDAO.delete("dataset_id", event.datasetId) > 0) {
+         invalidateDetectionStates(event.testId);
+      }
       DataSetDAO dataset = DataSetDAO.findById(event.datasetId);
       if (dataset == null) {
          // The run is not committed yet?
@@ -234,7 +263,9 @@ public class AlertingServiceImpl implements AlertingService {
             sendNotifications = true;
          }
       }
-      recalculateDatapointsForDataset(dataset, sendNotifications, false, null);
+      DataPointBatch batch = new DataPointBatch();
+      recalculateDatapointsForDataset(dataset, sendNotifications, false, null, batch);
+      insertDataPoints(batch, sendNotifications, null);
       recalculateMissingDataRules(dataset);
    }
 
@@ -271,14 +302,26 @@ public class AlertingServiceImpl implements AlertingService {
 
    @PostConstruct
    void init() {
-      messageBus.subscribe(DataSetDAO.EVENT_LABELS_UPDATED, "AlertingService", DataSetDAO.LabelsUpdatedEvent.class, this::onLabelsUpdated);
+      messageBus.subscribe(DataSetDAO.EVENT_LABELS_UPDATED, "AlertingService", DataSetDAO.LabelsUpdatedEvent.class, e -> TaskPriority.of(e.isRecalculation), this::onLabelsUpdated);
       messageBus.subscribe(DataSetDAO.EVENT_DELETED, "AlertingService", DataSetDAO.Info.class, this::onDatasetDeleted);
-      messageBus.subscribe(DataPointDAO.EVENT_NEW, "AlertingService", DataPointDAO.Event.class, this::onNewDataPoint);
-      messageBus.subscribe(RunDAO.EVENT_NEW, "AlertingService", RunDAO.class, this::removeExpected);
+      messageBus.subscribe(DataPointDAO.EVENT_NEW_BATCH, "AlertingService", DataPointDAO.BatchEvent.class, this::onNewDataPoints);
+      messageBus.subscribe(RunDAO.EVENT_NEW, "AlertingService", RunDAO.Event.class, this::removeExpected);
       messageBus.subscribe(TestDAO.EVENT_DELETED, "AlertingService", TestDAO.class, this::onTestDeleted);
+      messageBus.onTestsClaimed(this::onTestsClaimed);
    }
 
-   private void recalculateDatapointsForDataset(DataSetDAO dataset, boolean notify, boolean debug, Recalculation recalculation) {
+   // Other nodes might have added datapoints for these tests meanwhile; start from scratch as after a restart.
+   private void onTestsClaimed(IntPredicate filter) {
+      validUpTo.values().removeIf(upTo -> filter.test(upTo.testId));
+      detectionVersions.forEach((testId, version) -> {
+         if (filter.test(testId)) {
+            version.incrementAndGet();
+         }
+      });
+      detectionStates.values().removeIf(state -> filter.test(state.testId));
+   }
+
+   private void recalculateDatapointsForDataset(DataSetDAO dataset, boolean notify, boolean debug, Recalculation recalculation, DataPointBatch batch) {
       log.debugf("Analyzing dataset %d (%d/%d)", (long)dataset.id, (long)dataset.run.id, dataset.ordinal);
       TestDAO test = TestDAO.findById(dataset.testid);
       if (test == null) {
@@ -289,7 +332,7 @@ public class AlertingServiceImpl implements AlertingService {
          return;
       }
 
-      emitDatapoints(dataset, notify, debug, recalculation);
+      emitDatapoints(dataset, notify, debug, recalculation, batch);
    }
 
    private boolean testFingerprint(DataSetDAO dataset, String filter) {
@@ -393,7 +436,11 @@ public class AlertingServiceImpl implements AlertingService {
       }
    }
 
-   private void emitDatapoints(DataSetDAO dataset, boolean notify, boolean debug, Recalculation recalculation) {
+   private void emitDatapoints(DataSetDAO dataset, boolean notify, boolean debug, Recalculation recalculation, DataPointBatch batch) {
+      pipelineMetrics.time(PipelineMetrics.STAGE_DATAPOINTS, dataset.testid, () -> doEmitDatapoints(dataset, notify, debug, recalculation, batch));
+   }
+
+   private void doEmitDatapoints(DataSetDAO dataset, boolean notify, boolean debug, Recalculation recalculation, DataPointBatch batch) {
       Set<String> missingValueVariables = new HashSet<>();
       @SuppressWarnings("unchecked")
       List<VariableData> values = em.createNativeQuery(LOOKUP_VARIABLES)
@@ -442,7 +489,7 @@ public class AlertingServiceImpl implements AlertingService {
                      error -> logCalculationMessage(dataset, PersistentLog.ERROR, "Evaluation of variable %s failed: %s", data.fullName(), error),
                      info -> logCalculationMessage(dataset, PersistentLog.INFO, "Evaluation of variable %s: %s", data.fullName(), info));
                if (value != null) {
-                  createDataPoint(dataset, finalTimestamp, data.variableId, value, notify);
+                  batch.add(dataset, finalTimestamp, data.variableId, value);
                } else {
                   if (recalculation != null) {
                      recalculation.datasetsWithoutValue.put(dataset.id, dataset.getInfo());
@@ -476,11 +523,11 @@ public class AlertingServiceImpl implements AlertingService {
                if (value == null) {
                   logCalculationMessage(dataset, PersistentLog.ERROR, "Cannot turn %s into a floating-point value for variable %s", data.value, data.fullName());
                   if (recalculation != null) {
-                     recalculation.errors++;
+                     recalculation.addError();
                   }
                   missingValueVariables.add(data.fullName());
                } else {
-                  createDataPoint(dataset, finalTimestamp, data.variableId, value, notify);
+                  batch.add(dataset, finalTimestamp, data.variableId, value);
                }
             },
             (data, exception, code) -> logCalculationMessage(dataset, PersistentLog.ERROR, "Evaluation of variable %s failed: '%s' Code:<pre>%s</pre>", data.fullName(), exception.getMessage(), code),
@@ -492,15 +539,68 @@ public class AlertingServiceImpl implements AlertingService {
       messageBus.publish(DataPointDAO.EVENT_DATASET_PROCESSED, dataset.testid, new DataPointDAO.DatasetProcessedEvent(dataset.getInfo(), notify));
    }
 
-   private void createDataPoint(DataSetDAO dataset, Instant timestamp, int variableId, double value, boolean notify) {
-      DataPointDAO dataPoint = new DataPointDAO();
-      dataPoint.variable = em.getReference(VariableDAO.class, variableId);
-      dataPoint.dataset = dataset;
-      dataPoint.timestamp = timestamp;
-      dataPoint.value = value;
-      dataPoint.persist();
-      messageBus.publish(DataPointDAO.EVENT_NEW, dataset.testid,
-              new DataPointDAO.Event(dataPoint, dataset.testid, notify));
+   /**
+    * Inserts all datapoints in the batch using single statement. When this is not a recalculation
+    * the change detection is triggered for each dataset; otherwise the datapoints are recorded in
+    * the recalculation and change detection runs when the recalculation completes.
+    */
+   private void insertDataPoints(DataPointBatch batch, boolean notify, Recalculation recalculation) {
+      if (batch.isEmpty()) {
+         return;
+      }
+      @SuppressWarnings("unchecked") List<Object[]> rows = em.createNativeQuery(
+            "INSERT INTO datapoint (id, dataset_id, timestamp, variable_id, value) " +
+            "SELECT nextval('hibernate_sequence'), v.dataset_id, to_timestamp(0) + v.timestamp * INTERVAL '1 microsecond', v.variable_id, v.value " +
+            "FROM unnest(?1, ?2, ?3, ?4) AS v(dataset_id, timestamp, variable_id, value) " +
+            "RETURNING id, dataset_id, variable_id, value")
+            .unwrap(NativeQuery.class)
+            .setParameter(1, batch.datasetIds.stream().mapToInt(Integer::intValue).toArray(), IntArrayType.INSTANCE)
+            .setParameter(2, batch.timestamps.stream().mapToLong(Long::longValue).toArray(), LongArrayType.INSTANCE)
+            .setParameter(3, batch.variableIds.stream().mapToInt(Integer::intValue).toArray(), IntArrayType.INSTANCE)
+            .setParameter(4, batch.values.stream().mapToDouble(Double::doubleValue).toArray(), DoubleArrayType.INSTANCE)
+            .addScalar("id", IntegerType.INSTANCE)
+            .addScalar("dataset_id", IntegerType.INSTANCE)
+            .addScalar("variable_id", IntegerType.INSTANCE)
+            .addScalar("value", DoubleType.INSTANCE)
+            .getResultList();
+      log.debugf("Created %d datapoints for %d datasets", rows.size(), batch.datasets.size());
+      Map<Integer, List<Object[]>> rowsByDataset = new HashMap<>();
+      for (Object[] row : rows) {
+         rowsByDataset.computeIfAbsent((Integer) row[1], id -> new ArrayList<>()).add(row);
+      }
+      Map<Integer, List<Integer>> variablesByDataset = new HashMap<>();
+      rowsByDataset.forEach((datasetId, datasetRows) -> {
+         DataSetDAO dataset = batch.datasets.get(datasetId);
+         int[] dataPointIds = datasetRows.stream().mapToInt(row -> (Integer) row[0]).toArray();
+         int[] variableIds = datasetRows.stream().mapToInt(row -> (Integer) row[2]).toArray();
+         double[] values = datasetRows.stream().mapToDouble(row -> (Double) row[3]).toArray();
+         variablesByDataset.put(datasetId, Arrays.stream(variableIds).boxed().collect(Collectors.toList()));
+         messageBus.publish(DataPointDAO.EVENT_NEW_BATCH, dataset.testid, new DataPointDAO.BatchEvent(dataset.getInfo(),
+               batch.datasetTimestamps.get(datasetId), dataPointIds, variableIds, values, notify, recalculation != null));
+      });
+      if (recalculation != null) {
+         @SuppressWarnings("unchecked") List<Object[]> fingerprints = em.createNativeQuery(
+               "SELECT dataset_id, fingerprint FROM fingerprint WHERE dataset_id = ANY(?1)")
+               .unwrap(NativeQuery.class)
+               .setParameter(1, variablesByDataset.keySet().stream().mapToInt(Integer::intValue).toArray(), IntArrayType.INSTANCE)
+               .addScalar("dataset_id", IntegerType.INSTANCE)
+               .addScalar("fingerprint", JsonNodeBinaryType.INSTANCE)
+               .getResultList();
+         Map<Integer, JsonNode> fingerprintByDataset = new HashMap<>();
+         for (Object[] row : fingerprints) {
+            fingerprintByDataset.put((Integer) row[0], (JsonNode) row[1]);
+         }
+         Map<VarAndFingerprint, Instant> recalculated = new HashMap<>();
+         variablesByDataset.forEach((datasetId, variableIds) -> {
+            Instant timestamp = batch.datasetTimestamps.get(datasetId);
+            for (int variableId : variableIds) {
+               recalculated.merge(new VarAndFingerprint(variableId, fingerprintByDataset.get(datasetId)), timestamp,
+                     (t1, t2) -> t1.isBefore(t2) ? t1 : t2);
+            }
+         });
+         // If the transaction is retried the datapoints would be recorded again; that does not matter
+         Util.doAfterCommit(tm, () -> recalculated.forEach(recalculation::recalculatedFrom));
+      }
    }
 
    private void logCalculationMessage(DataSetDAO dataSet, int level, String format, Object... args) {
@@ -534,47 +634,54 @@ public class AlertingServiceImpl implements AlertingService {
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
-   void onNewDataPoint(DataPointDAO.Event event) {
-      DataPointDAO dataPoint = event.dataPoint;
-      if (dataPoint.variable != null && dataPoint.variable.id != null) {
-         VariableDAO variable = VariableDAO.findById(dataPoint.variable.id);
-         if (variable != null) {
-            log.debugf("Processing new datapoint for dataset %d at %s, variable %d (%s), value %f",
-                dataPoint.dataset.id, dataPoint.timestamp,
-                variable.id, variable.name, dataPoint.value);
-            JsonNode fingerprint = FingerprintDAO.<FingerprintDAO>findByIdOptional(dataPoint.dataset.id).map(fp -> fp.fingerprint).orElse(null);
-
-            VarAndFingerprint key = new VarAndFingerprint(variable.id, fingerprint);
-            log.debugf("Invalidating variable %d FP %s timestamp %s, current value is %s", variable.id, fingerprint, dataPoint.timestamp, validUpTo.get(key));
-            validUpTo.compute(key, (ignored, current) -> {
-               if (current == null || !dataPoint.timestamp.isAfter(current.timestamp)) {
-                  return new UpTo(dataPoint.timestamp, false);
-               } else {
-                  return current;
-               }
-            });
-            runChangeDetection(VariableDAO.findById(variable.id), fingerprint, event.notify, true);
-         } else {
-            log.warnf("Could not process new datapoint for dataset %d at %s, could not find variable by id %d ",
-                dataPoint.dataset.id, dataPoint.timestamp, dataPoint.variable == null ? -1 : dataPoint.variable.id);
-         }
-      } else {
-         log.warnf( "Could not process new datapoint for dataset %d when the supplied variable or id reference is null ",
-             dataPoint.dataset.id);
+   void onNewDataPoints(DataPointDAO.BatchEvent event) {
+      if (event.recalculation) {
+         // change detection is run when the recalculation completes
+         return;
+      }
+      DataSetDAO.Info dataset = event.dataset;
+      log.debugf("Processing %d new datapoints for dataset %d at %s", event.variableIds.length, dataset.id, event.timestamp);
+      // The fingerprint, variables and their change detection configuration are shared by all datapoints
+      JsonNode fingerprint = FingerprintDAO.<FingerprintDAO>findByIdOptional(dataset.id).map(fp -> fp.fingerprint).orElse(null);
+      List<Integer> ids = Arrays.stream(event.variableIds).boxed().collect(Collectors.toList());
+      List<VariableDAO> variables = VariableDAO.<VariableDAO>find("SELECT DISTINCT v FROM variable v LEFT JOIN FETCH v.changeDetection WHERE v.id IN ?1", ids).list();
+      if (variables.size() < ids.size()) {
+         log.warnf("Could not process all new datapoints for dataset %d at %s, found only %d of %d variables",
+               dataset.id, event.timestamp, variables.size(), ids.size());
+      }
+      for (VariableDAO variable : variables) {
+         VarAndFingerprint key = new VarAndFingerprint(variable.id, fingerprint);
+         log.debugf("Invalidating variable %d FP %s timestamp %s, current value is %s", variable.id, fingerprint, event.timestamp, validUpTo.get(key));
+         validUpTo.compute(key, (ignored, current) -> {
+            if (current == null || !event.timestamp.isAfter(current.timestamp)) {
+               return new UpTo(variable.testId, event.timestamp, false);
+            } else {
+               return current;
+            }
+         });
+         runChangeDetection(variable, variable.changeDetection, fingerprint, event.notify, true);
       }
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
    void tryRunChangeDetection(VariableDAO variable, JsonNode fingerprint, boolean notify) {
-      runChangeDetection(variable, fingerprint, notify, false);
+      List<ChangeDetectionDAO> detections = ChangeDetectionDAO.<ChangeDetectionDAO>find("variable", variable).list();
+      runChangeDetection(variable, detections, fingerprint, notify, false);
    }
 
-   private void runChangeDetection(VariableDAO variable, JsonNode fingerprint, boolean notify, boolean expectExists) {
-      UpTo valid = validUpTo.get(new VarAndFingerprint(variable.id, fingerprint));
+   private void runChangeDetection(VariableDAO variable, Collection<ChangeDetectionDAO> detections, JsonNode fingerprint, boolean notify, boolean expectExists) {
+      pipelineMetrics.time(PipelineMetrics.STAGE_CHANGE_DETECTION, variable.testId, () -> doRunChangeDetection(variable, detections, fingerprint, notify, expectExists));
+   }
+
+   private void doRunChangeDetection(VariableDAO variable, Collection<ChangeDetectionDAO> detections, JsonNode fingerprint, boolean notify, boolean expectExists) {
+      VarAndFingerprint key = new VarAndFingerprint(variable.id, fingerprint);
+      int version = detectionVersion(variable.testId);
+      DetectionState state = detectionStates.remove(key);
+      UpTo valid = validUpTo.get(key);
       @SuppressWarnings("unchecked") Timestamp nextTimestamp = (Timestamp) em.createNativeQuery(
-            "SELECT MIN(timestamp) FROM datapoint dp LEFT JOIN fingerprint fp ON dp.dataset_id = fp.dataset_id " +
-                  "WHERE dp.variable_id = ?1 AND (timestamp > ?2 OR (timestamp = ?2 AND ?3)) AND json_equals(fp.fingerprint, ?4)")
+            "SELECT MIN(timestamp) FROM datapoint dp " +
+                  "WHERE dp.variable_id = ?1 AND dp.fingerprint_hash = fingerprint_hash(?4) AND (timestamp > ?2 OR (timestamp = ?2 AND ?3))")
             .unwrap(NativeQuery.class)
             .setParameter(1, variable.id)
             .setParameter(2, valid != null ? valid.timestamp : LONG_TIME_AGO, InstantType.INSTANCE)
@@ -583,15 +690,15 @@ public class AlertingServiceImpl implements AlertingService {
             .getResultStream().filter(Objects::nonNull).findFirst().orElse(null);
       if (nextTimestamp == null) {
          log.debugf("No further datapoints for change detection");
+         restoreDetectionState(key, state);
          return;
       }
 
       // this should happen only after reboot, let's start with last change
       if (valid != null) {
-         int numDeleted = em.createNativeQuery("DELETE FROM change cc WHERE cc.id IN (" +
-               "SELECT id FROM change c LEFT JOIN fingerprint fp ON c.dataset_id = fp.dataset_id " +
-               "WHERE NOT c.confirmed AND c.variable_id = ?1 AND (c.timestamp > ?2 OR (c.timestamp = ?2 AND ?3)) " +
-               "AND json_equals(fp.fingerprint, ?4))")
+         int numDeleted = em.createNativeQuery("DELETE FROM change c " +
+               "WHERE NOT c.confirmed AND c.variable_id = ?1 AND c.fingerprint_hash = fingerprint_hash(?4) " +
+               "AND (c.timestamp > ?2 OR (c.timestamp = ?2 AND ?3))")
                .unwrap(NativeQuery.class)
                .setParameter(1, variable.id)
                .setParameter(2, valid.timestamp, InstantType.INSTANCE)
@@ -601,51 +708,77 @@ public class AlertingServiceImpl implements AlertingService {
          log.debugf("Deleted %d changes %s %s for variable %d, fingerprint %s", numDeleted, valid.inclusive ? ">" : ">=", valid.timestamp, variable.id, fingerprint);
       }
 
-      var changeQuery = em.createQuery("SELECT c FROM Change c LEFT JOIN Fingerprint fp ON c.dataset.id = fp.dataset.id " +
-            "WHERE c.variable = ?1 AND (c.timestamp < ?2 OR (c.timestamp = ?2 AND ?3 = TRUE)) AND " +
-            "TRUE = function('json_equals', fp.fingerprint, ?4) " +
-            "ORDER by c.timestamp DESC", ChangeDAO.class);
-      changeQuery
-            .setParameter(1, variable)
-            .setParameter(2, valid != null ? valid.timestamp : VERY_DISTANT_FUTURE)
+      @SuppressWarnings("unchecked") ChangeDAO lastChange = (ChangeDAO) em.createNativeQuery("SELECT c.* FROM change c " +
+            "WHERE c.variable_id = ?1 AND c.fingerprint_hash = fingerprint_hash(?4) " +
+            "AND (c.timestamp < ?2 OR (c.timestamp = ?2 AND ?3)) " +
+            "ORDER by c.timestamp DESC LIMIT 1", ChangeDAO.class)
+            .unwrap(NativeQuery.class)
+            .setParameter(1, variable.id)
+            .setParameter(2, valid != null ? valid.timestamp : VERY_DISTANT_FUTURE, InstantType.INSTANCE)
             .setParameter(3, valid == null || valid.inclusive)
-            .unwrap(org.hibernate.query.Query.class)
-            .setParameter(4, fingerprint, JsonNodeBinaryType.INSTANCE);
-      ChangeDAO lastChange = changeQuery.setMaxResults(1).getResultStream().findFirst().orElse(null);
+            .setParameter(4, fingerprint, JsonNodeBinaryType.INSTANCE)
+            .getResultStream().findFirst().orElse(null);
 
       Instant changeTimestamp = LONG_TIME_AGO;
       if (lastChange != null) {
-         log.debugf("Filtering DP between %s (change %d) and %s", lastChange.timestamp, lastChange.id, nextTimestamp);
          changeTimestamp = lastChange.timestamp;
       }
 
-      @SuppressWarnings("unchecked") List<DataPointDAO> dataPoints = em.createQuery(
-            "SELECT dp FROM DataPoint dp LEFT JOIN Fingerprint fp ON dp.dataset.id = fp.dataset.id " +
-            "JOIN dp.dataset " + // ignore datapoints (that were not deleted yet) from deleted datasets
-            "WHERE dp.variable = ?1 AND dp.timestamp BETWEEN ?2 AND ?3 " +
-            "AND TRUE = function('json_equals', fp.fingerprint, ?4) " +
-            "ORDER BY dp.timestamp DESC, dp.dataset.id DESC", DataPointDAO.class)
-            .setParameter(1, variable)
-            .setParameter(2, changeTimestamp)
-            .setParameter(3, nextTimestamp.toInstant())
-            .unwrap(org.hibernate.query.Query.class).setParameter(4, fingerprint, JsonNodeBinaryType.INSTANCE)
-            .getResultList();
-      // Last datapoint is already in the list
-      if (dataPoints.isEmpty()) {
-         if (expectExists) {
-            log.warn("The published datapoint should be already in the list");
+      int capacity = MIN_SERIES_CAPACITY;
+      for (ChangeDetectionDAO detection : detections) {
+         ChangeDetectionModel model = MODELS.get(detection.model);
+         if (model != null) {
+            capacity = Math.max(capacity, model.window(detection.config));
          }
+      }
+      Instant upTo = nextTimestamp.toInstant();
+      // When the state covers everything up to validUpTo (inclusive) we need to load only the datapoints
+      // at the next timestamp; otherwise the series is rebuilt from the last change.
+      boolean incremental = state != null && state.version == version && valid != null && valid.inclusive &&
+            state.upTo.equals(valid.timestamp) && state.changeTimestamp.equals(changeTimestamp) &&
+            state.series.capacity() >= capacity;
+      if (incremental) {
+         log.debugf("Adding DP at %s to %d datapoints since %s", upTo, state.series.size(), changeTimestamp);
       } else {
-         int datasetId = dataPoints.get(0).getDatasetId();
-         for (ChangeDetectionDAO detection : ChangeDetectionDAO.<ChangeDetectionDAO>find("variable", variable).list()) {
+         log.debugf("Loading DP between %s (change %s) and %s", changeTimestamp, lastChange == null ? null : lastChange.id, upTo);
+         state = new DetectionState(variable.testId, version, new DataPointSeries(capacity), changeTimestamp);
+      }
+
+      @SuppressWarnings("unchecked") List<Object[]> rows = em.createNativeQuery(
+            "SELECT dp.id, dp.dataset_id, dp.timestamp, dp.value FROM datapoint dp " +
+            "JOIN dataset ON dataset.id = dp.dataset_id " + // ignore datapoints (that were not deleted yet) from deleted datasets
+            "WHERE dp.variable_id = ?1 AND dp.fingerprint_hash = fingerprint_hash(?4) AND dp.timestamp BETWEEN ?2 AND ?3 " +
+            "ORDER BY dp.timestamp, dp.dataset_id")
+            .unwrap(NativeQuery.class)
+            .setParameter(1, variable.id)
+            .setParameter(2, incremental ? upTo : changeTimestamp, InstantType.INSTANCE)
+            .setParameter(3, upTo, InstantType.INSTANCE)
+            .setParameter(4, fingerprint, JsonNodeBinaryType.INSTANCE)
+            .addScalar("id", IntegerType.INSTANCE)
+            .addScalar("dataset_id", IntegerType.INSTANCE)
+            .addScalar("timestamp", InstantType.INSTANCE)
+            .addScalar("value", DoubleType.INSTANCE)
+            .getResultList();
+      DataPointSeries series = state.series;
+      for (Object[] row : rows) {
+         series.add((int) row[0], (int) row[1], ((Instant) row[2]).toEpochMilli(), (double) row[3]);
+      }
+      // Last datapoint is already in the list
+      if (rows.isEmpty() && expectExists) {
+         log.warn("The published datapoint should be already in the list");
+      }
+      if (series.size() > 0 && (!rows.isEmpty() || !incremental)) {
+         int datasetId = series.datasetId(0);
+         Instant[] latestChange = new Instant[1];
+         for (ChangeDetectionDAO detection : detections) {
             ChangeDetectionModel model = MODELS.get(detection.model);
             if (model == null) {
                logChangeDetectionMessage(variable.testId, datasetId, PersistentLog.ERROR, "Cannot find change detection model %s", detection.model);
                continue;
             }
-            model.analyze(dataPoints, detection.config, change -> {
+            model.analyze(series, detection.config, change -> {
                logChangeDetectionMessage(variable.testId, datasetId, PersistentLog.DEBUG,
-                     "Change %s detected using datapoints %s", change, reversedAndLimited(dataPoints));
+                     "Change %s detected using datapoints %s", change, series);
                Query datasetQuery = em.createNativeQuery("SELECT id, runid as \"runId\", ordinal, testid as \"testId\" FROM dataset WHERE id = ?1");
                SqlServiceImpl.setResultTransformer(datasetQuery, Transformers.aliasToBean(DataSetDAO.Info.class));
                DataSetDAO.Info info = (DataSetDAO.Info) datasetQuery.setParameter(1, change.dataset.id).getSingleResult();
@@ -654,11 +787,26 @@ public class AlertingServiceImpl implements AlertingService {
                String testName = TestDAO.<TestDAO>findByIdOptional(variable.testId).map(test -> test.name).orElse("<unknown>");
                messageBus.publish(ChangeDAO.EVENT_NEW, change.dataset.testid,
                        new ChangeDAO.Event(change, testName, info, notify));
+               if (latestChange[0] == null || change.timestamp.isAfter(latestChange[0])) {
+                  latestChange[0] = change.timestamp;
+               }
             });
          }
+         if (latestChange[0] != null) {
+            // The next step will start with the new change
+            state.changeTimestamp = latestChange[0];
+            if (!series.truncateBefore(latestChange[0])) {
+               state = null;
+            }
+         }
+      }
+      DetectionState nextState = state;
+      if (nextState != null) {
+         nextState.upTo = upTo;
       }
       Util.doAfterCommit(tm, () -> {
-         validateUpTo(variable, fingerprint, nextTimestamp.toInstant());
+         validateUpTo(variable, fingerprint, upTo);
+         restoreDetectionState(key, nextState);
          messageBus.executeForTest(variable.testId, () -> tryRunChangeDetection(variable, fingerprint, notify));
       });
    }
@@ -667,24 +815,29 @@ public class AlertingServiceImpl implements AlertingService {
       validUpTo.compute(new VarAndFingerprint(variable.id, fingerprint), (ignored, current) -> {
          log.debugf("Attempt %s, valid up to %s, ", timestamp, current);
          if (current == null || !current.timestamp.isAfter(timestamp)) {
-            return new UpTo(timestamp, true);
+            return new UpTo(variable.testId, timestamp, true);
          } else {
             return current;
          }
       });
    }
 
-   private String reversedAndLimited(List<DataPointDAO> list) {
-      int maxIndex = Math.min(list.size() - 1, 20);
-      StringBuilder sb = new StringBuilder("[");
-      if (maxIndex < list.size() - 1) {
-         sb.append("..., ");
-      }
-      for (int i = maxIndex; i >= 0; --i) {
-         sb.append(list.get(i));
-         if (i != 0) sb.append(", ");
+   private int detectionVersion(int testId) {
+      return detectionVersions.computeIfAbsent(testId, id -> new AtomicInteger()).get();
+   }
+
+   private void restoreDetectionState(VarAndFingerprint key, DetectionState state) {
+      // If the state was invalidated meanwhile the version check fails when it's used next time
+      if (state != null && state.version == detectionVersion(state.testId)) {
+         detectionStates.put(key, state);
       }
-      return sb.append("]").toString();
+   }
+
+   // Must be called when datapoints are removed or the change detection configuration is modified;
+   // new datapoints and changes are handled by comparing the state with validUpTo and last change.
+   private void invalidateDetectionStates(int testId) {
+      detectionVersions.computeIfAbsent(testId, id -> new AtomicInteger()).incrementAndGet();
+      detectionStates.values().removeIf(state -> state.testId == testId);
    }
 
    @Override
@@ -753,6 +906,7 @@ public class AlertingServiceImpl implements AlertingService {
          });
 
          em.flush();
+         invalidateDetectionStates(testId);
       } catch (PersistenceException e) {
          log.error("Failed to update variables", e);
          throw new WebApplicationException(e, Response.serverError().build());
@@ -859,8 +1013,8 @@ public class AlertingServiceImpl implements AlertingService {
          return changes.stream().map(ChangeMapper::from).collect(Collectors.toList());
       }
       //noinspection unchecked
-      List<ChangeDAO> changes = em.createNativeQuery("SELECT change.* FROM change JOIN fingerprint fp ON change.dataset_id = fp.dataset_id " +
-            "WHERE variable_id = ?1 AND json_equals(fp.fingerprint, ?2)", ChangeDAO.class)
+      List<ChangeDAO> changes = em.createNativeQuery("SELECT change.* FROM change " +
+            "WHERE variable_id = ?1 AND fingerprint_hash = fingerprint_hash(?2)", ChangeDAO.class)
             .setParameter(1, varId).unwrap(NativeQuery.class)
             .setParameter(2, fp, JsonNodeBinaryType.INSTANCE)
             .getResultList();
@@ -910,7 +1064,7 @@ public class AlertingServiceImpl implements AlertingService {
       } else if (!Roles.hasRoleWithSuffix(identity, test.owner, "-tester")) {
          throw ServiceException.forbidden("This user cannot trigger the recalculation");
       }
-      messageBus.executeForTest(testId, () -> {
+      messageBus.executeForTest(testId, TaskPriority.BULK, () -> {
          startRecalculation(testId, notify, debug, from, to);
       });
    }
@@ -933,24 +1087,72 @@ public class AlertingServiceImpl implements AlertingService {
          recalculation.datasets = getDatasetsForRecalculation(testId, from, to);
          int numRuns = recalculation.datasets.size();
          log.debugf("Starting recalculation of test %d, %d runs", testId, numRuns);
-         int completed = 0;
+         recalculation.startedAt = System.currentTimeMillis();
          recalcProgress.put(testId, recalculation);
-         for (int datasetId : recalculation.datasets) {
-            // Since the evaluation might take few moments and we're dealing potentially with thousands
-            // of runs we'll process each run in a separate transaction
-            recalculateForDataset(datasetId, notify, debug, recalculation);
-            recalculation.progress = 100 * ++completed / numRuns;
+         // Since the evaluation might take few moments and we're dealing potentially with thousands
+         // of runs we'll process the datasets in chunks, each in a separate transaction
+         // A failed chunk is rolled back as a whole; the datapoints from other chunks are kept
+         // and change detection runs for them.
+         List<List<Integer>> chunks = new ArrayList<>();
+         for (int i = 0; i < numRuns; i += recalculationChunkSize) {
+            chunks.add(recalculation.datasets.subList(i, Math.min(i + recalculationChunkSize, numRuns)));
+         }
+         if (chunks.isEmpty()) {
+            completeRecalculation(testId, notify, recalculation);
+            return;
+         }
+         // The chunks run on the recalculation executor and each completed chunk starts the next one;
+         // the test's task queue is not blocked while these are processed.
+         ChunkQueue queue = new ChunkQueue(testId, notify, debug, recalculation, chunks);
+         for (int i = Math.min(Math.max(1, recalculationParallelism), chunks.size()); i > 0; --i) {
+            recalculateNextChunk(queue);
          }
-
       } catch (Throwable t) {
          log.error("Recalculation failed", t);
+         markRecalculationDone(testId, recalculation);
          throw t;
+      }
+   }
+
+   private void recalculateNextChunk(ChunkQueue queue) {
+      int index = queue.next.getAndIncrement();
+      if (index >= queue.chunks.size()) {
+         return;
+      }
+      List<Integer> chunk = queue.chunks.get(index);
+      Recalculation recalculation = queue.recalculation;
+      recalculationExecutor.execute(() -> {
+         try {
+            recalculateChunk(chunk, queue.notify, queue.debug, recalculation);
+         } catch (Throwable t) {
+            log.errorf(t, "Failed to recalculate datapoints for datasets %s in test %d", chunk, queue.testId);
+            recalculation.addError();
+         }
+         recalculation.progress = 100 * recalculation.completed.addAndGet(chunk.size()) / recalculation.datasets.size();
+         if (queue.remaining.decrementAndGet() == 0) {
+            completeRecalculation(queue.testId, queue.notify, recalculation);
+         } else {
+            recalculateNextChunk(queue);
+         }
+      });
+   }
+
+   private void completeRecalculation(int testId, boolean notify, Recalculation recalculation) {
+      try {
+         runRecalculatedChangeDetection(testId, notify, recalculation);
+      } catch (Throwable t) {
+         log.errorf(t, "Failed to start change detection after recalculation of test %d", testId);
+         recalculation.addError();
       } finally {
-         recalculation.done = true;
-         vertx.setTimer(30_000, timerId -> recalcProgress.remove(testId, recalculation));
+         markRecalculationDone(testId, recalculation);
       }
    }
 
+   private void markRecalculationDone(int testId, Recalculation recalculation) {
+      recalculation.done = true;
+      vertx.setTimer(30_000, timerId -> recalcProgress.remove(testId, recalculation));
+   }
+
    // It doesn't make sense to limit access to particular user when doing the recalculation,
    // normally the calculation happens with system privileges anyway.
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
@@ -964,6 +1166,7 @@ public class AlertingServiceImpl implements AlertingService {
       List<Integer> ids = query.getResultList();
       DataPointDAO.delete("dataset_id in ?1", ids);
       ChangeDAO.delete("dataset_id in ?1 AND confirmed = false", ids);
+      invalidateDetectionStates(testId);
       if (ids.size() > 0) {
          // Due to RLS policies we cannot add a record to a dataset we don't own
          logCalculationMessage(testId, ids.get(0), PersistentLog.INFO, "Starting recalculation of %d runs.", ids.size());
@@ -973,13 +1176,39 @@ public class AlertingServiceImpl implements AlertingService {
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional(Transactional.TxType.REQUIRES_NEW)
-   void recalculateForDataset(Integer datasetId, boolean notify, boolean debug, Recalculation recalculation) {
-      DataSetDAO dataset = DataSetDAO.findById(datasetId);
-      if ( dataset != null ) {
-         recalculateDatapointsForDataset(dataset, notify, debug, recalculation);
-      } else {
-         log.debugf("Could not find dataset with id: %d", datasetId);
+   void recalculateChunk(List<Integer> datasetIds, boolean notify, boolean debug, Recalculation recalculation) {
+      DataPointBatch batch = new DataPointBatch();
+      List<DataSetDAO> datasets = DataSetDAO.list("id IN ?1", datasetIds);
+      if (datasets.size() < datasetIds.size()) {
+         log.debugf("Could not find %d of %d datasets", datasetIds.size() - datasets.size(), datasetIds.size());
       }
+      for (DataSetDAO dataset : datasets) {
+         recalculateDatapointsForDataset(dataset, notify, debug, recalculation, batch);
+      }
+      insertDataPoints(batch, notify, recalculation);
+   }
+
+   // Change detection is started only once for each variable and fingerprint, from the first recalculated datapoint
+   @WithRoles(extras = Roles.HORREUM_SYSTEM)
+   @Transactional
+   void runRecalculatedChangeDetection(int testId, boolean notify, Recalculation recalculation) {
+      Map<Integer, VariableDAO> variables = VariableDAO.<VariableDAO>list("testid", testId).stream()
+            .collect(Collectors.toMap(v -> v.id, Function.identity()));
+      log.debugf("Running change detection for %d variables/fingerprints in test %d", recalculation.recalculatedFrom.size(), testId);
+      recalculation.recalculatedFrom.forEach((key, timestamp) -> {
+         VariableDAO variable = variables.get(key.varId);
+         if (variable == null) {
+            return;
+         }
+         validUpTo.compute(key, (ignored, current) -> {
+            if (current == null || !timestamp.isAfter(current.timestamp)) {
+               return new UpTo(testId, timestamp, false);
+            } else {
+               return current;
+            }
+         });
+         messageBus.executeForTest(testId, TaskPriority.BULK, () -> tryRunChangeDetection(variable, key.fingerprint, notify));
+      });
    }
 
    @Override
@@ -993,6 +1222,12 @@ public class AlertingServiceImpl implements AlertingService {
          status.totalDatasets = recalculation.datasets.size();
          status.errors = recalculation.errors;
          status.datasetsWithoutValue = recalculation.datasetsWithoutValue.values().stream().map(DataSetMapper::fromInfo).collect(Collectors.toList());
+         int completed = recalculation.completed.get();
+         long elapsed = System.currentTimeMillis() - recalculation.startedAt;
+         if (recalculation.startedAt > 0 && completed > 0 && elapsed > 0) {
+            status.throughput = 1000.0 * completed / elapsed;
+            status.eta = (long) ((status.totalDatasets - completed) * 1000 / status.throughput);
+         }
       }
       return status;
    }
@@ -1152,7 +1387,7 @@ public class AlertingServiceImpl implements AlertingService {
       // The recalculations are executed in independent transactions, therefore we need to make sure that
       // this rule is committed in DB before starting to reevaluate it.
       Util.doAfterCommit(tm, () -> {
-         messageBus.executeForTest(testId, () -> {
+         messageBus.executeForTest(testId, TaskPriority.BULK, () -> {
             recalculateMissingDataRules(testId, rule);
          });
       });
@@ -1206,13 +1441,13 @@ public class AlertingServiceImpl implements AlertingService {
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
-   public void removeExpected(RunDAO run) {
+   public void removeExpected(RunDAO.Event event) {
       // delete at most one expectation
       Query query = em.createNativeQuery("DELETE FROM run_expectation WHERE id = (SELECT id FROM run_expectation WHERE testid = (SELECT testid FROM run WHERE id = ?1) LIMIT 1)");
-      query.setParameter(1, run.id);
+      query.setParameter(1, event.runId);
       int updated = query.executeUpdate();
       if (updated > 0) {
-         log.debugf("Removed %d run expectations as run %d was added.", updated, run.id);
+         log.debugf("Removed %d run expectations as run %d was added.", updated, event.runId);
       }
    }
 
@@ -1228,6 +1463,7 @@ public class AlertingServiceImpl implements AlertingService {
       for (ChangeDAO c: ChangeDAO.<ChangeDAO>list("dataset_id = ?1 AND confirmed = false", info.id)) {
          c.delete();
       }
+      invalidateDetectionStates(info.testId);
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
@@ -1241,6 +1477,7 @@ public class AlertingServiceImpl implements AlertingService {
       }
       MissingDataRuleDAO.delete("test_id", test.id);
       em.flush();
+      invalidateDetectionStates(test.id);
    }
 
    @Transactional
@@ -1265,10 +1502,64 @@ public class AlertingServiceImpl implements AlertingService {
    // a method in AlertingServiceImpl the interceptors would not be invoked.
    public static class Recalculation {
       List<Integer> datasets = Collections.emptyList();
-      int progress;
-      boolean done;
-      public int errors;
-      Map<Integer, DataSetDAO.Info> datasetsWithoutValue = new HashMap<>();
+      volatile int progress;
+      volatile boolean done;
+      public volatile int errors;
+      Map<Integer, DataSetDAO.Info> datasetsWithoutValue = new ConcurrentHashMap<>();
+      volatile long startedAt;
+      final AtomicInteger completed = new AtomicInteger();
+      // earliest timestamp of recalculated datapoints for each variable and fingerprint
+      final ConcurrentMap<VarAndFingerprint, Instant> recalculatedFrom = new ConcurrentHashMap<>();
+
+      synchronized void addError() {
+         errors++;
+      }
+
+      void recalculatedFrom(VarAndFingerprint key, Instant timestamp) {
+         recalculatedFrom.merge(key, timestamp, (t1, t2) -> t1.isBefore(t2) ? t1 : t2);
+      }
+   }
+
+   private static final class ChunkQueue {
+      final int testId;
+      final boolean notify;
+      final boolean debug;
+      final Recalculation recalculation;
+      final List<List<Integer>> chunks;
+      final AtomicInteger next = new AtomicInteger();
+      final AtomicInteger remaining;
+
+      ChunkQueue(int testId, boolean notify, boolean debug, Recalculation recalculation, List<List<Integer>> chunks) {
+         this.testId = testId;
+         this.notify = notify;
+         this.debug = debug;
+         this.recalculation = recalculation;
+         this.chunks = chunks;
+         this.remaining = new AtomicInteger(chunks.size());
+      }
+   }
+
+   private static final class DataPointBatch {
+      final Map<Integer, DataSetDAO> datasets = new HashMap<>();
+      final Map<Integer, Instant> datasetTimestamps = new HashMap<>();
+      final List<Integer> datasetIds = new ArrayList<>();
+      final List<Long> timestamps = new ArrayList<>();
+      final List<Integer> variableIds = new ArrayList<>();
+      final List<Double> values = new ArrayList<>();
+
+      void add(DataSetDAO dataset, Instant timestamp, int variableId, double value) {
+         datasets.putIfAbsent(dataset.id, dataset);
+         datasetTimestamps.putIfAbsent(dataset.id, timestamp);
+         datasetIds.add(dataset.id);
+         // microseconds since epoch, the precision of timestamptz
+         timestamps.add(ChronoUnit.MICROS.between(Instant.EPOCH, timestamp));
+         variableIds.add(variableId);
+         this.values.add(value);
+      }
+
+      boolean isEmpty() {
+         return datasetIds.isEmpty();
+      }
    }
 
    static final class VarAndFingerprint {
@@ -1294,11 +1585,28 @@ public class AlertingServiceImpl implements AlertingService {
       }
    }
 
+   private static final class DetectionState {
+      final int testId;
+      final int version;
+      final DataPointSeries series;
+      Instant changeTimestamp;
+      Instant upTo;
+
+      private DetectionState(int testId, int version, DataPointSeries series, Instant changeTimestamp) {
+         this.testId = testId;
+         this.version = version;
+         this.series = series;
+         this.changeTimestamp = changeTimestamp;
+      }
+   }
+
    private static class UpTo {
+      final int testId;
       final Instant timestamp;
       final boolean inclusive;
 
-      private UpTo(Instant timestamp, boolean inclusive) {
+      private UpTo(int testId, Instant timestamp, boolean inclusive) {
+         this.testId = testId;
          this.timestamp = timestamp;
          this.inclusive = inclusive;
       }
@@ -0,0 +1,153 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.quarkus.runtime.Startup;
+
+/**
+ * Executes blocking service work (transformation, validation) outside of the Vert.x worker pool.
+ * In <code>virtual</code> mode each task gets a virtual thread (when running on JDK 21+, otherwise
+ * falls back to <code>pooled</code>), in <code>pooled</code> mode tasks run on a dedicated pool.
+ * In both modes at most <code>horreum.blocking.max-concurrency</code> tasks run at once; by default this is
+ * the size of the connection pool, so that tasks do not occupy threads while waiting for a connection.
+ * In the default <code>worker</code> mode the work stays on the Vert.x worker pool.
+ * Message bus lanes have their own limit (<code>horreum.messagebus.executor.threads</code>) and use this
+ * executor only to decide whether they run on virtual threads.
+ */
+@Singleton
+@Startup
+public class BlockingExecutor implements Executor {
+   private static final Logger log = Logger.getLogger(BlockingExecutor.class);
+
+   public enum Mode {
+      WORKER,
+      POOLED,
+      VIRTUAL
+   }
+
+   private static volatile BlockingExecutor instance;
+
+   private final Mode mode;
+   private final ExecutorService executor;
+   private final Semaphore admission;
+   private final AtomicInteger waiting = new AtomicInteger();
+
+   public BlockingExecutor(@ConfigProperty(name = "horreum.blocking.mode", defaultValue = "worker") String mode,
+                           @ConfigProperty(name = "horreum.blocking.max-concurrency", defaultValue = "${quarkus.datasource.jdbc.max-size:20}") int maxConcurrency,
+                           MeterRegistry registry) {
+      Mode requested = Mode.valueOf(mode.trim().toUpperCase());
+      int permits = Math.max(1, maxConcurrency);
+      ExecutorService virtual = requested == Mode.VIRTUAL ? newVirtualThreadExecutor() : null;
+      if (requested == Mode.VIRTUAL && virtual == null) {
+         log.warn("Virtual threads are not supported by this JVM, using pooled mode for blocking tasks");
+         requested = Mode.POOLED;
+      }
+      this.mode = requested;
+      switch (this.mode) {
+         case VIRTUAL:
+            executor = virtual;
+            admission = new Semaphore(permits, true);
+            break;
+         case POOLED:
+            AtomicInteger threadCounter = new AtomicInteger();
+            // the pool size itself limits the concurrency
+            executor = new ThreadPoolExecutor(permits, permits, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+               Thread thread = new Thread(runnable, "horreum-blocking-" + threadCounter.incrementAndGet());
+               thread.setDaemon(true);
+               return thread;
+            });
+            admission = null;
+            break;
+         default:
+            executor = null;
+            admission = null;
+      }
+      log.infof("Blocking tasks are executed in %s mode with concurrency %d", this.mode, permits);
+      if (executor != null) {
+         Gauge.builder("horreum.blocking.waiting", this, BlockingExecutor::waiting)
+               .description("Number of blocking tasks waiting for admission").register(registry);
+         instance = this;
+      }
+   }
+
+   /**
+    * @return Executor starting a virtual thread for each task, or <code>null</code> if the JVM does not support these.
+    */
+   public static ExecutorService newVirtualThreadExecutor() {
+      try {
+         Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+         return (ExecutorService) factory.invoke(null);
+      } catch (ReflectiveOperationException e) {
+         return null;
+      }
+   }
+
+   /**
+    * @return Executor if this is configured to replace the Vert.x worker pool, <code>null</code> otherwise.
+    */
+   public static BlockingExecutor get() {
+      return instance;
+   }
+
+   public Mode mode() {
+      return mode;
+   }
+
+   private int waiting() {
+      if (admission != null) {
+         return waiting.get();
+      }
+      return ((ThreadPoolExecutor) executor).getQueue().size();
+   }
+
+   @Override
+   public void execute(Runnable runnable) {
+      if (admission == null) {
+         executor.execute(runnable);
+         return;
+      }
+      executor.execute(() -> {
+         waiting.incrementAndGet();
+         try {
+            admission.acquire();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("Interrupted while waiting for admission of blocking task");
+            return;
+         } finally {
+            waiting.decrementAndGet();
+         }
+         try {
+            runnable.run();
+         } finally {
+            admission.release();
+         }
+      });
+   }
+
+   @PreDestroy
+   void destroy() {
+      if (instance == this) {
+         instance = null;
+      }
+      if (executor != null) {
+         executor.shutdown();
+      }
+   }
+}
@@ -95,16 +95,14 @@ public class ChangesServiceImpl implements ChangesService {
          tt.variableId = variableId;
          result.add(tt);
 
+         String fpCondition = fingerprint != null ? " AND fingerprint_hash = fingerprint_hash((?4)::::jsonb)" : "";
          StringBuilder sql = new StringBuilder("WITH dp AS (")
-               .append("(SELECT * FROM datapoint WHERE variable_id = ?1 AND timestamp BETWEEN ?2 AND ?3)");
+               .append("(SELECT * FROM datapoint WHERE variable_id = ?1").append(fpCondition).append(" AND timestamp BETWEEN ?2 AND ?3)");
          if (query.range.oneBeforeAndAfter) {
-               sql.append("UNION (SELECT * FROM datapoint WHERE variable_id = ?1 AND timestamp < ?2 ORDER BY timestamp DESC LIMIT 1) ")
-                  .append("UNION (SELECT * FROM datapoint WHERE variable_id = ?1 AND timestamp > ?3 ORDER BY timestamp LIMIT 1)");
+               sql.append("UNION (SELECT * FROM datapoint WHERE variable_id = ?1").append(fpCondition).append(" AND timestamp < ?2 ORDER BY timestamp DESC LIMIT 1) ")
+                  .append("UNION (SELECT * FROM datapoint WHERE variable_id = ?1").append(fpCondition).append(" AND timestamp > ?3 ORDER BY timestamp LIMIT 1)");
          }
          sql.append(") SELECT dp.* FROM dp ");
-         if (fingerprint != null) {
-            sql.append("LEFT JOIN fingerprint fp ON fp.dataset_id = dp.dataset_id WHERE json_equals(fp.fingerprint, (?4)::::jsonb) ");
-         }
          sql.append("ORDER BY timestamp ASC");
          javax.persistence.Query nativeQuery = em.createNativeQuery(sql.toString(), DataPointDAO.class)
                .setParameter(1, variableId)
@@ -168,12 +166,9 @@ public class ChangesServiceImpl implements ChangesService {
          throw ServiceException.badRequest("Query must be variable ID");
       }
       StringBuilder sql = new StringBuilder("SELECT change.* FROM change ");
-      if (fingerprint != null) {
-         sql.append(" JOIN fingerprint fp ON fp.dataset_id = change.dataset_id ");
-      }
       sql.append(" WHERE variable_id = ?1 AND timestamp BETWEEN ?2 AND ?3 ");
       if (fingerprint != null) {
-         sql.append("AND json_equals(fp.fingerprint, (?4)::::jsonb)");
+         sql.append("AND fingerprint_hash = fingerprint_hash((?4)::::jsonb)");
       }
       javax.persistence.Query nativeQuery = em.createNativeQuery(sql.toString(), ChangeDAO.class)
             .setParameter(1, variableId)
@@ -1,6 +1,12 @@
 package io.hyperfoil.tools.horreum.svc;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -18,14 +24,17 @@ import javax.transaction.Transactional;
 
 import io.hyperfoil.tools.horreum.api.SortDirection;
 import io.hyperfoil.tools.horreum.api.data.DataSet;
+import io.hyperfoil.tools.horreum.api.data.Extractor;
 import io.hyperfoil.tools.horreum.api.data.Label;
 import io.hyperfoil.tools.horreum.entity.data.*;
 import io.hyperfoil.tools.horreum.mapper.DataSetMapper;
 import org.hibernate.Hibernate;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.transform.AliasToBeanResultTransformer;
+import org.hibernate.type.BooleanType;
 import org.hibernate.type.IntegerType;
 import org.hibernate.type.LongType;
+import org.hibernate.type.PostgresUUIDType;
 import org.hibernate.type.TextType;
 import org.jboss.logging.Logger;
 
@@ -33,14 +42,17 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.vladmihalcea.hibernate.type.json.JsonNodeBinaryType;
 
 import io.hyperfoil.tools.horreum.api.services.DatasetService;
 import io.hyperfoil.tools.horreum.api.services.QueryResult;
 import io.hyperfoil.tools.horreum.api.services.SchemaService;
 import io.hyperfoil.tools.horreum.bus.MessageBus;
+import io.hyperfoil.tools.horreum.bus.TaskPriority;
 import io.hyperfoil.tools.horreum.entity.PersistentLog;
 import io.hyperfoil.tools.horreum.entity.alerting.DatasetLogDAO;
+import io.hyperfoil.tools.horreum.jsonpath.JsonPathException;
 import io.hyperfoil.tools.horreum.server.WithRoles;
 import io.hyperfoil.tools.horreum.server.WithToken;
 import io.quarkus.runtime.Startup;
@@ -76,6 +88,12 @@ public class DatasetServiceImpl implements DatasetService {
             "JOIN lvalues ON lvalues.label_id = label.id " +
             "JOIN used_labels ul ON label.id = ul.label_id " +
             "GROUP BY lvalues.label_id, ul.name, function, ul.count";
+   // Same labels as above with the JSONPath expressions instead of extracted values, for evaluation in Horreum
+   private static final String LABEL_DEFINITIONS =
+         "SELECT label.id AS label_id, label.name, label.function, ds.index, ds.uri, le.name AS extractor_name, le.jsonpath, le.isarray " +
+         "FROM dataset_schemas ds JOIN label ON label.schema_id = ds.schema_id " +
+         "LEFT JOIN label_extractors le ON le.label_id = label.id " +
+         "WHERE ds.dataset_id = ?1 AND (?2 < 0 OR label.id = ?2) ORDER BY label.id, ds.index, le.name";
    protected static final String LABEL_PREVIEW = "WITH le AS (" +
             "SELECT * FROM jsonb_populate_recordset(NULL::::extractor, (?1)::::jsonb)" +
          "), lvalues AS (" +
@@ -141,10 +159,13 @@ public class DatasetServiceImpl implements DatasetService {
    EntityManager em;
 
    @Inject
-   SqlServiceImpl sqlService;
+   MessageBus messageBus;
 
    @Inject
-   MessageBus messageBus;
+   PipelineMetrics pipelineMetrics;
+
+   @Inject
+   ExtractionBackend extractionBackend;
 
    @Inject
    SecurityIdentity identity;
@@ -157,8 +178,11 @@ public class DatasetServiceImpl implements DatasetService {
 
    @PostConstruct
    void init() {
-      sqlService.registerListener("calculate_labels", this::onLabelChanged);
-      messageBus.subscribe(DataSetDAO.EVENT_NEW, "DatasetService", DataSetDAO.EventNew.class, this::onNewDataset);
+      messageBus.subscribe(DataSetDAO.EVENT_NEW, "DatasetService", DataSetDAO.EventNew.class, e -> TaskPriority.of(e.isRecalculation), this::onNewDataset);
+      // Published by database trigger when the label is added/updated. We won't send notifications
+      // for that (user can check if there are any changes on his own).
+      messageBus.subscribe(DataSetDAO.EVENT_LABEL_CHANGED, "DatasetService", DataSetDAO.LabelChangedEvent.class, e -> TaskPriority.LABEL_CHANGE,
+            e -> calculateLabels(e.testId, e.datasetId, e.labelId, true));
    }
 
    @PermitAll
@@ -323,6 +347,36 @@ public class DatasetServiceImpl implements DatasetService {
          throw ServiceException.badRequest("Dataset not found or insufficient privileges.");
       }
 
+      LabelPreview preview = new LabelPreview();
+      JsonNode extracted;
+      if (extractionBackend.inJvm() && extractionBackend.supportsAll(label.extractors.stream().map(e -> e.jsonpath).collect(Collectors.toList()))) {
+         try {
+            extracted = previewInJvm(dataset, label);
+         } catch (JsonPathException e) {
+            preview.output = e.getMessage();
+            return preview;
+         }
+      } else {
+         extracted = previewInDatabase(datasetId, label, preview);
+         if (preview.output != null) {
+            return preview;
+         }
+      }
+
+      if (label.function == null || label.function.isBlank()) {
+         preview.value = extracted;
+      } else {
+         AtomicReference<String> errorRef = new AtomicReference<>();
+         AtomicReference<String> outputRef = new AtomicReference<>();
+         JsonNode result = Util.evaluateOnce(label.function, extracted, Util::convertToJson,
+               (code, exception) -> errorRef.set("Execution failed: " + exception.getMessage() + ":\n" + code), outputRef::set);
+         preview.value = errorRef.get() == null ? result : JsonNodeFactory.instance.textNode(errorRef.get());
+         preview.output = outputRef.get();
+      }
+      return preview;
+   }
+
+   private JsonNode previewInDatabase(int datasetId, Label label, LabelPreview preview) {
       String extractors;
       try {
          extractors = Util.OBJECT_MAPPER.writeValueAsString(label.extractors);
@@ -330,30 +384,40 @@ public class DatasetServiceImpl implements DatasetService {
          log.error("Cannot serialize label extractors", e);
          throw ServiceException.badRequest("Cannot serialize label extractors");
       }
-      JsonNode extracted;
-      LabelPreview preview = new LabelPreview();
       try {
-         extracted = (JsonNode) em.createNativeQuery(LABEL_PREVIEW).unwrap(NativeQuery.class)
+         return (JsonNode) em.createNativeQuery(LABEL_PREVIEW).unwrap(NativeQuery.class)
                .setParameter(1, extractors)
                .setParameter(2, datasetId)
                .setParameter(3, label.schemaId)
                .addScalar("value", JsonNodeBinaryType.INSTANCE).getSingleResult();
       } catch (PersistenceException e) {
          preview.output = Util.explainCauses(e);
-         return preview;
+         return null;
       }
+   }
 
-      if (label.function == null || label.function.isBlank()) {
-         preview.value = extracted;
-      } else {
-         AtomicReference<String> errorRef = new AtomicReference<>();
-         AtomicReference<String> outputRef = new AtomicReference<>();
-         JsonNode result = Util.evaluateOnce(label.function, extracted, Util::convertToJson,
-               (code, exception) -> errorRef.set("Execution failed: " + exception.getMessage() + ":\n" + code), outputRef::set);
-         preview.value = errorRef.get() == null ? result : JsonNodeFactory.instance.textNode(errorRef.get());
-         preview.output = outputRef.get();
+   // Aggregates the values the same way as LABEL_PREVIEW
+   private JsonNode previewInJvm(DataSetDAO dataset, Label label) {
+      @SuppressWarnings("unchecked") List<Integer> indices = em.createNativeQuery("SELECT index FROM dataset_schemas WHERE dataset_id = ?1 AND schema_id = ?2 ORDER BY index")
+            .setParameter(1, dataset.id).setParameter(2, label.schemaId).getResultList();
+      if (label.extractors.isEmpty()) {
+         return JsonNodeFactory.instance.objectNode();
+      } else if (indices.isEmpty()) {
+         return null;
       }
-      return preview;
+      ObjectNode values = JsonNodeFactory.instance.objectNode();
+      JsonNode first = null;
+      for (int index : indices) {
+         JsonNode target = dataset.data.get(index);
+         for (Extractor extractor : label.extractors) {
+            JsonNode value = target == null ? JsonNodeFactory.instance.nullNode() : extractionBackend.extract(target, extractor.jsonpath, extractor.array);
+            values.set(extractor.name == null ? "" : extractor.name, value);
+            if (first == null) {
+               first = value;
+            }
+         }
+      }
+      return label.extractors.size() == 1 ? first : values;
    }
 
    @WithRoles
@@ -381,63 +445,160 @@ public class DatasetServiceImpl implements DatasetService {
       return DataSetMapper.from(dataset);
    }
 
-   private void onLabelChanged(String param) {
-      String[] parts = param.split(";");
-      if (parts.length != 3) {
-         log.errorf("Invalid parameter to onLabelChanged: %s", param);
-         return;
-      }
-      int testId = Integer.parseInt(parts[0]);
-      int datasetId = Integer.parseInt(parts[1]);
-      int labelId = Integer.parseInt(parts[2]);
-      // This is invoked when the label is added/updated. We won't send notifications
-      // for that (user can check if there are any changes on his own).
-      messageBus.executeForTest(testId, () -> calculateLabels(testId, datasetId, labelId, true));
-   }
-
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
    void calculateLabels(int testId, int datasetId, int queryLabelId, boolean isRecalculation) {
+      pipelineMetrics.time(PipelineMetrics.STAGE_LABELS, testId, () -> doCalculateLabels(testId, datasetId, queryLabelId, isRecalculation));
+   }
+
+   private void doCalculateLabels(int testId, int datasetId, int queryLabelId, boolean isRecalculation) {
       log.debugf("Calculating labels for dataset %d, label %d", datasetId, queryLabelId);
-      List<Object[]> extracted;
-      try {
-         // Note: we are fetching even labels that are marked as private/could be otherwise inaccessible
-         // to the uploading user. However, the uploader should not have rights to fetch these anyway...
-         //noinspection unchecked
-         extracted = (List<Object[]>) em.createNativeQuery(LABEL_QUERY)
-                     .setParameter(1, datasetId)
-                     .setParameter(2, queryLabelId)
-                     .unwrap(NativeQuery.class)
-                     .addScalar("label_id", IntegerType.INSTANCE)
-                     .addScalar("name", TextType.INSTANCE)
-                     .addScalar("function", TextType.INSTANCE)
-                     .addScalar("value", JsonNodeBinaryType.INSTANCE)
-                     .getResultList();
-      } catch (PersistenceException e) {
-         logMessageInNewTx(datasetId, PersistentLog.ERROR, "Failed to extract data (JSONPath expression error?): " + Util.explainCauses(e));
-         findFailingExtractor(datasetId);
-         return;
+      List<Object[]> extracted = null;
+      if (extractionBackend.inJvm()) {
+         try {
+            extracted = extractLabelsInJvm(datasetId, queryLabelId);
+         } catch (JsonPathException e) {
+            // the failing extractor was already logged
+            return;
+         }
+      }
+      if (extracted == null) {
+         try {
+            // Note: we are fetching even labels that are marked as private/could be otherwise inaccessible
+            // to the uploading user. However, the uploader should not have rights to fetch these anyway...
+            //noinspection unchecked
+            extracted = (List<Object[]>) em.createNativeQuery(LABEL_QUERY)
+                        .setParameter(1, datasetId)
+                        .setParameter(2, queryLabelId)
+                        .unwrap(NativeQuery.class)
+                        .addScalar("label_id", IntegerType.INSTANCE)
+                        .addScalar("name", TextType.INSTANCE)
+                        .addScalar("function", TextType.INSTANCE)
+                        .addScalar("value", JsonNodeBinaryType.INSTANCE)
+                        .getResultList();
+         } catch (PersistenceException e) {
+            logMessageInNewTx(datasetId, PersistentLog.ERROR, "Failed to extract data (JSONPath expression error?): " + Util.explainCauses(e));
+            findFailingExtractor(datasetId);
+            return;
+         }
       }
 
-      // While any change should remove the label_value first via trigger it is possible
-      // that something triggers two events after each other, removing the data (twice)
-      // before the first event is processed. The second event would then find the label_value
-      // already present and would fail with a constraint violation.
-      if (queryLabelId < 0) {
-         LabelDAO.Value.delete("datasetId", datasetId);
-      } else {
-         LabelDAO.Value.delete("datasetId = ?1 AND labelId = ?2", datasetId, queryLabelId);
+      // Only labels whose input changed are replaced (delete + insert keeps the view and fingerprint triggers working),
+      // values of labels that do not apply to this dataset anymore are removed. This also handles two events
+      // for the same dataset processed after each other: the second one finds the values up to date.
+      // New datasets are always announced, even without any labels, as datapoints and missing data rules depend on that.
+      Map<Integer, UUID> previousHashes = inputHashes(datasetId, queryLabelId);
+      Map<Integer, UUID> changedHashes = new HashMap<>();
+      List<Object[]> changed = new ArrayList<>();
+      for (Object[] row : extracted) {
+         UUID hash = inputHash((String) row[1], (String) row[2], (JsonNode) row[3]);
+         if (!hash.equals(previousHashes.remove((int) row[0]))) {
+            changedHashes.put((int) row[0], hash);
+            changed.add(row);
+         }
+      }
+      if (isRecalculation && changed.isEmpty() && previousHashes.isEmpty()) {
+         log.debugf("Inputs of labels for dataset %d, label %d did not change", datasetId, queryLabelId);
+         return;
       }
+      List<Integer> removed = new ArrayList<>(previousHashes.keySet());
+      removed.addAll(changedHashes.keySet());
+      LabelDAO.Value.delete("datasetId = ?1 AND labelId IN ?2", datasetId, removed);
 
-      Util.evaluateMany(extracted, row -> (String) row[2], row -> (JsonNode) row[3],
-            (row, result) -> createLabel(datasetId, (int) row[0], Util.convertToJson(result)),
-            row -> createLabel(datasetId, (int) row[0], (JsonNode) row[3]),
+      Util.evaluateMany(changed, row -> (String) row[2], row -> (JsonNode) row[3],
+            (row, result) -> createLabel(datasetId, (int) row[0], Util.convertToJson(result), changedHashes.get((int) row[0])),
+            row -> createLabel(datasetId, (int) row[0], (JsonNode) row[3], changedHashes.get((int) row[0])),
             (row, e, jsCode) -> logMessage(datasetId, PersistentLog.ERROR,
                   "Evaluation of label %s failed: '%s' Code:<pre>%s</pre>", row[0], e.getMessage(), jsCode),
             out -> logMessage(datasetId, PersistentLog.DEBUG, "Output while calculating labels: <pre>%s</pre>", out));
       messageBus.publish(DataSetDAO.EVENT_LABELS_UPDATED, testId, new DataSetDAO.LabelsUpdatedEvent(testId, datasetId, isRecalculation));
    }
 
+   private Map<Integer, UUID> inputHashes(int datasetId, int queryLabelId) {
+      @SuppressWarnings("unchecked") List<Object[]> rows = em.createNativeQuery(
+            "SELECT label_id, input_hash FROM label_values WHERE dataset_id = ?1 AND (?2 < 0 OR label_id = ?2)")
+            .setParameter(1, datasetId)
+            .setParameter(2, queryLabelId)
+            .unwrap(NativeQuery.class)
+            .addScalar("label_id", IntegerType.INSTANCE)
+            .addScalar("input_hash", PostgresUUIDType.INSTANCE)
+            .getResultList();
+      Map<Integer, UUID> hashes = new HashMap<>();
+      for (Object[] row : rows) {
+         hashes.put((Integer) row[0], (UUID) row[1]);
+      }
+      return hashes;
+   }
+
+   /**
+    * Label name is part of the input as views and fingerprints refer to the labels by name.
+    */
+   private static UUID inputHash(String name, String function, JsonNode value) {
+      String input = name + '\0' + (function == null ? "" : function) + '\0' + value;
+      return UUID.nameUUIDFromBytes(input.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Evaluates the label extractors in Horreum, aggregating the values the same way as {@link #LABEL_QUERY}:
+    * a label with multiple extractors gets an object, single extractor provides the value directly
+    * and a label without extractors gets an empty object.
+    *
+    * @return Rows with label ID, name, function and value or <code>null</code> if some expression must be evaluated in the database.
+    * @throws JsonPathException when an expression fails; the error is logged with the failing extractor.
+    */
+   private List<Object[]> extractLabelsInJvm(int datasetId, int queryLabelId) {
+      @SuppressWarnings("unchecked") List<Object[]> definitions = em.createNativeQuery(LABEL_DEFINITIONS)
+            .setParameter(1, datasetId)
+            .setParameter(2, queryLabelId)
+            .unwrap(NativeQuery.class)
+            .addScalar("label_id", IntegerType.INSTANCE)
+            .addScalar("name", TextType.INSTANCE)
+            .addScalar("function", TextType.INSTANCE)
+            .addScalar("index", IntegerType.INSTANCE)
+            .addScalar("uri", TextType.INSTANCE)
+            .addScalar("extractor_name", TextType.INSTANCE)
+            .addScalar("jsonpath", TextType.INSTANCE)
+            .addScalar("isarray", BooleanType.INSTANCE)
+            .getResultList();
+      if (!extractionBackend.supportsAll(definitions.stream().map(row -> (String) row[6]).filter(Objects::nonNull).collect(Collectors.toList()))) {
+         return null;
+      }
+      DataSetDAO dataset = DataSetDAO.findById(datasetId);
+      List<Object[]> extracted = new ArrayList<>();
+      for (int first = 0, next; first < definitions.size(); first = next) {
+         Object[] label = definitions.get(first);
+         next = first + 1;
+         while (next < definitions.size() && label[0].equals(definitions.get(next)[0])) {
+            ++next;
+         }
+         ObjectNode values = JsonNodeFactory.instance.objectNode();
+         JsonNode lastValue = null;
+         // as in the database, an extractor is counted for each occurrence of the schema in the dataset
+         int count = 0;
+         for (int i = first; i < next; ++i) {
+            Object[] row = definitions.get(i);
+            String jsonpath = (String) row[6];
+            if (jsonpath == null) {
+               continue;
+            }
+            ++count;
+            JsonNode target = dataset.data.get((int) row[3]);
+            try {
+               lastValue = target == null ? JsonNodeFactory.instance.nullNode() :
+                     extractionBackend.extract(target, jsonpath, Boolean.TRUE.equals(row[7]));
+            } catch (JsonPathException e) {
+               logMessage(datasetId, PersistentLog.ERROR, "There seems to be an error in schema <code>%s</code> label <code>%s</code>, extractor <code>%s</code>, JSONPath expression <code>%s</code>: %s",
+                     row[4], row[1], row[5], jsonpath, e.getMessage());
+               throw e;
+            }
+            values.set(row[5] == null ? "" : (String) row[5], lastValue);
+         }
+         JsonNode value = count == 0 ? JsonNodeFactory.instance.objectNode() : count == 1 ? lastValue : values;
+         extracted.add(new Object[] { label[0], label[1], label[2], value });
+      }
+      return extracted;
+   }
+
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional(Transactional.TxType.REQUIRES_NEW)
    protected void findFailingExtractor(int datasetId) {
@@ -460,11 +621,12 @@ public class DatasetServiceImpl implements DatasetService {
       logMessage(datasetId, PersistentLog.DEBUG, "We thought there's an error in one of the JSONPaths but independent validation did not find any problems.");
    }
 
-   private void createLabel(int datasetId, int labelId, JsonNode value) {
+   private void createLabel(int datasetId, int labelId, JsonNode value, UUID inputHash) {
       LabelDAO.Value labelValue = new LabelDAO.Value();
       labelValue.datasetId = datasetId;
       labelValue.labelId = labelId;
       labelValue.value = value;
+      labelValue.inputHash = inputHash;
       labelValue.persist();
    }
 
@@ -0,0 +1,93 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import io.hyperfoil.tools.horreum.jsonpath.JsonPathException;
+import io.hyperfoil.tools.horreum.jsonpath.JsonPathExpression;
+
+/**
+ * Selects where the JSONPath expressions of label and transformer extractors are evaluated.
+ * In the default <code>database</code> mode the values are extracted by <code>jsonb_path_query_*</code> functions
+ * in the same query that loads the extractors. In <code>jvm</code> mode only the extractor definitions are loaded;
+ * each expression is compiled once and evaluated against the document already loaded in Horreum.
+ * Expressions the in-JVM engine does not support make the services fall back to the database.
+ */
+@Singleton
+public class ExtractionBackend {
+   private static final Logger log = Logger.getLogger(ExtractionBackend.class);
+
+   public enum Mode {
+      DATABASE,
+      JVM
+   }
+
+   private final Mode mode;
+   private final int cacheSize;
+   private final Map<String, JsonPathExpression> compiled = new ConcurrentHashMap<>();
+
+   public ExtractionBackend(@ConfigProperty(name = "horreum.extraction.backend", defaultValue = "database") String mode,
+                            @ConfigProperty(name = "horreum.extraction.cache-size", defaultValue = "10000") int cacheSize) {
+      this.mode = Mode.valueOf(mode.trim().toUpperCase());
+      this.cacheSize = cacheSize;
+      log.infof("JSONPath extraction is executed in %s mode", this.mode);
+   }
+
+   public boolean inJvm() {
+      return mode == Mode.JVM;
+   }
+
+   /**
+    * @return False if any of the expressions uses a feature that can be evaluated only in the database.
+    * Invalid expressions are considered supported, the error is reported on extraction.
+    */
+   boolean supportsAll(Iterable<String> jsonpaths) {
+      for (String jsonpath : jsonpaths) {
+         try {
+            compile(jsonpath);
+         } catch (JsonPathException e) {
+            if (e.isUnsupported()) {
+               log.debugf("Expression %s must be evaluated in the database: %s", jsonpath, e.getMessage());
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Equivalent of <code>jsonb_path_query_array</code> or <code>jsonb_path_query_first</code>; when there is no match
+    * the result is a null node as if the SQL <code>NULL</code> was read into a JSON object.
+    *
+    * @throws JsonPathException if the expression is invalid or its evaluation fails.
+    */
+   JsonNode extract(JsonNode data, String jsonpath, boolean isArray) {
+      JsonPathExpression expression = compile(jsonpath);
+      if (isArray) {
+         return expression.queryArray(data);
+      }
+      JsonNode first = expression.queryFirst(data);
+      return first == null ? JsonNodeFactory.instance.nullNode() : first;
+   }
+
+   private JsonPathExpression compile(String jsonpath) {
+      JsonPathExpression expression = compiled.get(jsonpath);
+      if (expression == null) {
+         expression = JsonPathExpression.compile(jsonpath);
+         if (compiled.size() >= cacheSize) {
+            // extractors rarely change; start over rather than tracking usage
+            compiled.clear();
+         }
+         compiled.put(jsonpath, expression);
+      }
+      return expression;
+   }
+}
@@ -0,0 +1,306 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Value;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.runtime.Startup;
+
+/**
+ * Bounded pool of JavaScript contexts sharing a single {@link Engine}. Contexts sharing the engine reuse JIT-compiled
+ * code and each context caches compiled functions by their text, so repeated evaluation of the same
+ * transformer, label or filter function runs hot instead of paying full context startup on every call.
+ * <p>
+ * Contexts are shared by functions of all teams, therefore these must not be able to affect each other:
+ * builtins are frozen when the context is created and globals defined by a function are removed after each call.
+ */
+@Singleton
+@Startup
+public class JsContextPool {
+   private static final Logger log = Logger.getLogger(JsContextPool.class);
+   private static final String LANGUAGE = "js";
+   // Evaluates to [ reset, compile ]. Builtins reachable from the global object are deep-frozen and global properties
+   // made read-only; reset() removes globals added since and returns false if some could not be removed.
+   // Functions are compiled through the Function constructor as this parses the body standalone: declarations
+   // smuggled in the source text stay local to the wrapper instead of leaking into the global scope.
+   private static final String ISOLATION = "(() => {\n" +
+         "  const seen = new Set([globalThis]);\n" +
+         "  const freeze = o => {\n" +
+         "    if (o === null || o === undefined || (typeof o !== 'object' && typeof o !== 'function') || seen.has(o)) return;\n" +
+         "    seen.add(o);\n" +
+         "    try { Object.freeze(o); } catch (e) {}\n" +
+         "    for (const key of Reflect.ownKeys(o)) {\n" +
+         "      const d = Object.getOwnPropertyDescriptor(o, key);\n" +
+         "      if (d) { freeze(d.value); freeze(d.get); freeze(d.set); }\n" +
+         "    }\n" +
+         "    freeze(Object.getPrototypeOf(o));\n" +
+         "  };\n" +
+         "  const builtins = new Set(Reflect.ownKeys(globalThis));\n" +
+         "  for (const key of builtins) {\n" +
+         "    const d = Object.getOwnPropertyDescriptor(globalThis, key);\n" +
+         "    freeze(d.value); freeze(d.get); freeze(d.set);\n" +
+         "    try {\n" +
+         "      Object.defineProperty(globalThis, key, 'value' in d ? { writable: false, configurable: false } : { configurable: false });\n" +
+         "    } catch (e) {}\n" +
+         "  }\n" +
+         "  freeze(Object.getPrototypeOf(globalThis));\n" +
+         "  const reset = () => {\n" +
+         "    let clean = true;\n" +
+         "    for (const key of Reflect.ownKeys(globalThis)) {\n" +
+         "      if (!builtins.has(key) && !delete globalThis[key]) clean = false;\n" +
+         "    }\n" +
+         "    return clean;\n" +
+         "  };\n" +
+         "  const compile = Function;\n" +
+         "  return [reset, source => compile('return (' + source + '\\n);')()];\n" +
+         "})()";
+
+   private static volatile JsContextPool instance;
+
+   private final Engine engine;
+   private final BlockingQueue<PooledContext> idle = new LinkedBlockingQueue<>();
+   private final AtomicInteger created = new AtomicInteger();
+   private final int maxSize;
+   private final Duration maxWait;
+   private final int functionCacheSize;
+   private final Timer waitTimer;
+   private final Timer evaluationTimer;
+
+   public JsContextPool(@ConfigProperty(name = "horreum.js.pool.max-size", defaultValue = "16") int maxSize,
+                        @ConfigProperty(name = "horreum.js.pool.min-idle", defaultValue = "2") int minIdle,
+                        @ConfigProperty(name = "horreum.js.pool.max-wait", defaultValue = "60s") Duration maxWait,
+                        @ConfigProperty(name = "horreum.js.function-cache.size", defaultValue = "1000") int functionCacheSize,
+                        MeterRegistry registry) {
+      this.maxSize = Math.max(1, maxSize);
+      this.maxWait = maxWait;
+      this.functionCacheSize = functionCacheSize;
+      this.engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+      this.waitTimer = Timer.builder("horreum.js.pool.wait")
+            .description("Time spent waiting for a JavaScript context from the pool")
+            .register(registry);
+      this.evaluationTimer = Timer.builder("horreum.js.evaluation")
+            .description("Time spent evaluating JavaScript functions")
+            .register(registry);
+      Gauge.builder("horreum.js.pool.size", created, AtomicInteger::get)
+            .description("Number of JavaScript contexts created by the pool").register(registry);
+      Gauge.builder("horreum.js.pool.idle", idle, BlockingQueue::size)
+            .description("Number of idle JavaScript contexts in the pool").register(registry);
+      for (int i = Math.min(minIdle, this.maxSize); i > 0; --i) {
+         created.incrementAndGet();
+         PooledContext context = create();
+         context.warmUp();
+         idle.add(context);
+      }
+      instance = this;
+   }
+
+   static JsContextPool get() {
+      JsContextPool pool = instance;
+      if (pool == null) {
+         synchronized (JsContextPool.class) {
+            pool = instance;
+            if (pool == null) {
+               // Used outside of CDI container, e.g. in unit tests
+               pool = new JsContextPool(16, 0, Duration.ofSeconds(60), 1000, Metrics.globalRegistry);
+            }
+         }
+      }
+      return pool;
+   }
+
+   @PreDestroy
+   void destroy() {
+      if (instance == this) {
+         instance = null;
+      }
+      PooledContext context;
+      while ((context = idle.poll()) != null) {
+         context.close();
+      }
+      engine.close();
+   }
+
+   /**
+    * Borrows a context for exclusive use by the action and returns it to the pool afterwards.
+    * Values created in the context must not escape the action.
+    */
+   <T> T withContext(Function<PooledContext, T> action) {
+      PooledContext context = borrow();
+      context.context.enter();
+      try {
+         return action.apply(context);
+      } finally {
+         context.context.leave();
+         release(context);
+      }
+   }
+
+   private PooledContext borrow() {
+      long start = System.nanoTime();
+      try {
+         PooledContext context = idle.poll();
+         if (context != null) {
+            return context;
+         }
+         if (created.incrementAndGet() <= maxSize) {
+            return create();
+         }
+         created.decrementAndGet();
+         try {
+            context = idle.poll(maxWait.toMillis(), TimeUnit.MILLISECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for JavaScript context", e);
+         }
+         if (context == null) {
+            throw new IllegalStateException("Timed out waiting for JavaScript context after " + maxWait);
+         }
+         return context;
+      } finally {
+         waitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+   }
+
+   private PooledContext create() {
+      try {
+         return new PooledContext();
+      } catch (RuntimeException e) {
+         created.decrementAndGet();
+         throw e;
+      }
+   }
+
+   private void release(PooledContext context) {
+      if (context.broken) {
+         log.debug("Discarding broken JavaScript context");
+         created.decrementAndGet();
+         context.close();
+      } else {
+         context.out.reset();
+         idle.add(context);
+      }
+   }
+
+   final class PooledContext {
+      private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      private final Context context;
+      private final Map<String, Value> functions = new LinkedHashMap<>(16, 0.75f, true) {
+         @Override
+         protected boolean removeEldestEntry(Map.Entry<String, Value> eldest) {
+            return size() > functionCacheSize;
+         }
+      };
+      private final Value reset;
+      private final Value compile;
+      private boolean broken;
+
+      private PooledContext() {
+         context = Context.newBuilder(LANGUAGE).engine(engine).out(out).err(out)
+               // JSON inputs are passed as proxies; this lets scripts call e.g. Array.prototype.map on them
+               .allowExperimentalOptions(true).option("js.foreign-object-prototype", "true")
+               .build();
+         try {
+            Value isolation = context.eval(LANGUAGE, ISOLATION);
+            reset = isolation.getArrayElement(0);
+            compile = isolation.getArrayElement(1);
+         } catch (RuntimeException e) {
+            context.close();
+            throw e;
+         }
+      }
+
+      /**
+       * Returns the function defined by given source code; the code is parsed only once per context.
+       *
+       * @throws IllegalArgumentException when the code does not evaluate to a function.
+       */
+      Value function(String function) {
+         Value value = functions.get(function);
+         if (value == null) {
+            value = compile.execute(function);
+            if (!value.canExecute()) {
+               throw new IllegalArgumentException("Not a function: " + function);
+            }
+            functions.put(function, value);
+         }
+         return value;
+      }
+
+      /**
+       * Invokes the function defined by given source code with the arguments, recording the evaluation latency.
+       * Globals defined by the function are removed afterwards.
+       */
+      Value execute(String function, Object... arguments) {
+         long start = System.nanoTime();
+         try {
+            return function(function).execute(arguments);
+         } finally {
+            if (!reset.execute().asBoolean()) {
+               log.debug("Discarding JavaScript context with globals that cannot be removed");
+               broken = true;
+            }
+            evaluationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+         }
+      }
+
+      /**
+       * Inspects an exception thrown from the evaluation and discards the context if it is not safe to reuse.
+       */
+      void onException(Throwable t) {
+         if (t instanceof PolyglotException) {
+            PolyglotException pe = (PolyglotException) t;
+            if (pe.isInternalError() || pe.isCancelled() || pe.isExit() || pe.isResourceExhausted()) {
+               broken = true;
+            }
+         }
+      }
+
+      boolean hasOutput() {
+         return out.size() > 0;
+      }
+
+      String output() {
+         String output = out.toString(StandardCharsets.UTF_8);
+         out.reset();
+         return output;
+      }
+
+      private void warmUp() {
+         context.enter();
+         try {
+            execute("x => x", JsonProxy.wrap(Util.EMPTY_OBJECT));
+         } finally {
+            context.leave();
+         }
+      }
+
+      private void close() {
+         try {
+            context.close();
+         } catch (Exception e) {
+            log.debug("Failed to close JavaScript context", e);
+         }
+      }
+   }
+}
@@ -0,0 +1,219 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Exposes {@link JsonNode} to JavaScript without serializing it into the source code. Members are wrapped lazily
+ * on access; writes from the script are kept in the proxy and never modify the underlying node.
+ */
+final class JsonProxy {
+   private JsonProxy() {}
+
+   static Object wrap(JsonNode node) {
+      if (node == null || node.isNull() || node.isMissingNode()) {
+         return null;
+      } else if (node.isObject()) {
+         return new ObjectProxy((ObjectNode) node);
+      } else if (node.isArray()) {
+         return new ArrayProxy((ArrayNode) node);
+      } else if (node.isBoolean()) {
+         return node.booleanValue();
+      } else if (node.isIntegralNumber() && node.canConvertToInt()) {
+         return node.intValue();
+      } else if (node.isNumber()) {
+         // JSON.parse would produce double for anything that does not fit into int
+         return node.doubleValue();
+      } else {
+         return node.asText();
+      }
+   }
+
+   /**
+    * Converts the value back to JSON, short-circuiting proxies that wrap unmodified nodes.
+    */
+   static JsonNode unwrap(Object proxy) {
+      if (proxy instanceof ObjectProxy) {
+         return ((ObjectProxy) proxy).toJson();
+      } else if (proxy instanceof ArrayProxy) {
+         return ((ArrayProxy) proxy).toJson();
+      } else if (proxy instanceof Value) {
+         return Util.convertToJson((Value) proxy);
+      } else {
+         return Util.OBJECT_MAPPER.valueToTree(proxy);
+      }
+   }
+
+   static boolean isJsonProxy(Object proxy) {
+      return proxy instanceof ObjectProxy || proxy instanceof ArrayProxy;
+   }
+
+   private static final class ObjectProxy implements ProxyObject {
+      private final ObjectNode node;
+      // Keeps identity of nested objects and arrays stable for repeated access
+      private Map<String, Object> children;
+      // Once the script modifies the object all members are materialized here
+      private Map<String, Object> members;
+
+      private ObjectProxy(ObjectNode node) {
+         this.node = node;
+      }
+
+      @Override
+      public Object getMember(String key) {
+         if (members != null) {
+            return members.get(key);
+         }
+         JsonNode child = node.get(key);
+         if (child == null || !child.isContainerNode()) {
+            return wrap(child);
+         }
+         if (children == null) {
+            children = new HashMap<>();
+         }
+         return children.computeIfAbsent(key, k -> wrap(child));
+      }
+
+      @Override
+      public Object getMemberKeys() {
+         if (members != null) {
+            return ProxyArray.fromArray(members.keySet().toArray());
+         }
+         List<Object> keys = new ArrayList<>(node.size());
+         node.fieldNames().forEachRemaining(keys::add);
+         return ProxyArray.fromList(keys);
+      }
+
+      @Override
+      public boolean hasMember(String key) {
+         return members != null ? members.containsKey(key) : node.has(key);
+      }
+
+      @Override
+      public void putMember(String key, Value value) {
+         materialize().put(key, value);
+      }
+
+      @Override
+      public boolean removeMember(String key) {
+         return materialize().remove(key) != null;
+      }
+
+      private Map<String, Object> materialize() {
+         if (members == null) {
+            Map<String, Object> copy = new LinkedHashMap<>();
+            Iterator<String> it = node.fieldNames();
+            while (it.hasNext()) {
+               String key = it.next();
+               copy.put(key, getMember(key));
+            }
+            members = copy;
+            children = null;
+         }
+         return members;
+      }
+
+      private JsonNode toJson() {
+         if (members == null) {
+            return node;
+         }
+         ObjectNode json = JsonNodeFactory.instance.objectNode();
+         for (var entry : members.entrySet()) {
+            json.set(entry.getKey(), entry.getValue() == null ? JsonNodeFactory.instance.nullNode() : unwrap(entry.getValue()));
+         }
+         return json;
+      }
+   }
+
+   private static final class ArrayProxy implements ProxyArray {
+      private final ArrayNode node;
+      private Object[] children;
+      private List<Object> elements;
+
+      private ArrayProxy(ArrayNode node) {
+         this.node = node;
+      }
+
+      @Override
+      public Object get(long index) {
+         if (elements != null) {
+            return index >= 0 && index < elements.size() ? elements.get((int) index) : null;
+         }
+         if (index < 0 || index >= node.size()) {
+            return null;
+         }
+         int i = (int) index;
+         JsonNode child = node.get(i);
+         if (!child.isContainerNode()) {
+            return wrap(child);
+         }
+         if (children == null) {
+            children = new Object[node.size()];
+         }
+         if (children[i] == null) {
+            children[i] = wrap(child);
+         }
+         return children[i];
+      }
+
+      @Override
+      public void set(long index, Value value) {
+         List<Object> list = materialize();
+         while (list.size() <= index) {
+            list.add(null);
+         }
+         list.set((int) index, value);
+      }
+
+      @Override
+      public boolean remove(long index) {
+         List<Object> list = materialize();
+         if (index < 0 || index >= list.size()) {
+            return false;
+         }
+         list.remove((int) index);
+         return true;
+      }
+
+      @Override
+      public long getSize() {
+         return elements != null ? elements.size() : node.size();
+      }
+
+      private List<Object> materialize() {
+         if (elements == null) {
+            List<Object> copy = new ArrayList<>(node.size());
+            for (int i = 0; i < node.size(); ++i) {
+               copy.add(get(i));
+            }
+            elements = copy;
+            children = null;
+         }
+         return elements;
+      }
+
+      private JsonNode toJson() {
+         if (elements == null) {
+            return node;
+         }
+         ArrayNode json = JsonNodeFactory.instance.arrayNode(elements.size());
+         for (Object element : elements) {
+            json.add(element == null ? JsonNodeFactory.instance.nullNode() : unwrap(element));
+         }
+         return json;
+      }
+   }
+}
@@ -68,6 +68,9 @@ public class NotificationServiceImpl implements NotificationService {
    @Inject
    MessageBus messageBus;
 
+   @Inject
+   PipelineMetrics pipelineMetrics;
+
    @PostConstruct
    public void init() {
       notificationPlugins.forEach(plugin -> plugins.put(plugin.method(), plugin));
@@ -85,6 +88,7 @@ public class NotificationServiceImpl implements NotificationService {
       log.debugf("Received new changes in test %d (%s), dataset %d/%d (fingerprint: %s)",
             event.dataset.testId, event.testName, event.dataset.runId, event.dataset.ordinal, event.fingerprint);
       notifyAll(event.dataset.testId, n -> n.notifyChanges(event));
+      pipelineMetrics.notified(event.dataset.runId, event.dataset.testId);
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
@@ -104,6 +108,10 @@ public class NotificationServiceImpl implements NotificationService {
    }
 
    private void notifyAll(int testId, Consumer<Notification> consumer) {
+      pipelineMetrics.time(PipelineMetrics.STAGE_NOTIFICATIONS, testId, () -> doNotifyAll(testId, consumer));
+   }
+
+   private void doNotifyAll(int testId, Consumer<Notification> consumer) {
       @SuppressWarnings("unchecked")
       List<Object[]> results = em.createNativeQuery(GET_NOTIFICATIONS)
             .setParameter(1, testId).getResultList();
@@ -0,0 +1,140 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Inject;
+import javax.transaction.TransactionManager;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Timers for the stages of run processing: run → datasets → labels → datapoints → changes → actions/notifications.
+ * All stage timers share the name <code>horreum.pipeline.stage</code> and are tagged with the stage and outcome,
+ * and with the test if <code>horreum.pipeline.per-test</code> is enabled.
+ * Committed uploads are tracked until a notification for the run is sent, the elapsed time is recorded
+ * in <code>horreum.pipeline.upload.to.notification</code>; only runs uploaded to this node are tracked.
+ */
+@ApplicationScoped
+public class PipelineMetrics {
+   public static final String STAGE_TRANSFORM = "transform";
+   public static final String STAGE_LABELS = "labels";
+   public static final String STAGE_DATAPOINTS = "datapoints";
+   public static final String STAGE_CHANGE_DETECTION = "change_detection";
+   public static final String STAGE_ACTIONS = "actions";
+   public static final String STAGE_NOTIFICATIONS = "notifications";
+
+   private static final String SUCCESS = "success";
+   private static final String FAILURE = "failure";
+
+   @Inject
+   MeterRegistry registry;
+
+   @Inject
+   TransactionManager tm;
+
+   // Maximum number of runs waiting for notification that are tracked
+   @ConfigProperty(name = "horreum.pipeline.tracked-uploads", defaultValue = "10000")
+   int maxTrackedUploads;
+
+   @ConfigProperty(name = "horreum.pipeline.tracked-uploads.expiry", defaultValue = "1h")
+   Duration trackedUploadExpiry;
+
+   // Publishing histogram buckets multiplies the number of series per stage; enable for load testing
+   @ConfigProperty(name = "horreum.pipeline.histograms", defaultValue = "false")
+   boolean histograms;
+
+   // Each test gets its own set of series; enable only when the number of tests is bounded
+   @ConfigProperty(name = "horreum.pipeline.per-test", defaultValue = "false")
+   boolean perTest;
+
+   // run ID -> System.nanoTime() of the upload; most runs don't produce a notification so this must be bounded
+   private final Map<Integer, Long> uploads = new LinkedHashMap<>(16, 0.75f, false) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, Long> eldest) {
+         return size() > maxTrackedUploads || System.nanoTime() - eldest.getValue() > trackedUploadExpiry.toNanos();
+      }
+   };
+
+   public void time(String stage, int testId, Runnable action) {
+      time(stage, () -> testId, () -> {
+         action.run();
+         return null;
+      });
+   }
+
+   public <T> T time(String stage, int testId, Supplier<T> action) {
+      return time(stage, () -> testId, action);
+   }
+
+   /**
+    * @param testId Resolves the test after the action, for stages that discover the test during execution.
+    */
+   public <T> T time(String stage, IntSupplier testId, Supplier<T> action) {
+      long start = System.nanoTime();
+      String outcome = FAILURE;
+      try {
+         T result = action.get();
+         outcome = SUCCESS;
+         return result;
+      } finally {
+         Timer.builder("horreum.pipeline.stage")
+               .tags(testTags(testId).and("stage", stage, "outcome", outcome))
+               .description("Time spent in a stage of run processing")
+               .publishPercentileHistogram(histograms)
+               .register(registry).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+      }
+   }
+
+   private Tags testTags(IntSupplier testId) {
+      return perTest ? Tags.of("test", String.valueOf(resolve(testId))) : Tags.empty();
+   }
+
+   private static int resolve(IntSupplier testId) {
+      try {
+         return testId.getAsInt();
+      } catch (RuntimeException e) {
+         // e.g. the session is broken after failure in the stage
+         return -1;
+      }
+   }
+
+   /**
+    * Starts tracking the run when the current transaction commits; rolled back uploads are not tracked.
+    */
+   public void uploaded(int runId) {
+      long now = System.nanoTime();
+      Util.doAfterCommit(tm, () -> track(runId, now));
+   }
+
+   void track(int runId, long uploadedNanos) {
+      synchronized (uploads) {
+         uploads.put(runId, uploadedNanos);
+      }
+   }
+
+   public void notified(int runId, int testId) {
+      Long uploaded;
+      synchronized (uploads) {
+         uploaded = uploads.remove(runId);
+      }
+      if (uploaded == null) {
+         // recalculation, or the upload was handled by another node
+         return;
+      }
+      Timer.builder("horreum.pipeline.upload.to.notification")
+            .tags(testTags(() -> testId))
+            .description("Time from run upload until a notification for the run was sent")
+            .publishPercentileHistogram()
+            .register(registry).record(System.nanoTime() - uploaded, TimeUnit.NANOSECONDS);
+   }
+}
@@ -0,0 +1,59 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Singleton;
+
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jboss.logging.Logger;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Bounded pool for recalculations triggered by the user. These can submit thousands of tasks at once;
+ * running them here rather than on the message bus lanes or the pool for blocking work keeps uploads
+ * and interactive requests flowing while a recalculation is in progress.
+ * At most <code>horreum.recalculation.parallelism</code> tasks run at once, the rest are queued.
+ */
+@Singleton
+public class RecalculationExecutor implements Executor {
+   private static final Logger log = Logger.getLogger(RecalculationExecutor.class);
+
+   private final ThreadPoolExecutor executor;
+
+   public RecalculationExecutor(@ConfigProperty(name = "horreum.recalculation.parallelism", defaultValue = "4") int parallelism,
+                                MeterRegistry registry) {
+      int threads = Math.max(1, parallelism);
+      AtomicInteger threadCounter = new AtomicInteger();
+      executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+         Thread thread = new Thread(runnable, "horreum-recalculation-" + threadCounter.incrementAndGet());
+         thread.setDaemon(true);
+         return thread;
+      });
+      Gauge.builder("horreum.recalculation.queued", executor, e -> e.getQueue().size())
+            .description("Number of recalculation tasks waiting for a thread").register(registry);
+   }
+
+   @Override
+   public void execute(Runnable runnable) {
+      Runnable wrapped = Util.wrapForBlockingExecution(runnable);
+      executor.execute(() -> {
+         try {
+            wrapped.run();
+         } catch (Throwable t) {
+            log.error("Failed to execute recalculation task", t);
+         }
+      });
+   }
+
+   @PreDestroy
+   void destroy() {
+      executor.shutdownNow();
+   }
+}
@@ -1,6 +1,5 @@
 package io.hyperfoil.tools.horreum.svc;
 
-import java.io.ByteArrayOutputStream;
 import java.sql.Timestamp;
 import java.time.Instant;
 import java.util.ArrayList;
@@ -29,7 +28,6 @@ import io.hyperfoil.tools.horreum.api.report.TableReport;
 import io.hyperfoil.tools.horreum.entity.report.*;
 import io.hyperfoil.tools.horreum.mapper.ReportCommentMapper;
 import io.hyperfoil.tools.horreum.mapper.TableReportMapper;
-import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Value;
 import org.hibernate.Hibernate;
@@ -58,10 +56,6 @@ import io.quarkus.security.identity.SecurityIdentity;
 public class ReportServiceImpl implements ReportService {
    private static final Logger log = Logger.getLogger(ReportServiceImpl.class);
 
-   static {
-      System.setProperty("polyglot.engine.WarnInterpreterOnly", "false");
-   }
-
    @Inject
    SecurityIdentity identity;
 
@@ -400,9 +394,8 @@ public class ReportServiceImpl implements ReportService {
                      }
                   }
                } else {
-                  String jsCode = buildCode(component.function, String.valueOf(value));
                   try {
-                     Value calculatedValue = context.eval("js", jsCode);
+                     Value calculatedValue = evaluate(context, component.function, value);
                      Double maybeDouble = Util.toDoubleOrNull(calculatedValue,
                            err -> log(report, PersistentLog.ERROR, err),
                            info -> log(report, PersistentLog.INFO, info));
@@ -411,9 +404,10 @@ public class ReportServiceImpl implements ReportService {
                      } else {
                         data.values.add(Util.convertToJson(calculatedValue));
                      }
-                  } catch (PolyglotException e) {
+                  } catch (PolyglotException | IllegalArgumentException e) {
+                     context.onException(e);
                      log(report, PersistentLog.ERROR, "Failed to run report %s(%d) label function on run %d. Offending code: <br><pre>%s</pre>",
-                           config.title, config.id, datasetId, jsCode);
+                           config.title, config.id, datasetId, Util.describeCode(component.function, value));
                      log.debug("Caused by exception", e);
                   }
                }
@@ -454,12 +448,12 @@ public class ReportServiceImpl implements ReportService {
             if (nullOrEmpty(config.categoryFunction)) {
                data.category = toText(value);
             } else {
-               String jsCode = buildCode(config.categoryFunction, String.valueOf(value));
                try {
-                  data.category = Util.convert(context.eval("js", jsCode)).toString();
-               } catch (PolyglotException e) {
+                  data.category = Util.convert(evaluate(context, config.categoryFunction, value)).toString();
+               } catch (PolyglotException | IllegalArgumentException e) {
+                  context.onException(e);
                   log(report, PersistentLog.ERROR, "Failed to run report %s(%d) category function on dataset %d/%d (%d). Offending code: <br><pre>%s</pre>",
-                        config.title, config.id, data.runId, data.ordinal + 1, data.datasetId, jsCode);
+                        config.title, config.id, data.runId, data.ordinal + 1, data.datasetId, Util.describeCode(config.categoryFunction, value));
                   log.debug("Caused by exception", e);
                   continue;
                }
@@ -479,11 +473,11 @@ public class ReportServiceImpl implements ReportService {
             if (nullOrEmpty(config.seriesFunction)) {
                data.series = toText(value);
             } else {
-               String jsCode = buildCode(config.seriesFunction, String.valueOf(value));
                try {
-                  data.series = Util.convert(context.eval("js", jsCode)).toString();
-               } catch (PolyglotException e) {
-                  log(report, PersistentLog.ERROR, "Failed to run report %s(%d) series function on run %d/%d (%d). Offending code: <br><pre>%s</pre>", config.title, config.id, runId, ordinal + 1, datasetId, jsCode);
+                  data.series = Util.convert(evaluate(context, config.seriesFunction, value)).toString();
+               } catch (PolyglotException | IllegalArgumentException e) {
+                  context.onException(e);
+                  log(report, PersistentLog.ERROR, "Failed to run report %s(%d) series function on run %d/%d (%d). Offending code: <br><pre>%s</pre>", config.title, config.id, runId, ordinal + 1, datasetId, Util.describeCode(config.seriesFunction, value));
                   log.debug("Caused by exception", e);
                }
             }
@@ -501,12 +495,12 @@ public class ReportServiceImpl implements ReportService {
             if (nullOrEmpty(config.scaleFunction)) {
                data.scale = toText(value);
             } else {
-               String jsCode = buildCode(config.scaleFunction, String.valueOf(value));
                try {
-                  data.scale = Util.convert(context.eval("js", jsCode)).toString();
-               } catch (PolyglotException e) {
+                  data.scale = Util.convert(evaluate(context, config.scaleFunction, value)).toString();
+               } catch (PolyglotException | IllegalArgumentException e) {
+                  context.onException(e);
                   log(report, PersistentLog.ERROR, "Failed to run report %s(%d) label function on dataset %d/%d (%d). Offending code: <br><pre>%s</pre>",
-                        config.title, config.id, runId, ordinal + 1, datasetId, jsCode);
+                        config.title, config.id, runId, ordinal + 1, datasetId, Util.describeCode(config.scaleFunction, value));
                   log.debug("Caused by exception", e);
                }
             }
@@ -654,13 +648,12 @@ public class ReportServiceImpl implements ReportService {
                Integer datasetId = (Integer) row[0];
                int runId = (int) row[1];
                int ordinal = (int) row[2];
-               String jsCode = buildCode(config.filterFunction, String.valueOf(row[3]));
                if (debugList.length() != 0) {
                   debugList.append(", ");
                }
                debugList.append(runId).append('/').append(ordinal + 1);
                try {
-                  org.graalvm.polyglot.Value value = context.eval("js", jsCode);
+                  Value value = evaluate(context, config.filterFunction, (JsonNode) row[3]);
                   if (value.isBoolean()) {
                      if (value.asBoolean()) {
                         datasetIds.add(datasetId);
@@ -673,12 +666,13 @@ public class ReportServiceImpl implements ReportService {
                   } else {
                      debugList.append("(filtered: not boolean)");
                      log(report, PersistentLog.ERROR, "Report %s(%d) filter result for dataset %d/%d (%d) is not a boolean: %s. Offending code: <br><pre>%s</pre>",
-                           config.title, config.id, runId, ordinal + 1, datasetId, value, jsCode);
+                           config.title, config.id, runId, ordinal + 1, datasetId, value, Util.describeCode(config.filterFunction, row[3]));
                   }
-               } catch (PolyglotException e) {
+               } catch (PolyglotException | IllegalArgumentException e) {
+                  context.onException(e);
                   debugList.append("(filtered: JS error)");
                   log(report, PersistentLog.ERROR, "Failed to run report %s(%d) filter function on dataset %d/%d (%d). Offending code: <br><pre>%s</pre>",
-                        config.title, config.id, runId, ordinal + 1, datasetId, jsCode);
+                        config.title, config.id, runId, ordinal + 1, datasetId, Util.describeCode(config.filterFunction, row[3]));
                   log.debug("Caused by exception", e);
                }
             }
@@ -693,28 +687,21 @@ public class ReportServiceImpl implements ReportService {
       report.logs.add(new ReportLogDAO(report, level, message));
    }
 
-   private String buildCode(String function, String param) {
-      StringBuilder jsCode = new StringBuilder();
-      jsCode.append("var __obj = ").append(param).append(";\n");
-      jsCode.append("var __func = ").append(function).append(";\n");
-      jsCode.append("__func(__obj)");
-      return jsCode.toString();
+   private Value evaluate(JsContextPool.PooledContext context, String function, JsonNode param) {
+      return context.execute(function, JsonProxy.wrap(param));
    }
 
-   private void executeInContext(TableReportConfigDAO config, Consumer<Context> consumer) {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      try (Context context = Context.newBuilder("js").out(out).err(out).build()) {
-         context.enter();
+   private void executeInContext(TableReportConfigDAO config, Consumer<JsContextPool.PooledContext> consumer) {
+      JsContextPool.get().withContext(context -> {
          try {
             consumer.accept(context);
          } finally {
-            context.leave();
-         }
-      } finally {
-         if (out.size() > 0) {
-            log.infof("Output while calculating data for report %s(%d): <pre>%s</pre>", config.title, config.id, out.toString());
+            if (context.hasOutput()) {
+               log.infof("Output while calculating data for report %s(%d): <pre>%s</pre>", config.title, config.id, context.output());
+            }
          }
-      }
+         return null;
+      });
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
@@ -0,0 +1,98 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Helpers for the optional storage of run data as compressed blob (table <code>run_blob</code>).
+ * The original data is kept in the blob and <code>run.data</code> contains only the parts addressed
+ * by a schema, as only these are used by transformers.
+ */
+final class RunDataBlobs {
+   static final String CODEC_GZIP = "gzip";
+   private static final int BUFFER_SIZE = 64 * 1024;
+
+   private RunDataBlobs() {
+   }
+
+   /**
+    * @return Data with the parts that are not addressed by any schema removed,
+    *         or <code>null</code> if there's nothing to remove.
+    */
+   static JsonNode materialize(JsonNode data) {
+      if (data.isObject()) {
+         if (data.hasNonNull("$schema")) {
+            return null;
+         }
+         ObjectNode materialized = JsonNodeFactory.instance.objectNode();
+         for (Iterator<Map.Entry<String, JsonNode>> it = data.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            if (hasSchema(entry.getValue())) {
+               materialized.set(entry.getKey(), entry.getValue());
+            }
+         }
+         return materialized.size() == data.size() ? null : materialized;
+      } else if (data.isArray()) {
+         // keep the indices, schemas are addressed by them
+         ArrayNode materialized = JsonNodeFactory.instance.arrayNode(data.size());
+         boolean removed = false;
+         for (JsonNode item : data) {
+            if (hasSchema(item)) {
+               materialized.add(item);
+            } else {
+               materialized.addNull();
+               removed = removed || !item.isNull();
+            }
+         }
+         return removed ? materialized : null;
+      } else {
+         return null;
+      }
+   }
+
+   private static boolean hasSchema(JsonNode node) {
+      return node.isObject() && node.hasNonNull("$schema");
+   }
+
+   static byte[] compress(JsonNode data) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (OutputStream stream = new GZIPOutputStream(bytes, BUFFER_SIZE)) {
+         Util.OBJECT_MAPPER.writeValue(stream, data);
+      } catch (IOException e) {
+         throw new IllegalStateException(e);
+      }
+      return bytes.toByteArray();
+   }
+
+   static void compress(InputStream input, OutputStream output) throws IOException {
+      try (OutputStream stream = new GZIPOutputStream(output, BUFFER_SIZE)) {
+         input.transferTo(stream);
+      }
+   }
+
+   static InputStream decompress(String codec, byte[] blob) throws IOException {
+      if (CODEC_GZIP.equals(codec)) {
+         return new GZIPInputStream(new ByteArrayInputStream(blob), BUFFER_SIZE);
+      } else {
+         throw new IOException("Unknown codec " + codec);
+      }
+   }
+
+   static JsonNode decompressTree(String codec, byte[] blob) throws IOException {
+      try (InputStream stream = decompress(codec, blob)) {
+         return Util.OBJECT_MAPPER.readTree(stream);
+      }
+   }
+}
@@ -1,14 +1,29 @@
 package io.hyperfoil.tools.horreum.svc;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Timestamp;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -16,9 +31,13 @@ import java.util.TreeMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import javax.annotation.PostConstruct;
@@ -39,11 +58,15 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 import com.fasterxml.jackson.databind.node.ObjectNode;
@@ -61,17 +84,23 @@ import io.hyperfoil.tools.horreum.api.services.RunService;
 import io.hyperfoil.tools.horreum.api.services.SchemaService;
 import io.hyperfoil.tools.horreum.api.services.SqlService;
 import io.hyperfoil.tools.horreum.bus.MessageBus;
+import io.hyperfoil.tools.horreum.bus.TaskPriority;
 import io.hyperfoil.tools.horreum.entity.PersistentLog;
 import io.hyperfoil.tools.horreum.entity.alerting.TransformationLogDAO;
+import io.hyperfoil.tools.horreum.jsonpath.JsonPathException;
 import io.hyperfoil.tools.horreum.server.WithRoles;
 import io.hyperfoil.tools.horreum.server.WithToken;
+import io.micrometer.core.instrument.MeterRegistry;
 import io.quarkus.narayana.jta.runtime.TransactionConfiguration;
 import io.quarkus.runtime.Startup;
+import io.quarkus.runtime.configuration.MemorySize;
 import io.quarkus.security.identity.SecurityIdentity;
 import io.vertx.core.Vertx;
 
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import org.hibernate.ScrollMode;
 import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.type.BooleanType;
 import org.hibernate.type.IntegerType;
@@ -81,15 +110,16 @@ import org.jboss.logging.Logger;
 import org.jboss.resteasy.reactive.multipart.FileUpload;
 
 import static com.fasterxml.jackson.databind.node.JsonNodeFactory.instance;
-import static io.hyperfoil.tools.horreum.entity.data.SchemaDAO.QUERY_1ST_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID;
-import static io.hyperfoil.tools.horreum.entity.data.SchemaDAO.QUERY_2ND_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID;
-import static io.hyperfoil.tools.horreum.entity.data.SchemaDAO.QUERY_TRANSFORMER_TARGETS;
+import static io.hyperfoil.tools.horreum.entity.data.SchemaDAO.QUERY_TRANSFORMER_DEFINITIONS;
+import static io.hyperfoil.tools.horreum.entity.data.SchemaDAO.QUERY_TRANSFORMER_EXTRACTORS;
 
 @ApplicationScoped
 @Startup
 public class RunServiceImpl implements RunService {
    private static final Logger log = Logger.getLogger(RunServiceImpl.class);
    //@formatter:off
+   // When the blob storage is enabled this suggests only keys from the parts of run data addressed by a schema;
+   // the same applies to filtering runs in listAllRuns as both search through run.data
    private static final String FIND_AUTOCOMPLETE =
          "SELECT * FROM (" +
             "SELECT DISTINCT jsonb_object_keys(q) AS key " +
@@ -102,6 +132,7 @@ public class RunServiceImpl implements RunService {
          "(metadata IS NOT NULL AND ?1 IN (SELECT jsonb_array_elements(metadata)->>'$schema')))";
    //@formatter:on
    private static final String[] CONDITION_SELECT_TERMINAL = { "==", "!=", "<>", "<", "<=", ">", ">=", " " };
+   private static final int TRANSFORM_LOCKS = 64;
    private static final String UPDATE_TOKEN = "UPDATE run SET token = ? WHERE id = ?";
    private static final String CHANGE_ACCESS = "UPDATE run SET owner = ?, access = ? WHERE id = ?";
    private static final String SCHEMA_USAGE = "COALESCE(jsonb_agg(jsonb_build_object(" +
@@ -132,23 +163,54 @@ public class RunServiceImpl implements RunService {
    @Inject
    DatasetServiceImpl datasetService;
 
+   @ConfigProperty(name = "horreum.upload.bulk.batch-size", defaultValue = "100")
+   int bulkBatchSize;
+
+   @ConfigProperty(name = "horreum.upload.streaming.threshold", defaultValue = "16M")
+   MemorySize streamingThreshold;
+
+   @ConfigProperty(name = "horreum.run.blob-storage", defaultValue = "false")
+   boolean blobStorage;
+
+   @ConfigProperty(name = "horreum.upload.backlog.max-per-test", defaultValue = "10000")
+   int maxBacklogPerTest;
+
+   @ConfigProperty(name = "horreum.upload.backlog.max", defaultValue = "100000")
+   int maxBacklog;
+
+   @ConfigProperty(name = "horreum.upload.backlog.retry-after", defaultValue = "30s")
+   Duration backlogRetryAfter;
+
+   @Inject
+   MeterRegistry meterRegistry;
+
+   @Inject
+   PipelineMetrics pipelineMetrics;
+
+   @Inject
+   ExtractionBackend extractionBackend;
+
+   // Transformations of the same run must not overlap, each would delete the datasets created by the other.
+   // Runs share a fixed number of locks, which are held around the whole transaction.
+   private final ReentrantLock[] transformLocks = new ReentrantLock[TRANSFORM_LOCKS];
 
    @PostConstruct
    void init() {
+      for (int i = 0; i < transformLocks.length; ++i) {
+         transformLocks[i] = new ReentrantLock();
+      }
       sqlService.registerListener("calculate_datasets", this::onCalculateDataSets);
       sqlService.registerListener("new_or_updated_schema", this::onNewOrUpdatedSchema);
       messageBus.subscribe(TestDAO.EVENT_DELETED, "RunService", TestDAO.class, this::onTestDeleted);
+      messageBus.subscribe(RunDAO.EVENT_SCHEMAS_CHANGED, "RunService", Integer.class, runId -> TaskPriority.BULK, this::onNewOrUpdatedSchemaForRun);
    }
 
    @Transactional
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    void onTestDeleted(TestDAO test) {
       log.debugf("Trashing runs for test %s (%d)", test.name, test.id);
-      ScrollableResults results = Util.scroll(em.createNativeQuery("SELECT id FROM run WHERE testid = ?1").setParameter(1, test.id));
-      while (results.next()) {
-         int id = (int) results.get(0);
-         messageBus.executeForTest(test.id, () -> trashDueToTestDeleted(id));
-      }
+      @SuppressWarnings("unchecked") List<Integer> ids = em.createNativeQuery("SELECT id FROM run WHERE testid = ?1").setParameter(1, test.id).getResultList();
+      messageBus.executeForEach(test.id, TaskPriority.BULK, ids.stream().mapToInt(Integer::intValue).toArray(), this::trashDueToTestDeleted);
    }
 
    // plain trash does not have the right priviledges and @RolesAllowed would cause ContextNotActiveException
@@ -181,10 +243,19 @@ public class RunServiceImpl implements RunService {
          return;
       }
       // we don't have to care about races with new runs
+      Map<Integer, List<Integer>> localRuns = new HashMap<>();
       findRunsWithUri(schema.uri, (runId, testId) -> {
-         log.debugf("Recalculate DataSets for run %d - schema %d (%s) changed", runId, schema.id, schema.uri);
-         messageBus.executeForTest(testId, () -> onNewOrUpdatedSchemaForRun(runId));
+         // all nodes get the notification, each handles runs of the tests it is responsible for
+         if (messageBus.isLocal(testId)) {
+            log.debugf("Recalculate DataSets for run %d - schema %d (%s) changed", runId, schema.id, schema.uri);
+            localRuns.computeIfAbsent(testId, t -> new ArrayList<>()).add(runId);
+         } else if (messageBus.isResponsible(testId)) {
+            // the test is not processed by any node now, the message waits for the node claiming it
+            messageBus.publish(RunDAO.EVENT_SCHEMAS_CHANGED, testId, runId);
+         }
       });
+      localRuns.forEach((testId, runIds) -> messageBus.executeForEach(testId, TaskPriority.BULK,
+            runIds.stream().mapToInt(Integer::intValue).toArray(), this::onNewOrUpdatedSchemaForRun));
    }
 
    void findRunsWithUri(String uri, BiConsumer<Integer, Integer> consumer) {
@@ -194,11 +265,15 @@ public class RunServiceImpl implements RunService {
       }
    }
 
+   void onNewOrUpdatedSchemaForRun(int runId) {
+      withTransformLock(runId, () -> updateSchemasAndTransform(runId));
+   }
+
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
-   void onNewOrUpdatedSchemaForRun(int runId) {
+   int updateSchemasAndTransform(int runId) {
       em.createNativeQuery("SELECT update_run_schemas(?1)::::text").setParameter(1, runId).getSingleResult();
-      transform(runId, true);
+      return transform(runId, true);
    }
 
    @PermitAll
@@ -209,17 +284,23 @@ public class RunServiceImpl implements RunService {
 
       RunExtended runExtended = null;
 
-      String extendedData = (String) Util.runQuery(em, "SELECT (to_jsonb(run) || jsonb_build_object(" +
+      Object[] row = (Object[]) Util.runQuery(em, "SELECT (to_jsonb(run) || jsonb_build_object(" +
               "'schemas', (SELECT " + SCHEMA_USAGE + " FROM run_schemas rs JOIN schema ON rs.schemaid = schema.id WHERE runid = run.id), " +
               "'testname', (SELECT name FROM test WHERE test.id = run.testid), " +
               "'datasets', (SELECT jsonb_agg(id ORDER BY id) FROM dataset WHERE runid = run.id), " +
               "'validationErrors', (SELECT jsonb_agg(jsonb_build_object('schemaId', schema_id, 'error', error)) FROM run_validationerrors WHERE run_id = ?1)" +
-              "))::::text FROM run WHERE id = ?1", id);
+              "))::::text, EXISTS(SELECT 1 FROM run_blob WHERE run_id = run.id) FROM run WHERE id = ?1", id);
       try {
-         runExtended = Util.OBJECT_MAPPER.readValue(extendedData, RunExtended.class);
+         runExtended = Util.OBJECT_MAPPER.readValue((String) row[0], RunExtended.class);
       } catch (JsonProcessingException e) {
          throw ServiceException.serverError("Could not retrieve extended run");
       }
+      if ((Boolean) row[1]) {
+         JsonNode original = loadOriginalData(id);
+         if (original != null) {
+            runExtended.data = original;
+         }
+      }
 
       return runExtended;
    }
@@ -244,6 +325,17 @@ public class RunServiceImpl implements RunService {
    @Override
    public Object getData(int id, String token, String schemaUri) {
       if (schemaUri == null || schemaUri.isEmpty()) {
+         Object[] blob = loadBlob(id);
+         if (blob != null) {
+            String codec = (String) blob[0];
+            byte[] compressed = (byte[]) blob[1];
+            StreamingOutput output = stream -> {
+               try (InputStream input = RunDataBlobs.decompress(codec, compressed)) {
+                  input.transferTo(stream);
+               }
+            };
+            return Response.ok(output, MediaType.APPLICATION_JSON).build();
+         }
          return Util.runQuery(em, "SELECT data#>>'{}' from run where id = ?", id);
       } else {
          String sqlQuery = "SELECT (CASE " +
@@ -290,8 +382,25 @@ public class RunServiceImpl implements RunService {
                   ", (?1)::::jsonpath)#>>'{}' FROM run JOIN run_schemas rs ON rs.runid = run.id WHERE id = ?2 AND rs.uri = ?3";
             result.value = String.valueOf(Util.runQuery(em, sqlQuery, jsonpath, id, schemaUri));
          } else {
-            String sqlQuery = "SELECT " + func + "(data, (?1)::::jsonpath)#>>'{}' FROM run WHERE id = ?2";
-            result.value = String.valueOf(Util.runQuery(em, sqlQuery, jsonpath, id));
+            JsonNode original = loadOriginalData(id);
+            if (original != null) {
+               // the blob is evaluated here rather than sent back to the database
+               try {
+                  JsonNode value = extractionBackend.extract(original, jsonpath, array);
+                  result.value = value.isNull() ? "null" : value.isTextual() ? value.asText() : value.toString();
+               } catch (JsonPathException e) {
+                  if (!e.isUnsupported()) {
+                     result.valid = false;
+                     result.reason = e.getMessage();
+                     return result;
+                  }
+                  String sqlQuery = "SELECT " + func + "((?1)::::jsonb, (?2)::::jsonpath)#>>'{}'";
+                  result.value = String.valueOf(Util.runQuery(em, sqlQuery, original.toString(), jsonpath));
+               }
+            } else {
+               String sqlQuery = "SELECT " + func + "(data, (?1)::::jsonpath)#>>'{}' FROM run WHERE id = ?2";
+               result.value = String.valueOf(Util.runQuery(em, sqlQuery, jsonpath, id));
+            }
          }
          result.valid = true;
       } catch (PersistenceException pe) {
@@ -355,6 +464,7 @@ public class RunServiceImpl implements RunService {
          run.access = access;
       }
       log.debugf("About to add new run to test %s using owner", testNameOrId, owner);
+      checkBacklog();
       TestDAO test = testService.ensureTestExists(testNameOrId, token);
       run.testid = test.id;
       Integer runId = addAuthenticated(RunMapper.to(run), test);
@@ -372,6 +482,8 @@ public class RunServiceImpl implements RunService {
 
    @Override
    public Response addRunFromData(String start, String stop, String test, String owner, Access access, String token, String schemaUri, String description, FileUpload data, FileUpload metadata) {
+      // reject before parsing the files
+      checkBacklog();
       if (data == null) {
          log.debugf("Failed to upload for test %s with description %s because of missing data.", test, description);
          throw ServiceException.badRequest("No data!");
@@ -386,7 +498,6 @@ public class RunServiceImpl implements RunService {
       JsonNode dataNode;
       JsonNode metadataNode = null;
       try {
-         dataNode = Util.OBJECT_MAPPER.readTree(data.uploadedFile().toFile());
          if (metadata != null) {
             metadataNode = Util.OBJECT_MAPPER.readTree(metadata.uploadedFile().toFile());
             if (metadataNode.isArray()) {
@@ -407,6 +518,10 @@ public class RunServiceImpl implements RunService {
                metadataNode = instance.arrayNode().add(metadataNode);
             }
          }
+         if (data.size() >= streamingThreshold.asLongValue() && Stream.of(test, start, stop, description).allMatch(RunServiceImpl::isStreamable)) {
+            return addRunFromFile(start, stop, test, owner, access, token, schemaUri, description, data.uploadedFile(), metadataNode);
+         }
+         dataNode = Util.OBJECT_MAPPER.readTree(data.uploadedFile().toFile());
       } catch (IOException e) {
          log.error("Failed to read data/metadata from upload file", e);
          throw ServiceException.badRequest("Provided data/metadata can't be read (JSON encoding problem?)");
@@ -445,6 +560,140 @@ public class RunServiceImpl implements RunService {
                                 String owner, Access access, String token,
                                 String schemaUri, String description,
                                 JsonNode data, JsonNode metadata) {
+      TestDAO[] testEntity = new TestDAO[1];
+      RunDAO run = createRun(start, stop, test, owner, access, token, schemaUri, description, data, metadata,
+            testNameOrId -> testEntity[0] = testService.ensureTestExists(testNameOrId, token));
+
+      Integer runId = addAuthenticated(run, testEntity[0]);
+      if (token != null) {
+         // TODO: remove the token
+      }
+      return Response.status(Response.Status.OK).entity(String.valueOf(runId)).header(HttpHeaders.LOCATION, "/run/" + runId).build();
+   }
+
+   @PermitAll // all because of possible token-based upload
+   @Override
+   public List<BulkResult> addRunsFromData(String start, String stop, String test, String owner, Access access, String token, String schemaUri, String description, InputStream data) {
+      if (data == null) {
+         throw ServiceException.badRequest("No data!");
+      }
+      checkBacklog();
+      List<BulkResult> results = new ArrayList<>();
+      List<JsonNode> batch = new ArrayList<>(bulkBatchSize);
+      ObjectReader reader = Util.OBJECT_MAPPER.readerFor(JsonNode.class).with(DeserializationFeature.FAIL_ON_TRAILING_TOKENS);
+      // index of the first item in the batch
+      int index = 0;
+      // Each non-blank line is one item; a malformed line is reported and the upload continues with the next line
+      try (BufferedReader lines = new BufferedReader(new InputStreamReader(data, StandardCharsets.UTF_8))) {
+         String line;
+         while ((line = lines.readLine()) != null) {
+            if (line.isBlank()) {
+               continue;
+            }
+            JsonNode item;
+            try {
+               item = reader.readValue(line);
+            } catch (JsonProcessingException e) {
+               int failedIndex = index + batch.size();
+               log.debugf(e, "Failed to parse item %d in bulk upload for test %s", failedIndex, test);
+               // keep the results ordered by index
+               flushBulk(batch, index, results, start, stop, test, owner, access, token, schemaUri, description);
+               results.add(new BulkResult(failedIndex, null, "Cannot parse JSON: " + e.getOriginalMessage()));
+               index = failedIndex + 1;
+               continue;
+            }
+            batch.add(item);
+            if (batch.size() >= bulkBatchSize) {
+               index += flushBulk(batch, index, results, start, stop, test, owner, access, token, schemaUri, description);
+            }
+         }
+      } catch (IOException e) {
+         log.error("Failed to read bulk upload", e);
+         throw ServiceException.badRequest("Provided data can't be read (JSON encoding problem?)");
+      }
+      flushBulk(batch, index, results, start, stop, test, owner, access, token, schemaUri, description);
+      return results;
+   }
+
+   private int flushBulk(List<JsonNode> batch, int firstIndex, List<BulkResult> results,
+                         String start, String stop, String test, String owner, Access access, String token,
+                         String schemaUri, String description) {
+      int size = batch.size();
+      if (size == 0) {
+         return 0;
+      }
+      try {
+         results.addAll(persistBulk(batch, firstIndex, start, stop, test, owner, access, token, schemaUri, description));
+      } catch (Exception e) {
+         // Failure during flush rolls back whole batch; retry items one by one to find the culprit
+         log.debugf(e, "Failed to persist bulk upload batch starting at %d, retrying items separately", firstIndex);
+         for (int i = 0; i < size; ++i) {
+            try {
+               results.addAll(persistBulk(Collections.singletonList(batch.get(i)), firstIndex + i,
+                     start, stop, test, owner, access, token, schemaUri, description));
+            } catch (Exception e2) {
+               log.error("Failed to persist run in bulk upload", e2);
+               results.add(new BulkResult(firstIndex + i, null, "Failed to persist run"));
+            }
+         }
+      }
+      batch.clear();
+      return size;
+   }
+
+   @PermitAll
+   @Transactional(Transactional.TxType.REQUIRES_NEW)
+   @WithRoles
+   @WithToken
+   List<BulkResult> persistBulk(List<JsonNode> batch, int firstIndex,
+                                String start, String stop, String test, String owner, Access access, String token,
+                                String schemaUri, String description) {
+      List<BulkResult> results = new ArrayList<>(batch.size());
+      List<RunDAO> runs = new ArrayList<>(batch.size());
+      List<TestDAO> runTests = new ArrayList<>(batch.size());
+      List<byte[]> blobs = new ArrayList<>(batch.size());
+      // resolved in each transaction so that a batch sees current owner and upload permissions
+      Map<String, TestDAO> tests = new HashMap<>();
+      for (int i = 0; i < batch.size(); ++i) {
+         TestDAO[] testEntity = new TestDAO[1];
+         try {
+            RunDAO run = createRun(start, stop, test, owner, access, token, schemaUri, description, batch.get(i), null,
+                  testNameOrId -> testEntity[0] = tests.computeIfAbsent(testNameOrId, t -> testService.ensureTestExists(t, token)));
+            run.id = null;
+            checkOwner(run, testEntity[0]);
+            checkBacklog(testEntity[0].id);
+            blobs.add(prepareBlob(run));
+            em.persist(run);
+            runs.add(run);
+            runTests.add(testEntity[0]);
+            // placeholder for the generated ID
+            results.add(null);
+         } catch (ServiceException e) {
+            results.add(new BulkResult(firstIndex + i, null, e.getMessage()));
+         }
+      }
+      // single flush lets Hibernate send the inserts in JDBC batches
+      em.flush();
+      for (int i = 0; i < runs.size(); ++i) {
+         storeBlob(runs.get(i).id, blobs.get(i));
+      }
+      int runIndex = 0;
+      for (int i = 0; i < results.size(); ++i) {
+         if (results.get(i) == null) {
+            RunDAO run = runs.get(runIndex);
+            messageBus.publish(RunDAO.EVENT_NEW, runTests.get(runIndex).id, new RunDAO.Event(run.id, runTests.get(runIndex).id));
+            pipelineMetrics.uploaded(run.id);
+            results.set(i, new BulkResult(firstIndex + i, run.id, null));
+            ++runIndex;
+         }
+      }
+      log.debugf("Bulk upload persisted %d runs, %d failed", runs.size(), results.size() - runs.size());
+      return results;
+   }
+
+   private RunDAO createRun(String start, String stop, String test, String owner, Access access, String token,
+                            String schemaUri, String description, JsonNode data, JsonNode metadata,
+                            Function<String, TestDAO> testResolver) {
       if (data == null) {
          log.debugf("Failed to upload for test %s with description %s because of missing data.", test, description);
          throw ServiceException.badRequest("No data!");
@@ -482,7 +731,7 @@ public class RunServiceImpl implements RunService {
          throw ServiceException.badRequest("Cannot parse stop time from " + foundStop + " (" + stop + ")");
       }
 
-      TestDAO testEntity = testService.ensureTestExists(testNameOrId, token);
+      TestDAO testEntity = testResolver.apply(testNameOrId);
 
       log.debugf("Creating new run for test %s(%d) with description %s", testEntity.name, testEntity.id, foundDescription);
 
@@ -498,12 +747,160 @@ public class RunServiceImpl implements RunService {
       // Some triggered functions in the database need to be able to read the just-inserted run
       // otherwise RLS policies will fail. That's why we reuse the token for the test and later wipe it out.
       run.token = token;
+      return run;
+   }
 
-      Integer runId = addAuthenticated(run, testEntity);
-      if (token != null) {
-         // TODO: remove the token
+   private static boolean isStreamable(String value) {
+      return value == null || !value.startsWith("$.") || StreamingJsonPaths.isSupported(value);
+   }
+
+   /**
+    * Variant of upload for large files: the data is never parsed into a tree, the fields we need
+    * are extracted using streaming parser and the file is sent to the database as a stream.
+    */
+   @PermitAll // all because of possible token-based upload
+   @Transactional
+   @WithRoles
+   @WithToken
+   Response addRunFromFile(String start, String stop, String test,
+                           String owner, Access access, String token,
+                           String schemaUri, String description,
+                           Path data, JsonNode metadata) throws IOException {
+      List<String> jsonPaths = Stream.of(test, start, stop, description)
+            .filter(value -> value != null && value.startsWith("$.")).collect(Collectors.toList());
+      StreamingJsonPaths found;
+      try (InputStream stream = Files.newInputStream(data)) {
+         found = new StreamingJsonPaths(jsonPaths).scan(stream);
+      }
+      Object foundTest = findIfNotSet(test, found);
+      Object foundStart = findIfNotSet(start, found);
+      Object foundStop = findIfNotSet(stop, found);
+      Object foundDescription = findIfNotSet(description, found);
+
+      String testNameOrId = foundTest == null ? null : foundTest.toString().trim();
+      if (testNameOrId == null || testNameOrId.isEmpty()) {
+         log.debugf("Failed to upload for test %s with description %s as the test cannot be identified.", test, description);
+         throw ServiceException.badRequest("Cannot identify test name.");
+      }
+      Instant startInstant = toInstant(foundStart);
+      Instant stopInstant = toInstant(foundStop);
+      if (startInstant == null) {
+         log.debugf("Failed to upload for test %s with description %s; cannot parse start time %s (%s)", test, description, foundStart, start);
+         throw ServiceException.badRequest("Cannot parse start time from " + foundStart + " (" + start + ")");
+      } else if (stopInstant == null) {
+         log.debugf("Failed to upload for test %s with description %s; cannot parse start time %s (%s)", test, description, foundStop,stop);
+         throw ServiceException.badRequest("Cannot parse stop time from " + foundStop + " (" + stop + ")");
+      }
+
+      TestDAO testEntity = testService.ensureTestExists(testNameOrId, token);
+      checkBacklog(testEntity.id);
+      log.debugf("Creating new run for test %s(%d) with description %s from file of %d bytes", testEntity.name, testEntity.id, foundDescription, Files.size(data));
+
+      RunDAO run = new RunDAO();
+      run.testid = testEntity.id;
+      run.start = startInstant;
+      run.stop = stopInstant;
+      run.description = foundDescription != null ? foundDescription.toString() : null;
+      run.metadata = metadata;
+      run.owner = owner;
+      run.access = access;
+      run.token = token;
+      checkOwner(run, testEntity);
+
+      String dataExpression;
+      if (schemaUri == null || schemaUri.isEmpty()) {
+         dataExpression = "upload.data";
+      } else if (found.rootToken() == JsonToken.START_OBJECT) {
+         dataExpression = "upload.data || jsonb_build_object('$schema', ?::text)";
+      } else if (found.rootToken() == JsonToken.START_ARRAY) {
+         dataExpression = "(SELECT COALESCE(jsonb_agg(CASE WHEN jsonb_typeof(item) = 'object' AND item->>'$schema' IS NULL " +
+               "THEN item || jsonb_build_object('$schema', ?::text) ELSE item END ORDER BY ordinal), '[]'::jsonb) " +
+               "FROM jsonb_array_elements(upload.data) WITH ORDINALITY AS items(item, ordinal))";
+      } else {
+         dataExpression = "upload.data";
+      }
+      // The blob contains the file as uploaded so we cannot use it when the schema is overridden
+      boolean storeBlob = blobStorage && dataExpression.equals("upload.data");
+      String sql = "WITH upload AS (SELECT convert_from(?, 'UTF8')::jsonb AS data), " +
+            "input AS (SELECT " + dataExpression + " AS data, " + (storeBlob ? "materialize_run_data(" + dataExpression + ")" : "NULL::jsonb") + " AS materialized FROM upload) " +
+            "INSERT INTO run (id, start, stop, description, testid, data, metadata, owner, access, token, trashed) " +
+            "SELECT nextval('run_id_seq'), ?, ?, " +
+            "?, ?, COALESCE(input.materialized, input.data), ?::jsonb, ?, ?, ?, false FROM input " +
+            "RETURNING id, (SELECT materialized IS NOT NULL FROM input)";
+      Path compressed = null;
+      try {
+         if (storeBlob) {
+            compressed = Files.createTempFile("horreum-run-", ".gz");
+            try (InputStream input = Files.newInputStream(data); OutputStream output = Files.newOutputStream(compressed)) {
+               RunDataBlobs.compress(input, output);
+            }
+         }
+         Path blobFile = compressed;
+         run.id = em.unwrap(Session.class).doReturningWork(connection -> {
+            try (InputStream stream = Files.newInputStream(data);
+                 PreparedStatement statement = connection.prepareStatement(sql)) {
+               int param = 1;
+               // the driver sends the stream to the database without buffering it
+               statement.setBinaryStream(param++, stream, Files.size(data));
+               if (!dataExpression.equals("upload.data")) {
+                  statement.setString(param++, schemaUri);
+               }
+               // bound as timestamptz, independent of the session time zone
+               statement.setObject(param++, OffsetDateTime.ofInstant(run.start, ZoneOffset.UTC));
+               statement.setObject(param++, OffsetDateTime.ofInstant(run.stop, ZoneOffset.UTC));
+               statement.setString(param++, run.description);
+               statement.setInt(param++, run.testid);
+               statement.setString(param++, metadata == null ? null : metadata.toString());
+               statement.setString(param++, run.owner);
+               statement.setInt(param++, run.access.ordinal());
+               statement.setString(param, run.token);
+               int runId;
+               boolean materialized;
+               try (ResultSet rs = statement.executeQuery()) {
+                  rs.next();
+                  runId = rs.getInt(1);
+                  materialized = rs.getBoolean(2);
+               }
+               if (materialized) {
+                  try (InputStream blobStream = Files.newInputStream(blobFile);
+                       PreparedStatement blobStatement = connection.prepareStatement("INSERT INTO run_blob (run_id, codec, size, data) VALUES (?, ?, ?, ?)")) {
+                     long size = Files.size(blobFile);
+                     blobStatement.setInt(1, runId);
+                     blobStatement.setString(2, RunDataBlobs.CODEC_GZIP);
+                     blobStatement.setLong(3, size);
+                     blobStatement.setBinaryStream(4, blobStream, size);
+                     blobStatement.executeUpdate();
+                  }
+               }
+               return runId;
+            } catch (IOException e) {
+               throw new SQLException("Cannot read uploaded file", e);
+            }
+         });
+      } catch (Exception e) {
+         log.error("Failed to persist run.", e);
+         throw ServiceException.serverError("Failed to persist run");
+      } finally {
+         if (compressed != null) {
+            Files.deleteIfExists(compressed);
+         }
+      }
+      log.debugf("Upload streamed, run ID %d", run.id);
+      messageBus.publish(RunDAO.EVENT_NEW, testEntity.id, new RunDAO.Event(run.id, testEntity.id));
+      pipelineMetrics.uploaded(run.id);
+      return Response.status(Response.Status.OK).entity(String.valueOf(run.id)).header(HttpHeaders.LOCATION, "/run/" + run.id).build();
+   }
+
+   private Object findIfNotSet(String value, StreamingJsonPaths found) {
+      if (value != null && !value.isEmpty()) {
+         if (value.startsWith("$.")) {
+            return found.get(value);
+         } else {
+            return value;
+         }
+      } else {
+         return null;
       }
-      return Response.status(Response.Status.OK).entity(String.valueOf(runId)).header(HttpHeaders.LOCATION, "/run/" + runId).build();
    }
 
    private Object findIfNotSet(String value, JsonNode data) {
@@ -537,10 +934,110 @@ public class RunServiceImpl implements RunService {
       }
    }
 
+   /**
+    * Rejects the upload when there's too much unprocessed work in all tests.
+    */
+   private void checkBacklog() {
+      int backlog = messageBus.backlog();
+      if (maxBacklog > 0 && backlog >= maxBacklog) {
+         meterRegistry.counter("horreum.upload.rejected", "reason", "global").increment();
+         log.debugf("Rejecting upload, backlog is %d", backlog);
+         throw ServiceException.serviceUnavailable("Too many runs are being processed, please retry later.", backlogRetryAfter);
+      }
+   }
+
+   /**
+    * Rejects the upload when there's too much unprocessed work for this test (or in all tests).
+    */
+   private void checkBacklog(int testId) {
+      checkBacklog();
+      int backlog = messageBus.backlog(testId);
+      if (maxBacklogPerTest > 0 && backlog >= maxBacklogPerTest) {
+         meterRegistry.counter("horreum.upload.rejected", "reason", "test").increment();
+         log.debugf("Rejecting upload to test %d, backlog is %d", testId, backlog);
+         throw ServiceException.tooManyRequests("Too many runs are being processed for test " + testId + ", please retry later.", backlogRetryAfter);
+      }
+   }
+
    private Integer addAuthenticated(RunDAO run, TestDAO test) {
       // Id will be always generated anew
       run.id = null;
+      checkBacklog(test.id);
+
+      checkOwner(run, test);
+      byte[] blob = prepareBlob(run);
+
+      try {
+         if (run.id == null) {
+            em.persist(run);
+         } else {
+            em.merge(run);
+         }
+         em.flush();
+         storeBlob(run.id, blob);
+      } catch (Exception e) {
+         log.error("Failed to persist run.", e);
+         throw ServiceException.serverError("Failed to persist run");
+      }
+      log.debugf("Upload flushed, run ID %d", run.id);
+      messageBus.publish(RunDAO.EVENT_NEW, test.id, new RunDAO.Event(run.id, test.id));
+      pipelineMetrics.uploaded(run.id);
+
+      return run.id;
+   }
+
+   /**
+    * Replaces run data with its materialized version if the blob storage is enabled.
+    *
+    * @return Compressed original data or <code>null</code> if this is not stored.
+    */
+   private byte[] prepareBlob(RunDAO run) {
+      if (!blobStorage || run.data == null) {
+         return null;
+      }
+      JsonNode materialized = RunDataBlobs.materialize(run.data);
+      if (materialized == null) {
+         return null;
+      }
+      byte[] blob = RunDataBlobs.compress(run.data);
+      run.data = materialized;
+      return blob;
+   }
+
+   private void storeBlob(int runId, byte[] blob) {
+      if (blob == null) {
+         return;
+      }
+      em.createNativeQuery("INSERT INTO run_blob (run_id, codec, size, data) VALUES (?1, ?2, ?3, ?4) " +
+                  "ON CONFLICT (run_id) DO UPDATE SET codec = EXCLUDED.codec, size = EXCLUDED.size, data = EXCLUDED.data")
+            .setParameter(1, runId).setParameter(2, RunDataBlobs.CODEC_GZIP)
+            .setParameter(3, (long) blob.length).setParameter(4, blob)
+            .executeUpdate();
+   }
 
+   private Object[] loadBlob(int runId) {
+      @SuppressWarnings("unchecked") List<Object[]> blobs = em.createNativeQuery("SELECT codec, data FROM run_blob WHERE run_id = ?1")
+            .setParameter(1, runId).getResultList();
+      return blobs.isEmpty() ? null : blobs.get(0);
+   }
+
+   /**
+    * @return Run data as uploaded if the run has a blob, <code>null</code> if <code>run.data</code> is complete.
+    */
+   private JsonNode loadOriginalData(int runId) {
+      Object[] blob = loadBlob(runId);
+      if (blob == null) {
+         return null;
+      }
+      try {
+         return RunDataBlobs.decompressTree((String) blob[0], (byte[]) blob[1]);
+      } catch (IOException e) {
+         log.errorf(e, "Cannot read data blob for run %d", runId);
+         throw ServiceException.serverError("Cannot read data of run " + runId);
+      }
+   }
+
+   private void checkOwner(RunDAO run, TestDAO test) {
       if (run.owner == null) {
          List<String> uploaders = identity.getRoles().stream().filter(role -> role.endsWith("-uploader")).collect(Collectors.toList());
          if (uploaders.size() != 1) {
@@ -557,22 +1054,6 @@ public class RunServiceImpl implements RunService {
          run.access = Access.PRIVATE;
       }
       log.debugf("Uploading with owner=%s and access=%s", run.owner, run.access);
-
-      try {
-         if (run.id == null) {
-            em.persist(run);
-         } else {
-            em.merge(run);
-         }
-         em.flush();
-      } catch (Exception e) {
-         log.error("Failed to persist run.", e);
-         throw ServiceException.serverError("Failed to persist run");
-      }
-      log.debugf("Upload flushed, run ID %d", run.id);
-      messageBus.publish(RunDAO.EVENT_NEW, test.id, run);
-
-      return run.id;
    }
 
    @PermitAll
@@ -907,8 +1388,19 @@ public class RunServiceImpl implements RunService {
          throw ServiceException.notFound("Run not found: " + id);
       }
       String uri = Util.destringify(schemaUri);
-      // Triggering dirty property on Run
-      JsonNode updated = run.data.deepCopy();
+      Object[] blob = loadBlob(id);
+      JsonNode updated;
+      if (blob != null) {
+         try {
+            updated = RunDataBlobs.decompressTree((String) blob[0], (byte[]) blob[1]);
+         } catch (IOException e) {
+            log.errorf(e, "Cannot read data of run %d", id);
+            throw ServiceException.serverError("Cannot read run data");
+         }
+      } else {
+         // Triggering dirty property on Run
+         updated = run.data.deepCopy();
+      }
       JsonNode item;
       if (updated.isObject()) {
          item = path == null ? updated : updated.path(path);
@@ -930,6 +1422,15 @@ public class RunServiceImpl implements RunService {
          throw ServiceException.badRequest("Cannot update schema at " + (path == null ? "<root>" : path) + " as the target is not an object");
       }
       run.data = updated;
+      if (blob != null) {
+         JsonNode materialized = RunDataBlobs.materialize(updated);
+         if (materialized != null) {
+            storeBlob(run.id, RunDataBlobs.compress(updated));
+            run.data = materialized;
+         } else {
+            em.createNativeQuery("DELETE FROM run_blob WHERE run_id = ?1").setParameter(1, run.id).executeUpdate();
+         }
+      }
       run.persist();
       Query query = em.createNativeQuery("SELECT schemaid AS key, uri AS value FROM run_schemas WHERE runid = ?");
       query.setParameter(1, run.id);
@@ -972,13 +1473,16 @@ public class RunServiceImpl implements RunService {
             .setParameter(1, from).setParameter(2, to)
             .unwrap(NativeQuery.class).setReadOnly(true).setFetchSize(100)
             .scroll(ScrollMode.FORWARD_ONLY);
+      Map<Integer, List<Integer>> runsByTest = new HashMap<>();
       while (results.next()) {
          int runId = (int) results.get(0);
          int testId = (int) results.get(1);
          log.debugf("Recalculate DataSets for run %d - forcing recalculation of all between %s and %s", runId, from, to);
-         // transform will add proper roles anyway
-         messageBus.executeForTest(testId, () -> datasetService.withRecalculationLock(() -> transform(runId, true)));
+         runsByTest.computeIfAbsent(testId, t -> new ArrayList<>()).add(runId);
       }
+      // transform will add proper roles anyway
+      runsByTest.forEach((testId, runIds) -> messageBus.executeForEach(testId, TaskPriority.BULK, runIds.stream().mapToInt(Integer::intValue).toArray(),
+            runId -> datasetService.withRecalculationLock(() -> transformExclusively(runId, true))));
    }
 
    private void onCalculateDataSets(String param) {
@@ -991,12 +1495,38 @@ public class RunServiceImpl implements RunService {
          return;
       }
       boolean isRecalculation = parts.length > 1 && Boolean.parseBoolean(parts[1]);
-      Util.executeBlocking(vertx, () -> transform(runId, isRecalculation));
+      Util.executeBlocking(vertx, () -> transformExclusively(runId, isRecalculation));
+   }
+
+   /**
+    * Transforms the run unless another transformation of the same run is in progress; in that case this waits.
+    * Must not be called within a transaction, as the lock would be released before the commit.
+    */
+   int transformExclusively(int runId, boolean isRecalculation) {
+      return withTransformLock(runId, () -> transform(runId, isRecalculation));
+   }
+
+   private <T> T withTransformLock(int runId, Supplier<T> action) {
+      ReentrantLock lock = transformLocks[Math.floorMod(runId, transformLocks.length)];
+      lock.lock();
+      try {
+         return action.get();
+      } finally {
+         lock.unlock();
+      }
    }
 
    @WithRoles(extras = Roles.HORREUM_SYSTEM)
    @Transactional
    int transform(int runId, boolean isRecalculation) {
+      // the run is already loaded in the persistence context when resolving the test
+      return pipelineMetrics.time(PipelineMetrics.STAGE_TRANSFORM, () -> {
+         RunDAO run = RunDAO.findById(runId);
+         return run == null ? -1 : run.testid;
+      }, () -> doTransform(runId, isRecalculation));
+   }
+
+   private int doTransform(int runId, boolean isRecalculation) {
       if (runId < 1) {
          log.errorf("Transformation parameters error: run %s", runId);
          return 0;
@@ -1019,67 +1549,73 @@ public class RunServiceImpl implements RunService {
       // naked nodes (those produced by implicit identity transformers) are all added to each dataset
       List<JsonNode> nakedNodes = new ArrayList<>();
 
-      List<Object[]> relevantSchemas = unchecked(em.createNamedQuery(QUERY_TRANSFORMER_TARGETS)
-            .setParameter(1, run.id)
-            .unwrap(NativeQuery.class)
-            .addScalar("type", IntegerType.INSTANCE)
-            .addScalar("key", TextType.INSTANCE)
-            .addScalar("transformer_id", IntegerType.INSTANCE)
-            .addScalar("uri", TextType.INSTANCE)
-            .addScalar("source", IntegerType.INSTANCE)
-            .getResultList() );
+      // One row per extractor of each applicable transformer and schema instance, with the extracted value;
+      // schema instances without a transformer have a single row with null transformer
+      List<Object[]> rows = null;
+      if (extractionBackend.inJvm()) {
+         try {
+            rows = extractInJvm(run);
+         } catch (JsonPathException e) {
+            // the failing extractor was already logged
+            return 0;
+         }
+      }
+      if (rows == null) {
+         try {
+            rows = unchecked(em.createNamedQuery(QUERY_TRANSFORMER_EXTRACTORS)
+                  .setParameter(1, run.id)
+                  .unwrap(NativeQuery.class)
+                  .addScalar("type", IntegerType.INSTANCE)
+                  .addScalar("key", TextType.INSTANCE)
+                  .addScalar("uri", TextType.INSTANCE)
+                  .addScalar("source", IntegerType.INSTANCE)
+                  .addScalar("transformer_id", IntegerType.INSTANCE)
+                  .addScalar("transformer_name", TextType.INSTANCE)
+                  .addScalar("targetschemauri", TextType.INSTANCE)
+                  .addScalar("function", TextType.INSTANCE)
+                  .addScalar("name", TextType.INSTANCE)
+                  .addScalar("value", JsonNodeBinaryType.INSTANCE)
+                  .getResultList());
+         } catch (PersistenceException e) {
+            logMessage(run, PersistentLog.ERROR, "Failed to extract data (JSONPath expression error?): " + Util.explainCauses(e));
+            findFailingExtractor(runId);
+            return 0;
+         }
+      }
 
-      int schemasAndTransformers = relevantSchemas.size();
-      for (Object[] relevantSchema : relevantSchemas) {
+      int schemasAndTransformers = 0;
+      for (int first = 0, next; first < rows.size(); first = next) {
+         Object[] relevantSchema = rows.get(first);
          int type = (int) relevantSchema[0];
          String key = (String) relevantSchema[1];
-         Integer transformerId = (Integer) relevantSchema[2];
-         String uri = (String) relevantSchema[3];
-         Integer source = (Integer) relevantSchema[4];
+         String uri = (String) relevantSchema[2];
+         Integer source = (Integer) relevantSchema[3];
+         Integer transformerId = (Integer) relevantSchema[4];
+         // rows of the same transformer and schema instance are adjacent
+         next = first + 1;
+         while (next < rows.size() && transformerId != null && sameTarget(relevantSchema, rows.get(next))) {
+            ++next;
+         }
+         ++schemasAndTransformers;
 
-         TransformerDAO t;
          if (transformerId != null) {
-            t = TransformerDAO.findById(transformerId);
-            if (t == null) {
-               log.errorf("Missing transformer with ID %d", transformerId);
-            }
-         } else {
-            t = null;
-         }
-         if (t != null) {
+            String transformerName = (String) relevantSchema[5];
+            String targetSchemaUri = (String) relevantSchema[6];
+            String function = (String) relevantSchema[7];
             JsonNode root = JsonNodeFactory.instance.objectNode();
             JsonNode result;
-            if (t.extractors != null && !t.extractors.isEmpty()) {
-               List<Object[]> extractedData;
-               try {
-                  if (type == SchemaDAO.TYPE_1ST_LEVEL) {
-                     // note: metadata always follow the 2nd level format
-                     extractedData = unchecked(em.createNamedQuery(QUERY_1ST_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID)
-                           .setParameter(1, run.id).setParameter(2, transformerId)
-                           .unwrap(NativeQuery.class)
-                           .addScalar("name", TextType.INSTANCE)
-                           .addScalar("value", JsonNodeBinaryType.INSTANCE)
-                           .getResultList());
-                  } else {
-                     extractedData = unchecked(em.createNamedQuery(QUERY_2ND_LEVEL_BY_RUNID_TRANSFORMERID_SCHEMA_ID)
-                           .setParameter(1, run.id).setParameter(2, transformerId)
-                           .setParameter(3, type == SchemaDAO.TYPE_2ND_LEVEL ? key : Integer.parseInt(key))
-                           .setParameter(4, source)
-                           .unwrap(NativeQuery.class)
-                           .addScalar("name", TextType.INSTANCE)
-                           .addScalar("value", JsonNodeBinaryType.INSTANCE)
-                           .getResultList());
-                  }
-               } catch (PersistenceException e) {
-                  logMessage(run, PersistentLog.ERROR, "Failed to extract data (JSONPath expression error?): " + Util.explainCauses(e));
-                  findFailingExtractor(runId);
-                  extractedData = Collections.emptyList();
+            // a transformer without extractors has a single row with null name
+            int extractors = 0;
+            for (int i = first; i < next; ++i) {
+               String name = (String) rows.get(i)[8];
+               if (name != null) {
+                  ((ObjectNode) root).set(name, (JsonNode) rows.get(i)[9]);
+                  ++extractors;
                }
-               addExtracted((ObjectNode) root, extractedData);
             }
             // In Horreum it's customary that when a single extractor is used we pass the result directly to the function
             // without wrapping it in an extra object.
-            if (t.extractors.size() == 1) {
+            if (extractors == 1) {
                if (root.size() != 1) {
                   // missing results should be null nodes
                   log.errorf("Unexpected result for single extractor: %s", root.toPrettyString());
@@ -1088,12 +1624,12 @@ public class RunServiceImpl implements RunService {
                }
             }
             logMessage(run, PersistentLog.DEBUG, "Run transformer %s/%s with input: <pre>%s</pre>, function: <pre>%s</pre>",
-                  uri, t.name, limitLength(root.toPrettyString()), t.function);
-            if (t.function != null && !t.function.isBlank()) {
-               result = Util.evaluateOnce(t.function, root, Util::convertToJson,
+                  uri, transformerName, limitLength(root.toPrettyString()), function);
+            if (function != null && !function.isBlank()) {
+               result = Util.evaluateOnce(function, root, Util::convertToJson,
                      (code, e) -> logMessage(run, PersistentLog.ERROR,
-                           "Evaluation of transformer %s/%s failed: '%s' Code: <pre>%s</pre>", uri, t.name, e.getMessage(), code),
-                     output -> logMessage(run, PersistentLog.DEBUG, "Output while running transformer %s/%s: <pre>%s</pre>", uri, t.name, output));
+                           "Evaluation of transformer %s/%s failed: '%s' Code: <pre>%s</pre>", uri, transformerName, e.getMessage(), code),
+                     output -> logMessage(run, PersistentLog.DEBUG, "Output while running transformer %s/%s: <pre>%s</pre>", uri, transformerName, output));
                if (result == null) {
                   // this happens upon error
                   result = JsonNodeFactory.instance.nullNode();
@@ -1101,19 +1637,19 @@ public class RunServiceImpl implements RunService {
             } else {
                result = root;
             }
-            if (t.targetSchemaUri != null) {
+            if (targetSchemaUri != null) {
                if (result.isObject()) {
-                  putIfAbsent(run, t.targetSchemaUri, (ObjectNode) result);
+                  putIfAbsent(run, targetSchemaUri, (ObjectNode) result);
                } else if (result.isArray()) {
                   ArrayNode array = (ArrayNode) result;
                   for (JsonNode node : array) {
                      if (node.isObject()) {
-                        putIfAbsent(run, t.targetSchemaUri, (ObjectNode) node);
+                        putIfAbsent(run, targetSchemaUri, (ObjectNode) node);
                      }
                   }
                } else {
                   result = instance.objectNode()
-                        .put("$schema", t.targetSchemaUri).set("value", result);
+                        .put("$schema", targetSchemaUri).set("value", result);
                }
             } else if (!result.isContainerNode() || (result.isObject() && !result.has("$schema")) ||
                   (result.isArray() && StreamSupport.stream(result.spliterator(), false).anyMatch(item -> !item.has("$schema")))) {
@@ -1245,17 +1781,75 @@ public class RunServiceImpl implements RunService {
    }
 
 
+   /**
+    * Evaluates the extractors in Horreum, producing the same rows as {@link SchemaDAO#QUERY_TRANSFORMER_EXTRACTORS}.
+    *
+    * @return Extracted rows or <code>null</code> if some expression must be evaluated in the database.
+    * @throws JsonPathException when an expression fails; the error is logged with the failing extractor.
+    */
+   private List<Object[]> extractInJvm(RunDAO run) {
+      List<Object[]> definitions = unchecked(em.createNamedQuery(QUERY_TRANSFORMER_DEFINITIONS)
+            .setParameter(1, run.id)
+            .unwrap(NativeQuery.class)
+            .addScalar("type", IntegerType.INSTANCE)
+            .addScalar("key", TextType.INSTANCE)
+            .addScalar("uri", TextType.INSTANCE)
+            .addScalar("source", IntegerType.INSTANCE)
+            .addScalar("transformer_id", IntegerType.INSTANCE)
+            .addScalar("transformer_name", TextType.INSTANCE)
+            .addScalar("targetschemauri", TextType.INSTANCE)
+            .addScalar("function", TextType.INSTANCE)
+            .addScalar("name", TextType.INSTANCE)
+            .addScalar("jsonpath", TextType.INSTANCE)
+            .addScalar("isarray", BooleanType.INSTANCE)
+            .getResultList());
+      if (!extractionBackend.supportsAll(definitions.stream().map(row -> (String) row[9]).filter(Objects::nonNull).collect(Collectors.toList()))) {
+         return null;
+      }
+      List<Object[]> rows = new ArrayList<>(definitions.size());
+      for (Object[] definition : definitions) {
+         Object[] row = Arrays.copyOf(definition, 10);
+         String jsonpath = (String) definition[9];
+         if (jsonpath != null) {
+            JsonNode target = extractionTarget(run, (int) definition[0], (String) definition[1], (int) definition[3]);
+            try {
+               // a missing part of the run is SQL NULL, for which the database does not evaluate the expression
+               row[9] = target == null ? null : extractionBackend.extract(target, jsonpath, Boolean.TRUE.equals(definition[10]));
+            } catch (JsonPathException e) {
+               logMessage(run, PersistentLog.ERROR, "There seems to be an error in schema <code>%s</code> transformer <code>%s</code>, extractor <code>%s</code>, JSONPath expression <code>%s</code>: %s",
+                     definition[2], definition[5], definition[8], jsonpath, e.getMessage());
+               throw e;
+            }
+         }
+         rows.add(row);
+      }
+      return rows;
+   }
+
+   // Equivalent of the targets in QUERY_TRANSFORMER_EXTRACTORS: 1st level schemas are always read from data
+   private static JsonNode extractionTarget(RunDAO run, int type, String key, int source) {
+      JsonNode sourceNode = source == 0 ? run.data : run.metadata;
+      switch (type) {
+         case SchemaDAO.TYPE_1ST_LEVEL:
+            return run.data;
+         case SchemaDAO.TYPE_2ND_LEVEL:
+            return sourceNode == null || !sourceNode.isObject() ? null : sourceNode.get(key);
+         case SchemaDAO.TYPE_ARRAY_ELEMENT:
+            return sourceNode == null || !sourceNode.isArray() ? null : sourceNode.get(Integer.parseInt(key));
+         default:
+            throw new IllegalStateException("Unknown type " + type);
+      }
+   }
+
    @SuppressWarnings("unchecked")
    private List<Object[]> unchecked(@SuppressWarnings("rawtypes") List list) {
       return (List<Object[]>)list;
    }
 
-   private void addExtracted(ObjectNode root, List<Object[]> resultSet) {
-      for (Object[] labelValue : resultSet) {
-         String name = (String)labelValue[0];
-         JsonNode value = (JsonNode) labelValue[1];
-         root.set(name, value);
-      }
+   private static boolean sameTarget(Object[] row1, Object[] row2) {
+      // transformer ID, type, key and source
+      return Objects.equals(row1[4], row2[4]) && Objects.equals(row1[0], row2[0])
+            && Objects.equals(row1[1], row2[1]) && Objects.equals(row1[3], row2[3]);
    }
 
    private void putIfAbsent(RunDAO run, String uri, ObjectNode node) {
@@ -9,6 +9,7 @@ import io.hyperfoil.tools.horreum.mapper.TransformerMapper;
 import io.hyperfoil.tools.horreum.api.services.SchemaService;
 import io.hyperfoil.tools.horreum.api.SortDirection;
 import io.hyperfoil.tools.horreum.bus.MessageBus;
+import io.hyperfoil.tools.horreum.bus.TaskPriority;
 import io.hyperfoil.tools.horreum.entity.ValidationErrorDAO;
 import io.hyperfoil.tools.horreum.server.WithRoles;
 import io.hyperfoil.tools.horreum.server.WithToken;
@@ -126,6 +127,10 @@ public class SchemaServiceImpl implements SchemaService {
       sqlService.registerListener("validate_run_data", this::validateRunData);
       sqlService.registerListener("validate_dataset_data", this::validateDatasetData);
       sqlService.registerListener("revalidate_all", this::revalidateAll);
+      messageBus.subscribe(RunDAO.EVENT_REVALIDATE, "SchemaService", SchemaDAO.RevalidateEvent.class, e -> TaskPriority.BULK,
+            e -> validateRunData(e.id, uri -> uri.equals(e.schemaUri)));
+      messageBus.subscribe(DataSetDAO.EVENT_REVALIDATE, "SchemaService", SchemaDAO.RevalidateEvent.class, e -> TaskPriority.BULK,
+            e -> validateDatasetData(e.id, uri -> uri.equals(e.schemaUri)));
    }
 
    @WithToken
@@ -336,16 +341,32 @@ public class SchemaServiceImpl implements SchemaService {
       Predicate<String> schemaFilter = uri -> uri.equals(schema.uri);
       // If the URI was updated together with JSON schema run_schemas are removed and filled-in asynchronously
       // so we cannot rely on run_schemas
-      runService.findRunsWithUri(schema.uri, (runId, testId) ->
-         messageBus.executeForTest(testId, () -> validateRunData(runId, schemaFilter))
-      );
+      // all nodes get the notification, each validates data for the tests it is responsible for;
+      // when the test is not processed by any node now the work is persisted for the node claiming it
+      Map<Integer, List<Integer>> localRuns = new HashMap<>();
+      runService.findRunsWithUri(schema.uri, (runId, testId) -> {
+         if (messageBus.isLocal(testId)) {
+            localRuns.computeIfAbsent(testId, t -> new ArrayList<>()).add(runId);
+         } else if (messageBus.isResponsible(testId)) {
+            messageBus.publish(RunDAO.EVENT_REVALIDATE, testId, new SchemaDAO.RevalidateEvent(runId, schema.uri));
+         }
+      });
+      localRuns.forEach((testId, runIds) -> messageBus.executeForEach(testId, TaskPriority.BULK,
+            runIds.stream().mapToInt(Integer::intValue).toArray(), runId -> validateRunData(runId, schemaFilter)));
       // Datasets might be re-created if URI is changing, so we might work on old, non-existent ones
+      Map<Integer, List<Integer>> localDatasets = new HashMap<>();
       ScrollableResults results = Util.scroll(em.createNativeQuery("SELECT id, testid FROM dataset WHERE ?1 IN (SELECT jsonb_array_elements(data)->>'$schema')").setParameter(1, schema.uri));
       while (results.next()) {
          int datasetId = (int) results.get(0);
          int testId = (int) results.get(1);
-         messageBus.executeForTest(testId, () -> validateDatasetData(datasetId, schemaFilter));
+         if (messageBus.isLocal(testId)) {
+            localDatasets.computeIfAbsent(testId, t -> new ArrayList<>()).add(datasetId);
+         } else if (messageBus.isResponsible(testId)) {
+            messageBus.publish(DataSetDAO.EVENT_REVALIDATE, testId, new SchemaDAO.RevalidateEvent(datasetId, schema.uri));
+         }
       }
+      localDatasets.forEach((testId, datasetIds) -> messageBus.executeForEach(testId, TaskPriority.BULK,
+            datasetIds.stream().mapToInt(Integer::intValue).toArray(), datasetId -> validateDatasetData(datasetId, schemaFilter)));
    }
 
    private void validateData(JsonNode data, Predicate<String> filter, Consumer<ValidationErrorDAO> consumer) {
@@ -370,36 +391,43 @@ public class SchemaServiceImpl implements SchemaService {
          if (rootSchema == null || rootSchema.schema == null) {
             continue;
          }
-         try {
-            URIFetcher uriFetcher = uri -> {
-               byte[] jsonSchema = schemas.get(uri.toString()).schema.toString().getBytes(StandardCharsets.UTF_8);
-               return new ByteArrayInputStream(jsonSchema);
-            };
-
-            JsonSchemaFactory factory = JsonSchemaFactory.builder(JSON_SCHEMA_FACTORY)
-                  .uriFactory(URN_FACTORY, "urn", "uri")
-                  .uriFetcher(uriFetcher, ALL_URNS).build();
-
-            for (JsonNode node : toCheck.get(schemaUri)) {
-               factory.getSchema(rootSchema.schema).validate(node).forEach(msg -> {
-                  ValidationErrorDAO error = new ValidationErrorDAO();
-                  error.schema = rootSchema;
-                  error.error = Util.OBJECT_MAPPER.valueToTree(msg);
-                  consumer.accept(error);
-               });
-            }
-         } catch (Throwable e) {
-            // Do not let messed up schemas fail the upload
-            log.error("Schema validation failed", e);
-            ValidationErrorDAO error = new ValidationErrorDAO();
-            error.schema = rootSchema;
-            error.error = JsonNodeFactory.instance.objectNode().put("type", "Execution error").put("message", e.getMessage());
-            consumer.accept(error);
-         }
+         validateData(rootSchema, schemas, toCheck.get(schemaUri), consumer);
          log.debug("Validation completed");
       }
    }
 
+   /**
+    * @param schemas Root schema and all schemas it references, by URI.
+    */
+   static void validateData(SchemaDAO rootSchema, Map<String, SchemaDAO> schemas, List<JsonNode> nodes, Consumer<ValidationErrorDAO> consumer) {
+      try {
+         URIFetcher uriFetcher = uri -> {
+            byte[] jsonSchema = schemas.get(uri.toString()).schema.toString().getBytes(StandardCharsets.UTF_8);
+            return new ByteArrayInputStream(jsonSchema);
+         };
+
+         JsonSchemaFactory factory = JsonSchemaFactory.builder(JSON_SCHEMA_FACTORY)
+               .uriFactory(URN_FACTORY, "urn", "uri")
+               .uriFetcher(uriFetcher, ALL_URNS).build();
+
+         for (JsonNode node : nodes) {
+            factory.getSchema(rootSchema.schema).validate(node).forEach(msg -> {
+               ValidationErrorDAO error = new ValidationErrorDAO();
+               error.schema = rootSchema;
+               error.error = Util.OBJECT_MAPPER.valueToTree(msg);
+               consumer.accept(error);
+            });
+         }
+      } catch (Throwable e) {
+         // Do not let messed up schemas fail the upload
+         log.error("Schema validation failed", e);
+         ValidationErrorDAO error = new ValidationErrorDAO();
+         error.schema = rootSchema;
+         error.error = JsonNodeFactory.instance.objectNode().put("type", "Execution error").put("message", e.getMessage());
+         consumer.accept(error);
+      }
+   }
+
    private void addIfHasSchema(Map<String, List<JsonNode>> toCheck, JsonNode node) {
       String uri = node.path("$schema").asText();
       if (uri != null && !uri.isBlank()) {
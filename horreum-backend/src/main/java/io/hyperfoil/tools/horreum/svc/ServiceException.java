@@ -1,5 +1,7 @@
 package io.hyperfoil.tools.horreum.svc;
 
+import java.time.Duration;
+
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
@@ -22,8 +24,22 @@ public class ServiceException extends WebApplicationException {
       return new ServiceException(Response.Status.INTERNAL_SERVER_ERROR, message);
    }
 
+   public static ServiceException tooManyRequests(String message, Duration retryAfter) {
+      return new ServiceException(Response.Status.TOO_MANY_REQUESTS, message, retryAfter);
+   }
+
+   public static ServiceException serviceUnavailable(String message, Duration retryAfter) {
+      return new ServiceException(Response.Status.SERVICE_UNAVAILABLE, message, retryAfter);
+   }
+
    public ServiceException(Response.Status status, String message) {
       super(message, Response.status(status)
            .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN).entity(message).build());
    }
+
+   private ServiceException(Response.Status status, String message, Duration retryAfter) {
+      super(message, Response.status(status)
+           .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN)
+           .header(HttpHeaders.RETRY_AFTER, Math.max(1, retryAfter.getSeconds())).entity(message).build());
+   }
 }
@@ -0,0 +1,162 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Extracts values of simple JSONPaths (<code>$.foo.bar</code>, <code>$['foo'][0]</code>) from a document
+ * without building the tree; subtrees that cannot contain any of the paths are skipped.
+ * Values are converted the same way as in {@link Util#findJsonPath(com.fasterxml.jackson.databind.JsonNode, String)}.
+ */
+final class StreamingJsonPaths {
+   private final Map<String, List<Object>> paths = new HashMap<>();
+   private final Map<String, Object> results = new HashMap<>();
+   private final List<Object> location = new ArrayList<>();
+   private JsonToken rootToken;
+
+   StreamingJsonPaths(Collection<String> jsonPaths) {
+      for (String path : jsonPaths) {
+         paths.put(path, parse(path));
+      }
+   }
+
+   static boolean isSupported(String jsonPath) {
+      try {
+         parse(jsonPath);
+         return true;
+      } catch (IllegalArgumentException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Reads the whole document, validating its syntax.
+    */
+   StreamingJsonPaths scan(InputStream stream) throws IOException {
+      try (JsonParser parser = Util.OBJECT_MAPPER.getFactory().createParser(stream)) {
+         rootToken = parser.nextToken();
+         if (rootToken == null) {
+            throw new IOException("No content");
+         }
+         visit(parser);
+         if (parser.nextToken() != null) {
+            throw new IOException("Unexpected content after the end of the document");
+         }
+      }
+      return this;
+   }
+
+   JsonToken rootToken() {
+      return rootToken;
+   }
+
+   Object get(String jsonPath) {
+      return results.get(jsonPath);
+   }
+
+   private void visit(JsonParser parser) throws IOException {
+      boolean prefix = false;
+      for (Map.Entry<String, List<Object>> entry : paths.entrySet()) {
+         List<Object> segments = entry.getValue();
+         if (segments.equals(location)) {
+            results.put(entry.getKey(), value(parser));
+            return;
+         } else if (segments.size() > location.size() && segments.subList(0, location.size()).equals(location)) {
+            prefix = true;
+         }
+      }
+      JsonToken token = parser.currentToken();
+      if (!prefix) {
+         parser.skipChildren();
+      } else if (token == JsonToken.START_OBJECT) {
+         while (parser.nextToken() != JsonToken.END_OBJECT) {
+            location.add(parser.getCurrentName());
+            parser.nextToken();
+            visit(parser);
+            location.remove(location.size() - 1);
+         }
+      } else if (token == JsonToken.START_ARRAY) {
+         int index = 0;
+         while (parser.nextToken() != JsonToken.END_ARRAY) {
+            location.add(index++);
+            visit(parser);
+            location.remove(location.size() - 1);
+         }
+      }
+   }
+
+   private static Object value(JsonParser parser) throws IOException {
+      switch (parser.currentToken()) {
+         case VALUE_STRING:
+            return parser.getText();
+         case VALUE_TRUE:
+            return true;
+         case VALUE_FALSE:
+            return false;
+         case VALUE_NULL:
+            return null;
+         case VALUE_NUMBER_INT:
+            return parser.getLongValue();
+         case VALUE_NUMBER_FLOAT:
+            double value = parser.getDoubleValue();
+            if (value == Math.rint(value)) {
+               return (long) value;
+            } else {
+               return value;
+            }
+         default:
+            // structured values are not expected for test, start, stop or description
+            return Util.OBJECT_MAPPER.readTree(parser);
+      }
+   }
+
+   private static List<Object> parse(String jsonPath) {
+      if (!jsonPath.startsWith("$")) {
+         throw new IllegalArgumentException("Path must start with '$': " + jsonPath);
+      }
+      List<Object> segments = new ArrayList<>();
+      int i = 1;
+      while (i < jsonPath.length()) {
+         char c = jsonPath.charAt(i);
+         if (c == '.') {
+            int end = i + 1;
+            while (end < jsonPath.length() && jsonPath.charAt(end) != '.' && jsonPath.charAt(end) != '[') {
+               ++end;
+            }
+            String name = jsonPath.substring(i + 1, end);
+            if (name.isEmpty() || name.equals("*")) {
+               throw new IllegalArgumentException("Unsupported path: " + jsonPath);
+            }
+            segments.add(name);
+            i = end;
+         } else if (c == '[') {
+            int end = jsonPath.indexOf(']', i);
+            if (end < 0) {
+               throw new IllegalArgumentException("Unsupported path: " + jsonPath);
+            }
+            String selector = jsonPath.substring(i + 1, end).trim();
+            if (selector.length() >= 2 && (selector.startsWith("'") && selector.endsWith("'") || selector.startsWith("\"") && selector.endsWith("\""))) {
+               segments.add(selector.substring(1, selector.length() - 1));
+            } else {
+               try {
+                  segments.add(Integer.parseInt(selector));
+               } catch (NumberFormatException e) {
+                  throw new IllegalArgumentException("Unsupported path: " + jsonPath);
+               }
+            }
+            i = end + 1;
+         } else {
+            throw new IllegalArgumentException("Unsupported path: " + jsonPath);
+         }
+      }
+      return segments;
+   }
+}
@@ -23,6 +23,7 @@ import javax.inject.Inject;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceException;
 import javax.persistence.Query;
+import javax.transaction.TransactionManager;
 import javax.transaction.Transactional;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
@@ -42,8 +43,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.hibernate.Hibernate;
-import org.hibernate.ScrollMode;
-import org.hibernate.ScrollableResults;
 import org.hibernate.query.NativeQuery;
 import org.hibernate.transform.Transformers;
 import org.jboss.logging.Logger;
@@ -81,9 +80,6 @@ public class TestServiceImpl implements TestService {
    @Inject
    RunServiceImpl runService;
 
-   @Inject
-   DatasetServiceImpl datasetService;
-
    @Inject
    ActionServiceImpl actionService;
 
@@ -99,6 +95,12 @@ public class TestServiceImpl implements TestService {
    @Inject
    EncryptionManager encryptionManager;
 
+   @Inject
+   RecalculationExecutor recalculationExecutor;
+
+   @Inject
+   TransactionManager tm;
+
    private final ConcurrentHashMap<Integer, RecalculationStatus> recalculations = new ConcurrentHashMap<>();
 
    @RolesAllowed(Roles.TESTER)
@@ -557,28 +559,39 @@ public class TestServiceImpl implements TestService {
          log.debugf("Deleted %d datasets for trashed runs in test %s (%d)", (long)deleted, (Object)test.name, (Object)testId);
       }
 
-      ScrollableResults results = em.createNativeQuery("SELECT id FROM run WHERE testid = ?1 AND NOT trashed ORDER BY start")
-            .setParameter(1, testId)
-            .unwrap(NativeQuery.class).setReadOnly(true).setFetchSize(100)
-            .scroll(ScrollMode.FORWARD_ONLY);
-      while (results.next()) {
-         int runId = (int) results.get(0);
-         log.debugf("Recalculate DataSets for run %d - forcing recalculation for test %d (%s)", runId, testId, test.name);
-         // transform will add proper roles anyway
-         messageBus.executeForTest(testId, () -> datasetService.withRecalculationLock(() -> {
-            int newDatasets = 0;
-            try {
-               newDatasets = runService.transform(runId, true);
-            } finally {
-               synchronized (status) {
-                  status.finished++;
-                  status.datasets += newDatasets;
-                  if (status.finished == status.totalRuns) {
-                     recalculations.remove(testId, status);
-                  }
-               }
+      @SuppressWarnings("unchecked") List<Integer> runIds = em.createNativeQuery("SELECT id FROM run WHERE testid = ?1 AND NOT trashed ORDER BY start")
+            .setParameter(1, testId).getResultList();
+      // runs might have been added or trashed since the status was created
+      status.totalRuns = runIds.size();
+      if (runIds.isEmpty()) {
+         recalculations.remove(testId, status);
+         return;
+      }
+      log.debugf("Recalculate DataSets for %d runs - forcing recalculation for test %d (%s)", runIds.size(), testId, test.name);
+      // Runs are independent, therefore these are transformed concurrently after commit; labels, datapoints
+      // and change detection for the new datasets are still processed in the test's task queue.
+      // transform will add proper roles anyway
+      Util.doAfterCommit(tm, () -> {
+         for (int runId : runIds) {
+            recalculationExecutor.execute(() -> transformForRecalculation(testId, runId, status));
+         }
+      });
+   }
+
+   private void transformForRecalculation(int testId, int runId, RecalculationStatus status) {
+      int newDatasets = 0;
+      try {
+         newDatasets = runService.transformExclusively(runId, true);
+      } catch (Throwable t) {
+         log.errorf(t, "Failed to recalculate datasets for run %d in test %d", runId, testId);
+      } finally {
+         synchronized (status) {
+            status.finished++;
+            status.datasets += newDatasets;
+            if (status.finished == status.totalRuns) {
+               recalculations.remove(testId, status);
             }
-         }));
+         }
       }
    }
 
@@ -1,6 +1,5 @@
 package io.hyperfoil.tools.horreum.svc;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
@@ -38,7 +37,6 @@ import javax.transaction.TransactionManager;
 
 import io.hyperfoil.tools.horreum.api.SortDirection;
 import org.eclipse.microprofile.context.ThreadContext;
-import org.graalvm.polyglot.Context;
 import org.graalvm.polyglot.PolyglotException;
 import org.graalvm.polyglot.Value;
 import org.hibernate.ScrollMode;
@@ -264,6 +262,10 @@ public class Util {
       if (value == null || value.isNull()) {
          return JsonNodeFactory.instance.nullNode();
       } else if (value.isProxyObject()) {
+         Object proxy = value.asProxyObject();
+         if (JsonProxy.isJsonProxy(proxy)) {
+            return JsonProxy.unwrap(proxy);
+         }
          return value.asProxyObject();
       } else if (value.isBoolean()) {
          return JsonNodeFactory.instance.booleanNode(value.asBoolean());
@@ -298,7 +300,8 @@ public class Util {
             return null;
          }
       } else if (value.isProxyObject()) {
-         return value.asProxyObject();
+         Object proxy = value.asProxyObject();
+         return JsonProxy.isJsonProxy(proxy) ? JsonProxy.unwrap(proxy) : proxy;
       } else if (value.isBoolean()) {
          return value.asBoolean();
       } else if (value.isNumber()) {
@@ -328,6 +331,8 @@ public class Util {
          Value element = value.getArrayElement(i);
          if (element == null || element.isNull()) {
             json.addNull();
+         } else if (element.isProxyObject() && JsonProxy.isJsonProxy(element.asProxyObject())) {
+            json.add(JsonProxy.unwrap(element.asProxyObject()));
          } else if (element.isBoolean()) {
             json.add(element.asBoolean());
          } else if (element.isNumber()) {
@@ -356,6 +361,8 @@ public class Util {
          Value element = value.getMember(key);
          if (element == null || element.isNull()) {
             json.set(key, JsonNodeFactory.instance.nullNode());
+         } else if (element.isProxyObject() && JsonProxy.isJsonProxy(element.asProxyObject())) {
+            json.set(key, JsonProxy.unwrap(element.asProxyObject()));
          } else if (element.isBoolean()) {
             json.set(key, JsonNodeFactory.instance.booleanNode(element.asBoolean()));
          } else if (element.isNumber()) {
@@ -473,6 +480,17 @@ public class Util {
 
    public static void executeBlocking(Vertx vertx, Runnable runnable) {
       Runnable wrapped = wrapForBlockingExecution(runnable);
+      BlockingExecutor executor = BlockingExecutor.get();
+      if (executor != null) {
+         executor.execute(() -> {
+            try {
+               wrapped.run();
+            } catch (Exception e) {
+               log.error("Failed to execute blocking task", e);
+            }
+         });
+         return;
+      }
       vertx.executeBlocking(promise -> {
          try {
             wrapped.run();
@@ -541,56 +559,54 @@ public class Util {
                                 Consumer<T> noExecConsumer,
                                 ExecutionExceptionConsumer<T> onException,
                                 Consumer<String> onOutput) {
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      try (org.graalvm.polyglot.Context context = org.graalvm.polyglot.Context.newBuilder("js").out(out).err(out).build()) {
-         context.enter();
+      JsContextPool.get().withContext(context -> {
          try {
-            for (int i = 0; i < input.size(); i++) {
-               T row = input.get(i);
+            for (T row : input) {
                String func = function.apply(row);
                if (func != null && !func.isBlank()) {
-                  StringBuilder jsCode = new StringBuilder("const __obj").append(i).append(" = ").append(object.apply(row)).append(";\n");
-                  jsCode.append("const __func").append(i).append(" = ").append(func).append(";\n");
-                  jsCode.append("__func").append(i).append("(__obj").append(i).append(")");
+                  JsonNode obj = object.apply(row);
                   try {
-                     Value value = context.eval("js", jsCode);
+                     Value value = context.execute(func, JsonProxy.wrap(obj));
                      resultConsumer.accept(row, value);
-                  } catch (PolyglotException e) {
-                     onException.accept(row, e, jsCode.toString());
+                  } catch (PolyglotException | IllegalArgumentException e) {
+                     context.onException(e);
+                     onException.accept(row, e, describeCode(func, obj));
                   }
                } else {
                   noExecConsumer.accept(row);
                }
             }
          } finally {
-            if (out.size() > 0) {
-               onOutput.accept(out.toString(StandardCharsets.UTF_8));
+            if (context.hasOutput()) {
+               onOutput.accept(context.output());
             }
-            context.leave();
          }
-      }
+         return null;
+      });
    }
 
    static <T> T evaluateOnce(String function, JsonNode input, Function<Value, T> processResult, BiConsumer<String, Throwable> onException, Consumer<String> onOutput) {
-      StringBuilder jsCode = new StringBuilder("const __obj = ").append(input).append(";\n");
-      jsCode.append("const __func = ").append(function).append(";\n");
-      jsCode.append("__func(__obj)");
-      ByteArrayOutputStream out = new ByteArrayOutputStream();
-      try (Context context = Context.newBuilder("js").out(out).err(out).build()) {
-         context.enter();
+      return JsContextPool.get().withContext(context -> {
          try {
-            Value value = context.eval("js", jsCode);
+            Value value = context.execute(function, JsonProxy.wrap(input));
             return processResult.apply(value);
-         } catch (PolyglotException e) {
-            onException.accept(jsCode.toString(), e);
+         } catch (PolyglotException | IllegalArgumentException e) {
+            context.onException(e);
+            onException.accept(describeCode(function, input), e);
             return null;
          } finally {
-            if (out.size() > 0) {
-               onOutput.accept(out.toString());
+            if (context.hasOutput()) {
+               onOutput.accept(context.output());
             }
-            context.leave();
          }
-      }
+      });
+   }
+
+   /**
+    * Reconstructs standalone code equivalent to the evaluation, to be presented to the user when it fails.
+    */
+   static String describeCode(String function, Object input) {
+      return "const __obj = " + input + ";\nconst __func = " + function + ";\n__func(__obj)";
    }
 
    static boolean evaluateTest(String function, JsonNode input,
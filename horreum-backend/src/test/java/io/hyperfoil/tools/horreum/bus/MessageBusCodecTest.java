@@ -0,0 +1,60 @@
+package io.hyperfoil.tools.horreum.bus;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import io.hyperfoil.tools.horreum.entity.data.RunDAO;
+import io.vertx.core.buffer.Buffer;
+
+public class MessageBusCodecTest {
+   private final MessageBus.MessageBusCodec codec = new MessageBus.MessageBusCodec(
+         channel -> "run/new".equals(channel) ? RunDAO.Event.class : null);
+
+   @Test
+   public void testLocalTransform() {
+      MessageBus.Message message = new MessageBus.Message("run/new", 1, 2, new int[] { 0 }, new RunDAO.Event(3, 2));
+      assertSame(message, codec.transform(message));
+   }
+
+   @Test
+   public void testRoundTrip() {
+      MessageBus.Message message = new MessageBus.Message("run/new", 42, 7, new int[] { 0, 3, 5 }, new RunDAO.Event(123, 7));
+      Buffer buffer = Buffer.buffer().appendString("prefix");
+      codec.encodeToWire(buffer, message);
+      MessageBus.Message decoded = codec.decodeFromWire("prefix".length(), buffer);
+      assertEquals(message.channel, decoded.channel);
+      assertEquals(message.id, decoded.id);
+      assertEquals(message.testId, decoded.testId);
+      assertArrayEquals(message.components, decoded.components);
+      assertTrue(decoded.payload instanceof RunDAO.Event);
+      RunDAO.Event event = (RunDAO.Event) decoded.payload;
+      assertEquals(123, event.runId);
+      assertEquals(7, event.testId);
+   }
+
+   @Test
+   public void testNullPayload() {
+      MessageBus.Message message = new MessageBus.Message("foo", 0, -1, new int[0], null);
+      Buffer buffer = Buffer.buffer();
+      codec.encodeToWire(buffer, message);
+      MessageBus.Message decoded = codec.decodeFromWire(0, buffer);
+      assertEquals("foo", decoded.channel);
+      assertEquals(-1, decoded.testId);
+      assertEquals(0, decoded.components.length);
+      assertNull(decoded.payload);
+   }
+
+   @Test
+   public void testUnknownPayloadType() {
+      MessageBus.Message message = new MessageBus.Message("test/new", 42, 7, new int[] { 0 }, new RunDAO.Event(123, 7));
+      Buffer buffer = Buffer.buffer();
+      codec.encodeToWire(buffer, message);
+      assertThrows(IllegalStateException.class, () -> codec.decodeFromWire(0, buffer));
+   }
+}
@@ -3,6 +3,11 @@ package io.hyperfoil.tools.horreum.bus;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Phaser;
 import java.util.concurrent.ThreadLocalRandom;
@@ -18,6 +23,9 @@ import io.quarkus.test.junit.TestProfile;
 import org.jboss.logging.Logger;
 import org.junit.jupiter.api.Test;
 
+import io.hyperfoil.tools.horreum.server.CloseMe;
+import io.hyperfoil.tools.horreum.server.RoleManager;
+import io.hyperfoil.tools.horreum.svc.Roles;
 import io.hyperfoil.tools.horreum.svc.Util;
 import io.hyperfoil.tools.horreum.test.PostgresResource;
 import io.hyperfoil.tools.horreum.test.TestUtil;
@@ -43,6 +51,9 @@ public class MessageBusTest {
    @Inject
    TransactionManager tm;
 
+   @Inject
+   RoleManager roleManager;
+
    @Test
    public void testRetry() throws InterruptedException {
       AtomicInteger counter = new AtomicInteger();
@@ -69,9 +80,62 @@ public class MessageBusTest {
       TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
    }
 
+   @Test
+   public void testPublishMany() throws InterruptedException {
+      CountDownLatch latch = new CountDownLatch(50);
+      Set<String> received = ConcurrentHashMap.newKeySet();
+      messageBus.subscribe(CHANNEL, "testPublishMany", String.class, str -> {
+         received.add(str);
+         latch.countDown();
+      });
+      for (int i = 0; i < 5; ++i) {
+         int tx = i;
+         Util.withTx(tm, () -> {
+            for (int j = 0; j < 10; ++j) {
+               messageBus.publish(CHANNEL, 1, "msg" + tx + "-" + j);
+            }
+            return null;
+         });
+      }
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+      assertEquals(50, received.size());
+      TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+   }
+
+   @Test
+   public void testManySubscribers() throws Exception {
+      String channel = "many";
+      int numSubscribers = 40;
+      List<AutoCloseable> subscriptions = new ArrayList<>();
+      AtomicInteger[] counters = new AtomicInteger[numSubscribers];
+      CountDownLatch latch = new CountDownLatch(numSubscribers);
+      try {
+         for (int i = 0; i < numSubscribers; ++i) {
+            AtomicInteger counter = counters[i] = new AtomicInteger();
+            subscriptions.add(messageBus.subscribe(channel, "testManySubscribers" + i, String.class, str -> {
+               counter.incrementAndGet();
+               latch.countDown();
+            }));
+         }
+         Util.withTx(tm, () -> {
+            messageBus.publish(channel, 1, "hello");
+            return null;
+         });
+         assertTrue(latch.await(10, TimeUnit.SECONDS));
+         TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+         for (AtomicInteger counter : counters) {
+            assertEquals(1, counter.get());
+         }
+      } finally {
+         for (AutoCloseable subscription : subscriptions) {
+            subscription.close();
+         }
+      }
+   }
+
    private void setTimestampsInThePast() {
       Util.withTx(tm, () -> {
-         assertTrue(em.createNativeQuery("UPDATE messagebus SET timestamp = timestamp - make_interval(mins => 10)").executeUpdate() > 0);
+         assertTrue(em.createNativeQuery("UPDATE messagebus SET timestamp = timestamp - make_interval(mins => 10), next_attempt = now() - make_interval(mins => 1)").executeUpdate() > 0);
          return null;
       });
    }
@@ -101,9 +165,10 @@ public class MessageBusTest {
       // through time separation. Retries will run sequentially, too, from the main thread.
       currentPhase = phaser.awaitAdvanceInterruptibly(currentPhase, 10, TimeUnit.SECONDS);
       awaitMessageBus(alive.get());
-      setTimestampsInThePast();
       long start = System.currentTimeMillis();
       for (;;) {
+         // failed messages are postponed with backoff after each attempt
+         setTimestampsInThePast();
          messageBus.retryFailedMessages();
          currentPhase = phaser.awaitAdvanceInterruptibly(currentPhase, 10, TimeUnit.SECONDS);
          if (alive.get() < 0) {
@@ -120,6 +185,76 @@ public class MessageBusTest {
       log.debug("Test completed");
    }
 
+   @Test
+   public void testDeadLetter() throws InterruptedException {
+      AtomicInteger counter = new AtomicInteger();
+      messageBus.subscribe(CHANNEL, "testDeadLetter", String.class, str -> {
+         counter.incrementAndGet();
+         throw RETRY_EXCEPTION;
+      });
+      Util.withTx(tm, () -> {
+         messageBus.publish(CHANNEL, 1, "dead");
+         return null;
+      });
+      TestUtil.eventually(() -> counter.get() == 1);
+      for (int i = 1; i <= MessageBusTestProfile.MAX_ATTEMPTS; ++i) {
+         setTimestampsInThePast();
+         messageBus.retryFailedMessages();
+         int expected = i + 1;
+         TestUtil.eventually(() -> counter.get() == expected);
+      }
+      setTimestampsInThePast();
+      messageBus.retryFailedMessages();
+      TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+      assertEquals(MessageBusTestProfile.MAX_ATTEMPTS + 1, counter.get());
+      // dead letters are visible only to the system
+      assertEquals(0, ((Number) Util.withTx(tm, () -> em.createNativeQuery("SELECT COUNT(*) FROM messagebus_dead_letter").getSingleResult())).intValue());
+      Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(Collections.singleton(Roles.HORREUM_SYSTEM))) {
+            Object[] row = (Object[]) em.createNativeQuery("SELECT channel, attempts FROM messagebus_dead_letter").getSingleResult();
+            assertEquals(CHANNEL, row[0]);
+            assertEquals(MessageBusTestProfile.MAX_ATTEMPTS, ((Number) row[1]).intValue());
+            em.createNativeQuery("DELETE FROM messagebus_dead_letter").executeUpdate();
+         }
+         return null;
+      });
+   }
+
+   @Test
+   public void testBacklog() throws Exception {
+      int testId = 12345;
+      AtomicInteger counter = new AtomicInteger();
+      AutoCloseable subscription = messageBus.subscribe("backlog", "testBacklog", String.class, str -> {
+         counter.incrementAndGet();
+         throw RETRY_EXCEPTION;
+      });
+      // recalculations do not count
+      AutoCloseable bulkSubscription = messageBus.subscribe("backlog-bulk", "testBacklog", String.class, str -> TaskPriority.BULK, str -> {
+         counter.incrementAndGet();
+         throw RETRY_EXCEPTION;
+      });
+      try {
+         Util.withTx(tm, () -> {
+            for (int i = 0; i < 3; ++i) {
+               messageBus.publish("backlog", testId, "message" + i);
+               messageBus.publish("backlog-bulk", testId, "message" + i);
+            }
+            return null;
+         });
+         TestUtil.eventually(() -> counter.get() == 6);
+         messageBus.refreshBacklog();
+         assertEquals(3, messageBus.backlog(testId));
+         assertTrue(messageBus.backlog() >= 3);
+         assertEquals(0, messageBus.backlog(testId + 1));
+      } finally {
+         subscription.close();
+         bulkSubscription.close();
+         Util.withTx(tm, () -> em.createNativeQuery("DELETE FROM messagebus WHERE testid = ?1").setParameter(1, testId).executeUpdate());
+         messageBus.refreshBacklog();
+      }
+      assertEquals(0, messageBus.backlog(testId));
+   }
+
    private void awaitMessageBus(int expectedMessages) {
       TestUtil.eventually(() -> expectedMessages == Util.withTx(tm, () -> {
          long count = ((BigInteger) em.createNativeQuery("SELECT COUNT(*) FROM messagebus").getSingleResult()).longValue();
@@ -6,10 +6,14 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class MessageBusTestProfile extends HorreumTestProfile {
+    // high enough for testRetryManyWithExceptions not to exhaust the attempts
+    static final int MAX_ATTEMPTS = 30;
+
     @Override
     public Map<String, String> getConfigOverrides() {
         Map<String, String> map = new HashMap<>(super.getConfigOverrides());
         map.put("horreum.messagebus.retry.after", "1s");
+        map.put("horreum.messagebus.retry.max-attempts", String.valueOf(MAX_ATTEMPTS));
         return map;
     }
 }
\ No newline at end of file
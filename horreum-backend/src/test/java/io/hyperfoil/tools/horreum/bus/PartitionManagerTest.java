@@ -0,0 +1,129 @@
+package io.hyperfoil.tools.horreum.bus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.transaction.TransactionManager;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.hyperfoil.tools.horreum.svc.Util;
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(HorreumTestProfile.class)
+public class PartitionManagerTest {
+   private static final int PARTITIONS = 8;
+
+   @Inject
+   TransactionManager tm;
+
+   @Inject
+   EntityManager em;
+
+   @AfterEach
+   public void cleanup() {
+      Util.withTx(tm, () -> {
+         em.createNativeQuery("DELETE FROM messagebus_node").executeUpdate();
+         return em.createNativeQuery("DELETE FROM messagebus_partition").executeUpdate();
+      });
+   }
+
+   private PartitionManager manager(Duration lease, AtomicBoolean idle, AtomicInteger handoffs) {
+      return manager(lease, idle, handoffs, new HashSet<>());
+   }
+
+   private PartitionManager manager(Duration lease, AtomicBoolean idle, AtomicInteger handoffs, Set<Integer> claimed) {
+      PartitionManager manager = new PartitionManager(PARTITIONS, lease, tm, em, partition -> idle.get(), handoffs::incrementAndGet, claimed::addAll);
+      manager.createPartitions();
+      return manager;
+   }
+
+   @Test
+   public void testRebalance() {
+      AtomicBoolean idleA = new AtomicBoolean(false);
+      AtomicInteger handoffs = new AtomicInteger();
+      Set<Integer> claimedB = new HashSet<>();
+      PartitionManager a = manager(Duration.ofMinutes(1), idleA, handoffs);
+      PartitionManager b = manager(Duration.ofMinutes(1), new AtomicBoolean(true), handoffs, claimedB);
+
+      a.renew();
+      assertEquals(PARTITIONS, a.activePartitions().length);
+      for (int testId = 0; testId < 100; ++testId) {
+         assertTrue(a.isLocal(testId));
+      }
+
+      b.renew();
+      // all partitions are held by A
+      assertEquals(0, b.activePartitions().length);
+      a.renew();
+      // A is busy, so it stops accepting messages for half of the partitions but does not release them yet
+      assertEquals(PARTITIONS / 2, a.activePartitions().length);
+      b.renew();
+      assertEquals(0, b.activePartitions().length);
+      // draining partitions are not active anywhere but A is still responsible for them
+      for (int testId = -10; testId < 100; ++testId) {
+         assertTrue(a.isResponsible(testId));
+         assertFalse(b.isResponsible(testId));
+      }
+      assertTrue(claimedB.isEmpty());
+
+      idleA.set(true);
+      a.renew();
+      b.renew();
+      assertEquals(PARTITIONS / 2, a.activePartitions().length);
+      assertEquals(PARTITIONS / 2, b.activePartitions().length);
+      assertEquals(1, handoffs.get());
+
+      Set<Integer> all = new HashSet<>();
+      for (int p : a.activePartitions()) {
+         all.add(p);
+      }
+      for (int p : b.activePartitions()) {
+         assertTrue(all.add(p), "Partition " + p + " owned by both nodes");
+      }
+      assertEquals(PARTITIONS, all.size());
+      for (int testId = -10; testId < 100; ++testId) {
+         assertTrue(a.isLocal(testId) ^ b.isLocal(testId));
+         assertTrue(a.isResponsible(testId) ^ b.isResponsible(testId));
+      }
+      assertEquals(PARTITIONS / 2, claimedB.size());
+      for (int p : b.activePartitions()) {
+         assertTrue(claimedB.contains(p));
+      }
+   }
+
+   @Test
+   public void testExpiredLease() throws InterruptedException {
+      AtomicInteger handoffs = new AtomicInteger();
+      PartitionManager a = manager(Duration.ofMillis(500), new AtomicBoolean(true), handoffs);
+      PartitionManager b = manager(Duration.ofMillis(500), new AtomicBoolean(true), handoffs);
+      a.renew();
+      assertEquals(PARTITIONS, a.activePartitions().length);
+      // A does not renew
+      Thread.sleep(600);
+      b.renew();
+      assertEquals(PARTITIONS, b.activePartitions().length);
+      // messages of a failed node are not handed off, they are retried with backoff
+      assertEquals(0, handoffs.get());
+      a.renew();
+      assertFalse(a.isLocal(0));
+   }
+}
@@ -0,0 +1,249 @@
+package io.hyperfoil.tools.horreum.bus;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class TestLaneExecutorTest {
+   private static TestLaneExecutor executor(int threads, int maxQueue, Duration submitTimeout) {
+      return new TestLaneExecutor(threads, maxQueue, Duration.ofMillis(50), Duration.ofMillis(100), submitTimeout, new SimpleMeterRegistry());
+   }
+
+   @Test
+   public void testSerialPerTest() throws InterruptedException {
+      TestLaneExecutor executor = executor(4, 1000, Duration.ofSeconds(10));
+      try {
+         List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+         AtomicInteger concurrent = new AtomicInteger();
+         AtomicBoolean overlap = new AtomicBoolean();
+         CountDownLatch latch = new CountDownLatch(100);
+         for (int i = 0; i < 100; ++i) {
+            int value = i;
+            executor.execute(1, () -> {
+               if (concurrent.incrementAndGet() > 1) {
+                  overlap.set(true);
+               }
+               order.add(value);
+               concurrent.decrementAndGet();
+               latch.countDown();
+            });
+         }
+         assertTrue(latch.await(10, TimeUnit.SECONDS));
+         assertEquals(false, overlap.get());
+         for (int i = 0; i < 100; ++i) {
+            assertEquals(i, order.get(i));
+         }
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testFairness() throws InterruptedException {
+      TestLaneExecutor executor = executor(1, 1000, Duration.ofSeconds(10));
+      try {
+         AtomicInteger busyDone = new AtomicInteger();
+         for (int i = 0; i < 100; ++i) {
+            executor.execute(1, () -> {
+               sleep(10);
+               busyDone.incrementAndGet();
+            });
+         }
+         CountDownLatch other = new CountDownLatch(1);
+         executor.execute(2, other::countDown);
+         assertTrue(other.await(10, TimeUnit.SECONDS));
+         // the other test must not wait for the whole backlog of test 1
+         assertTrue(busyDone.get() < 50, "Completed " + busyDone.get());
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testBoundedQueue() throws InterruptedException {
+      TestLaneExecutor executor = executor(1, 2, Duration.ofMillis(100));
+      try {
+         CountDownLatch block = new CountDownLatch(1);
+         CountDownLatch started = new CountDownLatch(1);
+         executor.execute(1, () -> {
+            started.countDown();
+            await(block);
+         });
+         assertTrue(started.await(10, TimeUnit.SECONDS));
+         executor.execute(1, () -> {});
+         executor.execute(1, () -> {});
+         assertEquals(2, executor.queueSize(1));
+         assertThrows(RejectedExecutionException.class, () -> executor.execute(1, () -> {}));
+         // tasks feeding each other one at a time do not wait for capacity
+         executor.enqueue(1, TaskPriority.INTERACTIVE, () -> {});
+         assertEquals(3, executor.queueSize(1));
+         // other tests are not affected
+         executor.execute(2, () -> {});
+         block.countDown();
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testPriority() throws InterruptedException {
+      TestLaneExecutor executor = executor(1, 2, Duration.ofMillis(100));
+      try {
+         CountDownLatch block = new CountDownLatch(1);
+         CountDownLatch started = new CountDownLatch(1);
+         executor.execute(1, TaskPriority.BULK, () -> {
+            started.countDown();
+            await(block);
+         });
+         assertTrue(started.await(10, TimeUnit.SECONDS));
+         List<String> order = Collections.synchronizedList(new ArrayList<>());
+         CountDownLatch done = new CountDownLatch(6);
+         for (int i = 0; i < 2; ++i) {
+            int value = i;
+            executor.execute(1, TaskPriority.BULK, () -> {
+               order.add("bulk" + value);
+               done.countDown();
+            });
+         }
+         assertThrows(RejectedExecutionException.class, () -> executor.execute(1, TaskPriority.BULK, () -> {}));
+         // bulk backlog does not use the capacity for other priorities
+         for (int i = 0; i < 2; ++i) {
+            int value = i;
+            executor.execute(1, TaskPriority.LABEL_CHANGE, () -> {
+               order.add("label" + value);
+               done.countDown();
+            });
+            executor.execute(1, () -> {
+               order.add("interactive" + value);
+               done.countDown();
+            });
+         }
+         assertEquals(2, executor.queueSize(1, TaskPriority.INTERACTIVE));
+         assertEquals(2, executor.queueSize(TaskPriority.BULK));
+         block.countDown();
+         assertTrue(done.await(10, TimeUnit.SECONDS));
+         assertEquals(List.of("interactive0", "interactive1", "label0", "label1", "bulk0", "bulk1"), order);
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testNestedSubmitDoesNotBlock() throws InterruptedException {
+      TestLaneExecutor executor = executor(1, 1, Duration.ofSeconds(10));
+      try {
+         CountDownLatch latch = new CountDownLatch(3);
+         executor.execute(1, () -> {
+            executor.execute(1, latch::countDown);
+            executor.execute(1, latch::countDown);
+            latch.countDown();
+         });
+         assertTrue(latch.await(5, TimeUnit.SECONDS));
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testSubmitFromOtherLaneDoesNotBlock() throws InterruptedException {
+      TestLaneExecutor executor = executor(2, 1, Duration.ofSeconds(10));
+      try {
+         CountDownLatch block = new CountDownLatch(1);
+         CountDownLatch started = new CountDownLatch(1);
+         executor.execute(1, () -> {
+            started.countDown();
+            await(block);
+         });
+         assertTrue(started.await(10, TimeUnit.SECONDS));
+         executor.execute(1, () -> {});
+         CountDownLatch submitted = new CountDownLatch(1);
+         executor.execute(2, () -> {
+            executor.execute(1, () -> {});
+            submitted.countDown();
+         });
+         // the full lane of test 1 must not hold the thread running test 2
+         assertTrue(submitted.await(5, TimeUnit.SECONDS));
+         block.countDown();
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testAdmissionLimit() throws InterruptedException {
+      TestLaneExecutor executor = new TestLaneExecutor(Executors.newCachedThreadPool(), 2, 10, Duration.ofMillis(50),
+            Duration.ofMillis(100), Duration.ofSeconds(10), new SimpleMeterRegistry());
+      try {
+         AtomicInteger concurrent = new AtomicInteger();
+         AtomicInteger maxConcurrent = new AtomicInteger();
+         CountDownLatch done = new CountDownLatch(10);
+         for (int i = 0; i < 10; ++i) {
+            executor.execute(i, () -> {
+               maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+               sleep(20);
+               concurrent.decrementAndGet();
+               done.countDown();
+            });
+         }
+         assertTrue(done.await(10, TimeUnit.SECONDS));
+         assertTrue(maxConcurrent.get() <= 2, "Concurrent lanes: " + maxConcurrent.get());
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   @Test
+   public void testIsIdle() throws InterruptedException {
+      TestLaneExecutor executor = executor(2, 10, Duration.ofSeconds(10));
+      try {
+         CountDownLatch block = new CountDownLatch(1);
+         CountDownLatch done = new CountDownLatch(1);
+         executor.execute(1, () -> {
+            await(block);
+            done.countDown();
+         });
+         assertEquals(false, executor.isIdle(testId -> testId == 1));
+         assertTrue(executor.isIdle(testId -> testId == 2));
+         block.countDown();
+         assertTrue(done.await(10, TimeUnit.SECONDS));
+         long deadline = System.currentTimeMillis() + 10000;
+         while (!executor.isIdle(testId -> testId == 1) && System.currentTimeMillis() < deadline) {
+            sleep(10);
+         }
+         assertTrue(executor.isIdle(testId -> true));
+      } finally {
+         executor.shutdown();
+      }
+   }
+
+   private static void sleep(long millis) {
+      try {
+         Thread.sleep(millis);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   private static void await(CountDownLatch latch) {
+      try {
+         latch.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
@@ -0,0 +1,59 @@
+package io.hyperfoil.tools.horreum.changedetection;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+
+import org.junit.jupiter.api.Test;
+
+public class DataPointSeriesTest {
+   @Test
+   public void testRingBuffer() {
+      DataPointSeries series = new DataPointSeries(3);
+      for (int i = 1; i <= 5; ++i) {
+         series.add(i, 100 + i, i * 1000L, i);
+      }
+      assertEquals(5, series.size());
+      assertEquals(3, series.retained());
+      assertEquals(5, series.id(0));
+      assertEquals(3, series.id(2));
+      assertEquals(Instant.ofEpochMilli(4000), series.timestamp(1));
+      assertEquals(3, series.mean(0));
+      assertEquals(2.5, series.variance(0), 1e-12);
+      // 1, 2, 3 without the two most recent datapoints
+      assertEquals(2, series.mean(2), 1e-12);
+      assertEquals(1, series.variance(2), 1e-12);
+   }
+
+   @Test
+   public void testVarianceOfLargeValues() {
+      DataPointSeries series = new DataPointSeries(2);
+      double[] values = { 1e9 + 4, 1e9 + 7, 1e9 + 13, 1e9 + 16, 1e9 + 10 };
+      for (int i = 0; i < values.length; ++i) {
+         series.add(i, i, i * 1000L, values[i]);
+      }
+      assertEquals(1e9 + 10, series.mean(0), 1e-6);
+      assertEquals(22.5, series.variance(0), 1e-6);
+      assertEquals(1e9 + 8, series.mean(2), 1e-6);
+      assertEquals(21, series.variance(2), 1e-6);
+   }
+
+   @Test
+   public void testTruncate() {
+      DataPointSeries series = new DataPointSeries(3);
+      for (int i = 1; i <= 5; ++i) {
+         series.add(i, 100 + i, i * 1000L, i);
+      }
+      assertTrue(series.truncateBefore(Instant.ofEpochMilli(4000)));
+      assertEquals(2, series.size());
+      assertEquals(4.5, series.mean(0), 1e-12);
+      assertEquals(0.5, series.variance(0), 1e-12);
+
+      series.add(6, 106, 6000L, 6);
+      series.add(7, 107, 7000L, 7);
+      // datapoint 4 is not retained anymore
+      assertFalse(series.truncateBefore(Instant.ofEpochMilli(1000)));
+   }
+}
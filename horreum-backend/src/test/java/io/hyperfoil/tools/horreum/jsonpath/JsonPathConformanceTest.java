@@ -0,0 +1,231 @@
+package io.hyperfoil.tools.horreum.jsonpath;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceException;
+import javax.transaction.TransactionManager;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+
+/**
+ * Compares results of the in-JVM engine with <code>jsonb_path_query_array</code> executed in PostgreSQL.
+ * Both must either produce the same sequence of values or both must fail.
+ */
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(HorreumTestProfile.class)
+public class JsonPathConformanceTest {
+   // numbers are compared as decimals so that the precision of numeric is not lost
+   private static final ObjectMapper MAPPER = new ObjectMapper().enable(DeserializationFeature.USE_BIG_DECIMAL_FOR_FLOATS);
+   private static final String DOCUMENT = "{ \"name\": \"hello world\", \"count\": 3, \"ratio\": 1.50, \"big\": 12345678901234567890, " +
+         "\"flag\": true, \"nothing\": null, \"empty\": {}, \"list\": [1, 2, 3.5, \"4\", null, true, { \"x\": 5 }, [6, 7]], " +
+         "\"runs\": [ { \"id\": 1, \"tags\": [\"a\", \"b\"], \"throughput\": 100.5, \"host\": \"alpha\" }, " +
+         "{ \"id\": 2, \"tags\": [\"b\"], \"throughput\": 97, \"host\": \"beta\", \"error\": \"timeout\" }, " +
+         "{ \"id\": 3, \"tags\": [], \"throughput\": 120.25, \"host\": \"Alpha\\nbeta\" } ], " +
+         "\"nested\": { \"zz\": 1, \"b\": { \"c\": [ { \"d\": 1 }, { \"d\": 2 } ] }, \"aa\": \"x\", \"\u00e9\": 2, \"size\": 4 } }";
+
+   @Inject
+   EntityManager em;
+
+   @Inject
+   TransactionManager tm;
+
+   @Test
+   public void testAccessors() {
+      assertConformance(DOCUMENT, "$", "$.name", "$.\"name\"", "$.missing", "$.nested.b.c", "$.nested.b.c[*].d",
+            "$.nested.*", "$.empty.*", "$.list[*]", "$.list[0]", "$.list[1, 3]", "$.list[1 to 3]", "$.list[5 to 2]",
+            "$.list[last]", "$.list[last - 1]", "$.list[0 to last]", "$.list[1.9]", "$.list[-1]", "$.list[100]",
+            "$.list[$.count]", "$.list[$.count to last]", "$.runs[*].host", "$.runs.host", "$.runs.tags", "$.runs.tags[*]",
+            "$.runs[*].tags[0]", "$.name[0]", "$.name[*]", "$.name[1]", "$.nested.size", "$.nested.\u00e9", "$.list.x",
+            "$.list[*].x", "$.list[7][1]", "$.**", "$.nested.**", "$.nested.**{1}", "$.nested.**{2 to last}",
+            "$.nested.**{last}", "$.nested.**.d", "$.list.**{0}", "lax $.runs.id", "$.runs[0 to 1].error");
+   }
+
+   @Test
+   public void testStrict() {
+      assertConformance(DOCUMENT, "strict $.name", "strict $.missing", "strict $.runs.host", "strict $.runs[*].host",
+            "strict $.runs[*].error", "strict $.list[100]", "strict $.list[2 to 1]", "strict $.name[0]", "strict $.name[*]",
+            "strict $.name.*", "strict $.nested.**.d", "strict $.nested.**{2}.zz", "strict $.name.size()", "strict $.list.size()",
+            "strict $.runs ? (@.id > 1)", "strict $.runs[*] ? (@.error == \"timeout\").id", "strict $.list[*] ? (@ > 1)");
+   }
+
+   @Test
+   public void testFilters() {
+      assertConformance(DOCUMENT, "$.runs ? (@.id == 2)", "$.runs[*] ? (@.throughput > 100).host", "$.runs ? (@.tags == \"b\").id",
+            "$.runs ? (@.tags[*] == \"a\").id", "$.runs ? (exists(@.error)).id", "$.runs ? (!exists(@.error)).id",
+            "$.runs ? (@.host starts with \"al\").id", "$.runs ? (@.host like_regex \"^al\").id",
+            "$.runs ? (@.host like_regex \"^al\" flag \"i\").id", "$.runs ? (@.host like_regex \"^beta\" flag \"m\").id",
+            "$.runs ? (@.host like_regex \"a.b\").id", "$.runs ? (@.host like_regex \"a.b\" flag \"s\").id",
+            "$.runs ? (@.host like_regex \"a.b\" flag \"q\").id", "$.runs ? (@.id > 1 && @.throughput < 100).id",
+            "$.runs ? (@.id == 1 || @.error == \"timeout\").id", "$.runs ? ((@.error == \"timeout\") is unknown).id",
+            "$.runs ? (@.error != \"timeout\").id", "$.list ? (@ == null)", "$.list ? (@ != null)", "$.list ? (@ < 3)",
+            "$.list ? (@ == \"4\")", "$.list ? (@ == true)", "$.list ? (@.type() == \"object\")", "$.list ? (@ > $.count)",
+            "$.nested ? (@.zz == 1).aa", "$.runs ? (@.id == $.count).host", "$.list ? (@ starts with \"4\")",
+            "$.runs ? (@.id == 1 + 1).host", "$.runs ? (@.missing + 1 > 0)", "$.runs ? (@.tags.size() == 1).id",
+            "$.**? (@.d >= 2)", "$.list ? (@ == 2 || @ == 3.5)", "$.runs ? (@.host < \"b\").host");
+   }
+
+   @Test
+   public void testPredicates() {
+      assertConformance(DOCUMENT, "$.count == 3", "$.count > 3", "$.list[*] > 2", "$.list[*] == \"x\"", "$.nothing == null",
+            "$.missing == 1", "exists($.name)", "exists($.missing)", "$.name starts with \"hell\"", "$.name like_regex \"WORLD\" flag \"i\"",
+            "$.flag == true", "$.empty == $.empty", "($.count > 1) is unknown", "($.list[*] > 2) is unknown", "!($.count > 1)",
+            "$.count > 1 && $.flag == true", "$.missing > 1 || $.count > 1", "strict $.list[*] > 2");
+   }
+
+   @Test
+   public void testArithmetic() {
+      assertConformance(DOCUMENT, "$.count + 1", "$.count - 10", "$.count * $.ratio", "$.count / 2", "$.ratio / 3", "1 / 3",
+            "$.big * 10", "$.big / 7", "10 % 3", "-7 % 3", "7.5 % 2", "-$.count", "+$.count", "-$.runs[*].id", "$.runs[*].id * 2",
+            "2 * 3 + 4", "2 + 3 * 4", "(2 + 3) * 4", "1.10 + 2.205", "0.1 * 0.2", "1e3 + 1", "1.5e-2 * 2", "100 / 0.3",
+            "0.001 / 7", "$.count / $.count", "($.count + 1).type()", "$.list[0 to 1] + 1", "$.count + $.missing",
+            "$.name + 1", "$.count / 0", "$.count % 0", "-$.name");
+   }
+
+   @Test
+   public void testMethods() {
+      assertConformance(DOCUMENT, "$.type()", "$.*.type()", "$.list[*].type()", "$.list.type()", "$.list.size()",
+            "$.name.size()", "$.nested.size()", "$.list[0 to 2].double()", "\"12.5\".double()", "\"1e3\".double()",
+            "\"0.1\".double()", "\"abc\".double()", "$.ratio.ceiling()", "$.ratio.floor()",
+            "(-$.ratio).ceiling()", "(-$.ratio).floor()", "(-$.ratio).abs()", "$.runs.throughput.floor()", "$.name.floor()",
+            "$.list.floor()", "$.runs[*].throughput.abs()", "$.nested.size.type()");
+   }
+
+   @Test
+   public void testSyntax() {
+      assertConformance(DOCUMENT, "$.", "$[", "$.list[", "$ ? (@.id)", "@", "last", "$.list[last", "$ ? ", "$.a +",
+            "$.x.unknownMethod()", "$ like_regex \"(\"", "$ like_regex \"a\" flag \"z\"",
+            "$.\"a\\\"b\"", "$.\"\\u0041\"", "$ /* comment */ .name", "$x", "$.list[$x]",
+            "$.runs ? (@.id == 1) ? (@.host == \"alpha\").id");
+   }
+
+   @Test
+   public void testStringOrder() {
+      String document = "{ \"values\": [\"a\", \"B\", \"\u00e9\", \"\ud83d\ude00\", \"\uff21\", \"ab\", \"\"], " +
+            "\"keys\": { \"bb\": 1, \"a\": 2, \"\u00e9\": 3, \"B\": 4, \"ccc\": 5, \"\ud83d\ude00\": 6 } }";
+      assertConformance(document, "$.values ? (@ < \"b\")", "$.values ? (@ > \"\u00e9\")", "$.values ? (@ >= \"\")",
+            "$.keys.*", "$.keys.**", "$.values ? (@ == \"\u00e9\")");
+   }
+
+   @Test
+   public void testUnsupported() {
+      JsonPathException exception = assertThrows(JsonPathException.class, () -> JsonPathExpression.compile("$.nested.keyvalue()"));
+      assertTrue(exception.isUnsupported());
+      exception = assertThrows(JsonPathException.class, () -> JsonPathExpression.compile("$.date.datetime()"));
+      assertTrue(exception.isUnsupported());
+      exception = assertThrows(JsonPathException.class, () -> JsonPathExpression.compile("$.foo["));
+      assertTrue(!exception.isUnsupported());
+   }
+
+   @Test
+   public void testQueryFirst() throws JsonProcessingException {
+      JsonNode document = MAPPER.readTree(DOCUMENT);
+      assertEquals("alpha", JsonPathExpression.compile("$.runs[*].host").queryFirst(document).asText());
+      assertEquals(null, JsonPathExpression.compile("$.missing").queryFirst(document));
+      assertEquals(3, JsonPathExpression.compile("$.count").queryFirst(document).asInt());
+   }
+
+   private void assertConformance(String document, String... paths) {
+      JsonNode parsed;
+      try {
+         parsed = MAPPER.readTree(document);
+      } catch (JsonProcessingException e) {
+         throw new IllegalArgumentException(e);
+      }
+      List<String> mismatches = new ArrayList<>();
+      for (String path : paths) {
+         String expected = queryDatabase(document, path);
+         String actual;
+         try {
+            actual = JsonPathExpression.compile(path).queryArray(parsed).toString();
+         } catch (JsonPathException e) {
+            actual = null;
+            if (expected != null) {
+               mismatches.add(path + ": expected " + expected + " but failed with " + e.getMessage());
+            }
+            continue;
+         }
+         if (expected == null) {
+            mismatches.add(path + ": expected failure but got " + actual);
+         } else if (!equal(parse(expected), parse(actual))) {
+            mismatches.add(path + ": expected " + expected + " but got " + actual);
+         }
+      }
+      assertTrue(mismatches.isEmpty(), String.join("\n", mismatches));
+   }
+
+   /**
+    * @return Result of the query as text or <code>null</code> if the query fails.
+    */
+   private String queryDatabase(String document, String path) {
+      try {
+         tm.begin();
+         try {
+            return (String) em.createNativeQuery("SELECT CAST(jsonb_path_query_array(CAST(?1 AS jsonb), CAST(?2 AS jsonpath)) AS text)")
+                  .setParameter(1, document).setParameter(2, path).getSingleResult();
+         } catch (PersistenceException e) {
+            return null;
+         } finally {
+            tm.rollback();
+         }
+      } catch (Exception e) {
+         throw new RuntimeException(e);
+      }
+   }
+
+   private static JsonNode parse(String json) {
+      try {
+         return MAPPER.readTree(json);
+      } catch (JsonProcessingException e) {
+         throw new IllegalArgumentException(e);
+      }
+   }
+
+   // Order of array elements matters, order of object members does not
+   private static boolean equal(JsonNode expected, JsonNode actual) {
+      if (expected.isNumber() && actual.isNumber()) {
+         // the engine returns doubles as if the result was read back through Jackson
+         return expected.decimalValue().compareTo(actual.decimalValue()) == 0 || expected.doubleValue() == actual.doubleValue();
+      } else if (expected.getNodeType() != actual.getNodeType() || expected.size() != actual.size()) {
+         return false;
+      } else if (expected.isArray()) {
+         for (int i = 0; i < expected.size(); ++i) {
+            if (!equal(expected.get(i), actual.get(i))) {
+               return false;
+            }
+         }
+         return true;
+      } else if (expected.isObject()) {
+         for (Iterator<Map.Entry<String, JsonNode>> it = expected.fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> entry = it.next();
+            if (!actual.has(entry.getKey()) || !equal(entry.getValue(), actual.get(entry.getKey()))) {
+               return false;
+            }
+         }
+         return true;
+      }
+      return expected.equals(actual);
+   }
+}
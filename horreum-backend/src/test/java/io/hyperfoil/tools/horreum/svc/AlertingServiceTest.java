@@ -9,9 +9,11 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
@@ -76,7 +78,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       log.error("TestDTO:"+test.toString()+", schema: "+schema.toString());
       setTestVariables(test, "Value", "value");
 
-      BlockingQueue<DataPointDAO.Event> dpe = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue dpe = dataPointQueue(test.id);
       uploadRun(runWithValue(42, schema).toString(), test.name);
 
       DataPointDAO.Event event1 = dpe.poll(10, TimeUnit.SECONDS);
@@ -143,7 +145,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       Schema schema = createExampleSchema(info);
       ChangeDetectionDAO cd = addChangeDetectionVariable(test);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
       BlockingQueue<ChangeDAO.Event> changeQueue = eventConsumerQueue(ChangeDAO.Event.class, ChangeDAO.EVENT_NEW, e -> e.dataset.testId == test.id);
 
       long ts = System.currentTimeMillis();
@@ -218,7 +220,7 @@ public class AlertingServiceTest extends BaseServiceTest {
 
       addChangeDetectionVariable(test);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == testId);
+      DataPointQueue datapointQueue = dataPointQueue(testId);
       BlockingQueue<ChangeDAO.Event> changeQueue = eventConsumerQueue(ChangeDAO.Event.class, ChangeDAO.EVENT_NEW, e -> e.dataset.testId == testId);
 
       long ts = System.currentTimeMillis();
@@ -245,11 +247,107 @@ public class AlertingServiceTest extends BaseServiceTest {
       assertEquals(run14, changeEvent2.dataset.runId);
    }
 
-   private DataPointDAO assertValue(BlockingQueue<DataPointDAO.Event> datapointQueue, double value) throws InterruptedException {
+   @org.junit.jupiter.api.Test
+   public void testFingerprintKeyOrder(TestInfo info) throws InterruptedException {
+      Test test = createExampleTest(getTestName(info));
+      test.fingerprintLabels = jsonArray("foo", "bar");
+      test = createTest(test);
+      int testId = test.id;
+      Schema schema = createExampleSchema(info);
+      addLabel(schema, "foo", null, new Extractor("foo", "$.foo", false));
+      addLabel(schema, "bar", null, new Extractor("bar", "$.bar", false));
+      addChangeDetectionVariable(test);
+      VariableDAO variable = VariableDAO.find("testId", testId).firstResult();
+      int variableId = variable.id;
+
+      DataPointQueue datapointQueue = dataPointQueue(testId);
+      BlockingQueue<ChangeDAO.Event> changeQueue = eventConsumerQueue(ChangeDAO.Event.class, ChangeDAO.EVENT_NEW, e -> e.dataset.testId == testId);
+
+      long ts = System.currentTimeMillis();
+      for (int i = 0; i < 4; ++i) {
+         uploadRun(ts + i, ts + i, runWithValue(1, schema).put("foo", "aaa").put("bar", "bbb"), test.name);
+         assertValue(datapointQueue, 1);
+      }
+      uploadRun(ts + 4, ts + 4, runWithValue(2, schema).put("foo", "aaa").put("bar", "bbb"), test.name);
+      assertValue(datapointQueue, 2);
+      ChangeDAO.Event changeEvent = changeQueue.poll(10, TimeUnit.SECONDS);
+      assertNotNull(changeEvent);
+      uploadRun(ts + 5, ts + 5, runWithValue(1, schema).put("foo", "aaa").put("bar", "ccc"), test.name);
+      assertValue(datapointQueue, 1);
+      TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+
+      String fooBar = "{\"foo\":\"aaa\",\"bar\":\"bbb\"}";
+      String barFoo = "{\"bar\":\"bbb\",\"foo\":\"aaa\"}";
+      String other = "{\"bar\":\"ccc\",\"foo\":\"aaa\"}";
+
+      // fingerprints that differ only in the order of keys have the same hash
+      assertEquals(5, countDatapoints(variableId, fooBar));
+      assertEquals(5, countDatapoints(variableId, barFoo));
+      assertEquals(1, countDatapoints(variableId, other));
+
+      assertEquals(Long.valueOf(ts + 4), findLastDatapoint(variableId, fooBar));
+      assertEquals(Long.valueOf(ts + 4), findLastDatapoint(variableId, barFoo));
+      assertEquals(Long.valueOf(ts + 5), findLastDatapoint(variableId, other));
+      // all datasets of this test have a fingerprint
+      assertNull(findLastDatapoint(variableId, ""));
+
+      assertEquals(Collections.singletonList(changeEvent.change.id), findChanges(variableId, fooBar));
+      assertEquals(Collections.singletonList(changeEvent.change.id), findChanges(variableId, barFoo));
+      assertEquals(Collections.emptyList(), findChanges(variableId, other));
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testNoFingerprint(TestInfo info) throws InterruptedException {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      int testId = test.id;
+      Schema schema = createExampleSchema(info);
+      addChangeDetectionVariable(test);
+      VariableDAO variable = VariableDAO.find("testId", testId).firstResult();
+      int variableId = variable.id;
+
+      DataPointQueue datapointQueue = dataPointQueue(testId);
+      long ts = System.currentTimeMillis();
+      uploadRun(ts, ts, runWithValue(1, schema), test.name);
+      DataPointDAO dataPoint = assertValue(datapointQueue, 1);
+      TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+
+      // a dataset without fingerprint gets the same hash as a NULL fingerprint
+      assertTrue((Boolean) Util.withTx(tm, () -> em.createNativeQuery(
+            "SELECT fingerprint_hash = fingerprint_hash(NULL) FROM datapoint WHERE id = ?1")
+            .setParameter(1, dataPoint.id).getSingleResult()));
+      assertEquals(Long.valueOf(ts), findLastDatapoint(variableId, ""));
+      assertNull(findLastDatapoint(variableId, "{\"foo\":\"aaa\"}"));
+   }
+
+   private long countDatapoints(int variableId, String fingerprint) {
+      return ((Number) Util.withTx(tm, () -> em.createNativeQuery(
+            "SELECT COUNT(*) FROM datapoint WHERE variable_id = ?1 AND fingerprint_hash = fingerprint_hash((?2)::::jsonb)")
+            .setParameter(1, variableId).setParameter(2, fingerprint).getSingleResult())).longValue();
+   }
+
+   private Long findLastDatapoint(int variableId, String fingerprint) {
+      AlertingService.LastDatapointsParams params = new AlertingService.LastDatapointsParams();
+      params.variables = new int[] { variableId };
+      params.fingerprint = fingerprint;
+      AlertingService.DatapointLastTimestamp[] timestamps = jsonRequest().body(params).post("/api/alerting/datapoint/last")
+            .then().statusCode(200).extract().body().as(AlertingService.DatapointLastTimestamp[].class);
+      if (timestamps.length == 0) {
+         return null;
+      }
+      assertEquals(1, timestamps.length);
+      assertEquals(variableId, timestamps[0].variable);
+      return timestamps[0].timestamp.longValue();
+   }
+
+   private List<Integer> findChanges(int variableId, String fingerprint) {
+      return jsonRequest().queryParam("var", variableId).queryParam("fingerprint", fingerprint).get("/api/alerting/changes")
+            .then().statusCode(200).extract().body().jsonPath().getList("id", Integer.class);
+   }
+
+   private DataPointDAO assertValue(DataPointQueue datapointQueue, double value) throws InterruptedException {
       DataPointDAO.Event dpe = datapointQueue.poll(10, TimeUnit.SECONDS);
       assertNotNull(dpe);
       assertEquals(value, dpe.dataPoint.value);
-      testSerialization(dpe, DataPointDAO.Event.class);
       return dpe.dataPoint;
    }
 
@@ -265,7 +363,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       addLabel(schema, "bar", null, new Extractor("bar", "$.bar", false));
 
       uploadRun(runWithValue(42, schema).put("foo", "aaa").put("bar", "bbb"), test.name);
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == testId);
+      DataPointQueue datapointQueue = dataPointQueue(testId);
       assertValue(datapointQueue, 42);
 
       List<FingerprintDAO> fingerprintsBefore = FingerprintDAO.listAll();
@@ -298,7 +396,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       addLabel(schema, "foo", null, new Extractor("foo", "$.foo", false));
       addLabel(schema, "bar", null, new Extractor("bar", "$.bar", false));
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == testId);
+      DataPointQueue datapointQueue = dataPointQueue(testId);
 
       uploadRun(runWithValue(1, schema).put("foo", "aaa").put("bar", "bbb"), test.name);
       assertValue(datapointQueue, 1);
@@ -545,7 +643,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       Schema schema = createExampleSchema(info);
       addChangeDetectionVariable(test);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
       BlockingQueue<DataPointDAO.Event> datapointDeletedQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_DELETED, e -> e.testId == test.id);
 
       uploadRun(runWithValue(42, schema), test.name);
@@ -602,7 +700,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       rd.config = config;
       setTestVariables(test, "Value", "value", rd);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
       BlockingQueue<ChangeDAO.Event> changeQueue = eventConsumerQueue(ChangeDAO.Event.class, ChangeDAO.EVENT_NEW, e -> e.dataset.testId == test.id);
 
       long ts = System.currentTimeMillis();
@@ -634,7 +732,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       addChangeDetectionVariable(test);
       setChangeDetectionTimeline(test, Collections.singletonList("timestamp"), null);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
 
       long ts = System.currentTimeMillis();
       uploadRun(ts, ts, runWithValue(1, schema).put("timestamp", 1662023776000L), test.name);
@@ -684,7 +782,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       LabelDAO l = LabelDAO.find("name", "value").firstResult();
       Label label = LabelMapper.from(l);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
 
       long ts = System.currentTimeMillis();
       uploadRun(ts, ts, runWithValue(1, schema), test.name);
@@ -709,7 +807,7 @@ public class AlertingServiceTest extends BaseServiceTest {
       addLabel(schema, "timestamp", null, new Extractor("ts", "$.timestamp", false));
       setChangeDetectionTimeline(test, Collections.singletonList("timestamp"), null);
 
-      BlockingQueue<DataPointDAO.Event> datapointQueue = eventConsumerQueue(DataPointDAO.Event.class, DataPointDAO.EVENT_NEW, e -> e.testId == test.id);
+      DataPointQueue datapointQueue = dataPointQueue(test.id);
       BlockingQueue<ChangeDAO.Event> changeQueue = eventConsumerQueue(ChangeDAO.Event.class, ChangeDAO.EVENT_NEW, e -> e.dataset.testId == test.id);
 
       int[] order = new int[] { 5, 0, 1, 7, 4, 8, 2, 3, 9, 6 };
@@ -745,7 +843,7 @@ public class AlertingServiceTest extends BaseServiceTest {
             list.stream().map(c -> c.timestamp.toEpochMilli()).sorted().collect(Collectors.toList()));
    }
 
-   private void drainQueue(BlockingQueue<DataPointDAO.Event> datapointQueue, int expectedItems) throws InterruptedException {
+   private void drainQueue(DataPointQueue datapointQueue, int expectedItems) throws InterruptedException {
       for (int i = 0; i < expectedItems; ++i) {
          DataPointDAO.Event event = datapointQueue.poll(10, TimeUnit.SECONDS);
          assertNotNull(event);
@@ -761,4 +859,44 @@ public class AlertingServiceTest extends BaseServiceTest {
          }
       }
    }
-}
\ No newline at end of file
+
+   private DataPointQueue dataPointQueue(int testId) {
+      return new DataPointQueue(eventConsumerQueue(DataPointDAO.BatchEvent.class, DataPointDAO.EVENT_NEW_BATCH, e -> e.dataset.testId == testId));
+   }
+
+   /**
+    * Splits the batches published for each dataset into individual datapoints.
+    */
+   private class DataPointQueue {
+      private final BlockingQueue<DataPointDAO.BatchEvent> batches;
+      private final Deque<DataPointDAO.Event> pending = new ArrayDeque<>();
+
+      private DataPointQueue(BlockingQueue<DataPointDAO.BatchEvent> batches) {
+         this.batches = batches;
+      }
+
+      DataPointDAO.Event poll(long timeout, TimeUnit unit) throws InterruptedException {
+         if (pending.isEmpty()) {
+            DataPointDAO.BatchEvent batch = batches.poll(timeout, unit);
+            if (batch == null) {
+               return null;
+            }
+            testSerialization(batch, DataPointDAO.BatchEvent.class);
+            assertEquals(batch.dataPointIds.length, batch.variableIds.length);
+            assertEquals(batch.dataPointIds.length, batch.values.length);
+            DataSetDAO dataset = new DataSetDAO();
+            dataset.id = batch.dataset.id;
+            dataset.testid = batch.dataset.testId;
+            for (int i = 0; i < batch.dataPointIds.length; ++i) {
+               DataPointDAO dataPoint = new DataPointDAO();
+               dataPoint.id = batch.dataPointIds[i];
+               dataPoint.dataset = dataset;
+               dataPoint.timestamp = batch.timestamp;
+               dataPoint.value = batch.values[i];
+               pending.add(new DataPointDAO.Event(dataPoint, batch.dataset.testId, batch.notify));
+            }
+         }
+         return pending.poll();
+      }
+   }
+}
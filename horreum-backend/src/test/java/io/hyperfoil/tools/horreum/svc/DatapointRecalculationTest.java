@@ -0,0 +1,118 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.junit.jupiter.api.TestInfo;
+
+import io.hyperfoil.tools.horreum.api.data.Extractor;
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.services.AlertingService;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.hyperfoil.tools.horreum.test.TestUtil;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(DatapointRecalculationTestProfile.class)
+public class DatapointRecalculationTest extends BaseServiceTest {
+   private static final int NUM_RUNS = 6;
+
+   @Inject
+   MeterRegistry registry;
+
+   @org.junit.jupiter.api.Test
+   public void testChunkedRecalculation(TestInfo info) throws InterruptedException {
+      Test test = createExampleTest(getTestName(info));
+      test.fingerprintLabels = jsonArray("config");
+      test = createTest(test);
+      int testId = test.id;
+      Schema schema = createExampleSchema(info);
+      addLabel(schema, "config", null, new Extractor("config", "$.config", false));
+      addChangeDetectionVariable(test);
+
+      long ts = System.currentTimeMillis();
+      for (int i = 0; i < NUM_RUNS; ++i) {
+         uploadRun(ts + i, ts + i, runWithValue(i, schema).put("config", i % 2 == 0 ? "foo" : "bar"), test.name);
+      }
+      // each uploaded dataset runs change detection for its datapoint
+      TestUtil.eventually(() -> countDatapoints(testId) == NUM_RUNS && changeDetectionPasses(testId) == NUM_RUNS);
+      TestUtil.eventually(() -> TestUtil.isMessageBusEmpty(tm, em));
+
+      List<AlertingService.DatapointRecalculationStatus> progress = recalculateDatapoints(testId);
+      AlertingService.DatapointRecalculationStatus last = progress.get(progress.size() - 1);
+      assertTrue(last.done);
+      assertEquals(100, last.percentage);
+      assertEquals(NUM_RUNS, (int) last.totalDatasets);
+      assertEquals(0, (int) last.errors);
+      // all datasets are processed, so the throughput is known and nothing remains
+      assertNotNull(last.throughput);
+      assertTrue(last.throughput > 0);
+      assertNotNull(last.eta);
+      assertEquals(0, (long) last.eta);
+      for (AlertingService.DatapointRecalculationStatus status : progress) {
+         if (status.throughput != null) {
+            assertNotNull(status.eta);
+            assertTrue(status.eta >= 0);
+         }
+      }
+
+      // every chunk is inserted in its own transaction
+      assertEquals(NUM_RUNS, countDatapoints(testId));
+      assertEquals((NUM_RUNS + DatapointRecalculationTestProfile.CHUNK_SIZE - 1) / DatapointRecalculationTestProfile.CHUNK_SIZE,
+            ((Number) Util.withTx(tm, () -> em.createNativeQuery(
+                  "SELECT COUNT(DISTINCT dp.xmin::::text) FROM datapoint dp JOIN dataset ON dataset.id = dp.dataset_id WHERE dataset.testid = ?1")
+                  .setParameter(1, testId).getSingleResult())).intValue());
+
+      // change detection runs once for each variable and fingerprint, not once per chunk or dataset
+      TestUtil.eventually(() -> changeDetectionPasses(testId) >= NUM_RUNS + 2);
+      Thread.sleep(500);
+      assertEquals(NUM_RUNS + 2, changeDetectionPasses(testId));
+   }
+
+   private List<AlertingService.DatapointRecalculationStatus> recalculateDatapoints(int testId) throws InterruptedException {
+      jsonRequest()
+            .queryParam("test", testId)
+            .post("/api/alerting/recalculate")
+            .then().statusCode(204);
+      List<AlertingService.DatapointRecalculationStatus> progress = new ArrayList<>();
+      for (int i = 0; i < 500; ++i) {
+         AlertingService.DatapointRecalculationStatus status = jsonRequest().queryParam("test", testId).get("/api/alerting/recalculate")
+               .then().statusCode(200).extract().body().as(AlertingService.DatapointRecalculationStatus.class);
+         // the recalculation might not have started yet
+         if (status.totalDatasets != null) {
+            progress.add(status);
+            if (status.done) {
+               return progress;
+            }
+         }
+         Thread.sleep(20);
+      }
+      throw new AssertionError("Recalculation did not complete, last status: " + progress);
+   }
+
+   private long countDatapoints(int testId) {
+      return ((Number) Util.withTx(tm, () -> em.createNativeQuery(
+            "SELECT COUNT(*) FROM datapoint dp JOIN dataset ON dataset.id = dp.dataset_id WHERE dataset.testid = ?1")
+            .setParameter(1, testId).getSingleResult())).longValue();
+   }
+
+   private long changeDetectionPasses(int testId) {
+      return registry.find("horreum.pipeline.stage")
+            .tags("stage", PipelineMetrics.STAGE_CHANGE_DETECTION, "test", String.valueOf(testId))
+            .timers().stream().mapToLong(Timer::count).sum();
+   }
+}
@@ -0,0 +1,20 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class DatapointRecalculationTestProfile extends HorreumTestProfile {
+    // small enough that a handful of runs is split into several chunks
+    static final int CHUNK_SIZE = 2;
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        Map<String, String> map = new HashMap<>(super.getConfigOverrides());
+        map.put("horreum.alerting.recalculation.chunk-size", String.valueOf(CHUNK_SIZE));
+        map.put("horreum.alerting.recalculation.parallelism", "2");
+        map.put("horreum.pipeline.per-test", "true");
+        return map;
+    }
+}
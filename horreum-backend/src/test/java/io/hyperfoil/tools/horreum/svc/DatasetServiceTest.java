@@ -2,6 +2,7 @@ package io.hyperfoil.tools.horreum.svc;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -208,6 +209,50 @@ public class DatasetServiceTest extends BaseServiceTest {
       }, "urn:A", "urn:B");
    }
 
+   @org.junit.jupiter.api.Test
+   public void testDatasetLabelUnchanged() {
+      withExampleSchemas((schemas) -> {
+         int labelA = addLabel(schemas[0], "A", null, new Extractor("value", "$.value", false));
+         int labelB = addLabel(schemas[1], "B", "v => v + 1", new Extractor("value", "$.value", false));
+         Test test = createTest(createExampleTest("dummy"));
+         BlockingQueue<DataSetDAO.LabelsUpdatedEvent> updateQueue = eventConsumerQueue(DataSetDAO.LabelsUpdatedEvent.class, DataSetDAO.EVENT_LABELS_UPDATED, e -> checkTestId(e.datasetId, test.id));
+         withExampleDataset(test, createABData(), ds -> {
+            waitForUpdate(updateQueue, ds);
+            em.clear();
+
+            // same definition, and a different expression that extracts the same value
+            updateLabel(schemas[0], labelA, "A", null, new Extractor("value", "$.value", false));
+            updateLabel(schemas[1], labelB, "B", "v => v + 1", new Extractor("value", "$.\"value\"", false));
+            // label recalculations are processed in order so the change is the first update
+            updateLabel(schemas[1], labelB, "B", "v => v + 2", new Extractor("value", "$.value", false));
+            waitForUpdate(updateQueue, ds);
+            try {
+               assertNull(updateQueue.poll(50, TimeUnit.MILLISECONDS));
+            } catch (InterruptedException e) {
+               fail(e);
+            }
+
+            List<LabelDAO.Value> values = LabelDAO.Value.<LabelDAO.Value>find("dataset_id", ds.id).list();
+            assertEquals(2, values.size());
+            assertEquals(24, values.stream().filter(v -> v.labelId == labelA).map(v -> v.value.numberValue()).findFirst().orElse(null));
+            assertEquals(44, values.stream().filter(v -> v.labelId == labelB).map(v -> v.value.numberValue()).findFirst().orElse(null));
+            return null;
+         });
+      }, "urn:A", "urn:B");
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testDatasetNoLabels() {
+      Test test = createTest(createExampleTest("dummy"));
+      BlockingQueue<DataSetDAO.LabelsUpdatedEvent> updateQueue = eventConsumerQueue(DataSetDAO.LabelsUpdatedEvent.class, DataSetDAO.EVENT_LABELS_UPDATED, e -> checkTestId(e.datasetId, test.id));
+      // new datasets are always announced even if there are no labels to calculate
+      withExampleDataset(test, JsonNodeFactory.instance.objectNode().put("value", 42), ds -> {
+         waitForUpdate(updateQueue, ds);
+         assertEquals(0, LabelDAO.Value.count("dataset_id", ds.id));
+         return null;
+      });
+   }
+
    private List<Label.Value> withLabelValues(ArrayNode data) {
       Test test = createTest(createExampleTest("dummy"));
       BlockingQueue<DataSetDAO.LabelsUpdatedEvent> updateQueue = eventConsumerQueue(DataSetDAO.LabelsUpdatedEvent.class, DataSetDAO.EVENT_LABELS_UPDATED, e -> checkTestId(e.datasetId, test.id));
@@ -0,0 +1,76 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class PipelineMetricsTest {
+   private PipelineMetrics metrics(SimpleMeterRegistry registry, int maxTracked) {
+      PipelineMetrics metrics = new PipelineMetrics();
+      metrics.registry = registry;
+      metrics.maxTrackedUploads = maxTracked;
+      metrics.trackedUploadExpiry = Duration.ofHours(1);
+      metrics.perTest = true;
+      return metrics;
+   }
+
+   @Test
+   public void testStageOutcome() {
+      SimpleMeterRegistry registry = new SimpleMeterRegistry();
+      PipelineMetrics metrics = metrics(registry, 10);
+      assertEquals(42, metrics.time(PipelineMetrics.STAGE_TRANSFORM, 1, () -> 42));
+      assertThrows(IllegalStateException.class, () -> metrics.time(PipelineMetrics.STAGE_TRANSFORM, 1, () -> {
+         throw new IllegalStateException();
+      }));
+      metrics.time(PipelineMetrics.STAGE_LABELS, () -> 2, () -> 0);
+      assertEquals(1, stageTimer(registry, PipelineMetrics.STAGE_TRANSFORM, "1", "success").count());
+      assertEquals(1, stageTimer(registry, PipelineMetrics.STAGE_TRANSFORM, "1", "failure").count());
+      assertEquals(1, stageTimer(registry, PipelineMetrics.STAGE_LABELS, "2", "success").count());
+   }
+
+   @Test
+   public void testWithoutTestTag() {
+      SimpleMeterRegistry registry = new SimpleMeterRegistry();
+      PipelineMetrics metrics = metrics(registry, 10);
+      metrics.perTest = false;
+      metrics.time(PipelineMetrics.STAGE_TRANSFORM, 1, () -> 0);
+      metrics.time(PipelineMetrics.STAGE_TRANSFORM, 2, () -> 0);
+      Timer timer = registry.find("horreum.pipeline.stage").tags("stage", PipelineMetrics.STAGE_TRANSFORM, "outcome", "success").timer();
+      assertNotNull(timer);
+      assertNull(timer.getId().getTag("test"));
+      assertEquals(2, timer.count());
+   }
+
+   @Test
+   public void testUploadToNotification() {
+      SimpleMeterRegistry registry = new SimpleMeterRegistry();
+      PipelineMetrics metrics = metrics(registry, 2);
+      metrics.track(1, System.nanoTime());
+      metrics.track(2, System.nanoTime());
+      metrics.track(3, System.nanoTime());
+      // run 1 is not tracked anymore
+      metrics.notified(1, 10);
+      assertNull(registry.find("horreum.pipeline.upload.to.notification").timer());
+      metrics.notified(2, 10);
+      metrics.notified(3, 10);
+      // only the first notification is recorded
+      metrics.notified(3, 10);
+      Timer timer = registry.find("horreum.pipeline.upload.to.notification").tag("test", "10").timer();
+      assertNotNull(timer);
+      assertEquals(2, timer.count());
+   }
+
+   private static Timer stageTimer(SimpleMeterRegistry registry, String stage, String test, String outcome) {
+      Timer timer = registry.find("horreum.pipeline.stage").tags("stage", stage, "test", test, "outcome", outcome).timer();
+      assertNotNull(timer);
+      return timer;
+   }
+}
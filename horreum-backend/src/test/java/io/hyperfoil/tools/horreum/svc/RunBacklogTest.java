@@ -0,0 +1,125 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+
+import org.junit.jupiter.api.TestInfo;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.api.data.Access;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.services.RunService;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.hyperfoil.tools.horreum.test.TestUtil;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+import io.restassured.RestAssured;
+
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(RunBacklogTestProfile.class)
+public class RunBacklogTest extends BaseServiceTest {
+   private static final String CHANNEL = "upload-backlog";
+   // no tests with these IDs exist, the messages only add to the global backlog
+   private static final int OTHER_TEST_ID_1 = 987654;
+   private static final int OTHER_TEST_ID_2 = 987655;
+
+   @org.junit.jupiter.api.Test
+   public void testBacklogPerTest(TestInfo info) throws Exception {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      try (AutoCloseable ignored = createBacklog(test.id, RunBacklogTestProfile.MAX_PER_TEST)) {
+         assertRejected(addRun(test.name), Response.Status.TOO_MANY_REQUESTS);
+         assertRejected(addRunFromData(test.name), Response.Status.TOO_MANY_REQUESTS);
+
+         // the whole upload is accepted but each item is rejected
+         RunService.BulkResult[] results = addRunsFromData(test.name)
+               .then().statusCode(200).extract().as(RunService.BulkResult[].class);
+         assertEquals(2, results.length);
+         for (RunService.BulkResult result : results) {
+            assertNull(result.runId);
+            assertNotNull(result.error);
+         }
+      }
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testBacklogGlobal(TestInfo info) throws Exception {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      int half = RunBacklogTestProfile.MAX / 2;
+      try (AutoCloseable ignored1 = createBacklog(OTHER_TEST_ID_1, half);
+           AutoCloseable ignored2 = createBacklog(OTHER_TEST_ID_2, RunBacklogTestProfile.MAX - half)) {
+         TestUtil.eventually(() -> messageBus.backlog() >= RunBacklogTestProfile.MAX);
+         // this test has no backlog of its own
+         assertEquals(0, messageBus.backlog(test.id));
+
+         assertRejected(addRun(test.name), Response.Status.SERVICE_UNAVAILABLE);
+         assertRejected(addRunFromData(test.name), Response.Status.SERVICE_UNAVAILABLE);
+         assertRejected(addRunsFromData(test.name), Response.Status.SERVICE_UNAVAILABLE);
+      }
+   }
+
+   // Publishes messages that keep failing and therefore stay in the message bus until they are removed on close
+   private AutoCloseable createBacklog(int testId, int messages) {
+      AtomicInteger counter = new AtomicInteger();
+      AutoCloseable subscription = messageBus.subscribe(CHANNEL, "RunBacklogTest_" + testId, String.class, str -> {
+         counter.incrementAndGet();
+         throw new IllegalStateException("Keeping the message in the backlog");
+      });
+      Util.withTx(tm, () -> {
+         for (int i = 0; i < messages; ++i) {
+            messageBus.publish(CHANNEL, testId, "message" + i);
+         }
+         return null;
+      });
+      TestUtil.eventually(() -> counter.get() >= messages);
+      TestUtil.eventually(() -> messageBus.backlog(testId) == messages);
+      return () -> {
+         subscription.close();
+         Util.withTx(tm, () -> em.createNativeQuery("DELETE FROM messagebus WHERE testid = ?1").setParameter(1, testId).executeUpdate());
+         TestUtil.eventually(() -> messageBus.backlog(testId) == 0);
+      };
+   }
+
+   private io.restassured.response.Response addRun(String testName) {
+      ObjectNode run = JsonNodeFactory.instance.objectNode();
+      String now = Instant.now().toString();
+      run.put("start", now);
+      run.put("stop", now);
+      run.set("data", JsonNodeFactory.instance.objectNode().put("value", 1));
+      return jsonUploaderRequest().body(run.toString())
+            .post("/api/run/test/" + testName + "?owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC);
+   }
+
+   private io.restassured.response.Response addRunFromData(String testName) {
+      long now = System.currentTimeMillis();
+      return jsonUploaderRequest().body(JsonNodeFactory.instance.objectNode().put("value", 1).toString())
+            .post("/api/run/data?start=" + now + "&stop=" + now + "&test=" + testName + "&owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC);
+   }
+
+   private io.restassured.response.Response addRunsFromData(String testName) {
+      List<String> lines = Arrays.asList("{ \"start\": 1000, \"value\": 1 }", "{ \"start\": 2000, \"value\": 2 }");
+      return RestAssured.given().auth().oauth2(getUploaderToken())
+            .header(HttpHeaders.CONTENT_TYPE, RunService.APPLICATION_NDJSON)
+            .body(String.join("\n", lines) + "\n")
+            .post("/api/run/bulk?start=$.start&stop=$.start&test=" + testName + "&owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC);
+   }
+
+   private static void assertRejected(io.restassured.response.Response response, Response.Status status) {
+      response.then().statusCode(status.getStatusCode())
+            .header(HttpHeaders.RETRY_AFTER, String.valueOf(RunBacklogTestProfile.RETRY_AFTER_SECONDS));
+   }
+}
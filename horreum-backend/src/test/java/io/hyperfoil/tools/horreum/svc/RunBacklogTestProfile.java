@@ -0,0 +1,23 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class RunBacklogTestProfile extends HorreumTestProfile {
+    static final int MAX_PER_TEST = 3;
+    static final int MAX = 6;
+    static final int RETRY_AFTER_SECONDS = 7;
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        Map<String, String> map = new HashMap<>(super.getConfigOverrides());
+        map.put("horreum.upload.backlog.max-per-test", String.valueOf(MAX_PER_TEST));
+        map.put("horreum.upload.backlog.max", String.valueOf(MAX));
+        map.put("horreum.upload.backlog.retry-after", RETRY_AFTER_SECONDS + "s");
+        // pick up the pending messages quickly
+        map.put("horreum.messagebus.backlog.refresh", "100ms");
+        return map;
+    }
+}
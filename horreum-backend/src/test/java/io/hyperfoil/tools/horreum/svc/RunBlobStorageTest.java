@@ -0,0 +1,135 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.junit.jupiter.api.TestInfo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.server.CloseMe;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+import io.restassured.RestAssured;
+
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(RunBlobStorageTestProfile.class)
+public class RunBlobStorageTest extends BaseServiceTest {
+
+   @org.junit.jupiter.api.Test
+   public void testUpdateSchema(TestInfo info) {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      Schema schemaA = createExampleSchema(info);
+      Schema schemaB = createSchema(getTestName(info) + ".B", uriForTest(info, "b"));
+
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      data.putObject("summary").put("$schema", schemaA.uri).put("value", 42);
+      data.putObject("raw").put("foo", "bar");
+      int runId = uploadRun(data, test.name);
+
+      // only the part addressed by a schema is kept in run.data
+      assertEquals(1, countBlobs(runId));
+      JsonNode stored = storedData(runId);
+      assertTrue(stored.has("summary"));
+      assertFalse(stored.has("raw"));
+      assertEquals(data, getData(runId));
+
+      // the blob is updated as the raw part is still not addressed by a schema
+      Map<?, ?> schemas = updateSchema(runId, "summary", schemaB.uri);
+      assertEquals(1, schemas.size());
+      assertTrue(schemas.containsValue(schemaB.uri));
+      ((ObjectNode) data.get("summary")).put("$schema", schemaB.uri);
+      assertEquals(1, countBlobs(runId));
+      assertEquals(data, getData(runId));
+
+      // now everything is addressed by a schema; the data are stored in run.data and the blob is removed
+      schemas = updateSchema(runId, "raw", schemaA.uri);
+      assertEquals(2, schemas.size());
+      ((ObjectNode) data.get("raw")).put("$schema", schemaA.uri);
+      assertEquals(0, countBlobs(runId));
+      assertEquals(data, storedData(runId));
+      assertEquals(data, getData(runId));
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testBlobWriteAccess(TestInfo info) {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      Schema schema = createExampleSchema(info);
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      data.putObject("summary").put("$schema", schema.uri).put("value", 42);
+      data.putObject("raw").put("foo", "bar");
+      // the run is public so anyone can read it
+      int runId = uploadRun(data, test.name);
+      assertEquals(1, countBlobs(runId));
+
+      // seeing the run is not enough to modify or remove its data
+      List<String> otherTeam = Arrays.asList("bar-team", "bar-tester", "tester", "viewer");
+      assertEquals(0, modifyBlob(otherTeam, "UPDATE run_blob SET size = 0 WHERE run_id = ?1", runId));
+      assertEquals(0, modifyBlob(otherTeam, "DELETE FROM run_blob WHERE run_id = ?1", runId));
+      // uploaders create runs but do not modify them
+      assertEquals(0, modifyBlob(Arrays.asList(UPLOADER_ROLES), "DELETE FROM run_blob WHERE run_id = ?1", runId));
+      assertEquals(1, countBlobs(runId));
+      assertEquals(data, getData(runId));
+
+      assertEquals(1, modifyBlob(Arrays.asList(TESTER_ROLES), "DELETE FROM run_blob WHERE run_id = ?1", runId));
+      assertEquals(0, countBlobs(runId));
+   }
+
+   private int modifyBlob(List<String> roles, String sql, int runId) {
+      return Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(roles)) {
+            return em.createNativeQuery(sql).setParameter(1, runId).executeUpdate();
+         }
+      });
+   }
+
+   private Map<?, ?> updateSchema(int runId, String path, String uri) {
+      return RestAssured.given().auth().oauth2(getTesterToken())
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN)
+            .queryParam("path", path)
+            .body(uri)
+            .post("/api/run/" + runId + "/schema")
+            .then().statusCode(200)
+            .extract().body().as(Map.class);
+   }
+
+   private JsonNode getData(int runId) {
+      return jsonRequest().get("/api/run/" + runId + "/data").then().statusCode(200).extract().body().as(JsonNode.class);
+   }
+
+   private long countBlobs(int runId) {
+      return Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(SYSTEM_ROLES)) {
+            return ((Number) em.createNativeQuery("SELECT COUNT(*) FROM run_blob WHERE run_id = ?1")
+                  .setParameter(1, runId).getSingleResult()).longValue();
+         }
+      });
+   }
+
+   private JsonNode storedData(int runId) {
+      return Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(SYSTEM_ROLES)) {
+            String json = (String) em.createNativeQuery("SELECT data::::text FROM run WHERE id = ?1")
+                  .setParameter(1, runId).getSingleResult();
+            return Util.toJsonNode(json);
+         }
+      });
+   }
+}
@@ -0,0 +1,15 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class RunBlobStorageTestProfile extends HorreumTestProfile {
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        Map<String, String> map = new HashMap<>(super.getConfigOverrides());
+        map.put("horreum.run.blob-storage", "true");
+        return map;
+    }
+}
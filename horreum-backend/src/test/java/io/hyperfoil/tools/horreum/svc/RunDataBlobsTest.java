@@ -0,0 +1,35 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class RunDataBlobsTest {
+   private static void assertMaterialized(String expected, String data) {
+      JsonNode materialized = RunDataBlobs.materialize(Util.toJsonNode(data));
+      assertEquals(expected == null ? null : Util.toJsonNode(expected), materialized);
+   }
+
+   @Test
+   public void testMaterialize() {
+      assertMaterialized(null, "{ \"$schema\": \"urn:foo\", \"raw\": [1, 2, 3] }");
+      assertMaterialized("{ \"foo\": { \"$schema\": \"urn:foo\" } }", "{ \"foo\": { \"$schema\": \"urn:foo\" }, \"raw\": [1, 2, 3], \"bar\": { \"x\": 1 } }");
+      assertMaterialized(null, "{ \"foo\": { \"$schema\": \"urn:foo\" } }");
+      assertMaterialized("{}", "{ \"raw\": [1, 2, 3] }");
+      assertMaterialized("[{ \"$schema\": \"urn:foo\" }, null, { \"$schema\": \"urn:bar\" }]", "[{ \"$schema\": \"urn:foo\" }, { \"x\": 1 }, { \"$schema\": \"urn:bar\" }]");
+      assertMaterialized(null, "[{ \"$schema\": \"urn:foo\" }, null]");
+      assertMaterialized(null, "42");
+   }
+
+   @Test
+   public void testCompress() throws IOException {
+      JsonNode data = Util.toJsonNode("{ \"foo\": { \"$schema\": \"urn:foo\" }, \"raw\": [1, 2, 3] }");
+      byte[] compressed = RunDataBlobs.compress(data);
+      assertEquals(data, RunDataBlobs.decompressTree(RunDataBlobs.CODEC_GZIP, compressed));
+   }
+}
@@ -0,0 +1,108 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+import java.util.Arrays;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.api.data.Extractor;
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.data.Transformer;
+import io.hyperfoil.tools.horreum.server.CloseMe;
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+
+/**
+ * Compares storage size and transformation latency of runs stored as JSONB with runs
+ * stored as compressed blob + materialized parts. Run with <code>-Dhorreum.benchmark=true</code>.
+ */
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(HorreumTestProfile.class)
+@EnabledIfSystemProperty(named = "horreum.benchmark", matches = "true")
+public class RunDataStorageBenchmarkTest extends BaseServiceTest {
+   private static final Logger log = Logger.getLogger(RunDataStorageBenchmarkTest.class);
+   private static final int RAW_ITEMS = Integer.getInteger("horreum.benchmark.items", 50_000);
+   private static final int ITERATIONS = Integer.getInteger("horreum.benchmark.iterations", 10);
+
+   @org.junit.jupiter.api.Test
+   public void benchmarkStorage() {
+      Test test = createTest(createExampleTest("storage_benchmark"));
+      Schema schema = createSchema("Benchmark", "urn:benchmark");
+      Transformer transformer = createTransformer("sum", schema, "values => ({ sum: values.reduce((a, b) => a + b, 0) })",
+            new Extractor("values", "$.values", false));
+      addTransformer(test, transformer);
+
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      ArrayNode values = data.putObject("summary").put("$schema", schema.uri).putArray("values");
+      for (int i = 0; i < 100; ++i) {
+         values.add(i);
+      }
+      ArrayNode raw = data.putArray("raw");
+      for (int i = 0; i < RAW_ITEMS; ++i) {
+         raw.addObject().put("timestamp", 1_600_000_000_000L + i).put("latency", i * 17 % 1000).put("status", i % 7 == 0 ? "ERROR" : "OK");
+      }
+
+      int jsonbRun = uploadRun(data, test.name);
+      JsonNode materialized = RunDataBlobs.materialize(data);
+      assertNotNull(materialized);
+      byte[] blob = RunDataBlobs.compress(data);
+      int blobRun = uploadRun(materialized, test.name);
+      Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(SYSTEM_ROLES)) {
+            em.createNativeQuery("INSERT INTO run_blob (run_id, codec, size, data) VALUES (?1, ?2, ?3, ?4)")
+                  .setParameter(1, blobRun).setParameter(2, RunDataBlobs.CODEC_GZIP)
+                  .setParameter(3, (long) blob.length).setParameter(4, blob).executeUpdate();
+         }
+         return null;
+      });
+
+      long jsonbSize = columnSize("SELECT pg_column_size(data) FROM run WHERE id = ?1", jsonbRun);
+      long materializedSize = columnSize("SELECT pg_column_size(data) FROM run WHERE id = ?1", blobRun);
+      long blobSize = columnSize("SELECT pg_column_size(data) FROM run_blob WHERE run_id = ?1", blobRun);
+
+      long jsonbLatency = transformLatency(jsonbRun);
+      long blobLatency = transformLatency(blobRun);
+
+      log.infof("JSONB: stored %d bytes, median transform %d us", jsonbSize, jsonbLatency);
+      log.infof("Blob: stored %d + %d bytes, median transform %d us", materializedSize, blobSize, blobLatency);
+   }
+
+   private long columnSize(String query, int runId) {
+      return Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(SYSTEM_ROLES)) {
+            return ((Number) em.createNativeQuery(query).setParameter(1, runId).getSingleResult()).longValue();
+         }
+      });
+   }
+
+   private long transformLatency(int runId) {
+      long[] latencies = new long[ITERATIONS];
+      // warm-up
+      recalculateDataset(runId);
+      for (int i = 0; i < ITERATIONS; ++i) {
+         long start = System.nanoTime();
+         recalculateDataset(runId);
+         latencies[i] = (System.nanoTime() - start) / 1000;
+      }
+      Arrays.sort(latencies);
+      return latencies[ITERATIONS / 2];
+   }
+
+   private void recalculateDataset(int runId) {
+      jsonRequest().post("/api/run/" + runId + "/recalculate").then().statusCode(200);
+   }
+}
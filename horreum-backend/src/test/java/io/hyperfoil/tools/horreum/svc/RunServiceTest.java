@@ -3,10 +3,13 @@ package io.hyperfoil.tools.horreum.svc;
 import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 import javax.ws.rs.core.HttpHeaders;
@@ -14,6 +17,8 @@ import javax.ws.rs.core.HttpHeaders;
 import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
 import io.hyperfoil.tools.horreum.api.data.*;
 import io.hyperfoil.tools.horreum.api.data.Extractor;
+import io.hyperfoil.tools.horreum.api.services.QueryResult;
+import io.hyperfoil.tools.horreum.api.services.RunService;
 import io.hyperfoil.tools.horreum.entity.data.*;
 import org.junit.jupiter.api.TestInfo;
 
@@ -305,6 +310,41 @@ public class RunServiceTest extends BaseServiceTest {
       validateScalarArray(third.dataset, target);
    }
 
+   @org.junit.jupiter.api.Test
+   public void testTransformationMultipleExtractorsSchemaInBothLevels(TestInfo info) throws InterruptedException {
+      Schema schemaA = createExampleSchema("Mea", "Mea", "Mea", false);
+      Schema schemaB = createExampleSchema("Meb", "Meb", "Meb", false);
+      Transformer transformer = createTransformer("sum", schemaA,
+            "({ value, values }) => ({ sum: value + values.reduce((a, b) => a + b, 0) })",
+            new Extractor("value", "$.value", false), new Extractor("values", "$.values", false));
+
+      Test test = createTest(createExampleTest(getTestName(info)));
+      addTransformer(test, transformer);
+
+      BlockingQueue<DataSetDAO.EventNew> dataSetQueue = eventConsumerQueue(DataSetDAO.EventNew.class, DataSetDAO.EVENT_NEW, e -> e.dataset.testid.equals(test.id));
+
+      ObjectNode data = runWithValue(42, schemaA);
+      data.set("nestedA", runWithValue(52, schemaA));
+      data.set("nestedB", runWithValue(62, schemaB));
+      uploadRun(data, test.name);
+
+      // each instance of schema A produces a dataset, the part without transformer is added to both
+      DataSetDAO.EventNew first = dataSetQueue.poll(POLL_DURATION_SECONDS, TimeUnit.SECONDS);
+      DataSetDAO.EventNew second = dataSetQueue.poll(POLL_DURATION_SECONDS, TimeUnit.SECONDS);
+      assertNotNull(first);
+      assertNotNull(second);
+      List<DataSetDAO> datasets = Stream.of(first.dataset, second.dataset)
+            .sorted(Comparator.comparingInt(ds -> ds.ordinal)).collect(Collectors.toList());
+      for (DataSetDAO dataset : datasets) {
+         assertEquals(2, dataset.data.size());
+         assertEquals(62, getBySchema(dataset, schemaB).path("value").intValue());
+      }
+      assertEquals(42 + 43 + 44 + 45, datasets.get(0).data.path(0).path("sum").intValue());
+      assertEquals(52 + 53 + 54 + 55, datasets.get(1).data.path(0).path("sum").intValue());
+
+      assertNull(dataSetQueue.poll(50, TimeUnit.MILLISECONDS));
+   }
+
    @org.junit.jupiter.api.Test
    public void testTransformationChoosingSchema(TestInfo info) throws InterruptedException {
       Schema schemaA = createExampleSchema("Aba", "Aba", "Aba", false);
@@ -457,6 +497,41 @@ public class RunServiceTest extends BaseServiceTest {
       assertEquals(expectedTarget, arrayTarget);
    }
 
+   @org.junit.jupiter.api.Test
+   public void testOriginalDataFromBlob(TestInfo info) {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      Schema schema = createExampleSchema(info);
+
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      data.putObject("summary").put("$schema", schema.uri).put("value", 42);
+      data.putArray("raw").add(1).add(2).add(3);
+      JsonNode materialized = RunDataBlobs.materialize(data);
+      assertNotNull(materialized);
+      assertFalse(materialized.has("raw"));
+
+      int runId = uploadRun(materialized, test.name);
+      byte[] blob = RunDataBlobs.compress(data);
+      Util.withTx(tm, () -> {
+         try (CloseMe ignored = roleManager.withRoles(SYSTEM_ROLES)) {
+            em.createNativeQuery("INSERT INTO run_blob (run_id, codec, size, data) VALUES (?1, ?2, ?3, ?4)")
+                  .setParameter(1, runId).setParameter(2, RunDataBlobs.CODEC_GZIP)
+                  .setParameter(3, (long) blob.length).setParameter(4, blob).executeUpdate();
+         }
+         return null;
+      });
+
+      RunService.RunExtended run = jsonRequest().get("/api/run/" + runId).then().statusCode(200)
+            .extract().body().as(RunService.RunExtended.class);
+      assertEquals(data, run.data);
+
+      QueryResult result = jsonRequest().queryParam("query", "$.raw[1]").get("/api/run/" + runId + "/query")
+            .then().statusCode(200).extract().body().as(QueryResult.class);
+      assertTrue(result.valid);
+      assertEquals("2", result.value);
+
+      assertEquals(data, getData(runId, null));
+   }
+
    @org.junit.jupiter.api.Test
    public void testUploadToPrivateTest() {
       Test test = createExampleTest("supersecret");
@@ -497,6 +572,101 @@ public class RunServiceTest extends BaseServiceTest {
             .extract().asString();
    }
 
+   @org.junit.jupiter.api.Test
+   public void testBulkUpload() {
+      Test test = createTest(createExampleTest("bulk"));
+
+      String data = "{ \"start\": 1000, \"value\": 1 }\n" +
+            "{ \"value\": 2 }\n" +
+            "{ \"start\": 3000, \"value\": 3 }\n" +
+            "{ not a JSON";
+      RunService.BulkResult[] results = RestAssured.given().auth().oauth2(getUploaderToken())
+            .header(HttpHeaders.CONTENT_TYPE, RunService.APPLICATION_NDJSON)
+            .body(data)
+            .post("/api/run/bulk?start=$.start&stop=$.start&test=" + test.name + "&owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC)
+            .then()
+            .statusCode(200)
+            .extract().as(RunService.BulkResult[].class);
+      assertEquals(4, results.length);
+      for (int i = 0; i < results.length; ++i) {
+         assertEquals(i, results[i].index);
+      }
+      assertNotNull(results[0].runId);
+      assertNull(results[0].error);
+      assertNull(results[1].runId);
+      assertNotNull(results[1].error);
+      assertNotNull(results[2].runId);
+      assertNull(results[3].runId);
+      assertNotNull(results[3].error);
+
+      assertEquals(1, getData(results[0].runId, null).path("value").asInt());
+      assertEquals(3, getData(results[2].runId, null).path("value").asInt());
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testBulkUploadMalformedLine() {
+      Test test = createTest(createExampleTest("bulk_malformed"));
+
+      String data = "{ \"start\": 1000, \"value\": 1 }\n" +
+            "{ \"start\": 2000, \"value\": \n" +
+            "{ \"start\": 3000, \"value\": 3 }\n" +
+            "\n" +
+            "{ \"start\": 4000 } { \"start\": 4001 }\n" +
+            "{ \"start\": 5000, \"value\": 5 }\n";
+      RunService.BulkResult[] results = RestAssured.given().auth().oauth2(getUploaderToken())
+            .header(HttpHeaders.CONTENT_TYPE, RunService.APPLICATION_NDJSON)
+            .body(data)
+            .post("/api/run/bulk?start=$.start&stop=$.start&test=" + test.name + "&owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC)
+            .then()
+            .statusCode(200)
+            .extract().as(RunService.BulkResult[].class);
+      // blank lines are skipped, malformed lines are reported and the items after them are still processed
+      assertEquals(5, results.length);
+      for (int i = 0; i < results.length; ++i) {
+         assertEquals(i, results[i].index);
+      }
+      assertNotNull(results[0].runId);
+      assertNull(results[1].runId);
+      assertNotNull(results[1].error);
+      assertNotNull(results[2].runId);
+      assertNull(results[3].runId);
+      assertNotNull(results[3].error);
+      assertNotNull(results[4].runId);
+      assertNull(results[4].error);
+
+      assertEquals(1, getData(results[0].runId, null).path("value").asInt());
+      assertEquals(3, getData(results[2].runId, null).path("value").asInt());
+      assertEquals(5, getData(results[4].runId, null).path("value").asInt());
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testBulkUploadBlankLineBeforeMalformed() {
+      Test test = createTest(createExampleTest("bulk_blank"));
+
+      String data = "{ \"start\": 1000, \"value\": 1 }\n" +
+            "\n" +
+            "  \n" +
+            "{ \"start\": 2000, \"value\": \n" +
+            "{ \"start\": 3000, \"value\": 3 }\n";
+      RunService.BulkResult[] results = RestAssured.given().auth().oauth2(getUploaderToken())
+            .header(HttpHeaders.CONTENT_TYPE, RunService.APPLICATION_NDJSON)
+            .body(data)
+            .post("/api/run/bulk?start=$.start&stop=$.start&test=" + test.name + "&owner=" + UPLOADER_ROLES[0] + "&access=" + Access.PUBLIC)
+            .then()
+            .statusCode(200)
+            .extract().as(RunService.BulkResult[].class);
+      // the index counts records, blank lines are not counted
+      assertEquals(3, results.length);
+      assertEquals(0, results[0].index);
+      assertNotNull(results[0].runId);
+      assertEquals(1, results[1].index);
+      assertNull(results[1].runId);
+      assertNotNull(results[1].error);
+      assertEquals(2, results[2].index);
+      assertNotNull(results[2].runId);
+      assertEquals(3, getData(results[2].runId, null).path("value").asInt());
+   }
+
    @org.junit.jupiter.api.Test
    public void testRetrieveData() {
       Test test = createTest(createExampleTest("dummy"));
@@ -0,0 +1,117 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+
+import org.junit.jupiter.api.TestInfo;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.api.data.Access;
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.services.RunService;
+import io.hyperfoil.tools.horreum.entity.data.RunDAO;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+import io.restassured.RestAssured;
+import io.restassured.specification.RequestSpecification;
+
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(RunStreamingUploadTestProfile.class)
+public class RunStreamingUploadTest extends BaseServiceTest {
+
+   @org.junit.jupiter.api.Test
+   public void testObjectWithSchemaOverride(TestInfo info) throws InterruptedException {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      Schema schema = createExampleSchema(info);
+      BlockingQueue<RunDAO.Event> runQueue = eventConsumerQueue(RunDAO.Event.class, RunDAO.EVENT_NEW, e -> e.testId == test.id);
+
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      data.put("value", 42);
+      data.putObject("info").put("started", 1000).put("finished", "1970-01-01T00:00:02Z").put("description", "Streamed run");
+      data.put("padding", padding());
+
+      int runId = uploadFile(data, test.name, "$.info.started", "$.info.finished", "$.info.description", schema.uri);
+
+      RunService.RunExtended run = jsonRequest().get("/api/run/" + runId).then().statusCode(200)
+            .extract().body().as(RunService.RunExtended.class);
+      assertEquals(test.id, run.testid);
+      assertEquals(Instant.ofEpochMilli(1000), run.start);
+      assertEquals(Instant.ofEpochMilli(2000), run.stop);
+      assertEquals("Streamed run", run.description);
+      assertEquals(UPLOADER_ROLES[0], run.owner);
+
+      ObjectNode expected = data.deepCopy().put("$schema", schema.uri);
+      assertEquals(expected, getData(runId));
+
+      RunDAO.Event event = runQueue.poll(10, TimeUnit.SECONDS);
+      assertNotNull(event);
+      assertEquals(runId, event.runId);
+   }
+
+   @org.junit.jupiter.api.Test
+   public void testArrayWithSchemaOverride(TestInfo info) throws InterruptedException {
+      Test test = createTest(createExampleTest(getTestName(info)));
+      Schema schema = createExampleSchema(info);
+      Schema otherSchema = createSchema(getTestName(info) + ".other", uriForTest(info, "other"));
+      BlockingQueue<RunDAO.Event> runQueue = eventConsumerQueue(RunDAO.Event.class, RunDAO.EVENT_NEW, e -> e.testId == test.id);
+
+      ArrayNode data = JsonNodeFactory.instance.arrayNode();
+      data.addObject().put("value", 1).put("padding", padding());
+      data.addObject().put("$schema", otherSchema.uri).put("value", 2);
+      data.add(3);
+
+      int runId = uploadFile(data, test.name, "1000", "2000", null, schema.uri);
+
+      // only objects without a schema get the override
+      ArrayNode expected = data.deepCopy();
+      ((ObjectNode) expected.get(0)).put("$schema", schema.uri);
+      assertEquals(expected, getData(runId));
+
+      RunDAO.Event event = runQueue.poll(10, TimeUnit.SECONDS);
+      assertNotNull(event);
+      assertEquals(runId, event.runId);
+   }
+
+   private static String padding() {
+      return "x".repeat(2 * RunStreamingUploadTestProfile.THRESHOLD);
+   }
+
+   private int uploadFile(JsonNode data, String test, String start, String stop, String description, String schemaUri) {
+      byte[] bytes = data.toString().getBytes(StandardCharsets.UTF_8);
+      assertTrue(bytes.length >= RunStreamingUploadTestProfile.THRESHOLD);
+      RequestSpecification request = RestAssured.given().auth().oauth2(getUploaderToken())
+            .header(HttpHeaders.CONTENT_TYPE, MediaType.MULTIPART_FORM_DATA)
+            .multiPart("data", "data.json", bytes, MediaType.APPLICATION_JSON)
+            .queryParam("start", start).queryParam("stop", stop).queryParam("test", test)
+            .queryParam("owner", UPLOADER_ROLES[0]).queryParam("access", Access.PUBLIC)
+            .queryParam("schema", schemaUri);
+      if (description != null) {
+         request = request.queryParam("description", description);
+      }
+      String runIdString = request.post("/api/run/data").then().statusCode(200).extract().asString();
+      return Integer.parseInt(runIdString);
+   }
+
+   private JsonNode getData(int runId) {
+      return jsonRequest().get("/api/run/" + runId + "/data").then().statusCode(200).extract().body().as(JsonNode.class);
+   }
+}
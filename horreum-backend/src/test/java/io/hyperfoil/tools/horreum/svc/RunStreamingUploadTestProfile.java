@@ -0,0 +1,18 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class RunStreamingUploadTestProfile extends HorreumTestProfile {
+    // uploads in this test are padded above this size
+    static final int THRESHOLD = 1024;
+
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        Map<String, String> map = new HashMap<>(super.getConfigOverrides());
+        map.put("horreum.upload.streaming.threshold", String.valueOf(THRESHOLD));
+        return map;
+    }
+}
@@ -0,0 +1,51 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.core.JsonToken;
+
+public class StreamingJsonPathsTest {
+   private static StreamingJsonPaths scan(String json, String... paths) throws IOException {
+      return new StreamingJsonPaths(Arrays.asList(paths)).scan(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+   }
+
+   @Test
+   public void testExtract() throws IOException {
+      String json = "{ \"big\": { \"x\": [1, 2, 3] }, \"info\": { \"test\": \"foo\", \"start\": 1234, \"stop\": 1.5e3 }, " +
+            "\"runs\": [ { \"description\": \"first\" }, { \"description\": \"second\" } ], \"nothing\": null }";
+      StreamingJsonPaths found = scan(json, "$.info.test", "$.info.start", "$['info']['stop']", "$.runs[1].description", "$.nothing", "$.missing");
+      assertEquals(JsonToken.START_OBJECT, found.rootToken());
+      assertEquals("foo", found.get("$.info.test"));
+      assertEquals(1234L, found.get("$.info.start"));
+      assertEquals(1500L, found.get("$['info']['stop']"));
+      assertEquals("second", found.get("$.runs[1].description"));
+      assertNull(found.get("$.nothing"));
+      assertNull(found.get("$.missing"));
+   }
+
+   @Test
+   public void testSupported() {
+      assertTrue(StreamingJsonPaths.isSupported("$.foo.bar"));
+      assertTrue(StreamingJsonPaths.isSupported("$.foo[0]['bar']"));
+      assertFalse(StreamingJsonPaths.isSupported("$..foo"));
+      assertFalse(StreamingJsonPaths.isSupported("$.foo[*]"));
+      assertFalse(StreamingJsonPaths.isSupported("$.foo[?(@.x)]"));
+   }
+
+   @Test
+   public void testInvalid() {
+      assertThrows(IOException.class, () -> scan("{ \"foo\": [1, 2 }", "$.bar"));
+      assertThrows(IOException.class, () -> scan("{} {}", "$.bar"));
+   }
+}
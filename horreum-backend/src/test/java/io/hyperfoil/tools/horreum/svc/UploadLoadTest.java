@@ -0,0 +1,96 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.api.data.Extractor;
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.data.Transformer;
+import io.hyperfoil.tools.horreum.test.HorreumTestProfile;
+import io.hyperfoil.tools.horreum.test.PostgresResource;
+import io.quarkus.test.common.QuarkusTestResource;
+import io.quarkus.test.junit.QuarkusTest;
+import io.quarkus.test.junit.TestProfile;
+import io.quarkus.test.oidc.server.OidcWiremockTestResource;
+
+/**
+ * Measures latency of run uploads while many uploads (each followed by transformation and validation)
+ * are running concurrently. Run with <code>-Dhorreum.loadtest=true</code>; compare the results with
+ * <code>-Dhorreum.blocking.mode=worker|pooled|virtual</code>.
+ */
+@QuarkusTest
+@QuarkusTestResource(PostgresResource.class)
+@QuarkusTestResource(OidcWiremockTestResource.class)
+@TestProfile(HorreumTestProfile.class)
+@EnabledIfSystemProperty(named = "horreum.loadtest", matches = "true")
+public class UploadLoadTest extends BaseServiceTest {
+   private static final Logger log = Logger.getLogger(UploadLoadTest.class);
+   private static final int CONCURRENCY = Integer.getInteger("horreum.loadtest.concurrency", 200);
+   private static final int UPLOADS = Integer.getInteger("horreum.loadtest.uploads", 2000);
+
+   @Inject
+   BlockingExecutor blockingExecutor;
+
+   @org.junit.jupiter.api.Test
+   public void testConcurrentUploads() throws InterruptedException, ExecutionException {
+      Test test = createTest(createExampleTest("upload_load"));
+      Schema schema = createSchema("Load", "urn:load");
+      Transformer transformer = createTransformer("sum", schema, "values => ({ sum: values.reduce((a, b) => a + b, 0) })",
+            new Extractor("values", "$.values", false));
+      addTransformer(test, transformer);
+
+      ObjectNode data = JsonNodeFactory.instance.objectNode();
+      ArrayNode values = data.put("$schema", schema.uri).putArray("values");
+      for (int i = 0; i < 100; ++i) {
+         values.add(i);
+      }
+      // warm-up
+      uploadRun(data, test.name);
+
+      ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+      try {
+         List<Future<Long>> futures = new ArrayList<>(UPLOADS);
+         long start = System.nanoTime();
+         for (int i = 0; i < UPLOADS; ++i) {
+            futures.add(clients.submit(() -> {
+               long requestStart = System.nanoTime();
+               uploadRun(data, test.name);
+               return (System.nanoTime() - requestStart) / 1000;
+            }));
+         }
+         long[] latencies = new long[UPLOADS];
+         for (int i = 0; i < UPLOADS; ++i) {
+            latencies[i] = futures.get(i).get();
+         }
+         long duration = System.nanoTime() - start;
+         assertEquals(UPLOADS, latencies.length);
+         Arrays.sort(latencies);
+         log.infof("Mode %s, %d concurrent clients: %d uploads in %d ms, latency p50 %d us, p95 %d us, p99 %d us, max %d us",
+               blockingExecutor.mode(), CONCURRENCY, UPLOADS, duration / 1_000_000,
+               percentile(latencies, 0.5), percentile(latencies, 0.95), percentile(latencies, 0.99), latencies[UPLOADS - 1]);
+      } finally {
+         clients.shutdownNow();
+      }
+   }
+
+   private static long percentile(long[] sorted, double p) {
+      return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+   }
+}
@@ -0,0 +1,78 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+public class UtilTest {
+   private static void assertJson(String expected, JsonNode actual) {
+      assertEquals(Util.toJsonNode(expected).toString(), String.valueOf(actual));
+   }
+
+   private static JsonNode evaluate(String function, String input) {
+      return Util.evaluateOnce(function, Util.toJsonNode(input), Util::convertToJson,
+            (code, t) -> { throw new AssertionError(code, t); }, output -> {});
+   }
+
+   @Test
+   public void testEvaluateProxiedInput() {
+      String input = "{ \"a\": { \"b\": [1, 2.5, \"x\", null] }, \"c\": true }";
+      assertJson("[2,5,\"xx\",0]", evaluate("v => v.a.b.map(x => x + x)", input));
+      assertJson("[\"a\",\"c\"]", evaluate("v => Object.keys(v)", input));
+      assertJson("\"undefined\"", evaluate("v => typeof v.missing", input));
+      assertJson(input, evaluate("v => v", input));
+      assertJson(input, evaluate("v => JSON.parse(JSON.stringify(v))", input));
+   }
+
+   @Test
+   public void testModificationDoesNotLeak() {
+      JsonNode input = Util.toJsonNode("{ \"a\": [1, 2], \"b\": 3 }");
+      JsonNode copy = input.deepCopy();
+      JsonNode result = Util.evaluateOnce("v => { v.a[2] = 3; v.c = v.b; delete v.b; return v; }", input, Util::convertToJson,
+            (code, t) -> { throw new AssertionError(code, t); }, output -> {});
+      assertJson("{ \"a\": [1, 2, 3], \"c\": 3 }", result);
+      assertEquals(copy, input);
+   }
+
+   @Test
+   public void testEvaluateMany() {
+      List<String> rows = List.of("1", "2", "3");
+      List<JsonNode> results = new ArrayList<>();
+      List<String> errors = new ArrayList<>();
+      Util.evaluateMany(rows, row -> "2".equals(row) ? "x => { throw new Error('boom') }" : "x => x * 10", Util::toJsonNode,
+            (row, value) -> results.add(Util.convertToJson(value)), row -> {}, (row, t, code) -> errors.add(row), output -> {});
+      assertEquals(2, results.size());
+      assertJson("10", results.get(0));
+      assertJson("30", results.get(1));
+      assertEquals(List.of("2"), errors);
+   }
+
+   @Test
+   public void testGlobalStateDoesNotLeak() {
+      // all rows are evaluated in the same context
+      List<String> functions = List.of(
+            "x => { leaked = 1; globalThis.other = 2; Array.prototype.map = () => 'hacked'; JSON.stringify = () => 'hacked'; Object.prototype.injected = 3; return x; }",
+            "x => x); let smuggled = 4; (x => x",
+            "x => [typeof leaked, typeof other, typeof smuggled, [1, 2].map(i => i * 2), JSON.stringify({ a: 1 }), typeof ({}).injected]");
+      List<JsonNode> results = new ArrayList<>();
+      Util.evaluateMany(functions, row -> row, row -> Util.toJsonNode("{}"),
+            (row, value) -> results.add(Util.convertToJson(value)), row -> {}, (row, t, code) -> {}, output -> {});
+      assertJson("[\"undefined\",\"undefined\",\"undefined\",[2,4],\"{\\\"a\\\":1}\",\"undefined\"]", results.get(results.size() - 1));
+   }
+
+   @Test
+   public void testNotAFunction() {
+      List<String> codes = new ArrayList<>();
+      JsonNode result = Util.evaluateOnce("42", Util.toJsonNode("{}"), Util::convertToJson, (code, t) -> codes.add(code), output -> {});
+      assertNull(result);
+      assertEquals(1, codes.size());
+      assertNotNull(codes.get(0));
+   }
+}
@@ -0,0 +1,48 @@
+package io.hyperfoil.tools.horreum.action;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.benchmark.Payloads;
+
+/**
+ * Expansion of <code>${path}</code> expressions in action templates against the run payload.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ActionUtilBenchmark {
+   private static final String TEMPLATE = "Run ${$.info.benchmark} (version ${ $.info.version }) on ${$.info.environment.nodes} nodes, " +
+         "started ${$.start}, stopped ${$.stop}; first metric ${$.metrics[0].name} [${$.metrics[0].unit}]";
+
+   @Param({ "10240", "1048576" })
+   long payloadSize;
+
+   private ObjectNode run;
+
+   @Setup
+   public void setup() {
+      run = Payloads.run(payloadSize, 42);
+   }
+
+   @Benchmark
+   public String replaceExpressions() {
+      return ActionUtil.replaceExpressions(TEMPLATE, run);
+   }
+}
@@ -0,0 +1,70 @@
+package io.hyperfoil.tools.horreum.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.svc.Util;
+
+/**
+ * Runs the benchmarks (accepting the usual JMH command-line options) and writes the results
+ * as a JSON document that can be uploaded to Horreum as run data.
+ */
+public final class BenchmarkRunner {
+   public static final String SCHEMA_URI = "urn:horreum-benchmarks:0.1";
+   public static final String OUTPUT_PROPERTY = "horreum.benchmark.output";
+   public static final String COMMIT_PROPERTY = "horreum.benchmark.commit";
+
+   private BenchmarkRunner() {}
+
+   public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+      long start = System.currentTimeMillis();
+      Collection<RunResult> results = new Runner(new OptionsBuilder().parent(new CommandLineOptions(args)).build()).run();
+      long stop = System.currentTimeMillis();
+
+      File output = new File(System.getProperty(OUTPUT_PROPERTY, "horreum-benchmarks.json"));
+      Util.OBJECT_MAPPER.writerWithDefaultPrettyPrinter().writeValue(output, toJson(results, start, stop));
+      System.out.println("Results written to " + output.getAbsolutePath());
+   }
+
+   static ObjectNode toJson(Collection<RunResult> results, long start, long stop) {
+      ObjectNode root = JsonNodeFactory.instance.objectNode();
+      root.put("$schema", SCHEMA_URI);
+      root.put("start", start);
+      root.put("stop", stop);
+      root.put("javaVersion", System.getProperty("java.version"));
+      root.put("javaVm", System.getProperty("java.vm.name"));
+      root.put("availableProcessors", Runtime.getRuntime().availableProcessors());
+      root.put("commit", System.getProperty(COMMIT_PROPERTY));
+      ArrayNode array = root.putArray("results");
+      for (RunResult result : results) {
+         BenchmarkParams params = result.getParams();
+         Result<?> primary = result.getPrimaryResult();
+         ObjectNode item = array.addObject();
+         item.put("benchmark", params.getBenchmark());
+         item.put("mode", params.getMode().shortLabel());
+         ObjectNode paramsNode = item.putObject("params");
+         for (String key : params.getParamsKeys()) {
+            paramsNode.put(key, params.getParam(key));
+         }
+         item.put("score", primary.getScore());
+         item.put("error", Double.isNaN(primary.getScoreError()) ? 0 : primary.getScoreError());
+         item.put("unit", primary.getScoreUnit());
+         item.put("samples", primary.getSampleCount());
+      }
+      return root;
+   }
+}
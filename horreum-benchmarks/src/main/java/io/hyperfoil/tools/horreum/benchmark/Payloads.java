@@ -0,0 +1,89 @@
+package io.hyperfoil.tools.horreum.benchmark;
+
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Generates run payloads resembling results of a load driver: some metadata and a list of metrics,
+ * each with a series of samples. The same size and seed always produce the same payload.
+ */
+public final class Payloads {
+   public static final String SCHEMA_URI = "urn:horreum-benchmarks:payload:0.1";
+   private static final int SAMPLES_PER_METRIC = 100;
+
+   private Payloads() {}
+
+   /**
+    * @param size Approximate size of the serialized payload in bytes.
+    */
+   public static ObjectNode run(long size, long seed) {
+      Random random = new Random(seed);
+      ObjectNode run = JsonNodeFactory.instance.objectNode();
+      run.put("$schema", SCHEMA_URI);
+      run.put("start", 1_600_000_000_000L);
+      run.put("stop", 1_600_000_600_000L);
+      ObjectNode info = run.putObject("info");
+      info.put("benchmark", "generated");
+      info.put("version", "1.0." + random.nextInt(100));
+      info.putObject("environment").put("nodes", 3).put("cpus", 16).put("memory", "64G");
+      ArrayNode metrics = run.putArray("metrics");
+      int metricSize = metric(0, new Random(seed)).toString().length();
+      long count = Math.max(1, (size - run.toString().length()) / metricSize);
+      for (int i = 0; i < count; ++i) {
+         metrics.add(metric(i, random));
+      }
+      return run;
+   }
+
+   private static ObjectNode metric(int index, Random random) {
+      ObjectNode metric = JsonNodeFactory.instance.objectNode();
+      metric.put("name", "metric-" + index);
+      metric.put("unit", index % 2 == 0 ? "ms" : "ops/s");
+      metric.putObject("tags").put("phase", "steady-state").put("host", "host-" + (index % 8));
+      ArrayNode samples = metric.putArray("samples");
+      double base = 100 + random.nextInt(900);
+      for (int i = 0; i < SAMPLES_PER_METRIC; ++i) {
+         samples.add(Math.round((base + random.nextGaussian() * base / 20) * 1000) / 1000.0);
+      }
+      return metric;
+   }
+
+   /**
+    * JSON schema matching the generated payloads.
+    */
+   public static ObjectNode schema() {
+      ObjectNode schema = JsonNodeFactory.instance.objectNode();
+      schema.put("$schema", "http://json-schema.org/draft-07/schema#");
+      schema.put("$id", SCHEMA_URI);
+      schema.put("type", "object");
+      schema.putArray("required").add("start").add("stop").add("metrics");
+      ObjectNode properties = schema.putObject("properties");
+      properties.putObject("start").put("type", "integer");
+      properties.putObject("stop").put("type", "integer");
+      properties.putObject("info").put("type", "object");
+      ObjectNode metric = properties.putObject("metrics").put("type", "array").putObject("items");
+      metric.put("type", "object");
+      metric.putArray("required").add("name").add("samples");
+      ObjectNode metricProperties = metric.putObject("properties");
+      metricProperties.putObject("name").put("type", "string");
+      metricProperties.putObject("unit").put("type", "string").putArray("enum").add("ms").add("ops/s");
+      metricProperties.putObject("tags").put("type", "object").putObject("additionalProperties").put("type", "string");
+      metricProperties.putObject("samples").put("type", "array").putObject("items").put("type", "number");
+      return schema;
+   }
+
+   /**
+    * Values of a datapoint series with given relative noise around a stable mean.
+    */
+   public static double[] series(int size, double noise, long seed) {
+      Random random = new Random(seed);
+      double[] values = new double[size];
+      for (int i = 0; i < size; ++i) {
+         values[i] = 1000 * (1 + random.nextGaussian() * noise);
+      }
+      return values;
+   }
+}
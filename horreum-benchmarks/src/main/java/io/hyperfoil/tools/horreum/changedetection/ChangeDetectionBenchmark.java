@@ -0,0 +1,76 @@
+package io.hyperfoil.tools.horreum.changedetection;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.benchmark.Payloads;
+
+/**
+ * Change detection over a series of datapoints, as during recalculation: each datapoint is added
+ * to the series and analyzed. The values are stable so that no change is emitted; emitting a change
+ * loads the entities from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChangeDetectionBenchmark {
+   @Param({ "10", "1000", "100000" })
+   int datapoints;
+
+   @Param({ "1", "10" })
+   int window;
+
+   private final RelativeDifferenceChangeDetectionModel relativeDifference = new RelativeDifferenceChangeDetectionModel();
+   private final FixedThresholdModel fixedThreshold = new FixedThresholdModel();
+   private double[] values;
+   private JsonNode relativeDifferenceConfig;
+   private JsonNode fixedThresholdConfig;
+
+   @Setup
+   public void setup() {
+      values = Payloads.series(datapoints, 0.01, 42);
+      relativeDifferenceConfig = JsonNodeFactory.instance.objectNode()
+            .put("threshold", 0.2).put("window", window).put("minPrevious", 5).put("filter", "mean");
+      ObjectNode fixed = JsonNodeFactory.instance.objectNode();
+      fixed.putObject("min").put("enabled", true).put("inclusive", true).put("value", 0);
+      fixed.putObject("max").put("enabled", true).put("inclusive", true).put("value", 1_000_000);
+      fixedThresholdConfig = fixed;
+   }
+
+   @Benchmark
+   public void relativeDifference(Blackhole blackhole) {
+      analyzeAll(relativeDifference, relativeDifferenceConfig, blackhole);
+   }
+
+   @Benchmark
+   public void fixedThreshold(Blackhole blackhole) {
+      analyzeAll(fixedThreshold, fixedThresholdConfig, blackhole);
+   }
+
+   private void analyzeAll(ChangeDetectionModel model, JsonNode config, Blackhole blackhole) {
+      DataPointSeries series = new DataPointSeries(model.window(config));
+      for (int i = 0; i < values.length; ++i) {
+         series.add(i, i, 1_600_000_000_000L + i * 60_000L, values[i]);
+         model.analyze(series, config, blackhole::consume);
+      }
+   }
+}
@@ -0,0 +1,73 @@
+package io.hyperfoil.tools.horreum.experiment;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+
+import io.hyperfoil.tools.horreum.api.services.ExperimentService;
+import io.hyperfoil.tools.horreum.benchmark.Payloads;
+import io.hyperfoil.tools.horreum.entity.alerting.DataPointDAO;
+
+/**
+ * Comparison of a new datapoint against baseline in experiments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExperimentModelBenchmark {
+   @Param({ "10", "1000", "100000" })
+   int baselineSize;
+
+   // 0 = whole baseline
+   @Param({ "0", "10" })
+   int maxBaselineDatasets;
+
+   private final RelativeDifferenceExperimentModel model = new RelativeDifferenceExperimentModel();
+   private List<DataPointDAO> baseline;
+   private DataPointDAO datapoint;
+   private JsonNode config;
+
+   @Setup
+   public void setup() {
+      double[] values = Payloads.series(baselineSize + 1, 0.05, 42);
+      baseline = new ArrayList<>(baselineSize);
+      for (int i = 0; i < baselineSize; ++i) {
+         baseline.add(datapoint(i, values[i]));
+      }
+      datapoint = datapoint(baselineSize, values[baselineSize]);
+      config = JsonNodeFactory.instance.objectNode()
+            .put("threshold", 0.1).put("greaterBetter", true).put("maxBaselineDatasets", maxBaselineDatasets);
+   }
+
+   private static DataPointDAO datapoint(int id, double value) {
+      DataPointDAO dp = new DataPointDAO();
+      dp.id = id;
+      dp.timestamp = Instant.ofEpochMilli(1_600_000_000_000L + id * 60_000L);
+      dp.value = value;
+      return dp;
+   }
+
+   @Benchmark
+   public ExperimentService.ComparisonResult relativeDifference() {
+      return model.compare(config, baseline, datapoint);
+   }
+}
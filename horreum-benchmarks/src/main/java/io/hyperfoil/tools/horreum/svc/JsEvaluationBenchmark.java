@@ -0,0 +1,82 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.benchmark.Payloads;
+
+/**
+ * Evaluation of JavaScript functions (transformers, labels) through the context pool,
+ * with and without conversion of the result back to JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsEvaluationBenchmark {
+   // Transformer-like function reading the whole run
+   private static final String SUMMARY = "run => run.metrics.map(m => ({ name: m.name, mean: m.samples.reduce((a, b) => a + b, 0) / m.samples.length }))";
+   // Label-like function reading value extracted by JSONPath
+   private static final String LABEL = "samples => samples.reduce((a, b) => Math.max(a, b), 0)";
+
+   @Param({ "10240", "1048576", "104857600" })
+   long payloadSize;
+
+   @Param({ "10", "100" })
+   int labels;
+
+   private ObjectNode run;
+   private List<JsonNode> extracted;
+
+   @Setup
+   public void setup() {
+      run = Payloads.run(payloadSize, 42);
+      extracted = new ArrayList<>(labels);
+      JsonNode metrics = run.path("metrics");
+      for (int i = 0; i < labels; ++i) {
+         extracted.add(metrics.path(i % metrics.size()).path("samples"));
+      }
+   }
+
+   @Benchmark
+   public Object evaluateOnce() {
+      return Util.evaluateOnce(SUMMARY, run, value -> value.getArraySize(), JsEvaluationBenchmark::fail, output -> {});
+   }
+
+   @Benchmark
+   public JsonNode evaluateOnceAndConvert() {
+      return Util.evaluateOnce(SUMMARY, run, Util::convertToJson, JsEvaluationBenchmark::fail, output -> {});
+   }
+
+   @Benchmark
+   public void evaluateMany(Blackhole blackhole) {
+      Util.evaluateMany(extracted, node -> LABEL, node -> node,
+            (node, value) -> blackhole.consume(Util.convertToJson(value)),
+            blackhole::consume,
+            (node, e, code) -> fail(code, e),
+            output -> {});
+   }
+
+   private static void fail(String code, Throwable t) {
+      throw new IllegalStateException("Evaluation failed: " + code, t);
+   }
+}
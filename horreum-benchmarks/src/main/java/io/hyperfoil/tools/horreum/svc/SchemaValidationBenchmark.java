@@ -0,0 +1,67 @@
+package io.hyperfoil.tools.horreum.svc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.hyperfoil.tools.horreum.benchmark.Payloads;
+import io.hyperfoil.tools.horreum.entity.data.SchemaDAO;
+
+/**
+ * JSON schema validation of run data; the schemas are provided directly instead of being loaded from the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SchemaValidationBenchmark {
+   @Param({ "10240", "1048576", "104857600" })
+   long payloadSize;
+
+   // Fraction of metrics with an invalid value, producing validation errors
+   @Param({ "0", "0.01" })
+   double invalid;
+
+   private SchemaDAO schema;
+   private Map<String, SchemaDAO> schemas;
+   private List<JsonNode> nodes;
+
+   @Setup
+   public void setup() {
+      schema = new SchemaDAO();
+      schema.uri = Payloads.SCHEMA_URI;
+      schema.schema = Payloads.schema();
+      schemas = Collections.singletonMap(schema.uri, schema);
+      ObjectNode run = Payloads.run(payloadSize, 42);
+      JsonNode metrics = run.path("metrics");
+      int step = invalid > 0 ? (int) Math.max(1, 1 / invalid) : Integer.MAX_VALUE;
+      for (int i = 0; i < metrics.size(); i += step) {
+         ((ObjectNode) metrics.get(i)).put("unit", "invalid");
+      }
+      nodes = Collections.singletonList(run);
+   }
+
+   @Benchmark
+   public void validateData(Blackhole blackhole) {
+      SchemaServiceImpl.validateData(schema, schemas, nodes, blackhole::consume);
+   }
+}
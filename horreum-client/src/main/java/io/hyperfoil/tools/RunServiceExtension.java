@@ -1,19 +1,23 @@
 package io.hyperfoil.tools;
 
+import java.io.InputStream;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Stream;
 
 import javax.ws.rs.client.Entity;
+import javax.ws.rs.core.GenericType;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
 import io.hyperfoil.tools.horreum.api.SortDirection;
 import io.hyperfoil.tools.horreum.api.client.RunService;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunsSummary;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunSummary;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunCount;
+import io.hyperfoil.tools.horreum.api.services.RunService.BulkResult;
 
 import io.hyperfoil.tools.horreum.api.data.Run;
 import io.hyperfoil.tools.horreum.api.services.QueryResult;
@@ -21,13 +25,18 @@ import org.jboss.resteasy.client.jaxrs.ResteasyWebTarget;
 import org.jboss.resteasy.plugins.providers.multipart.MultipartFormDataOutput;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.JsonNodeFactory;
 
 import io.hyperfoil.tools.horreum.api.data.Access;
 
+import static io.hyperfoil.tools.horreum.api.services.RunService.APPLICATION_NDJSON;
+
 // Note: IDE may show errors because variant of RunService.addRunFromData is not implemented
 // but that method is not present in the class files (removed through @ApiIgnore).
 public class RunServiceExtension implements RunService {
+   private static final ObjectMapper MAPPER = new ObjectMapper();
+
    private final ResteasyWebTarget target;
    private final RunService delegate;
 
@@ -113,6 +122,29 @@ public class RunServiceExtension implements RunService {
             .request().post(Entity.entity(multipart, MediaType.MULTIPART_FORM_DATA));
    }
 
+   @Override
+   public List<BulkResult> addRunsFromData(String start, String stop, String test, String owner, Access access, String token, String schemaUri, String description, InputStream data) {
+      return delegate.addRunsFromData(start, stop, test, owner, access, token, schemaUri, description, data);
+   }
+
+   /**
+    * Uploads many runs in a single request; the runs are streamed as newline-delimited JSON.
+    * Results are in the same order as the runs.
+    */
+   public List<BulkResult> addRunsFromData(String start, String stop, String test, String owner, Access access, String token, String schemaUri, String description, Iterable<? extends JsonNode> runs) {
+      StreamingOutput output = stream -> {
+         for (JsonNode run : runs) {
+            stream.write(MAPPER.writeValueAsBytes(run));
+            stream.write('\n');
+         }
+      };
+      return target.path("/api/run/bulk")
+            .queryParam("start", start).queryParam("stop", stop).queryParam("test", test)
+            .queryParam("owner", owner).queryParam("access", access).queryParam("token", token)
+            .queryParam("schema", schemaUri).queryParam("description", description)
+            .request(MediaType.APPLICATION_JSON).post(Entity.entity(output, APPLICATION_NDJSON), new GenericType<List<BulkResult>>() {});
+   }
+
    @Override
    public List<String> autocomplete(String query) {
       return delegate.autocomplete(query);
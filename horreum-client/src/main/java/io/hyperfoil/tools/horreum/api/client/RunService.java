@@ -9,6 +9,7 @@ import io.hyperfoil.tools.horreum.api.services.QueryResult;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunsSummary;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunSummary;
 import io.hyperfoil.tools.horreum.api.services.RunService.RunCount;
+import io.hyperfoil.tools.horreum.api.services.RunService.BulkResult;
 
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DefaultValue;
@@ -20,9 +21,11 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
+import static io.hyperfoil.tools.horreum.api.services.RunService.APPLICATION_NDJSON;
 import static io.hyperfoil.tools.horreum.api.services.RunService.RunExtended;
 
 /**
@@ -96,6 +99,19 @@ public interface RunService {
                          @QueryParam("description") String description,
                          JsonNode data);
 
+   @POST
+   @Path("bulk")
+   @Consumes(APPLICATION_NDJSON)
+   List<BulkResult> addRunsFromData(@QueryParam("start") String start,
+                                    @QueryParam("stop") String stop,
+                                    @QueryParam("test") String test,
+                                    @QueryParam("owner") String owner,
+                                    @QueryParam("access") Access access,
+                                    @QueryParam("token") String token,
+                                    @QueryParam("schema") String schemaUri,
+                                    @QueryParam("description") String description,
+                                    InputStream data);
+
    @GET
    @Path("autocomplete")
    List<String> autocomplete(@QueryParam("query") String query);
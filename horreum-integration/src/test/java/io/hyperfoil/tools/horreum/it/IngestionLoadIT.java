@@ -0,0 +1,288 @@
+package io.hyperfoil.tools.horreum.it;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.hyperfoil.tools.horreum.api.alerting.ChangeDetection;
+import io.hyperfoil.tools.horreum.api.alerting.Variable;
+import io.hyperfoil.tools.horreum.api.data.Access;
+import io.hyperfoil.tools.horreum.api.data.Extractor;
+import io.hyperfoil.tools.horreum.api.data.Label;
+import io.hyperfoil.tools.horreum.api.data.Schema;
+import io.hyperfoil.tools.horreum.api.data.Test;
+import io.hyperfoil.tools.horreum.api.data.Transformer;
+import io.hyperfoil.tools.horreum.it.profile.LoadTestProfile;
+import io.hyperfoil.tools.horreum.it.utils.PrometheusScrape;
+import io.quarkus.test.junit.QuarkusIntegrationTest;
+import io.quarkus.test.junit.TestProfile;
+import org.jboss.logging.Logger;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * End-to-end ingestion load test: uploads runs through {@link io.hyperfoil.tools.HorreumClient#runService}
+ * into a Horreum instance backed by Postgres in a container and waits until datapoints are calculated for all of them.
+ * Reports throughput, p50/p99 latency of each pipeline stage and JDBC statements/transactions per run;
+ * the stage latencies and statement counts are read from the server's Prometheus endpoint.
+ * <p>
+ * Run with <code>mvn verify -pl horreum-integration -Dit.test=IngestionLoadIT -Dhorreum.loadtest=true</code>; the shape
+ * of the workload is set through <code>horreum.loadtest.*</code> system properties (see the constants below).
+ */
+@QuarkusIntegrationTest
+@TestProfile(LoadTestProfile.class)
+@EnabledIfSystemProperty(named = "horreum.loadtest", matches = "true")
+public class IngestionLoadIT {
+    private static final Logger log = Logger.getLogger(IngestionLoadIT.class);
+
+    private static final int CONCURRENCY = Integer.getInteger("horreum.loadtest.concurrency", 20);
+    private static final int RUNS = Integer.getInteger("horreum.loadtest.runs", 500);
+    private static final int PAYLOAD_SIZE = Integer.getInteger("horreum.loadtest.payload-size", 10 * 1024);
+    private static final int SCHEMAS = Integer.getInteger("horreum.loadtest.schemas", 1);
+    private static final int TRANSFORMERS = Integer.getInteger("horreum.loadtest.transformers", 1);
+    private static final int LABELS = Integer.getInteger("horreum.loadtest.labels", 10);
+    private static final int VARIABLES = Integer.getInteger("horreum.loadtest.variables", 5);
+    private static final long TIMEOUT_MS = Long.getLong("horreum.loadtest.timeout", TimeUnit.MINUTES.toMillis(10));
+
+    private static final String DATASET_SCHEMA_URI = "urn:loadtest:dataset:0.1";
+    private static final String[] STAGES = { "transform", "labels", "datapoints", "change_detection", "actions", "notifications" };
+    private static final int SAMPLES_PER_METRIC = 20;
+    // Number of distinct payloads, uploaded round-robin
+    private static final int PAYLOAD_VARIANTS = 16;
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @org.junit.jupiter.api.Test
+    public void testIngestion() throws Exception {
+        Test test = HorreumClientIT.dummyTest;
+        String metricsUrl = "http://localhost:" + System.getProperty("quarkus.http.test-port") + "/q/metrics";
+        Assertions.assertTrue(LABELS > 0 || VARIABLES == 0, "Variables require labels");
+
+        List<String> schemaUris = setup(test);
+        List<JsonNode> payloads = new ArrayList<>();
+        for (int i = 0; i < PAYLOAD_VARIANTS; ++i) {
+            payloads.add(payload(schemaUris, i));
+        }
+        Predicate<Map<String, String>> byTest = labels -> String.valueOf(test.id).equals(labels.get("test"));
+
+        // warm-up, not included in the results
+        PrometheusScrape initial = PrometheusScrape.fetch(httpClient, metricsUrl);
+        upload(test, payloads.get(0), new AtomicInteger());
+        awaitProcessed(metricsUrl, initial, byTest, 1);
+
+        PrometheusScrape before = PrometheusScrape.fetch(httpClient, metricsUrl);
+        AtomicInteger rejected = new AtomicInteger();
+        ExecutorService clients = Executors.newFixedThreadPool(CONCURRENCY);
+        long start = System.nanoTime();
+        long[] uploadLatencies = new long[RUNS];
+        try {
+            List<Future<Long>> futures = new ArrayList<>(RUNS);
+            for (int i = 0; i < RUNS; ++i) {
+                JsonNode payload = payloads.get(i % payloads.size());
+                futures.add(clients.submit(() -> {
+                    long uploadStart = System.nanoTime();
+                    upload(test, payload, rejected);
+                    return System.nanoTime() - uploadStart;
+                }));
+            }
+            for (int i = 0; i < RUNS; ++i) {
+                uploadLatencies[i] = futures.get(i).get();
+            }
+        } finally {
+            clients.shutdownNow();
+        }
+        long uploaded = System.nanoTime();
+        PrometheusScrape after = awaitProcessed(metricsUrl, before, byTest, RUNS);
+        long processed = System.nanoTime();
+
+        Arrays.sort(uploadLatencies);
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("%d runs (%d bytes, %d schemas, %d transformers, %d labels, %d variables), %d concurrent clients%n",
+                RUNS, PAYLOAD_SIZE, SCHEMAS, TRANSFORMERS, LABELS, VARIABLES, CONCURRENCY));
+        report.append(String.format("Uploads: %.1f runs/s, p50 %.1f ms, p99 %.1f ms, %d rejected (retried)%n",
+                RUNS * 1e9 / (uploaded - start), percentile(uploadLatencies, 0.5) / 1e6, percentile(uploadLatencies, 0.99) / 1e6, rejected.get()));
+        report.append(String.format("Processed: %.1f runs/s (%d ms from first upload to last datapoint)%n",
+                RUNS * 1e9 / (processed - start), TimeUnit.NANOSECONDS.toMillis(processed - start)));
+        for (String stage : STAGES) {
+            Predicate<Map<String, String>> byStage = byTest.and(labels -> stage.equals(labels.get("stage")));
+            double count = after.delta(before, "horreum_pipeline_stage_seconds_count", byStage);
+            if (count <= 0) {
+                continue;
+            }
+            report.append(String.format("Stage %-16s: %6.0f executions, p50 %8.2f ms, p99 %8.2f ms, %.0f failed%n", stage, count,
+                    after.quantile(before, "horreum_pipeline_stage_seconds", byStage, 0.5) * 1000,
+                    after.quantile(before, "horreum_pipeline_stage_seconds", byStage, 0.99) * 1000,
+                    after.delta(before, "horreum_pipeline_stage_seconds_count", byStage.and(labels -> "failure".equals(labels.get("outcome"))))));
+        }
+        // Hibernate statistics are global; nothing else should be running during the test
+        report.append(String.format("JDBC statements per run: %.1f, transactions per run: %.1f%n",
+                after.delta(before, "hibernate_statements_total", labels -> "prepared".equals(labels.get("status"))) / RUNS,
+                after.delta(before, "hibernate_transactions_total", labels -> true) / RUNS));
+        log.info(report);
+    }
+
+    private List<String> setup(Test test) {
+        List<String> schemaUris = new ArrayList<>();
+        List<Integer> schemaIds = new ArrayList<>();
+        for (int i = 0; i < SCHEMAS; ++i) {
+            Schema schema = schema(test, "loadtest-" + i, "urn:loadtest:" + i + ":0.1");
+            schemaUris.add(schema.uri);
+            schemaIds.add(schema.id);
+        }
+        int labelSchemaId = schemaIds.get(0);
+        String labelPath = "$.metrics[%d].samples[0]";
+        if (TRANSFORMERS > 0) {
+            labelSchemaId = schema(test, "loadtest-dataset", DATASET_SCHEMA_URI).id;
+            labelPath = "$.values[%d]";
+            List<Integer> transformerIds = new ArrayList<>();
+            for (int i = 0; i < TRANSFORMERS; ++i) {
+                Transformer transformer = new Transformer();
+                transformer.name = "loadtest-" + i;
+                transformer.owner = test.owner;
+                transformer.access = Access.PUBLIC;
+                transformer.targetSchemaUri = DATASET_SCHEMA_URI;
+                transformer.extractors = Collections.singletonList(new Extractor("samples", "$.metrics[*].samples[0]", true));
+                transformer.function = "samples => ({ values: samples.slice(0, " + Math.max(LABELS, 1) + ") })";
+                int schemaId = schemaIds.get(i % SCHEMAS);
+                transformerIds.add(HorreumClientIT.horreumClient.schemaService.addOrUpdateTransformer(schemaId, transformer));
+            }
+            HorreumClientIT.horreumClient.testService.updateTransformers(test.id, transformerIds);
+        }
+        for (int i = 0; i < LABELS; ++i) {
+            Label label = new Label();
+            label.name = "label-" + i;
+            label.owner = test.owner;
+            label.access = Access.PUBLIC;
+            label.extractors = Collections.singletonList(new Extractor("value", String.format(labelPath, i), false));
+            // half of the labels are evaluated in JavaScript
+            label.function = i % 2 == 0 ? null : "value => value * 1000";
+            label.metrics = true;
+            label.filtering = i == 0;
+            label.id = HorreumClientIT.horreumClient.schemaService.addOrUpdateLabel(labelSchemaId, label);
+        }
+        if (VARIABLES > 0) {
+            List<Variable> variables = new ArrayList<>();
+            for (int i = 0; i < VARIABLES; ++i) {
+                Variable variable = new Variable();
+                variable.testId = test.id;
+                variable.name = "variable-" + i;
+                variable.order = i;
+                variable.labels = JsonNodeFactory.instance.arrayNode().add("label-" + (i % LABELS));
+                ChangeDetection changeDetection = new ChangeDetection();
+                changeDetection.model = "relativeDifference";
+                changeDetection.config = JsonNodeFactory.instance.objectNode()
+                        .put("window", 1).put("filter", "mean").put("threshold", 0.2).put("minPrevious", 5);
+                variable.changeDetection = Collections.singleton(changeDetection);
+                variables.add(variable);
+            }
+            HorreumClientIT.horreumClient.alertingService.updateVariables(test.id, variables);
+        }
+        return schemaUris;
+    }
+
+    private static Schema schema(Test test, String name, String uri) {
+        Schema schema = new Schema();
+        schema.uri = uri;
+        schema.name = name;
+        schema.owner = test.owner;
+        schema.access = Access.PUBLIC;
+        schema.id = HorreumClientIT.horreumClient.schemaService.add(schema);
+        return schema;
+    }
+
+    /**
+     * The first schema annotates the root object, other schemas annotate <code>part{i}</code> objects;
+     * the payload size is split evenly between them.
+     */
+    private static JsonNode payload(List<String> schemaUris, long seed) {
+        Random random = new Random(seed);
+        ObjectNode root = JsonNodeFactory.instance.objectNode();
+        root.put("start", 1_600_000_000_000L + seed * 60_000);
+        root.put("stop", 1_600_000_030_000L + seed * 60_000);
+        fill(root, schemaUris.get(0), PAYLOAD_SIZE / schemaUris.size(), random);
+        for (int i = 1; i < schemaUris.size(); ++i) {
+            fill(root.putObject("part" + i), schemaUris.get(i), PAYLOAD_SIZE / schemaUris.size(), random);
+        }
+        return root;
+    }
+
+    private static void fill(ObjectNode node, String schemaUri, int size, Random random) {
+        node.put("$schema", schemaUri);
+        ArrayNode metrics = node.putArray("metrics");
+        do {
+            ObjectNode metric = metrics.addObject();
+            metric.put("name", "metric-" + metrics.size());
+            ArrayNode samples = metric.putArray("samples");
+            double base = 100 + random.nextInt(900);
+            for (int i = 0; i < SAMPLES_PER_METRIC; ++i) {
+                samples.add(Math.round((base + random.nextGaussian() * base / 20) * 1000) / 1000.0);
+            }
+        } while (node.toString().length() < size);
+    }
+
+    private static void upload(Test test, JsonNode payload, AtomicInteger rejected) throws InterruptedException {
+        while (true) {
+            Response response;
+            try {
+                response = HorreumClientIT.horreumClient.runService.addRunFromData("$.start", "$.stop", test.name, test.owner, Access.PUBLIC, null, null, null, payload);
+            } catch (WebApplicationException e) {
+                response = e.getResponse();
+            }
+            try {
+                int status = response.getStatus();
+                if (status == 429 || status == 503) {
+                    // backlog limit, see horreum.upload.backlog.*
+                    rejected.incrementAndGet();
+                    String retryAfter = response.getHeaderString("Retry-After");
+                    Thread.sleep(retryAfter == null ? 1000 : TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter)));
+                } else if (status >= 300) {
+                    throw new IllegalStateException("Upload failed with status " + status + ": " + response.readEntity(String.class));
+                } else {
+                    return;
+                }
+            } finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Each run produces a single dataset. Datapoints are emitted for each dataset (even when there are no variables)
+     * once its labels are calculated; that is the last stage all runs go through.
+     */
+    private PrometheusScrape awaitProcessed(String metricsUrl, PrometheusScrape before, Predicate<Map<String, String>> byTest, int runs) throws Exception {
+        Predicate<Map<String, String>> filter = byTest.and(labels -> "datapoints".equals(labels.get("stage")));
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (true) {
+            PrometheusScrape current = PrometheusScrape.fetch(httpClient, metricsUrl);
+            double datapoints = current.delta(before, "horreum_pipeline_stage_seconds_count", filter);
+            if (datapoints >= runs) {
+                return current;
+            } else if (System.currentTimeMillis() > deadline) {
+                Assertions.fail("Processed only " + datapoints + " datasets out of " + runs + " runs in " + TIMEOUT_MS + " ms");
+            }
+            //noinspection BusyWait
+            Thread.sleep(100);
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * p))];
+    }
+}
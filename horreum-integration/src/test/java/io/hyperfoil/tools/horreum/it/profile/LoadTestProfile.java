@@ -0,0 +1,17 @@
+package io.hyperfoil.tools.horreum.it.profile;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class LoadTestProfile extends InContainerProfile {
+    @Override
+    public Map<String, String> getConfigOverrides() {
+        Map<String, String> overrides = new HashMap<>(super.getConfigOverrides());
+        // JDBC statement and transaction counters
+        overrides.put("quarkus.hibernate-orm.metrics.enabled", "true");
+        // p50/p99 of the pipeline stages are computed from histogram buckets
+        overrides.put("horreum.pipeline.histograms", "true");
+        overrides.put("horreum.pipeline.per-test", "true");
+        return overrides;
+    }
+}
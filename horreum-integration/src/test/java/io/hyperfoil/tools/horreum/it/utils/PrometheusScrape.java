@@ -0,0 +1,150 @@
+package io.hyperfoil.tools.horreum.it.utils;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Snapshot of metrics in Prometheus text format, as exposed on <code>/q/metrics</code>.
+ * Counters and histograms are cumulative, so measurements are taken as a difference of two snapshots.
+ */
+public class PrometheusScrape {
+    private static final Pattern LABEL = Pattern.compile("(\\w+)=\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final List<Sample> samples;
+
+    private PrometheusScrape(List<Sample> samples) {
+        this.samples = samples;
+    }
+
+    public static PrometheusScrape fetch(HttpClient client, String url) throws IOException, InterruptedException {
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url)).GET().build(), HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Cannot fetch metrics from " + url + ": " + response.statusCode());
+        }
+        return parse(response.body());
+    }
+
+    static PrometheusScrape parse(String text) {
+        List<Sample> samples = new ArrayList<>();
+        for (String line : text.split("\n")) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            int labelsStart = line.indexOf('{');
+            int labelsEnd = line.lastIndexOf('}');
+            String name;
+            Map<String, String> labels;
+            String value;
+            if (labelsStart >= 0 && labelsEnd > labelsStart) {
+                name = line.substring(0, labelsStart);
+                labels = new HashMap<>();
+                Matcher matcher = LABEL.matcher(line.substring(labelsStart + 1, labelsEnd));
+                while (matcher.find()) {
+                    labels.put(matcher.group(1), matcher.group(2));
+                }
+                value = line.substring(labelsEnd + 1).trim();
+            } else {
+                int space = line.indexOf(' ');
+                name = line.substring(0, space);
+                labels = Collections.emptyMap();
+                value = line.substring(space + 1).trim();
+            }
+            // optional timestamp follows the value
+            int space = value.indexOf(' ');
+            if (space >= 0) {
+                value = value.substring(0, space);
+            }
+            samples.add(new Sample(name, labels, parseValue(value)));
+        }
+        return new PrometheusScrape(samples);
+    }
+
+    private static double parseValue(String value) {
+        switch (value) {
+            case "+Inf":
+                return Double.POSITIVE_INFINITY;
+            case "-Inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(value);
+        }
+    }
+
+    public double sum(String name, Predicate<Map<String, String>> filter) {
+        double sum = 0;
+        for (Sample sample : samples) {
+            if (sample.name.equals(name) && filter.test(sample.labels)) {
+                sum += sample.value;
+            }
+        }
+        return sum;
+    }
+
+    public double delta(PrometheusScrape before, String name, Predicate<Map<String, String>> filter) {
+        return sum(name, filter) - before.sum(name, filter);
+    }
+
+    /**
+     * Estimates a quantile from the increase of histogram buckets since <code>before</code>,
+     * interpolating linearly within the bucket (like PromQL <code>histogram_quantile</code>).
+     *
+     * @param histogram Base name of the histogram, without the <code>_bucket</code> suffix.
+     * @return Quantile in the unit of the histogram or <code>NaN</code> if nothing was recorded.
+     */
+    public double quantile(PrometheusScrape before, String histogram, Predicate<Map<String, String>> filter, double quantile) {
+        TreeMap<Double, Double> buckets = new TreeMap<>();
+        String name = histogram + "_bucket";
+        for (Sample sample : samples) {
+            if (sample.name.equals(name) && filter.test(sample.labels)) {
+                buckets.merge(parseValue(sample.labels.get("le")), sample.value, Double::sum);
+            }
+        }
+        for (Sample sample : before.samples) {
+            if (sample.name.equals(name) && filter.test(sample.labels)) {
+                buckets.merge(parseValue(sample.labels.get("le")), -sample.value, Double::sum);
+            }
+        }
+        if (buckets.isEmpty() || buckets.lastEntry().getValue() <= 0) {
+            return Double.NaN;
+        }
+        double rank = quantile * buckets.lastEntry().getValue();
+        double lowerBound = 0, lowerCount = 0;
+        for (Map.Entry<Double, Double> bucket : buckets.entrySet()) {
+            if (bucket.getValue() >= rank) {
+                if (bucket.getKey().isInfinite()) {
+                    return lowerBound;
+                }
+                double inBucket = bucket.getValue() - lowerCount;
+                return inBucket <= 0 ? bucket.getKey() : lowerBound + (bucket.getKey() - lowerBound) * (rank - lowerCount) / inBucket;
+            }
+            lowerBound = bucket.getKey();
+            lowerCount = bucket.getValue();
+        }
+        return lowerBound;
+    }
+
+    private static class Sample {
+        final String name;
+        final Map<String, String> labels;
+        final double value;
+
+        Sample(String name, Map<String, String> labels, double value) {
+            this.name = name;
+            this.labels = labels;
+            this.value = value;
+        }
+    }
+}